@@ -0,0 +1,123 @@
+package cal.benchmark;
+
+import cal.BulkCalculator;
+import cal.BulkCalculator.Operation;
+import cal.Calculator;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One column operation over {@code size} pairs of doubles: a loop of
+ * per-element {@link Calculator} calls against {@link BulkCalculator} on one
+ * thread, on all cores, and over memory-mapped files, plus the Vector API
+ * kernel on one thread in a fork that adds {@code jdk.incubator.vector}.
+ * Divisors are never zero so that {@link Calculator#divide} prints nothing.
+ *
+ * Needs jmh-core and jmh-generator-annprocess 1.37 on the classpath when
+ * compiling alongside {@code SimpleCalculator/src}, and {@code src-vector}
+ * for the Vector API kernel; run {@code org.openjdk.jmh.Main}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class BulkCalculatorBenchmark {
+
+    @Param({"1000", "1000000", "10000000"})
+    public int size;
+
+    @Param({"ADD", "DIVIDE"})
+    public Operation operation;
+
+    private double[] a;
+    private double[] b;
+    private double[] result;
+    private boolean[] divisionByZero;
+    private ForkJoinPool singleThread;
+    private Path directory;
+    private Path fileA;
+    private Path fileB;
+    private Path fileResult;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        a = new double[size];
+        b = new double[size];
+        for (int i = 0; i < size; i++) {
+            a[i] = random.nextDouble() * 1000;
+            b[i] = 1 + random.nextDouble() * 1000;
+        }
+        result = new double[size];
+        divisionByZero = new boolean[size];
+        singleThread = new ForkJoinPool(1);
+        directory = Files.createTempDirectory("bulk-calculator");
+        fileA = write(directory.resolve("a.bin"), a);
+        fileB = write(directory.resolve("b.bin"), b);
+        fileResult = directory.resolve("result.bin");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        singleThread.shutdown();
+        Files.deleteIfExists(fileA);
+        Files.deleteIfExists(fileB);
+        Files.deleteIfExists(fileResult);
+        Files.deleteIfExists(directory);
+    }
+
+    private static Path write(Path file, double[] values) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(values.length * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.asDoubleBuffer().put(values);
+        return Files.write(file, bytes.array());
+    }
+
+    @Benchmark
+    public double[] scalarCalls() {
+        if (operation == Operation.ADD) {
+            for (int i = 0; i < size; i++) {
+                result[i] = Calculator.add(a[i], b[i]);
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                result[i] = Calculator.divide(a[i], b[i]);
+            }
+        }
+        return result;
+    }
+
+    @Benchmark
+    public int bulkSingleThread() {
+        return BulkCalculator.apply(operation, a, b, result, divisionByZero, singleThread);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = {"-Xmx2g", "--add-modules", "jdk.incubator.vector"})
+    public int bulkSingleThreadVector() {
+        if (!BulkCalculator.isVectorized()) {
+            throw new IllegalStateException("VectorKernel or jdk.incubator.vector is not available");
+        }
+        return BulkCalculator.apply(operation, a, b, result, divisionByZero, singleThread);
+    }
+
+    @Benchmark
+    public int bulkParallel() {
+        return BulkCalculator.apply(operation, a, b, result, divisionByZero, ForkJoinPool.commonPool());
+    }
+
+    @Benchmark
+    public BitSet bulkMappedFiles() throws IOException {
+        return BulkCalculator.apply(operation, fileA, fileB, fileResult);
+    }
+}
@@ -0,0 +1,85 @@
+package cal;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The {@link BulkCalculator} loops written against the incubating Vector
+ * API, in the widest double vectors the hardware has. Loaded only when the
+ * JVM has resolved {@code jdk.incubator.vector}, e.g. when started with
+ * {@code --add-modules jdk.incubator.vector}; this class must not be
+ * referenced directly, or loading {@link BulkCalculator} would fail without
+ * the module.
+ *
+ * It lives apart from {@code src} because it needs JDK 16 or later, while
+ * the rest builds for Java 11. Compile it into the same output directory
+ * after {@code src}:
+ * <pre>
+ * javac --add-modules jdk.incubator.vector --add-reads SimpleCalculator=jdk.incubator.vector \
+ *       -cp out -d out src-vector/cal/VectorKernel.java
+ * </pre>
+ * The module does not declare that it reads {@code jdk.incubator.vector},
+ * so on the module path also start the JVM with that {@code --add-reads}.
+ */
+final class VectorKernel implements BulkCalculator.ArrayKernel {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public int compute(BulkCalculator.Operation operation, double[] a, double[] b, double[] result, boolean[] mask,
+                       int from, int to) {
+        int bound = from + SPECIES.loopBound(to - from);
+        int i = from;
+        int zeros = 0;
+        switch (operation) {
+            case ADD:
+                for (; i < bound; i += SPECIES.length()) {
+                    DoubleVector.fromArray(SPECIES, a, i).add(DoubleVector.fromArray(SPECIES, b, i)).intoArray(result, i);
+                }
+                for (; i < to; i++) {
+                    result[i] = a[i] + b[i];
+                }
+                return 0;
+            case SUBTRACT:
+                for (; i < bound; i += SPECIES.length()) {
+                    DoubleVector.fromArray(SPECIES, a, i).sub(DoubleVector.fromArray(SPECIES, b, i)).intoArray(result, i);
+                }
+                for (; i < to; i++) {
+                    result[i] = a[i] - b[i];
+                }
+                return 0;
+            case MULTIPLY:
+                for (; i < bound; i += SPECIES.length()) {
+                    DoubleVector.fromArray(SPECIES, a, i).mul(DoubleVector.fromArray(SPECIES, b, i)).intoArray(result, i);
+                }
+                for (; i < to; i++) {
+                    result[i] = a[i] * b[i];
+                }
+                return 0;
+            case DIVIDE:
+                // each lane's divisor is loaded before result, which may be b, is written
+                for (; i < bound; i += SPECIES.length()) {
+                    DoubleVector divisor = DoubleVector.fromArray(SPECIES, b, i);
+                    VectorMask<Double> zero = divisor.compare(VectorOperators.EQ, 0);
+                    DoubleVector.fromArray(SPECIES, a, i).div(divisor).blend(0, zero).intoArray(result, i);
+                    if (mask != null) {
+                        zero.intoArray(mask, i);
+                    }
+                    zeros += zero.trueCount();
+                }
+                for (; i < to; i++) {
+                    double divisor = b[i];
+                    boolean zero = divisor == 0;
+                    if (mask != null) {
+                        mask[i] = zero;
+                    }
+                    zeros += zero ? 1 : 0;
+                    result[i] = zero ? 0 : a[i] / divisor;
+                }
+                return zeros;
+            default:
+                throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package cal;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The {@link Calculator} operations applied element by element to whole
+ * columns of numbers, either {@code double[]} arrays or binary files of
+ * little-endian IEEE 754 doubles (as written by numpy's {@code tofile} or a
+ * little-endian {@code DoubleBuffer}).
+ *
+ * When {@code VectorKernel} has been built (from {@code src-vector}, with
+ * JDK 16 or later) and the JVM has resolved the incubating
+ * {@code jdk.incubator.vector} module, e.g. when started with
+ * {@code --add-modules jdk.incubator.vector}, the inner loops use the
+ * Vector API; see {@link #isVectorized}. Otherwise
+ * they are plain indexed loops over primitive arrays with no calls or
+ * branches in the way, which HotSpot may still compile to SIMD
+ * instructions. Inputs of at least {@value #PARALLEL_THRESHOLD} elements are
+ * split across the threads of a {@link ForkJoinPool}.
+ *
+ * As in {@link Calculator#divide}, a quotient whose divisor is zero is 0.
+ * Nothing is printed: the divisions by zero are counted, and reported per
+ * element in a mask when the caller supplies one.
+ */
+public final class BulkCalculator {
+
+    public enum Operation {
+        ADD, SUBTRACT, MULTIPLY, DIVIDE
+    }
+
+    /** Inputs shorter than this are computed on the calling thread. */
+    public static final int PARALLEL_THRESHOLD = 1 << 18;
+
+    // elements per task; three slices of doubles still fit in a core's L2
+    private static final int SLICE = 1 << 15;
+
+    // doubles mapped at a time from each file
+    private static final int REGION = 1 << 24;
+
+    private static final ArrayKernel KERNEL = loadKernel();
+
+    private BulkCalculator() {
+    }
+
+    /** Whether the operations run on the Vector API rather than plain loops. */
+    public static boolean isVectorized() {
+        return !(KERNEL instanceof ScalarKernel);
+    }
+
+    // VectorKernel is only loaded by name, so that this class still loads
+    // when the module or the class itself is missing.
+    private static ArrayKernel loadKernel() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return (ArrayKernel) Class.forName("cal.VectorKernel").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // fall back to the plain loops
+            }
+        }
+        return new ScalarKernel();
+    }
+
+    public static void add(double[] a, double[] b, double[] result) {
+        apply(Operation.ADD, a, b, result, null);
+    }
+
+    public static void subtract(double[] a, double[] b, double[] result) {
+        apply(Operation.SUBTRACT, a, b, result, null);
+    }
+
+    public static void multiply(double[] a, double[] b, double[] result) {
+        apply(Operation.MULTIPLY, a, b, result, null);
+    }
+
+    /**
+     * {@code result[i] = a[i] / b[i]}, or 0 where {@code b[i]} is zero.
+     *
+     * @param divisionByZero if not null, set to whether each {@code b[i]} was zero
+     * @return the number of divisions by zero
+     */
+    public static int divide(double[] a, double[] b, double[] result, boolean[] divisionByZero) {
+        return apply(Operation.DIVIDE, a, b, result, divisionByZero);
+    }
+
+    public static int apply(Operation operation, double[] a, double[] b, double[] result, boolean[] divisionByZero) {
+        return apply(operation, a, b, result, divisionByZero, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Computes {@code result[i] = a[i] op b[i]} for every index, on
+     * {@code pool} if the arrays are large. {@code result} may be the same
+     * array as {@code a} or {@code b}.
+     *
+     * @param divisionByZero for {@link Operation#DIVIDE}, if not null, set to
+     *        whether each divisor was zero; ignored by the other operations
+     * @return the number of divisions by zero, always 0 for the other operations
+     * @throws IllegalArgumentException if the arrays differ in length
+     */
+    public static int apply(Operation operation, double[] a, double[] b, double[] result, boolean[] divisionByZero,
+                            ForkJoinPool pool) {
+        int length = a.length;
+        if (b.length != length || result.length != length
+            || operation == Operation.DIVIDE && divisionByZero != null && divisionByZero.length != length) {
+            throw new IllegalArgumentException("Arrays differ in length");
+        }
+        boolean[] mask = operation == Operation.DIVIDE ? divisionByZero : null;
+        return run(pool, length, (from, to) -> KERNEL.compute(operation, a, b, result, mask, from, to));
+    }
+
+    public static BitSet apply(Operation operation, Path a, Path b, Path result) throws IOException {
+        return apply(operation, a, b, result, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Reads the doubles of files {@code a} and {@code b} through memory
+     * mappings and writes {@code a[i] op b[i]} to {@code result}, which is
+     * created or replaced. Files are mapped 16M doubles (128 MB) at a time,
+     * so they need not fit in memory.
+     *
+     * @return the indexes of the divisions by zero, empty for operations other than
+     *         {@link Operation#DIVIDE}
+     * @throws IllegalArgumentException if the input files differ in size or hold a
+     *         partial double
+     */
+    public static BitSet apply(Operation operation, Path a, Path b, Path result, ForkJoinPool pool) throws IOException {
+        try (FileChannel left = FileChannel.open(a, StandardOpenOption.READ);
+             FileChannel right = FileChannel.open(b, StandardOpenOption.READ)) {
+            long size = left.size();
+            if (right.size() != size) {
+                throw new IllegalArgumentException(a + " and " + b + " differ in size");
+            }
+            if (size % Double.BYTES != 0 || size / Double.BYTES > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException(a + " is not a file of at most " + Integer.MAX_VALUE + " doubles");
+            }
+            long count = size / Double.BYTES;
+            BitSet divisionsByZero = new BitSet();
+            try (FileChannel out = FileChannel.open(result, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                for (long start = 0; start < count; start += REGION) {
+                    int length = (int) Math.min(REGION, count - start);
+                    long position = start * Double.BYTES;
+                    long bytes = (long) length * Double.BYTES;
+                    DoubleBuffer x = map(left, FileChannel.MapMode.READ_ONLY, position, bytes);
+                    DoubleBuffer y = map(right, FileChannel.MapMode.READ_ONLY, position, bytes);
+                    DoubleBuffer z = map(out, FileChannel.MapMode.READ_WRITE, position, bytes);
+                    boolean[] mask = operation == Operation.DIVIDE ? new boolean[length] : null;
+                    int zeros = run(pool, length, (from, to) -> compute(operation, x, y, z, mask, from, to));
+                    for (int i = 0; zeros > 0 && i < length; i++) {
+                        if (mask[i]) {
+                            divisionsByZero.set((int) (start + i));
+                            zeros--;
+                        }
+                    }
+                }
+            }
+            return divisionsByZero;
+        }
+    }
+
+    private static DoubleBuffer map(FileChannel channel, FileChannel.MapMode mode, long position, long bytes)
+        throws IOException {
+        return channel.map(mode, position, bytes).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+    }
+
+    private static int run(ForkJoinPool pool, int length, RangeKernel kernel) {
+        if (length < PARALLEL_THRESHOLD || pool.getParallelism() == 1) {
+            return kernel.compute(0, length);
+        }
+        return pool.invoke(new Slice(kernel, 0, length));
+    }
+
+    // Copies each buffer a slice at a time through arrays so the arithmetic
+    // runs on the same loops as for arrays; bulk gets of a little-endian
+    // mapping are plain memory copies on little-endian hardware.
+    private static int compute(Operation operation, DoubleBuffer a, DoubleBuffer b, DoubleBuffer result, boolean[] mask,
+                               int from, int to) {
+        int slice = Math.min(SLICE, to - from);
+        double[] x = new double[slice];
+        double[] y = new double[slice];
+        boolean[] zeros = mask != null ? new boolean[slice] : null;
+        DoubleBuffer in1 = a.duplicate();
+        DoubleBuffer in2 = b.duplicate();
+        DoubleBuffer out = result.duplicate();
+        int count = 0;
+        for (int start = from; start < to; start += slice) {
+            int length = Math.min(slice, to - start);
+            in1.position(start);
+            in1.get(x, 0, length);
+            in2.position(start);
+            in2.get(y, 0, length);
+            int sliceCount = KERNEL.compute(operation, x, y, x, zeros, 0, length);
+            out.position(start);
+            out.put(x, 0, length);
+            if (sliceCount > 0) {
+                System.arraycopy(zeros, 0, mask, start, length);
+                count += sliceCount;
+            }
+        }
+        return count;
+    }
+
+    // One tight loop per operation; the switch stays outside so each loop body
+    // is a single load-op-store the JIT can vectorize.
+    private static int compute(Operation operation, double[] a, double[] b, double[] result, boolean[] mask,
+                               int from, int to) {
+        switch (operation) {
+            case ADD:
+                for (int i = from; i < to; i++) {
+                    result[i] = a[i] + b[i];
+                }
+                return 0;
+            case SUBTRACT:
+                for (int i = from; i < to; i++) {
+                    result[i] = a[i] - b[i];
+                }
+                return 0;
+            case MULTIPLY:
+                for (int i = from; i < to; i++) {
+                    result[i] = a[i] * b[i];
+                }
+                return 0;
+            case DIVIDE:
+                return divide(a, b, result, mask, from, to);
+            default:
+                throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+    }
+
+    private static int divide(double[] a, double[] b, double[] result, boolean[] mask, int from, int to) {
+        // find the zero divisors before result, which may be b, is written
+        int zeros = 0;
+        if (mask != null) {
+            for (int i = from; i < to; i++) {
+                boolean zero = b[i] == 0;
+                mask[i] = zero;
+                zeros += zero ? 1 : 0;
+            }
+        } else {
+            for (int i = from; i < to; i++) {
+                zeros += b[i] == 0 ? 1 : 0;
+            }
+        }
+        if (zeros == 0) {
+            for (int i = from; i < to; i++) {
+                result[i] = a[i] / b[i];
+            }
+        } else {
+            for (int i = from; i < to; i++) {
+                double divisor = b[i];
+                result[i] = divisor == 0 ? 0 : a[i] / divisor;
+            }
+        }
+        return zeros;
+    }
+
+    /** The loops over arrays: the plain ones above or {@code VectorKernel}. */
+    interface ArrayKernel {
+        /** Computes elements {@code [from, to)}, returning the divisions by zero among them. */
+        int compute(Operation operation, double[] a, double[] b, double[] result, boolean[] mask, int from, int to);
+    }
+
+    private static final class ScalarKernel implements ArrayKernel {
+        @Override
+        public int compute(Operation operation, double[] a, double[] b, double[] result, boolean[] mask,
+                           int from, int to) {
+            return BulkCalculator.compute(operation, a, b, result, mask, from, to);
+        }
+    }
+
+    @FunctionalInterface
+    private interface RangeKernel {
+        /** Processes elements {@code [from, to)}, returning the divisions by zero among them. */
+        int compute(int from, int to);
+    }
+
+    private static final class Slice extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        private final RangeKernel kernel;
+        private final int from;
+        private final int to;
+
+        Slice(RangeKernel kernel, int from, int to) {
+            this.kernel = kernel;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (to - from <= SLICE) {
+                return kernel.compute(from, to);
+            }
+            int middle = (from + to) >>> 1;
+            Slice right = new Slice(kernel, middle, to);
+            right.fork();
+            int left = new Slice(kernel, from, middle).compute();
+            return left + right.join();
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package cal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates a class implementing {@link Evaluator} whose {@code eval} is
+ * the expression as straight-line JVM arithmetic: array loads for the
+ * variables, {@code ldc2_w} for constants, {@code dadd}/{@code dmul}/...
+ * for operators and {@code invokestatic} on {@link Math} for functions.
+ * Once the JIT has compiled it, an evaluation costs what the same formula
+ * written in Java would.
+ *
+ * The code has no branches, so the class file needs no stack map frames.
+ * Each class is defined by its own class loader and is unloaded once its
+ * {@link Expression} is no longer reachable.
+ */
+final class BytecodeCompiler {
+    private static final AtomicLong ids = new AtomicLong();
+    private static final int MAX_CODE = 65535;
+
+    // opcodes
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int ICONST_0 = 0x03;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int LDC2_W = 0x14;
+    private static final int DCONST_0 = 0x0e;
+    private static final int DCONST_1 = 0x0f;
+    private static final int DALOAD = 0x31;
+    private static final int DADD = 0x63;
+    private static final int DSUB = 0x67;
+    private static final int DMUL = 0x6b;
+    private static final int DDIV = 0x6f;
+    private static final int DREM = 0x73;
+    private static final int DNEG = 0x77;
+    private static final int DRETURN = 0xaf;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+
+    private final String className;
+    private final ConstantPool pool = new ConstantPool();
+    private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+    // operand stack depth in slots; a double takes two. The parser's depth
+    // limit keeps it far below the class file's limit of 65535.
+    private int stack;
+    private int maxStack;
+
+    private BytecodeCompiler(String className) {
+        this.className = className;
+    }
+
+    /** @param sourceLength length of the source text, for error messages */
+    static Evaluator compile(Node root, int sourceLength) {
+        String name = "cal.compiled.Expression" + ids.incrementAndGet();
+        BytecodeCompiler compiler = new BytecodeCompiler(name.replace('.', '/'));
+        root.emit(compiler);
+        compiler.op(DRETURN, -2);
+        if (compiler.code.size() > MAX_CODE) {
+            throw new ExpressionException("Expression of " + sourceLength + " characters compiles to "
+                + compiler.code.size() + " bytes of code, more than the " + MAX_CODE + " a method can hold");
+        }
+        byte[] bytes = compiler.classFile();
+        try {
+            return (Evaluator) new Loader().define(name, bytes).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot load generated class " + name, e);
+        }
+    }
+
+    void pushConstant(double value) {
+        if (Double.doubleToRawLongBits(value) == 0L) {
+            op(DCONST_0, 2);
+        } else if (value == 1.0) {
+            op(DCONST_1, 2);
+        } else {
+            op(LDC2_W, 2);
+            u2(pool.doubleConstant(value));
+        }
+    }
+
+    void loadVariable(int slot) {
+        op(ALOAD_1, 1);
+        if (slot <= 5) {
+            op(ICONST_0 + slot, 1);
+        } else if (slot <= Byte.MAX_VALUE) {
+            op(BIPUSH, 1);
+            code.write(slot);
+        } else if (slot <= Short.MAX_VALUE) {
+            op(SIPUSH, 1);
+            u2(slot);
+        } else {
+            op(LDC_W, 1);
+            u2(pool.intConstant(slot));
+        }
+        op(DALOAD, 0);
+    }
+
+    void negate() {
+        op(DNEG, 0);
+    }
+
+    void arithmetic(char operator) {
+        switch (operator) {
+            case '+':
+                op(DADD, -2);
+                break;
+            case '-':
+                op(DSUB, -2);
+                break;
+            case '*':
+                op(DMUL, -2);
+                break;
+            case '/':
+                op(DDIV, -2);
+                break;
+            case '%':
+                op(DREM, -2);
+                break;
+            case '^':
+                op(INVOKESTATIC, -2);
+                u2(pool.methodRef("java/lang/Math", "pow", "(DD)D"));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown operator " + operator);
+        }
+    }
+
+    void invoke(MathFunction function) {
+        op(INVOKESTATIC, function.arity == 1 ? 0 : -2);
+        u2(pool.methodRef("java/lang/Math", function.method, function.descriptor()));
+    }
+
+    private void op(int opcode, int stackChange) {
+        code.write(opcode);
+        stack += stackChange;
+        maxStack = Math.max(maxStack, stack);
+    }
+
+    private void u2(int value) {
+        code.write(value >>> 8);
+        code.write(value);
+    }
+
+    private byte[] classFile() {
+        int thisClass = pool.classRef(className);
+        int superClass = pool.classRef("java/lang/Object");
+        int evaluator = pool.classRef("cal/Evaluator");
+        int objectInit = pool.methodRef("java/lang/Object", "<init>", "()V");
+        int init = pool.utf8("<init>");
+        int initType = pool.utf8("()V");
+        int eval = pool.utf8("eval");
+        int evalType = pool.utf8("([D)D");
+        int codeAttribute = pool.utf8("Code");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256 + code.size());
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(52);
+            pool.writeTo(out);
+            out.writeShort(0x0001 | 0x0010 | 0x0020);   // public final super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(evaluator);
+            out.writeShort(0);                          // fields
+            out.writeShort(2);                          // methods
+
+            byte[] initCode = {ALOAD_0, (byte) INVOKESPECIAL, (byte) (objectInit >>> 8), (byte) objectInit, (byte) RETURN};
+            writeMethod(out, init, initType, codeAttribute, 1, 1, initCode);
+            writeMethod(out, eval, evalType, codeAttribute, maxStack, 2, code.toByteArray());
+
+            out.writeShort(0);                          // class attributes
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeMethod(DataOutputStream out, int name, int type, int codeAttribute, int maxStack,
+                                    int maxLocals, byte[] code) throws IOException {
+        out.writeShort(0x0001);                         // public
+        out.writeShort(name);
+        out.writeShort(type);
+        out.writeShort(1);
+        out.writeShort(codeAttribute);
+        out.writeInt(2 + 2 + 4 + code.length + 2 + 2);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0);                              // exception table
+        out.writeShort(0);                              // code attributes
+    }
+
+    private static final class ConstantPool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> entries = new HashMap<>();
+        private int next = 1;
+
+        int utf8(String value) {
+            return entry("U" + value, 1, 1, () -> out.writeUTF(value));
+        }
+
+        int classRef(String internalName) {
+            int name = utf8(internalName);
+            return entry("C" + internalName, 7, 1, () -> out.writeShort(name));
+        }
+
+        int methodRef(String owner, String name, String descriptor) {
+            int ownerRef = classRef(owner);
+            int nameRef = utf8(name);
+            int typeRef = utf8(descriptor);
+            int nameAndType = entry("N" + name + descriptor, 12, 1, () -> {
+                out.writeShort(nameRef);
+                out.writeShort(typeRef);
+            });
+            return entry("M" + owner + "." + name + descriptor, 10, 1, () -> {
+                out.writeShort(ownerRef);
+                out.writeShort(nameAndType);
+            });
+        }
+
+        int doubleConstant(double value) {
+            long bits = Double.doubleToRawLongBits(value);
+            return entry("D" + bits, 6, 2, () -> out.writeLong(bits));
+        }
+
+        int intConstant(int value) {
+            return entry("I" + value, 3, 1, () -> out.writeInt(value));
+        }
+
+        private int entry(String key, int tag, int slots, Body body) {
+            Integer index = entries.get(key);
+            if (index != null) {
+                return index;
+            }
+            try {
+                out.writeByte(tag);
+                body.write();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            index = next;
+            next += slots;
+            if (next > 0xFFFF) {
+                throw new ExpressionException("Expression has more constants than a class file can hold");
+            }
+            entries.put(key, index);
+            return index;
+        }
+
+        void writeTo(DataOutputStream classFile) throws IOException {
+            classFile.writeShort(next);
+            bytes.writeTo(classFile);
+        }
+
+        private interface Body {
+            void write() throws IOException;
+        }
+    }
+
+    // One loader per generated class, so the class can be unloaded on its own.
+    private static final class Loader extends ClassLoader {
+        Loader() {
+            super(Evaluator.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
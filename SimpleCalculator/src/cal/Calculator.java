@@ -27,7 +27,21 @@ public class Calculator {
         return a / b;
     }
 
+    // Method for evaluating a whole expression such as "2 * (3 + 4) ^ 2"
+    public static double evaluate(String expression) {
+        Expression compiled = Expression.compile(expression);
+        if (!compiled.getVariables().isEmpty()) {
+            throw new IllegalArgumentException("Unknown name: " + compiled.getVariables().get(0));
+        }
+        return compiled.evaluate();
+    }
+
     public static void main(String[] args) {
+        if (args.length > 0) {
+            System.out.println("Result: " + evaluate(String.join(" ", args)));
+            return;
+        }
+
         Scanner scanner = new Scanner(System.in);
         double num1, num2;
         char operator;
@@ -0,0 +1,11 @@
+package cal;
+
+/**
+ * The compiled form of an {@link Expression}: variables are read from the
+ * array by position, in the order {@link Expression#getVariables()} lists
+ * them. Implemented by the classes Expression generates.
+ */
+public interface Evaluator {
+
+    double eval(double[] variables);
+}
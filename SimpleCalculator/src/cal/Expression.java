@@ -0,0 +1,121 @@
+package cal;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A formula parsed once and compiled to JVM bytecode, to be evaluated many
+ * times with different variable values, e.g.
+ *
+ * <pre>
+ * Expression price = Expression.compile("qty * unit * (1 - discount / 100)");
+ * double total = price.evaluate(12, 9.99, 15);
+ * </pre>
+ *
+ * Expressions support {@code + - * / % ^}, parentheses, the constants
+ * {@code pi} and {@code e}, and the functions in {@link MathFunction}, see
+ * {@link ExpressionParser} for the grammar. Arithmetic is plain IEEE double
+ * arithmetic: unlike {@link Calculator#divide}, dividing by zero gives an
+ * infinity or NaN rather than 0.
+ *
+ * An Expression is immutable and may be evaluated from many threads at once.
+ */
+public final class Expression {
+    private static final int CACHE_SIZE = 256;
+
+    // most recently used compiled expressions by source text
+    private static final Map<String, Expression> cache = new LinkedHashMap<String, Expression>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Expression> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private final String source;
+    private final List<String> variables;
+    private final Evaluator evaluator;
+
+    private Expression(String source, List<String> variables, Evaluator evaluator) {
+        this.source = source;
+        this.variables = variables;
+        this.evaluator = evaluator;
+    }
+
+    /**
+     * Returns the compiled form of {@code source}, reusing the one compiled
+     * last time if it is still among the {@value #CACHE_SIZE} most recently
+     * used.
+     *
+     * @throws ExpressionException if the text is not a valid expression
+     */
+    public static Expression compile(String source) {
+        synchronized (cache) {
+            Expression cached = cache.get(source);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        Expression compiled = compileUncached(source);
+        synchronized (cache) {
+            Expression raced = cache.putIfAbsent(source, compiled);
+            return raced != null ? raced : compiled;
+        }
+    }
+
+    /** Parses and compiles {@code source} without consulting or filling the cache. */
+    public static Expression compileUncached(String source) {
+        ExpressionParser parser = new ExpressionParser(source);
+        Node root = parser.parse();
+        return new Expression(source, Collections.unmodifiableList(parser.variables()), BytecodeCompiler.compile(root, source.length()));
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    /** Variable names in the order {@link #evaluate(double...)} takes their values. */
+    public List<String> getVariables() {
+        return variables;
+    }
+
+    /**
+     * Evaluates with {@code values[i]} bound to the i-th name of
+     * {@link #getVariables()}. The array is read, never kept, so callers
+     * evaluating in a loop can refill and reuse one.
+     *
+     * @throws ArrayIndexOutOfBoundsException if fewer values than variables are given
+     */
+    public double evaluate(double... values) {
+        return evaluator.eval(values);
+    }
+
+    /**
+     * Evaluates with the variables looked up by name; slower than
+     * {@link #evaluate(double...)}, for one-off use.
+     *
+     * @throws IllegalArgumentException if a variable has no value
+     */
+    public double evaluate(Map<String, Double> bindings) {
+        double[] values = new double[variables.size()];
+        for (int i = 0; i < values.length; i++) {
+            Double value = bindings.get(variables.get(i));
+            if (value == null) {
+                throw new IllegalArgumentException("No value for variable " + variables.get(i));
+            }
+            values[i] = value;
+        }
+        return evaluator.eval(values);
+    }
+
+    /** The generated evaluator, for callers that want to skip this wrapper. */
+    public Evaluator getEvaluator() {
+        return evaluator;
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+}
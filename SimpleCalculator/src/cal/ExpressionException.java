@@ -0,0 +1,24 @@
+package cal;
+
+/**
+ * An expression that cannot be parsed or compiled.
+ */
+public class ExpressionException extends IllegalArgumentException {
+    private final int position;
+
+    public ExpressionException(String message, int position) {
+        super(message + " at position " + position);
+        this.position = position;
+    }
+
+    /** A problem with the expression as a whole rather than at one place in it. */
+    public ExpressionException(String message) {
+        super(message);
+        this.position = -1;
+    }
+
+    /** Offset in the source text where the problem was found, or -1 if it is not at one place. */
+    public int getPosition() {
+        return position;
+    }
+}
@@ -0,0 +1,216 @@
+package cal;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Recursive-descent parser for the expression language of
+ * {@link Expression}:
+ *
+ * <pre>
+ * expression := term (('+' | '-') term)*
+ * term       := unary (('*' | '/' | '%') unary)*
+ * unary      := ('-' | '+') unary | power
+ * power      := primary ('^' unary)?
+ * primary    := number | name | name '(' expression (',' expression)* ')' | '(' expression ')'
+ * </pre>
+ *
+ * so {@code ^} binds tighter than unary minus and groups to the right:
+ * {@code -2^2} is -4 and {@code 2^3^2} is 512. Names other than the
+ * constants {@code pi} and {@code e} are variables, numbered in order of
+ * first appearance.
+ *
+ * Parentheses, signs, powers and function arguments may nest at most
+ * {@value #MAX_DEPTH} levels deep, which keeps both the parser and the
+ * compiler well clear of the end of the thread's stack.
+ */
+final class ExpressionParser {
+    static final int MAX_DEPTH = 256;
+
+    private final String source;
+    private final Map<String, Integer> variables = new LinkedHashMap<>();
+    private int pos;
+    private int depth;
+
+    ExpressionParser(String source) {
+        this.source = source;
+    }
+
+    Node parse() {
+        Node root = expression();
+        skipSpaces();
+        if (pos < source.length()) {
+            throw error("Unexpected '" + source.charAt(pos) + "'");
+        }
+        return root;
+    }
+
+    /** Variable names by slot, as found by {@link #parse}. */
+    List<String> variables() {
+        return new ArrayList<>(variables.keySet());
+    }
+
+    private Node expression() {
+        Node left = term();
+        while (true) {
+            char c = peek();
+            if (c != '+' && c != '-') {
+                return left;
+            }
+            pos++;
+            left = Node.binary(c, left, term());
+        }
+    }
+
+    private Node term() {
+        Node left = unary();
+        while (true) {
+            char c = peek();
+            if (c != '*' && c != '/' && c != '%') {
+                return left;
+            }
+            pos++;
+            left = Node.binary(c, left, unary());
+        }
+    }
+
+    // Every nested subexpression passes through here, so this is where depth is counted.
+    private Node unary() {
+        char c = peek();
+        if (++depth > MAX_DEPTH) {
+            throw error("Expression nested more than " + MAX_DEPTH + " levels deep");
+        }
+        Node node;
+        if (c == '-') {
+            pos++;
+            node = Node.negate(unary());
+        } else if (c == '+') {
+            pos++;
+            node = unary();
+        } else {
+            node = power();
+        }
+        depth--;
+        return node;
+    }
+
+    private Node power() {
+        Node base = primary();
+        if (peek() == '^') {
+            pos++;
+            return Node.binary('^', base, unary());
+        }
+        return base;
+    }
+
+    private Node primary() {
+        char c = peek();
+        if (c == '(') {
+            pos++;
+            Node inner = expression();
+            expect(')');
+            return inner;
+        }
+        if (c >= '0' && c <= '9' || c == '.') {
+            return number();
+        }
+        if (Character.isLetter(c) || c == '_') {
+            return name();
+        }
+        throw error(c == 0 ? "Unexpected end of expression" : "Unexpected '" + c + "'");
+    }
+
+    private Node number() {
+        int start = pos;
+        pos = skipDigits(pos);
+        if (pos < source.length() && source.charAt(pos) == '.') {
+            pos = skipDigits(pos + 1);
+        }
+        if (pos < source.length() && (source.charAt(pos) == 'e' || source.charAt(pos) == 'E')) {
+            int exponent = pos + 1;
+            if (exponent < source.length() && (source.charAt(exponent) == '+' || source.charAt(exponent) == '-')) {
+                exponent++;
+            }
+            int end = skipDigits(exponent);
+            if (end > exponent) {
+                pos = end;
+            }
+        }
+        String text = source.substring(start, pos);
+        if (text.equals(".")) {
+            throw new ExpressionException("Invalid number", start);
+        }
+        return new Node.Constant(Double.parseDouble(text));
+    }
+
+    private Node name() {
+        int start = pos;
+        while (pos < source.length() && (Character.isLetterOrDigit(source.charAt(pos)) || source.charAt(pos) == '_')) {
+            pos++;
+        }
+        String name = source.substring(start, pos);
+        if (peek() == '(') {
+            MathFunction function = MathFunction.named(name);
+            if (function == null) {
+                throw new ExpressionException("Unknown function " + name, start);
+            }
+            pos++;
+            List<Node> args = new ArrayList<>();
+            args.add(expression());
+            while (peek() == ',') {
+                pos++;
+                args.add(expression());
+            }
+            expect(')');
+            if (args.size() != function.arity) {
+                throw new ExpressionException(name + " takes " + function.arity + " argument"
+                    + (function.arity == 1 ? "" : "s"), start);
+            }
+            return Node.call(function, args.toArray(new Node[0]));
+        }
+        if (name.equals("pi")) {
+            return new Node.Constant(Math.PI);
+        }
+        if (name.equals("e")) {
+            return new Node.Constant(Math.E);
+        }
+        Integer slot = variables.get(name);
+        if (slot == null) {
+            slot = variables.size();
+            variables.put(name, slot);
+        }
+        return new Node.Variable(slot);
+    }
+
+    private int skipDigits(int p) {
+        while (p < source.length() && source.charAt(p) >= '0' && source.charAt(p) <= '9') {
+            p++;
+        }
+        return p;
+    }
+
+    private void expect(char c) {
+        if (peek() != c) {
+            throw error("Expected '" + c + "'");
+        }
+        pos++;
+    }
+
+    /** Next non-space character, or 0 at the end; leaves pos on it. */
+    private char peek() {
+        skipSpaces();
+        return pos < source.length() ? source.charAt(pos) : 0;
+    }
+
+    private void skipSpaces() {
+        while (pos < source.length() && Character.isWhitespace(source.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private ExpressionException error(String message) {
+        return new ExpressionException(message, pos);
+    }
+}
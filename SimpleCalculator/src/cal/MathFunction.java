@@ -0,0 +1,84 @@
+package cal;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Functions an expression may call, each a static method of
+ * {@link java.lang.Math} taking one or two doubles.
+ */
+enum MathFunction {
+    SIN("sin", Math::sin),
+    COS("cos", Math::cos),
+    TAN("tan", Math::tan),
+    ASIN("asin", Math::asin),
+    ACOS("acos", Math::acos),
+    ATAN("atan", Math::atan),
+    SINH("sinh", Math::sinh),
+    COSH("cosh", Math::cosh),
+    TANH("tanh", Math::tanh),
+    SQRT("sqrt", Math::sqrt),
+    CBRT("cbrt", Math::cbrt),
+    ABS("abs", Math::abs),
+    EXP("exp", Math::exp),
+    LN("ln", "log", Math::log),
+    LOG("log", "log10", Math::log10),
+    FLOOR("floor", Math::floor),
+    CEIL("ceil", Math::ceil),
+    ROUND("round", "rint", Math::rint),
+    SIGNUM("signum", Math::signum),
+    POW("pow", Math::pow),
+    ATAN2("atan2", Math::atan2),
+    HYPOT("hypot", Math::hypot),
+    MIN("min", Math::min),
+    MAX("max", Math::max);
+
+    private static final Map<String, MathFunction> BY_NAME = new HashMap<>();
+
+    static {
+        for (MathFunction f : values()) {
+            BY_NAME.put(f.name, f);
+        }
+    }
+
+    final String name;
+    final String method;
+    final int arity;
+    private final DoubleUnaryOperator unary;
+    private final DoubleBinaryOperator binary;
+
+    MathFunction(String name, DoubleUnaryOperator unary) {
+        this(name, name, unary);
+    }
+
+    MathFunction(String name, String method, DoubleUnaryOperator unary) {
+        this.name = name;
+        this.method = method;
+        this.arity = 1;
+        this.unary = unary;
+        this.binary = null;
+    }
+
+    MathFunction(String name, DoubleBinaryOperator binary) {
+        this.name = name;
+        this.method = name;
+        this.arity = 2;
+        this.unary = null;
+        this.binary = binary;
+    }
+
+    /** The function called {@code name}, or null. */
+    static MathFunction named(String name) {
+        return BY_NAME.get(name);
+    }
+
+    String descriptor() {
+        return arity == 1 ? "(D)D" : "(DD)D";
+    }
+
+    double apply(double[] args) {
+        return arity == 1 ? unary.applyAsDouble(args[0]) : binary.applyAsDouble(args[0], args[1]);
+    }
+}
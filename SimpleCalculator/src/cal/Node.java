@@ -0,0 +1,157 @@
+package cal;
+
+import java.util.ArrayDeque;
+
+/**
+ * Expression tree built by {@link ExpressionParser}. Subtrees that read no
+ * variable are folded into constants as the tree is built, so only the
+ * arithmetic that depends on the bindings reaches the compiler.
+ */
+abstract class Node {
+
+    boolean isConstant() {
+        return false;
+    }
+
+    /** Pushes the node's value onto the operand stack of the method being generated. */
+    abstract void emit(BytecodeCompiler out);
+
+    static Node binary(char operator, Node left, Node right) {
+        if (left.isConstant() && right.isConstant()) {
+            return new Constant(Binary.apply(operator, ((Constant) left).value, ((Constant) right).value));
+        }
+        return new Binary(operator, left, right);
+    }
+
+    static Node negate(Node operand) {
+        if (operand.isConstant()) {
+            return new Constant(-((Constant) operand).value);
+        }
+        return new Negate(operand);
+    }
+
+    static Node call(MathFunction function, Node[] args) {
+        double[] values = new double[args.length];
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].isConstant()) {
+                return new Call(function, args);
+            }
+            values[i] = ((Constant) args[i]).value;
+        }
+        return new Constant(function.apply(values));
+    }
+
+    static final class Constant extends Node {
+        final double value;
+
+        Constant(double value) {
+            this.value = value;
+        }
+
+        @Override
+        boolean isConstant() {
+            return true;
+        }
+
+        @Override
+        void emit(BytecodeCompiler out) {
+            out.pushConstant(value);
+        }
+    }
+
+    static final class Variable extends Node {
+        final int slot;
+
+        Variable(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        void emit(BytecodeCompiler out) {
+            out.loadVariable(slot);
+        }
+    }
+
+    static final class Negate extends Node {
+        final Node operand;
+
+        Negate(Node operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        void emit(BytecodeCompiler out) {
+            operand.emit(out);
+            out.negate();
+        }
+    }
+
+    static final class Binary extends Node {
+        final char operator;
+        final Node left;
+        final Node right;
+
+        Binary(char operator, Node left, Node right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        // Same results as the generated dadd, dsub, dmul, ddiv, drem and Math.pow.
+        static double apply(char operator, double a, double b) {
+            switch (operator) {
+                case '+':
+                    return a + b;
+                case '-':
+                    return a - b;
+                case '*':
+                    return a * b;
+                case '/':
+                    return a / b;
+                case '%':
+                    return a % b;
+                case '^':
+                    return Math.pow(a, b);
+                default:
+                    throw new IllegalArgumentException("Unknown operator " + operator);
+            }
+        }
+
+        // The parser bounds nesting but not the length of a chain like
+        // a+b+c+..., which builds a tree as deep as it is long, so the left
+        // operands are walked in a loop rather than by recursion.
+        @Override
+        void emit(BytecodeCompiler out) {
+            ArrayDeque<Binary> chain = new ArrayDeque<>();
+            Node node = this;
+            while (node instanceof Binary) {
+                chain.push((Binary) node);
+                node = ((Binary) node).left;
+            }
+            node.emit(out);
+            while (!chain.isEmpty()) {
+                Binary link = chain.pop();
+                link.right.emit(out);
+                out.arithmetic(link.operator);
+            }
+        }
+    }
+
+    static final class Call extends Node {
+        final MathFunction function;
+        final Node[] args;
+
+        Call(MathFunction function, Node[] args) {
+            this.function = function;
+            this.args = args;
+        }
+
+        @Override
+        void emit(BytecodeCompiler out) {
+            for (Node arg : args) {
+                arg.emit(out);
+            }
+            out.invoke(function);
+        }
+    }
+}
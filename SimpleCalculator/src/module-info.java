@@ -5,4 +5,5 @@
  * 
  */
 module SimpleCalculator {
+    exports cal;
 }
\ No newline at end of file
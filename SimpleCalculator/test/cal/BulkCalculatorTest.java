@@ -0,0 +1,140 @@
+package cal;
+
+import cal.BulkCalculator.Operation;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Needs junit-jupiter 5.10 on the classpath when compiling alongside
+ * {@code SimpleCalculator/src}; run with the JUnit console launcher.
+ */
+class BulkCalculatorTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void matchesElementByElementOnOneThreadAndOnMany() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int length : new int[] {0, 1, 7, 1000, BulkCalculator.PARALLEL_THRESHOLD + 17}) {
+                double[] a = column(length, 1);
+                double[] b = column(length, 2);
+                for (Operation operation : Operation.values()) {
+                    double[] result = new double[length];
+                    BulkCalculator.apply(operation, a, b, result, null, pool);
+                    for (int i = 0; i < length; i++) {
+                        assertEquals(expected(operation, a[i], b[i]), result[i], operation + " at " + i);
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void divisionsByZeroAreMaskedAndCounted() {
+        int length = BulkCalculator.PARALLEL_THRESHOLD + 5;
+        double[] a = column(length, 3);
+        double[] b = column(length, 4);
+        boolean[] expectedMask = new boolean[length];
+        int zeros = 0;
+        for (int i = 0; i < length; i += 997) {
+            b[i] = i % 2 == 0 ? 0.0 : -0.0;
+            expectedMask[i] = true;
+            zeros++;
+        }
+        double[] result = new double[length];
+        boolean[] mask = new boolean[length];
+        assertEquals(zeros, BulkCalculator.divide(a, b, result, mask));
+        assertArrayEquals(expectedMask, mask);
+        for (int i = 0; i < length; i++) {
+            assertEquals(mask[i] ? 0 : a[i] / b[i], result[i]);
+        }
+        // the mask is optional, and the result may overwrite an input
+        assertEquals(zeros, BulkCalculator.divide(a, b, a, null));
+        assertArrayEquals(result, a);
+    }
+
+    @Test
+    void rejectsArraysOfDifferentLengths() {
+        assertThrows(IllegalArgumentException.class,
+            () -> BulkCalculator.add(new double[3], new double[2], new double[3]));
+        assertThrows(IllegalArgumentException.class,
+            () -> BulkCalculator.divide(new double[3], new double[3], new double[3], new boolean[2]));
+    }
+
+    @Test
+    void filesAreComputedThroughMappings() throws IOException {
+        double[] a = {1, 2, 3, 4, 5};
+        double[] b = {2, 0, 4, -0.0, 0.5};
+        Path x = write("a.bin", a);
+        Path y = write("b.bin", b);
+        Path z = dir.resolve("z.bin");
+
+        BitSet zeros = BulkCalculator.apply(Operation.DIVIDE, x, y, z);
+        assertEquals(BitSet.valueOf(new long[] {0b1010}), zeros);
+        assertArrayEquals(new double[] {0.5, 0, 0.75, 0, 10}, read(z));
+        assertEquals(new BitSet(), BulkCalculator.apply(Operation.SUBTRACT, x, y, z));
+        assertArrayEquals(new double[] {-1, 2, -1, 4, 4.5}, read(z));
+
+        Path shorter = write("short.bin", new double[] {1});
+        assertThrows(IllegalArgumentException.class, () -> BulkCalculator.apply(Operation.ADD, x, shorter, z));
+        Path partial = dir.resolve("partial.bin");
+        Files.write(partial, new byte[12]);
+        Path partialToo = dir.resolve("partial2.bin");
+        Files.write(partialToo, new byte[12]);
+        assertThrows(IllegalArgumentException.class, () -> BulkCalculator.apply(Operation.ADD, partial, partialToo, z));
+    }
+
+    private static double expected(Operation operation, double a, double b) {
+        switch (operation) {
+            case ADD:
+                return a + b;
+            case SUBTRACT:
+                return a - b;
+            case MULTIPLY:
+                return a * b;
+            default:
+                return b == 0 ? 0 : a / b;
+        }
+    }
+
+    private static double[] column(int length, long seed) {
+        Random random = new Random(seed);
+        double[] column = new double[length];
+        for (int i = 0; i < length; i++) {
+            column[i] = (random.nextDouble() - 0.5) * 1e6;
+        }
+        return column;
+    }
+
+    private Path write(String name, double[] values) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(values.length * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.asDoubleBuffer().put(values);
+        Path file = dir.resolve(name);
+        Files.write(file, bytes.array());
+        return file;
+    }
+
+    private static double[] read(Path file) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+        double[] values = new double[bytes.remaining() / Double.BYTES];
+        bytes.asDoubleBuffer().get(values);
+        return values;
+    }
+}
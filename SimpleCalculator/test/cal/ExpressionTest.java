@@ -0,0 +1,102 @@
+package cal;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Needs junit-jupiter 5.10 on the classpath when compiling alongside
+ * {@code SimpleCalculator/src}; run with the JUnit console launcher.
+ */
+class ExpressionTest {
+
+    @Test
+    void followsTheGrammarsPrecedence() {
+        assertEquals(7, eval("1 + 2 * 3"));
+        assertEquals(9, eval("(1 + 2) * 3"));
+        assertEquals(-4, eval("-2^2"));
+        assertEquals(512, eval("2^3^2"));
+        assertEquals(0.25, eval("2^-2"));
+        assertEquals(1, eval("7 % 3"));
+        assertEquals(2, eval("8 / 2 / 2"));
+        assertEquals(Double.POSITIVE_INFINITY, eval("1 / 0"));
+        assertEquals(Math.PI * Math.E, eval("pi * e"));
+    }
+
+    @Test
+    void functionsMatchMath() {
+        assertEquals(Math.hypot(3, 4) + Math.log10(1000), eval("hypot(3, 4) + log(1000)"));
+        assertEquals(Math.min(2, Math.sqrt(2)), eval("min(2, sqrt(2))"));
+        assertEquals(Math.rint(2.5), eval("round(2.5)"));
+        assertEquals(Math.atan2(1, -1), eval("atan2(1, -1)"));
+    }
+
+    @Test
+    void variablesAreNumberedByFirstAppearance() {
+        Expression price = Expression.compile("qty * unit * (1 - discount / 100) + qty * 0");
+        assertEquals(List.of("qty", "unit", "discount"), price.getVariables());
+        assertEquals(12 * 10.0 * (1 - 15 / 100.0), price.evaluate(12, 10, 15));
+        assertEquals(12 * 10.0 * (1 - 15 / 100.0), price.evaluate(Map.of("qty", 12.0, "unit", 10.0, "discount", 15.0)));
+        assertThrows(IllegalArgumentException.class, () -> price.evaluate(Map.of("qty", 1.0)));
+    }
+
+    @Test
+    void matchesAnInterpreterOverManyInputs() {
+        Expression f = Expression.compile("x^2 - 3*x*y + sin(y) / (1 + abs(x))");
+        for (int i = -50; i <= 50; i++) {
+            double x = i / 7.0;
+            double y = i / 3.0;
+            assertEquals(Math.pow(x, 2) - 3 * x * y + Math.sin(y) / (1 + Math.abs(x)), f.evaluate(x, y));
+        }
+    }
+
+    @Test
+    void parseErrorsGiveThePosition() {
+        assertEquals(4, position("1 + * 2"));
+        assertEquals(6, position("(1 + 2"));
+        assertEquals(0, position("nope(1)"));
+        assertEquals(0, position("pow(1)"));
+        assertEquals(2, position("1 2"));
+        assertEquals(0, position(""));
+    }
+
+    @Test
+    void nestingIsBounded() {
+        assertEquals(1, eval("(".repeat(200) + "1" + ")".repeat(200)));
+        ExpressionException e = assertThrows(ExpressionException.class,
+            () -> Expression.compileUncached("(".repeat(5000) + "1" + ")".repeat(5000)));
+        assertEquals(ExpressionParser.MAX_DEPTH, e.getPosition());
+        assertThrows(ExpressionException.class, () -> Expression.compileUncached("-".repeat(5000) + "1"));
+    }
+
+    @Test
+    void longChainsCompileWithoutRecursion() {
+        assertEquals(5001, Expression.compileUncached("x" + " + x".repeat(5000)).evaluate(1));
+        assertEquals(-4999, Expression.compileUncached("x" + " - x".repeat(5000)).evaluate(1));
+        String tooLong = "x" + " * x".repeat(100_000);
+        ExpressionException e = assertThrows(ExpressionException.class, () -> Expression.compileUncached(tooLong));
+        assertEquals(-1, e.getPosition());
+        assertTrue(e.getMessage().startsWith("Expression of " + tooLong.length() + " characters"), e.getMessage());
+    }
+
+    @Test
+    void compiledExpressionsAreCached() {
+        assertSame(Expression.compile("a + 1"), Expression.compile("a + 1"));
+        Expression uncached = Expression.compileUncached("a + 1");
+        assertEquals(3, uncached.evaluate(2));
+    }
+
+    private static double eval(String source) {
+        return Expression.compileUncached(source).evaluate();
+    }
+
+    private static int position(String source) {
+        return assertThrows(ExpressionException.class, () -> Expression.compileUncached(source)).getPosition();
+    }
+}
@@ -0,0 +1,129 @@
+package com.technohacks.bank.benchmark;
+
+import com.technohacks.bank.exception.AccountNotFoundException;
+import com.technohacks.bank.exception.InsufficientBalanceException;
+import com.technohacks.bank.exception.UnauthorizedAccessException;
+import com.technohacks.bank.model.BankAccount;
+import com.technohacks.bank.service.BankAccountService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Core BankAccountService operations at 3, 100k and 10M accounts, under
+ * uniform and Zipf-skewed access, including the three failure paths.
+ * {@link AccountOperationsRunner} repeats the suite for 1..N threads with
+ * the GC profiler attached.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class AccountOperationsBenchmark {
+    private static final int SAMPLES = 1 << 16;
+
+    @State(Scope.Benchmark)
+    public static class Population {
+        @Param({"3", "100000", "10000000"})
+        public int accounts;
+
+        @Param({KeySampler.UNIFORM, KeySampler.ZIPF})
+        public String distribution;
+
+        BankAccountService service;
+        String[] numbers;
+        int[] keys;
+        final AtomicInteger threadSeeds = new AtomicInteger();
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            service = new BankAccountService(BenchmarkAccounts.create(accounts), null);
+            numbers = new String[accounts];
+            for (int i = 0; i < accounts; i++) {
+                numbers[i] = BenchmarkAccounts.number(i);
+            }
+            keys = KeySampler.draw(distribution, accounts, SAMPLES, 42);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+        String session;
+
+        @Setup(Level.Trial)
+        public void setUp(Population population) throws Exception {
+            // each thread walks the shared sample from a different offset
+            next = population.threadSeeds.getAndIncrement() * 7919;
+            session = population.service.openSession(nextAccount(population), BenchmarkAccounts.PIN);
+        }
+
+        String nextAccount(Population population) {
+            return population.numbers[population.keys[next++ & (SAMPLES - 1)]];
+        }
+    }
+
+    @Benchmark
+    public long checkBalance(Population p, Cursor c)
+            throws AccountNotFoundException, UnauthorizedAccessException {
+        return p.service.checkBalance(c.nextAccount(p), BenchmarkAccounts.PIN);
+    }
+
+    /** Same read after authenticating once: no PIN hash on the hot path. */
+    @Benchmark
+    public long checkBalanceWithSession(Population p, Cursor c) throws UnauthorizedAccessException {
+        return p.service.checkBalance(c.session);
+    }
+
+    @Benchmark
+    public void withdraw(Population p, Cursor c) throws Exception {
+        p.service.withdraw(c.nextAccount(p), BenchmarkAccounts.PIN, 1);
+    }
+
+    @Benchmark
+    public void deposit(Population p, Cursor c) throws Exception {
+        p.service.deposit(c.nextAccount(p), BenchmarkAccounts.PIN, 1);
+    }
+
+    @Benchmark
+    public void transfer(Population p, Cursor c) throws Exception {
+        p.service.transfer(c.nextAccount(p), BenchmarkAccounts.PIN, c.nextAccount(p), 1);
+    }
+
+    /** validate() is private; getAccountDetails is exactly a validate call. */
+    @Benchmark
+    public BankAccount validate(Population p, Cursor c) throws Exception {
+        return p.service.getAccountDetails(c.nextAccount(p), BenchmarkAccounts.PIN);
+    }
+
+    @Benchmark
+    public Object accountNotFound(Population p) {
+        try {
+            return p.service.checkBalance("ACC-MISSING", BenchmarkAccounts.PIN);
+        } catch (AccountNotFoundException | UnauthorizedAccessException e) {
+            return e;
+        }
+    }
+
+    /** Accounts lock after a few bad PINs, so this mostly measures the lockout refusal. */
+    @Benchmark
+    public Object badPin(Population p, Cursor c) {
+        try {
+            return p.service.checkBalance(c.nextAccount(p), "0000");
+        } catch (AccountNotFoundException | UnauthorizedAccessException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public Object insufficientFunds(Population p, Cursor c) throws Exception {
+        try {
+            p.service.withdraw(c.nextAccount(p), BenchmarkAccounts.PIN, Long.MAX_VALUE);
+            return null;
+        } catch (InsufficientBalanceException e) {
+            return e;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.technohacks.bank.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs {@link AccountOperationsBenchmark} at 1, 2, 4 ... N threads with the
+ * GC profiler, so allocation rate is reported next to throughput. Extra
+ * arguments are passed through as JMH options, e.g. {@code -p accounts=3}.
+ *
+ * java -cp target/benchmarks.jar com.technohacks.bank.benchmark.AccountOperationsRunner
+ */
+public class AccountOperationsRunner {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cli = new CommandLineOptions(args);
+        int max = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; ; threads = Math.min(threads * 2, max)) {
+            run(cli, threads);
+            if (threads == max) {
+                break;
+            }
+        }
+    }
+
+    private static void run(CommandLineOptions cli, int threads) throws RunnerException {
+        Options options = new OptionsBuilder()
+            .parent(cli)
+            .include(AccountOperationsBenchmark.class.getSimpleName())
+            .threads(threads)
+            .addProfiler(GCProfiler.class)
+            .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,84 @@
+package com.technohacks.bank.benchmark;
+
+import com.technohacks.bank.model.BankAccount;
+import com.technohacks.bank.service.AccountStore;
+import com.technohacks.bank.store.OffHeapAccountTable;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookup, PIN check and deposit against an AccountStore over heap objects
+ * ("heap") or over an OffHeapAccountTable ("offheap"), both through the
+ * BankAccount calls the service makes, and against the table's record
+ * methods directly ("records"). Run with the GC profiler (-prof gc) to
+ * compare collection counts and times at 10M and 50M accounts.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx12g", "-XX:MaxDirectMemorySize=10g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class AccountTableBenchmark {
+    private static final int SAMPLES = 1 << 16;
+
+    @Param({"10000000", "50000000"})
+    public int accounts;
+
+    @Param({"heap", "offheap", "records"})
+    public String storage;
+
+    private AccountStore store;
+    private OffHeapAccountTable table;
+    private String[] sample;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        if ("heap".equals(storage)) {
+            store = BenchmarkAccounts.create(accounts);
+        } else {
+            table = new OffHeapAccountTable(accounts);
+            for (int i = 0; i < accounts; i++) {
+                table.insert(BenchmarkAccounts.number(i), "Holder " + i, BenchmarkAccounts.PIN_HASH,
+                    BenchmarkAccounts.OPENING_BALANCE);
+            }
+            if ("offheap".equals(storage)) {
+                store = new AccountStore(table, AccountStore.DEFAULT_STRIPES);
+            }
+        }
+        int[] keys = KeySampler.draw(KeySampler.UNIFORM, accounts, SAMPLES, 11);
+        sample = new String[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            sample[i] = BenchmarkAccounts.number(keys[i]);
+        }
+    }
+
+    @Benchmark
+    public long lookupAndDeposit(Cursor c) {
+        String number = sample[c.next++ & (SAMPLES - 1)];
+        if (store != null) {
+            BankAccount acc = store.get(number);
+            if (!acc.matchesPin(BenchmarkAccounts.PIN)) {
+                return -1;
+            }
+            store.lock(number);
+            try {
+                acc.setBalance(acc.getBalance() + 1);
+                return acc.getBalance();
+            } finally {
+                store.unlock(number);
+            }
+        }
+        long slot = table.find(number);
+        if (slot < 0 || !table.matchesPin(slot, BenchmarkAccounts.PIN)) {
+            return -1;
+        }
+        return table.addBalance(slot, 1);
+    }
+}
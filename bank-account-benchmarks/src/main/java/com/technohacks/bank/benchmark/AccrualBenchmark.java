@@ -0,0 +1,59 @@
+package com.technohacks.bank.benchmark;
+
+import com.technohacks.bank.service.AccrualResult;
+import com.technohacks.bank.service.AccrualRules;
+import com.technohacks.bank.service.BankAccountService;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One end-of-day accrual run over every account, with tiered interest and
+ * a waivable fee, on one thread and on all cores. Each invocation accrues
+ * the next business day so no account is skipped. Run with a heap of at
+ * least 8g for 10M accounts.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class AccrualBenchmark {
+    private static final AccrualRules RULES = AccrualRules.none()
+        .withTier(0, new BigDecimal("0.005"))
+        .withTier(1_000_000, new BigDecimal("0.0425"))
+        .withDailyFee(25, 100_000);
+
+    @Param({"1000000", "10000000"})
+    public int accounts;
+
+    /** 0 uses every available core. */
+    @Param({"1", "0"})
+    public int threads;
+
+    private BankAccountService service;
+    private ForkJoinPool pool;
+    private LocalDate businessDate = LocalDate.of(2026, 1, 1);
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        service = new BankAccountService(BenchmarkAccounts.create(accounts), null);
+        pool = new ForkJoinPool(threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+        service.close();
+    }
+
+    @Benchmark
+    public AccrualResult accrue() {
+        businessDate = businessDate.plusDays(1);
+        return service.accrue(RULES, businessDate, pool);
+    }
+}
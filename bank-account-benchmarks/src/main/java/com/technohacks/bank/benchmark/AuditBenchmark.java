@@ -0,0 +1,75 @@
+package com.technohacks.bank.benchmark;
+
+import com.technohacks.bank.audit.AuditLog;
+import com.technohacks.bank.audit.BackpressurePolicy;
+import com.technohacks.bank.service.BankAccountService;
+import com.technohacks.bank.service.OperationResult;
+import com.technohacks.bank.service.OperationStatus;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request-path latency of deposits and balance checks with auditing off
+ * and with the asynchronous audit log under each backpressure policy.
+ * Operations use session tokens so the PIN hash does not hide the cost.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class AuditBenchmark {
+    private static final int ACCOUNTS = 1024;
+
+    @Param({"OFF", "DROP", "BLOCK"})
+    public String audit;
+
+    private BankAccountService service;
+    private AuditLog log;
+    private Path file;
+    private String[] sessions;
+
+    @State(Scope.Thread)
+    public static class Client {
+        final OperationResult result = new OperationResult();
+        int next;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        service = new BankAccountService(BenchmarkAccounts.create(ACCOUNTS), null);
+        if (!"OFF".equals(audit)) {
+            file = Files.createTempFile("audit-benchmark", ".jsonl");
+            log = AuditLog.open(file, AuditLog.DEFAULT_CAPACITY, BackpressurePolicy.valueOf(audit));
+            service.setAuditLog(log);
+        }
+        sessions = new String[ACCOUNTS];
+        for (int i = 0; i < ACCOUNTS; i++) {
+            sessions[i] = service.openSession(BenchmarkAccounts.number(i), BenchmarkAccounts.PIN);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        service.close();
+        if (log != null) {
+            log.close();
+            System.out.println("\naudit events written " + log.writtenCount() + ", dropped " + log.droppedCount());
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Benchmark
+    public OperationStatus deposit(Client c) {
+        return service.tryDeposit(sessions[c.next++ & (ACCOUNTS - 1)], 1, c.result);
+    }
+
+    @Benchmark
+    public OperationStatus checkBalance(Client c) {
+        return service.tryCheckBalance(sessions[c.next++ & (ACCOUNTS - 1)], c.result);
+    }
+}
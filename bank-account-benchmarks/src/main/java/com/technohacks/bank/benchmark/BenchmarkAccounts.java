@@ -0,0 +1,33 @@
+package com.technohacks.bank.benchmark;
+
+import com.technohacks.bank.model.BankAccount;
+import com.technohacks.bank.model.Money;
+import com.technohacks.bank.security.PinHasher;
+import com.technohacks.bank.service.AccountStore;
+
+/**
+ * Builds synthetic account populations for the benchmarks.
+ */
+final class BenchmarkAccounts {
+    static final String PIN = "1234";
+    static final long OPENING_BALANCE = Money.ofUnits(1_000_000);
+
+    // One cheap hash shared by every account: hashing each PIN with the
+    // production work factor would make 10M-account setups take hours.
+    static final String PIN_HASH = PinHasher.hash(PIN, 1);
+
+    private BenchmarkAccounts() {
+    }
+
+    static String number(int i) {
+        return "ACC" + i;
+    }
+
+    static AccountStore create(int count) {
+        AccountStore accounts = new AccountStore(count, AccountStore.DEFAULT_STRIPES);
+        for (int i = 0; i < count; i++) {
+            accounts.put(BankAccount.withPinHash(number(i), "Holder " + i, PIN_HASH, OPENING_BALANCE));
+        }
+        return accounts;
+    }
+}
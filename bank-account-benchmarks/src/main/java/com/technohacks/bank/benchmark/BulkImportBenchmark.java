@@ -0,0 +1,74 @@
+package com.technohacks.bank.benchmark;
+
+import com.technohacks.bank.bulk.AccountExporter;
+import com.technohacks.bank.bulk.AccountFileFormat;
+import com.technohacks.bank.bulk.AccountImporter;
+import com.technohacks.bank.bulk.ImportResult;
+import com.technohacks.bank.service.AccountStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to load 1M and 10M accounts from a CSV or binary export into a new
+ * store on every core, and to export them again. Run with a heap of at
+ * least 8g for 10M.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+public class BulkImportBenchmark {
+
+    @Param({"1000000", "10000000"})
+    public int accounts;
+
+    @Param({"CSV", "BINARY"})
+    public AccountFileFormat format;
+
+    private Path directory;
+    private Path file;
+    private AccountStore source;
+    private ImportResult loaded;
+
+    @Setup(Level.Trial)
+    public void prepare() throws IOException {
+        directory = Files.createTempDirectory("bank-bulk");
+        file = directory.resolve(format == AccountFileFormat.CSV ? "accounts.csv" : "accounts.bin");
+        source = BenchmarkAccounts.create(accounts);
+        AccountExporter.write(source, file, format);
+    }
+
+    @Benchmark
+    public ImportResult load() throws IOException {
+        loaded = AccountImporter.load(file, format, null, ForkJoinPool.commonPool());
+        return loaded;
+    }
+
+    @Benchmark
+    public long export() throws IOException {
+        return AccountExporter.write(source, directory.resolve("export"), format);
+    }
+
+    @TearDown(Level.Invocation)
+    public void dropLoaded() {
+        if (loaded != null && loaded.getLoaded() != accounts) {
+            throw new IllegalStateException(loaded + " " + loaded.getErrors());
+        }
+        loaded = null;
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanUp() throws IOException {
+        source = null;
+        Files.deleteIfExists(directory.resolve("export"));
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(directory);
+    }
+}
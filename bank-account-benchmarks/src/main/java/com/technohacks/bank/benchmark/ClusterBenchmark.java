@@ -0,0 +1,73 @@
+package com.technohacks.bank.benchmark;
+
+import com.technohacks.bank.cluster.LocalCluster;
+import com.technohacks.bank.cluster.PartitionRouter;
+import com.technohacks.bank.service.OperationResult;
+import com.technohacks.bank.service.OperationStatus;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of a partitioned bank as nodes are added: random transfers
+ * and balance checks routed by consistent hashing, with nodes in this JVM
+ * or behind loopback sockets. With n nodes about (n-1)/n of the transfers
+ * cross nodes and run the two-phase protocol.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Threads(8)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ClusterBenchmark {
+
+    @Param({"1", "2", "4", "8"})
+    public int nodes;
+
+    @Param({"inprocess", "loopback"})
+    public String transport;
+
+    @Param({"100000"})
+    public int accounts;
+
+    private LocalCluster cluster;
+    private PartitionRouter router;
+    private String[] numbers;
+
+    @State(Scope.Thread)
+    public static class Client {
+        final OperationResult result = new OperationResult();
+        final SplittableRandom random = new SplittableRandom(Thread.currentThread().getId());
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        cluster = "loopback".equals(transport)
+            ? LocalCluster.overLoopback(nodes, accounts)
+            : LocalCluster.inProcess(nodes, accounts);
+        router = cluster.getRouter();
+        numbers = new String[accounts];
+        for (int i = 0; i < accounts; i++) {
+            numbers[i] = LocalCluster.accountNumber(i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cluster.close();
+    }
+
+    @Benchmark
+    public OperationStatus transfer(Client c) {
+        return router.tryTransfer(numbers[c.random.nextInt(accounts)], LocalCluster.PIN,
+            numbers[c.random.nextInt(accounts)], 1, c.result);
+    }
+
+    @Benchmark
+    public OperationStatus checkBalance(Client c) {
+        return router.tryCheckBalance(numbers[c.random.nextInt(accounts)], LocalCluster.PIN, c.result);
+    }
+}
@@ -0,0 +1,69 @@
+package com.technohacks.bank.benchmark;
+
+import com.technohacks.bank.service.BankAccountService;
+import com.technohacks.bank.service.ExecutionMode;
+import com.technohacks.bank.service.OperationResult;
+import com.technohacks.bank.service.OperationStatus;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lock-based versus sharded single-writer execution on a merchant-style
+ * workload: customers drawn uniformly pay into a handful of hot merchant
+ * accounts that receive most of the transfer traffic.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Threads(4)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ExecutionModeBenchmark {
+
+    @Param({"LOCKING", "SHARDED"})
+    public ExecutionMode mode;
+
+    @Param({"100000"})
+    public int accounts;
+
+    @Param({"4"})
+    public int merchants;
+
+    private BankAccountService service;
+    private String[] numbers;
+
+    @State(Scope.Thread)
+    public static class Client {
+        final OperationResult result = new OperationResult();
+        final SplittableRandom random = new SplittableRandom(Thread.currentThread().getId());
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        service = new BankAccountService(BenchmarkAccounts.create(accounts), null, mode);
+        numbers = new String[accounts];
+        for (int i = 0; i < accounts; i++) {
+            numbers[i] = BenchmarkAccounts.number(i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        service.close();
+    }
+
+    @Benchmark
+    public OperationStatus payMerchant(Client c) {
+        String customer = numbers[merchants + c.random.nextInt(accounts - merchants)];
+        String merchant = numbers[c.random.nextInt(merchants)];
+        return service.tryTransfer(customer, BenchmarkAccounts.PIN, merchant, 1, c.result);
+    }
+
+    @Benchmark
+    public OperationStatus checkBalance(Client c) {
+        return service.tryCheckBalance(numbers[c.random.nextInt(accounts)], BenchmarkAccounts.PIN, c.result);
+    }
+}
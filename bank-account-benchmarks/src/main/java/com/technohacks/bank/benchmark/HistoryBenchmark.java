@@ -0,0 +1,77 @@
+package com.technohacks.bank.benchmark;
+
+import com.technohacks.bank.history.EntryType;
+import com.technohacks.bank.history.HistoryEntry;
+import com.technohacks.bank.history.StatementPage;
+import com.technohacks.bank.history.TransactionHistory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Iterator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Statement queries against one account with {@code entries} history
+ * entries, interleaved with entries of other accounts: the newest page, a
+ * page at a random point in time, and streaming a one-second window.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class HistoryBenchmark {
+    private static final String ACCOUNT = "ACC000001";
+    private static final int PAGE = 50;
+    private static final int OTHER_ACCOUNTS = 1024;
+
+    @Param({"1000000"})
+    public int entries;
+
+    private TransactionHistory history;
+    private long firstMillis;
+    private long lastMillis;
+    private String[] others;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        history = TransactionHistory.inMemory();
+        others = new String[OTHER_ACCOUNTS];
+        for (int i = 0; i < OTHER_ACCOUNTS; i++) {
+            others[i] = BenchmarkAccounts.number(i + 2);
+        }
+        for (int i = 0; i < entries; i++) {
+            history.record(ACCOUNT, EntryType.DEPOSIT, 100, 100L * (i + 1), null, 0);
+            history.record(others[i & (OTHER_ACCOUNTS - 1)], EntryType.TRANSFER_IN, 100, 100, ACCOUNT, 0);
+        }
+        firstMillis = history.entries(ACCOUNT, Long.MIN_VALUE, Long.MAX_VALUE).next().getTimeMillis();
+        lastMillis = history.latest(ACCOUNT, 1).get(0).getTimeMillis();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        history.close();
+    }
+
+    @Benchmark
+    public StatementPage latestPage() {
+        return history.statement(ACCOUNT, Long.MIN_VALUE, Long.MAX_VALUE, StatementPage.FIRST, PAGE);
+    }
+
+    @Benchmark
+    public StatementPage pageAtRandomTime() {
+        long to = ThreadLocalRandom.current().nextLong(firstMillis, lastMillis + 1);
+        return history.statement(ACCOUNT, Long.MIN_VALUE, to, StatementPage.FIRST, PAGE);
+    }
+
+    @Benchmark
+    public void streamOneSecond(Blackhole bh) {
+        long from = ThreadLocalRandom.current().nextLong(firstMillis, lastMillis + 1);
+        Iterator<HistoryEntry> it = history.entries(ACCOUNT, from, from + 999);
+        while (it.hasNext()) {
+            bh.consume(it.next());
+        }
+    }
+}
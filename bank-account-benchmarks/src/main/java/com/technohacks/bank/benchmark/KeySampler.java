@@ -0,0 +1,46 @@
+package com.technohacks.bank.benchmark;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Pre-drawn account indexes for uniform or Zipf-skewed access.
+ */
+final class KeySampler {
+    static final String UNIFORM = "uniform";
+    static final String ZIPF = "zipf";
+
+    private static final double ZIPF_EXPONENT = 0.99;
+
+    private KeySampler() {
+    }
+
+    /**
+     * Draws {@code samples} indexes in [0, accounts). The sample count must be
+     * a power of two so callers can wrap around with a mask.
+     */
+    static int[] draw(String distribution, int accounts, int samples, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        int[] keys = new int[samples];
+        if (UNIFORM.equals(distribution)) {
+            for (int i = 0; i < samples; i++) {
+                keys[i] = random.nextInt(accounts);
+            }
+            return keys;
+        }
+        if (!ZIPF.equals(distribution)) {
+            throw new IllegalArgumentException("Unknown distribution " + distribution);
+        }
+        double[] cdf = new double[accounts];
+        double sum = 0;
+        for (int rank = 0; rank < accounts; rank++) {
+            sum += 1.0 / Math.pow(rank + 1, ZIPF_EXPONENT);
+            cdf[rank] = sum;
+        }
+        for (int i = 0; i < samples; i++) {
+            int rank = Arrays.binarySearch(cdf, random.nextDouble() * sum);
+            keys[i] = Math.min(accounts - 1, rank >= 0 ? rank : -rank - 1);
+        }
+        return keys;
+    }
+}
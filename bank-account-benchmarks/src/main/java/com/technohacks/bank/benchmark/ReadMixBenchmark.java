@@ -0,0 +1,95 @@
+package com.technohacks.bank.benchmark;
+
+import com.technohacks.bank.service.BankAccountService;
+import com.technohacks.bank.service.OperationResult;
+import com.technohacks.bank.service.OperationStatus;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read-heavy traffic on every core: {@code mix} sends 95% balance checks and
+ * 5% transfers through open sessions, drawn from a small hot set of accounts
+ * so readers and writers meet on the same stripes. The {@code report} group
+ * takes consistent 1,000-account balance reads while three threads keep
+ * transferring between those accounts.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ReadMixBenchmark {
+    private static final int REPORT_ACCOUNTS = 1000;
+
+    @Param({"100000"})
+    public int accounts;
+
+    /** Accounts the mix draws from. */
+    @Param({"1000"})
+    public int hot;
+
+    @Param({"5"})
+    public int writePercent;
+
+    private BankAccountService service;
+    private String[] numbers;
+    private String[] tokens;
+    private List<String> reported;
+
+    @State(Scope.Thread)
+    public static class Client {
+        final OperationResult result = new OperationResult();
+        final SplittableRandom random = new SplittableRandom(Thread.currentThread().getId());
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        service = new BankAccountService(BenchmarkAccounts.create(accounts), null);
+        int sessions = Math.max(hot, REPORT_ACCOUNTS);
+        numbers = new String[sessions];
+        tokens = new String[sessions];
+        for (int i = 0; i < sessions; i++) {
+            numbers[i] = BenchmarkAccounts.number(i);
+            tokens[i] = service.openSession(numbers[i], BenchmarkAccounts.PIN);
+        }
+        reported = new ArrayList<>(REPORT_ACCOUNTS);
+        for (int i = 0; i < REPORT_ACCOUNTS; i++) {
+            reported.add(numbers[i]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        service.close();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public OperationStatus mix(Client c) {
+        int from = c.random.nextInt(hot);
+        if (c.random.nextInt(100) < writePercent) {
+            return service.tryTransfer(tokens[from], numbers[c.random.nextInt(hot)], 1, c.result);
+        }
+        return service.tryCheckBalance(tokens[from], c.result);
+    }
+
+    @Benchmark
+    @Group("report")
+    @GroupThreads(1)
+    public long[] balances() throws Exception {
+        return service.getBalances(reported);
+    }
+
+    @Benchmark
+    @Group("report")
+    @GroupThreads(3)
+    public OperationStatus transfers(Client c) {
+        int from = c.random.nextInt(REPORT_ACCOUNTS);
+        return service.tryTransfer(tokens[from], numbers[c.random.nextInt(REPORT_ACCOUNTS)], 1, c.result);
+    }
+}
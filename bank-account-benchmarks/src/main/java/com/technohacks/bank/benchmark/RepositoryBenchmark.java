@@ -0,0 +1,103 @@
+package com.technohacks.bank.benchmark;
+
+import com.technohacks.bank.model.BankAccount;
+import com.technohacks.bank.repository.JdbcAccountRepository;
+import com.technohacks.bank.service.AccountStore;
+import com.technohacks.bank.service.BankAccountService;
+import com.technohacks.bank.service.OperationResult;
+import com.technohacks.bank.service.OperationStatus;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Cost of writing every change through to a JDBC repository: random
+ * transfers and deposits against the plain in-memory store, and against the
+ * same store backed by H2 in memory or in a file. The teardown prints how
+ * many balance updates each batch coalesced.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Threads(8)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RepositoryBenchmark {
+
+    @Param({"memory", "h2mem", "h2file"})
+    public String backend;
+
+    @Param({"100000"})
+    public int accounts;
+
+    private BankAccountService service;
+    private JdbcAccountRepository repository;
+    private Path dir;
+    private String[] numbers;
+
+    @State(Scope.Thread)
+    public static class Client {
+        final OperationResult result = new OperationResult();
+        final SplittableRandom random = new SplittableRandom(Thread.currentThread().getId());
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        AccountStore store = BenchmarkAccounts.create(accounts);
+        service = new BankAccountService(store, null);
+        if (!backend.equals("memory")) {
+            String url;
+            if (backend.equals("h2file")) {
+                dir = Files.createTempDirectory("repository-benchmark");
+                url = "jdbc:h2:" + dir.resolve("bank");
+            } else {
+                url = "jdbc:h2:mem:repository-benchmark-" + System.nanoTime();
+            }
+            repository = JdbcAccountRepository.open(url, "sa", "", JdbcAccountRepository.DEFAULT_POOL_SIZE);
+            List<BankAccount> all = new ArrayList<>(accounts);
+            store.forEach(all::add);
+            repository.insert(all);
+            service.setAccountRepository(repository);
+        }
+        numbers = new String[accounts];
+        for (int i = 0; i < accounts; i++) {
+            numbers[i] = BenchmarkAccounts.number(i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        service.close();
+        if (repository != null) {
+            repository.close();
+            System.out.printf("%n%d balance rows in %d batches (%.1f per batch), %d conflicts%n",
+                repository.getRowCount(), repository.getBatchCount(),
+                repository.getBatchCount() == 0 ? 0.0 : (double) repository.getRowCount() / repository.getBatchCount(),
+                repository.getConflictCount());
+        }
+        if (dir != null) {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    @Benchmark
+    public OperationStatus transfer(Client c) {
+        return service.tryTransfer(numbers[c.random.nextInt(accounts)], BenchmarkAccounts.PIN,
+            numbers[c.random.nextInt(accounts)], 1, c.result);
+    }
+
+    @Benchmark
+    public OperationStatus deposit(Client c) {
+        return service.tryDeposit(numbers[c.random.nextInt(accounts)], BenchmarkAccounts.PIN, 1, c.result);
+    }
+}
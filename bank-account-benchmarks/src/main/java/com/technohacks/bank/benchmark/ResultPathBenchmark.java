@@ -0,0 +1,95 @@
+package com.technohacks.bank.benchmark;
+
+import com.technohacks.bank.ErrorResponse;
+import com.technohacks.bank.exception.InsufficientBalanceException;
+import com.technohacks.bank.exception.UnauthorizedAccessException;
+import com.technohacks.bank.service.BankAccountService;
+import com.technohacks.bank.service.OperationResult;
+import com.technohacks.bank.service.OperationStatus;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a failed operation reported through an exception versus through
+ * the result-code API. The error-response variants include building the
+ * client-facing ErrorResponse, as BankApplication does. ACC1 is locked out
+ * after the first few bad PINs, so the bad-PIN cases measure the lockout
+ * refusal, which is what brute-force traffic actually gets.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ResultPathBenchmark {
+
+    private BankAccountService service;
+    private final OperationResult result = new OperationResult();
+
+    @Setup
+    public void setUp() {
+        service = new BankAccountService(BenchmarkAccounts.create(1000), null);
+    }
+
+    @Benchmark
+    public Object badPinException() throws Exception {
+        try {
+            return service.checkBalance("ACC1", "0000");
+        } catch (UnauthorizedAccessException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public OperationStatus badPinResultCode() {
+        return service.tryCheckBalance("ACC1", "0000", result);
+    }
+
+    @Benchmark
+    public ErrorResponse badPinExceptionWithResponse() throws Exception {
+        try {
+            service.checkBalance("ACC1", "0000");
+            return null;
+        } catch (UnauthorizedAccessException e) {
+            return new ErrorResponse("UNAUTHORIZED_ACCESS", e.getMessage(),
+                "Invalid credentials. Please check your PIN and try again", 401);
+        }
+    }
+
+    @Benchmark
+    public ErrorResponse badPinResultCodeWithResponse() {
+        service.tryCheckBalance("ACC1", "0000", result);
+        return result.toErrorResponse();
+    }
+
+    @Benchmark
+    public Object overdraftException() throws Exception {
+        try {
+            service.withdraw("ACC2", BenchmarkAccounts.PIN, Long.MAX_VALUE);
+            return null;
+        } catch (InsufficientBalanceException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public OperationStatus overdraftResultCode() {
+        return service.tryWithdraw("ACC2", BenchmarkAccounts.PIN, Long.MAX_VALUE, result);
+    }
+
+    @Benchmark
+    public Object notFoundException() throws Exception {
+        try {
+            return service.checkBalance("ACC999999", BenchmarkAccounts.PIN);
+        } catch (Exception e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public OperationStatus notFoundResultCode() {
+        return service.tryCheckBalance("ACC999999", BenchmarkAccounts.PIN, result);
+    }
+}
@@ -0,0 +1,71 @@
+package com.technohacks.bank.benchmark;
+
+import com.technohacks.bank.journal.SnapshotStore;
+import com.technohacks.bank.journal.TransactionJournal;
+import com.technohacks.bank.service.BankAccountService;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Time to bring a service back up from the newest snapshot plus a journal
+ * tail, for 1M and 10M accounts. Run with a heap of at least 8g for 10M.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+public class StartupBenchmark {
+
+    @Param({"1000000", "10000000"})
+    public int accounts;
+
+    @Param({"100000"})
+    public int tailRecords;
+
+    private Path directory;
+    private BankAccountService started;
+
+    @Setup(Level.Trial)
+    public void prepare() throws Exception {
+        directory = Files.createTempDirectory("bank-startup");
+        SnapshotStore snapshots = new SnapshotStore(directory);
+        try (BankAccountService service = new BankAccountService(
+                BenchmarkAccounts.create(accounts), TransactionJournal.open(directory))) {
+            service.checkpoint(snapshots);
+            SplittableRandom random = new SplittableRandom(42);
+            for (int i = 0; i < tailRecords; i++) {
+                service.deposit(BenchmarkAccounts.number(random.nextInt(accounts)), BenchmarkAccounts.PIN, 100);
+            }
+        }
+    }
+
+    @Benchmark
+    public BankAccountService snapshotPlusTail() throws IOException {
+        started = new BankAccountService(TransactionJournal.open(directory), new SnapshotStore(directory));
+        return started;
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeStarted() {
+        if (started != null) {
+            started.close();
+            started = null;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanUp() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.technohacks.bank.benchmark;
+
+import com.technohacks.bank.service.BankAccountService;
+import com.technohacks.bank.service.BatchResult;
+import com.technohacks.bank.service.TransferInstruction;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settlement-style run: a batch of transfers posted through
+ * {@code transferBatch} versus one {@code transfer} call per instruction.
+ * Scores are per batch; divide the batch size by the score for ops/s.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TransferBatchBenchmark {
+
+    @Param({"100000"})
+    public int accounts;
+
+    @Param({"100000"})
+    public int batchSize;
+
+    private BankAccountService service;
+    private List<TransferInstruction> batch;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        service = new BankAccountService(BenchmarkAccounts.create(accounts), null);
+        SplittableRandom random = new SplittableRandom(7);
+        batch = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            batch.add(new TransferInstruction(BenchmarkAccounts.number(random.nextInt(accounts)),
+                BenchmarkAccounts.PIN, BenchmarkAccounts.number(random.nextInt(accounts)), 100));
+        }
+    }
+
+    @Benchmark
+    public BatchResult transferBatch() {
+        return service.transferBatch(batch);
+    }
+
+    @Benchmark
+    public void transferOneByOne(Blackhole bh) {
+        for (TransferInstruction t : batch) {
+            try {
+                service.transfer(t.getFromAccount(), t.getPin(), t.getToAccount(), t.getAmount());
+            } catch (Exception e) {
+                bh.consume(e);
+            }
+        }
+    }
+}
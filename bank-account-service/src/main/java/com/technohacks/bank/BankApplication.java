@@ -1,12 +1,33 @@
 package com.technohacks.bank;
 
+import com.technohacks.bank.audit.AuditLog;
+import com.technohacks.bank.audit.BackpressurePolicy;
+import com.technohacks.bank.bulk.ImportResult;
 import com.technohacks.bank.exception.*;
+import com.technohacks.bank.history.HistoryEntry;
+import com.technohacks.bank.history.StatementPage;
+import com.technohacks.bank.history.TransactionHistory;
+import com.technohacks.bank.journal.Checkpointer;
+import com.technohacks.bank.journal.SnapshotStore;
+import com.technohacks.bank.journal.TransactionJournal;
+import com.technohacks.bank.metrics.MetricsServer;
 import com.technohacks.bank.model.BankAccount;
+import com.technohacks.bank.model.Money;
+import com.technohacks.bank.replication.ReplicationPrimary;
+import com.technohacks.bank.repository.JdbcAccountRepository;
+import com.technohacks.bank.server.BankServer;
 import com.technohacks.bank.service.BankAccountService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Bank Application Main Class
@@ -14,7 +35,13 @@ import java.util.Scanner;
  */
 public class BankApplication {
     private static final Logger logger = LoggerFactory.getLogger(BankApplication.class);
-    private static BankAccountService bankService = new BankAccountService();
+    private static Checkpointer checkpointer;
+    private static ReplicationPrimary replication;
+    private static JdbcAccountRepository repository;
+    private static AuditLog auditLog;
+    private static MetricsServer metricsServer;
+    private static TransactionHistory history;
+    private static BankAccountService bankService = withHistory(withMetrics(withAudit(withImport(createService()))));
     private static Scanner scanner = new Scanner(System.in);
     
     public static void main(String[] args) {
@@ -25,15 +52,179 @@ public class BankApplication {
         
         logger.info("Bank Application started");
         
+        if (args.length > 0 && "--server".equals(args[0])) {
+            runServerMode(args.length > 1 ? Integer.parseInt(args[1]) : 9090);
+            return;
+        }
+        
         // Demonstrate all exception scenarios
         demonstrateAllScenarios();
         
         // Interactive menu
         runInteractiveMode();
         
+        shutdown();
         logger.info("Bank Application terminated");
     }
     
+    /**
+     * Uses a durable, journal-backed service when -Dbank.journal.dir is set.
+     * Snapshots are kept next to the journal and refreshed every
+     * -Dbank.checkpoint.seconds (default 60). With -Dbank.replication.port
+     * the journal is also shipped to standbys connecting on that port.
+     * With -Dbank.repository=jdbc the accounts live in the datasource from
+     * application.properties instead.
+     */
+    private static BankAccountService createService() {
+        if ("jdbc".equals(System.getProperty("bank.repository"))) {
+            repository = JdbcAccountRepository.fromProperties(datasourceProperties());
+            logger.info("Serving accounts from the configured datasource");
+            return new BankAccountService(repository);
+        }
+        String journalDir = System.getProperty("bank.journal.dir");
+        if (journalDir == null) {
+            return new BankAccountService();
+        }
+        try {
+            Path dir = Paths.get(journalDir);
+            SnapshotStore snapshots = new SnapshotStore(dir);
+            TransactionJournal journal = TransactionJournal.open(dir);
+            BankAccountService service = new BankAccountService(journal, snapshots);
+            logger.info("Recovered account state from {}", journalDir);
+            Integer replicationPort = Integer.getInteger("bank.replication.port");
+            if (replicationPort != null) {
+                replication = new ReplicationPrimary(journal, replicationPort).start();
+                service.setReplicationPrimary(replication);
+            }
+            checkpointer = new Checkpointer(service, snapshots);
+            checkpointer.start(Long.getLong("bank.checkpoint.seconds", 60), TimeUnit.SECONDS);
+            return service;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open transaction journal in " + journalDir, e);
+        }
+    }
+    
+    /**
+     * Bulk-loads the accounts in -Dbank.import.file at startup, CSV if the
+     * name ends in .csv and binary otherwise. A journalled service takes a
+     * checkpoint straight away so the accounts survive a restart. Not
+     * available with -Dbank.repository=jdbc.
+     */
+    private static BankAccountService withImport(BankAccountService service) {
+        String importFile = System.getProperty("bank.import.file");
+        if (importFile == null) {
+            return service;
+        }
+        try {
+            ImportResult result = service.importAccounts(Paths.get(importFile));
+            logger.info("{} from {}", result, importFile);
+            for (String error : result.getErrors()) {
+                logger.warn("Rejected {}", error);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot import accounts from " + importFile, e);
+        }
+        if (checkpointer != null) {
+            checkpointer.checkpoint();
+        }
+        return service;
+    }
+    
+    private static Properties datasourceProperties() {
+        Properties properties = new Properties();
+        try (InputStream in = BankApplication.class.getResourceAsStream("/application.properties")) {
+            if (in == null) {
+                throw new IllegalStateException("application.properties is not on the classpath");
+            }
+            properties.load(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read application.properties", e);
+        }
+        return properties;
+    }
+    
+    /**
+     * Audits every operation to -Dbank.audit.file when set. The queue
+     * policy is -Dbank.audit.policy: DROP (default) or BLOCK.
+     */
+    private static BankAccountService withAudit(BankAccountService service) {
+        String auditFile = System.getProperty("bank.audit.file");
+        if (auditFile == null) {
+            return service;
+        }
+        BackpressurePolicy policy = BackpressurePolicy.valueOf(System.getProperty("bank.audit.policy", "DROP"));
+        try {
+            auditLog = AuditLog.open(Paths.get(auditFile), AuditLog.DEFAULT_CAPACITY, policy);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open audit log " + auditFile, e);
+        }
+        service.setAuditLog(auditLog);
+        logger.info("Auditing operations to {} ({} when full)", auditFile, policy);
+        return service;
+    }
+    
+    /** Serves metrics at http://localhost:PORT/metrics when -Dbank.metrics.port is set. */
+    private static BankAccountService withMetrics(BankAccountService service) {
+        Integer port = Integer.getInteger("bank.metrics.port");
+        if (port == null) {
+            return service;
+        }
+        try {
+            metricsServer = new MetricsServer(service.getMetrics(), port).start();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot serve metrics on port " + port, e);
+        }
+        return service;
+    }
+    
+    /**
+     * Keeps the transaction history for statements in -Dbank.history.dir
+     * when set. There is no in-memory default: it would grow for as long as
+     * the application runs.
+     */
+    private static BankAccountService withHistory(BankAccountService service) {
+        String historyDir = System.getProperty("bank.history.dir");
+        if (historyDir == null) {
+            return service;
+        }
+        try {
+            history = TransactionHistory.open(Paths.get(historyDir));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open transaction history in " + historyDir, e);
+        }
+        service.setTransactionHistory(history);
+        return service;
+    }
+    
+    private static void shutdown() {
+        if (metricsServer != null) {
+            metricsServer.close();
+        }
+        if (checkpointer != null) {
+            checkpointer.close();
+        }
+        if (replication != null) {
+            try {
+                replication.close();
+            } catch (IOException e) {
+                logger.error("Replication shutdown failed: {}", e.getMessage());
+            }
+        }
+        bankService.close();
+        if (repository != null) {
+            repository.close();
+        }
+        if (history != null) {
+            history.close();
+        }
+        if (auditLog != null) {
+            auditLog.close();
+            if (auditLog.droppedCount() > 0) {
+                logger.warn("{} audit events were dropped", auditLog.droppedCount());
+            }
+        }
+    }
+    
     private static void demonstrateAllScenarios() {
         System.out.println("\n═══════════════════ DEMONSTRATION MODE ═══════════════════\n");
         
@@ -66,8 +257,8 @@ public class BankApplication {
     
     private static void demonstrateSuccessfulBalanceCheck() {
         try {
-            double balance = bankService.checkBalance("ACC001", "1234");
-            System.out.println("✓ SUCCESS: Current balance is $" + String.format("%.2f", balance));
+            long balance = bankService.checkBalance("ACC001", "1234");
+            System.out.println("✓ SUCCESS: Current balance is $" + Money.format(balance));
         } catch (Exception e) {
             handleException(e);
         }
@@ -109,13 +300,13 @@ public class BankApplication {
     
     private static void demonstrateInsufficientBalance() {
         try {
-            bankService.withdraw("ACC002", "5678", 5000.00);
+            bankService.withdraw("ACC002", "5678", Money.ofUnits(5000));
         } catch (InsufficientBalanceException e) {
             ErrorResponse error = new ErrorResponse(
                 "INSUFFICIENT_BALANCE",
                 e.getMessage(),
-                String.format("Shortfall: $%.2f. Please reduce withdrawal amount or deposit more funds.", 
-                             e.getShortfall()),
+                "Shortfall: $" + Money.format(e.getShortfall())
+                    + ". Please reduce withdrawal amount or deposit more funds.",
                 400
             );
             System.out.println(error);
@@ -127,14 +318,17 @@ public class BankApplication {
     
     private static void demonstrateSuccessfulWithdrawal() {
         try {
-            double balanceBefore = bankService.checkBalance("ACC001", "1234");
-            System.out.println("Balance before withdrawal: $" + String.format("%.2f", balanceBefore));
-            
-            bankService.withdraw("ACC001", "1234", 1000.00);
-            
-            double balanceAfter = bankService.checkBalance("ACC001", "1234");
-            System.out.println("✓ SUCCESS: Withdrew $1000.00");
-            System.out.println("New balance: $" + String.format("%.2f", balanceAfter));
+            String session = bankService.openSession("ACC001", "1234");
+            try {
+                long balanceBefore = bankService.checkBalance(session);
+                System.out.println("Balance before withdrawal: $" + Money.format(balanceBefore));
+                
+                long balanceAfter = bankService.withdraw(session, Money.ofUnits(1000));
+                System.out.println("✓ SUCCESS: Withdrew $1000.00");
+                System.out.println("New balance: $" + Money.format(balanceAfter));
+            } finally {
+                bankService.closeSession(session);
+            }
         } catch (Exception e) {
             handleException(e);
         }
@@ -143,19 +337,49 @@ public class BankApplication {
     private static void demonstrateSuccessfulTransfer() {
         try {
             System.out.println("Transferring $500 from ACC001 to ACC002...");
-            bankService.transfer("ACC001", "1234", "ACC002", 500.00);
-            
-            double balance1 = bankService.checkBalance("ACC001", "1234");
-            double balance2 = bankService.checkBalance("ACC002", "5678");
+            String session = bankService.openSession("ACC001", "1234");
+            long balance1;
+            try {
+                balance1 = bankService.transfer(session, "ACC002", Money.ofUnits(500));
+            } finally {
+                bankService.closeSession(session);
+            }
+            long balance2 = bankService.checkBalance("ACC002", "5678");
             
             System.out.println("✓ SUCCESS: Transfer completed");
-            System.out.println("ACC001 balance: $" + String.format("%.2f", balance1));
-            System.out.println("ACC002 balance: $" + String.format("%.2f", balance2));
+            System.out.println("ACC001 balance: $" + Money.format(balance1));
+            System.out.println("ACC002 balance: $" + Money.format(balance2));
         } catch (Exception e) {
             handleException(e);
         }
     }
     
+    /**
+     * Serves the bank over a loopback socket instead of the console.
+     * Stops when the JVM is shut down: the hook interrupts the wait and
+     * holds the JVM until the server and the service have been closed here.
+     */
+    private static void runServerMode(int port) {
+        Thread main = Thread.currentThread();
+        try (BankServer server = new BankServer(bankService, port).start()) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                main.interrupt();
+                try {
+                    main.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+            server.awaitTermination();
+        } catch (IOException e) {
+            logger.error("Cannot start server on port {}: {}", port, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            shutdown();
+        }
+    }
+    
     private static void runInteractiveMode() {
         System.out.println("\n═══════════════════ INTERACTIVE MODE ═══════════════════");
         System.out.println("Sample Accounts:");
@@ -170,14 +394,15 @@ public class BankApplication {
             System.out.println("║ 3. Deposit Money                          ║");
             System.out.println("║ 4. Transfer Money                         ║");
             System.out.println("║ 5. View Account Details                   ║");
-            System.out.println("║ 6. Exit                                   ║");
+            System.out.println("║ 6. View Statement                         ║");
+            System.out.println("║ 7. Exit                                   ║");
             System.out.println("╚═══════════════════════════════════════════╝");
             System.out.print("Select option: ");
             
             try {
                 int choice = Integer.parseInt(scanner.nextLine());
                 
-                if (choice == 6) {
+                if (choice == 7) {
                     System.out.println("\n✓ Thank you for using TechnoHacks Bank Service!");
                     System.out.println("═══════════════════════════════════════════════════════\n");
                     break;
@@ -209,8 +434,11 @@ public class BankApplication {
                 case 5:
                     handleViewDetails();
                     break;
+                case 6:
+                    handleStatement();
+                    break;
                 default:
-                    System.out.println("✗ Invalid option! Please select 1-6.");
+                    System.out.println("✗ Invalid option! Please select 1-7.");
             }
         } catch (Exception e) {
             handleException(e);
@@ -223,8 +451,8 @@ public class BankApplication {
         System.out.print("Enter PIN: ");
         String pin = scanner.nextLine();
         
-        double balance = bankService.checkBalance(accountNumber, pin);
-        System.out.println("\n✓ Current Balance: $" + String.format("%.2f", balance));
+        long balance = bankService.checkBalance(accountNumber, pin);
+        System.out.println("\n✓ Current Balance: $" + Money.format(balance));
     }
     
     private static void handleWithdrawal() throws Exception {
@@ -233,13 +461,16 @@ public class BankApplication {
         System.out.print("Enter PIN: ");
         String pin = scanner.nextLine();
         System.out.print("Enter Amount to Withdraw: $");
-        double amount = Double.parseDouble(scanner.nextLine());
-        
-        bankService.withdraw(accountNumber, pin, amount);
-        System.out.println("\n✓ Withdrawal successful! Amount: $" + String.format("%.2f", amount));
+        long amount = Money.parse(scanner.nextLine());
         
-        double newBalance = bankService.checkBalance(accountNumber, pin);
-        System.out.println("New Balance: $" + String.format("%.2f", newBalance));
+        String session = bankService.openSession(accountNumber, pin);
+        try {
+            long newBalance = bankService.withdraw(session, amount);
+            System.out.println("\n✓ Withdrawal successful! Amount: $" + Money.format(amount));
+            System.out.println("New Balance: $" + Money.format(newBalance));
+        } finally {
+            bankService.closeSession(session);
+        }
     }
     
     private static void handleDeposit() throws Exception {
@@ -248,13 +479,16 @@ public class BankApplication {
         System.out.print("Enter PIN: ");
         String pin = scanner.nextLine();
         System.out.print("Enter Amount to Deposit: $");
-        double amount = Double.parseDouble(scanner.nextLine());
+        long amount = Money.parse(scanner.nextLine());
         
-        bankService.deposit(accountNumber, pin, amount);
-        System.out.println("\n✓ Deposit successful! Amount: $" + String.format("%.2f", amount));
-        
-        double newBalance = bankService.checkBalance(accountNumber, pin);
-        System.out.println("New Balance: $" + String.format("%.2f", newBalance));
+        String session = bankService.openSession(accountNumber, pin);
+        try {
+            long newBalance = bankService.deposit(session, amount);
+            System.out.println("\n✓ Deposit successful! Amount: $" + Money.format(amount));
+            System.out.println("New Balance: $" + Money.format(newBalance));
+        } finally {
+            bankService.closeSession(session);
+        }
     }
     
     private static void handleTransfer() throws Exception {
@@ -265,10 +499,10 @@ public class BankApplication {
         System.out.print("Enter Destination Account Number: ");
         String toAccount = scanner.nextLine();
         System.out.print("Enter Amount to Transfer: $");
-        double amount = Double.parseDouble(scanner.nextLine());
+        long amount = Money.parse(scanner.nextLine());
         
         bankService.transfer(fromAccount, pin, toAccount, amount);
-        System.out.println("\n✓ Transfer successful! Amount: $" + String.format("%.2f", amount));
+        System.out.println("\n✓ Transfer successful! Amount: $" + Money.format(amount));
         System.out.println("From: " + fromAccount + " → To: " + toAccount);
     }
     
@@ -282,6 +516,28 @@ public class BankApplication {
         System.out.println("\n" + account);
     }
     
+    private static void handleStatement() throws Exception {
+        if (history == null) {
+            System.out.println("Statements need a transaction history; start with -Dbank.history.dir");
+            return;
+        }
+        System.out.print("Enter Account Number: ");
+        String accountNumber = scanner.nextLine();
+        System.out.print("Enter PIN: ");
+        String pin = scanner.nextLine();
+        
+        String session = bankService.openSession(accountNumber, pin);
+        try {
+            StatementPage page = bankService.getStatement(session, Long.MIN_VALUE, Long.MAX_VALUE, StatementPage.FIRST, 10);
+            System.out.println("\nLast " + page.getEntries().size() + " transactions:");
+            for (HistoryEntry entry : page.getEntries()) {
+                System.out.println("  " + entry);
+            }
+        } finally {
+            bankService.closeSession(session);
+        }
+    }
+    
     private static void handleException(Exception e) {
         if (e instanceof AccountNotFoundException) {
             AccountNotFoundException anfe = (AccountNotFoundException) e;
@@ -310,7 +566,7 @@ public class BankApplication {
             ErrorResponse error = new ErrorResponse(
                 "INSUFFICIENT_BALANCE",
                 ibe.getMessage(),
-                String.format("You need $%.2f more to complete this transaction", ibe.getShortfall()),
+                "You need $" + Money.format(ibe.getShortfall()) + " more to complete this transaction",
                 400
             );
             System.out.println(error);
@@ -350,11 +606,11 @@ public class BankApplication {
             }
         }
     }
-    private static double promptValidAmount(String action) {
+    private static long promptValidAmount(String action) {
         while (true) {
             System.out.print("Enter amount to " + action + ": $");
             try {
-                double amount = Double.parseDouble(scanner.nextLine().trim());
+                long amount = Money.parse(scanner.nextLine());
                 if (amount > 0) {
                     return amount;
                 } else {
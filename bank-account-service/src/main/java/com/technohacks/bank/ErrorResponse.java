@@ -13,6 +13,22 @@ public class ErrorResponse {
         this.status = status;
     }
 
+    public String getErrorCode() {
+        return errorCode;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public String getDetails() {
+        return details;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
     @Override
     public String toString() {
         return String.format("✗ ERROR [%d - %s]: %s\n↳ %s",
@@ -0,0 +1,337 @@
+package com.technohacks.bank.audit;
+
+import com.technohacks.bank.model.Money;
+import com.technohacks.bank.service.Operation;
+import com.technohacks.bank.service.OperationStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Audit trail of account operations, written off the request path.
+ *
+ * Callers copy an event into a pre-allocated ring slot and return; a
+ * background thread drains the ring in batches and appends one JSON object
+ * per line to the audit file. When the ring is full the
+ * {@link BackpressurePolicy} decides whether the caller drops the event or
+ * waits for the writer.
+ */
+public class AuditLog implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(AuditLog.class);
+
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private static final byte[] TIME_FIELD = ascii("{\"time\":");
+    private static final byte[] ACCOUNT_FIELD = ascii(",\"account\":\"");
+    private static final byte[] COUNTERPARTY_FIELD = ascii(",\"counterparty\":\"");
+    private static final byte[] AMOUNT_FIELD = ascii(",\"amount\":\"");
+    private static final byte[] BALANCE_FIELD = ascii(",\"balance\":\"");
+    private static final byte[][] OPERATION_FIELDS = new byte[Operation.values().length][];
+    private static final byte[][] STATUS_FIELDS = new byte[OperationStatus.values().length][];
+
+    static {
+        for (Operation op : Operation.values()) {
+            OPERATION_FIELDS[op.ordinal()] = ascii(",\"op\":\"" + op.name() + "\"");
+        }
+        for (OperationStatus status : OperationStatus.values()) {
+            STATUS_FIELDS[status.ordinal()] = ascii(",\"status\":\"" + status.getErrorCode() + "\"");
+        }
+    }
+    private static final int BATCH = 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_KEY_CHARS = 64;
+    private static final int MAX_LINE = 1024;
+    private static final long IDLE_PARK_NANOS = 1_000_000;
+    // tail of a closed log, far beyond any head
+    private static final long CLOSED = Long.MAX_VALUE / 2;
+
+    /** Ring slot; filled in place by callers. */
+    private static final class Event {
+        long time;
+        Operation op;
+        String account;
+        String counterparty;
+        long amount;
+        OperationStatus status;
+        long balance;
+    }
+
+    private final Event[] events;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLongArray published;
+    private final AtomicLong dropped = new AtomicLong();
+    private final BackpressurePolicy policy;
+    private final FileChannel channel;
+    private final Thread writer;
+    private final byte[] bytes = new byte[BUFFER_SIZE];
+    private volatile long head;
+    private volatile boolean running = true;
+    private volatile long written;
+    private int length;
+    private boolean failed;
+
+    private AuditLog(FileChannel channel, int capacity, BackpressurePolicy policy) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two");
+        }
+        this.channel = channel;
+        this.policy = policy;
+        this.events = new Event[capacity];
+        for (int i = 0; i < capacity; i++) {
+            events[i] = new Event();
+        }
+        this.mask = capacity - 1;
+        this.published = new AtomicLongArray(capacity);
+        this.writer = new Thread(this::run, "bank-audit-writer");
+        writer.setDaemon(true);
+    }
+
+    public static AuditLog open(Path file) throws IOException {
+        return open(file, DEFAULT_CAPACITY, BackpressurePolicy.DROP);
+    }
+
+    /** Opens (appending to) the audit file and starts the writer thread. */
+    public static AuditLog open(Path file, int capacity, BackpressurePolicy policy) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        FileChannel channel = FileChannel.open(file,
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        AuditLog log = new AuditLog(channel, capacity, policy);
+        log.writer.start();
+        return log;
+    }
+
+    /**
+     * Queues one event. Returns false if it was dropped because the queue
+     * was full (DROP policy) or the log is closed. Events that arrive while
+     * the log closes are counted in {@link #droppedCount} unless written.
+     *
+     * @param balance balance in cents after a successful operation
+     */
+    public boolean record(Operation op, String account, String counterparty, long amount,
+                          OperationStatus status, long balance) {
+        long sequence;
+        while (true) {
+            if (!running) {
+                dropped.incrementAndGet();
+                return false;
+            }
+            sequence = tail.get();
+            if (sequence - head >= events.length) {
+                if (policy == BackpressurePolicy.DROP || !running) {
+                    dropped.incrementAndGet();
+                    return false;
+                }
+                LockSupport.unpark(writer);
+                Thread.yield();
+            } else if (tail.compareAndSet(sequence, sequence + 1)) {
+                break;
+            }
+        }
+        int index = (int) sequence & mask;
+        Event event = events[index];
+        event.time = System.currentTimeMillis();
+        event.op = op;
+        event.account = account;
+        event.counterparty = counterparty;
+        event.amount = amount;
+        event.status = status;
+        event.balance = balance;
+        published.lazySet(index, sequence + 1);
+        return true;
+    }
+
+    /** Events discarded because the queue was full or the log was closed. */
+    public long droppedCount() {
+        return dropped.get();
+    }
+
+    /** Events written to the file so far. */
+    public long writtenCount() {
+        return written;
+    }
+
+    /** Stops accepting events, writes out what is queued and closes the file. */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // the queue now looks full to any claim still racing the close, and
+        // what was claimed but not written is known exactly
+        long claimed = tail.getAndSet(CLOSED);
+        if (claimed != CLOSED) {
+            dropped.addAndGet(claimed - head);
+        }
+        try {
+            channel.force(false);
+            channel.close();
+        } catch (IOException e) {
+            logger.error("Cannot close audit log: {}", e.getMessage());
+        }
+    }
+
+    private void run() {
+        while (running || isPublished(head)) {
+            if (drain() == 0) {
+                flush();
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+        }
+        flush();
+    }
+
+    private boolean isPublished(long sequence) {
+        return published.get((int) sequence & mask) == sequence + 1;
+    }
+
+    private int drain() {
+        long next = head;
+        int n = 0;
+        while (n < BATCH && isPublished(next)) {
+            Event event = events[(int) next & mask];
+            append(event);
+            event.account = null;
+            event.counterparty = null;
+            next++;
+            n++;
+        }
+        // the slots are free once their contents are in the byte buffer
+        head = next;
+        written += n;
+        return n;
+    }
+
+    private void append(Event e) {
+        if (length > BUFFER_SIZE - MAX_LINE) {
+            flush();
+        }
+        put(TIME_FIELD);
+        putLong(e.time);
+        put(OPERATION_FIELDS[e.op.ordinal()]);
+        putKey(ACCOUNT_FIELD, e.account);
+        putKey(COUNTERPARTY_FIELD, e.counterparty);
+        if (e.op.movesMoney()) {
+            put(AMOUNT_FIELD);
+            putCents(e.amount);
+            bytes[length++] = '"';
+        }
+        put(STATUS_FIELDS[e.status.ordinal()]);
+        if (e.status == OperationStatus.OK) {
+            put(BALANCE_FIELD);
+            putCents(e.balance);
+            bytes[length++] = '"';
+        }
+        bytes[length++] = '}';
+        bytes[length++] = '\n';
+    }
+
+    private void put(byte[] ascii) {
+        System.arraycopy(ascii, 0, bytes, length, ascii.length);
+        length += ascii.length;
+    }
+
+    private void putLong(long value) {
+        if (value < 0) {
+            if (value == Long.MIN_VALUE) {
+                put(ascii(Long.toString(value)));
+                return;
+            }
+            bytes[length++] = '-';
+            value = -value;
+        }
+        int end = length + digits(value);
+        for (int i = end - 1; i >= length; i--) {
+            bytes[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        length = end;
+    }
+
+    private void putCents(long cents) {
+        if (cents < 0) {
+            if (cents == Long.MIN_VALUE) {
+                put(ascii(Money.format(cents)));
+                return;
+            }
+            bytes[length++] = '-';
+            cents = -cents;
+        }
+        putLong(cents / 100);
+        long fraction = cents % 100;
+        bytes[length++] = '.';
+        bytes[length++] = (byte) ('0' + fraction / 10);
+        bytes[length++] = (byte) ('0' + fraction % 10);
+    }
+
+    private static int digits(long value) {
+        int n = 1;
+        while (value >= 10) {
+            value /= 10;
+            n++;
+        }
+        return n;
+    }
+
+    // Account numbers may come straight from clients: escape and truncate
+    // them so every line is valid, ASCII-only JSON of bounded length.
+    private void putKey(byte[] field, String value) {
+        if (value == null) {
+            return;
+        }
+        put(field);
+        int end = Math.min(value.length(), MAX_KEY_CHARS);
+        for (int i = 0; i < end; i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                bytes[length++] = '\\';
+                bytes[length++] = (byte) c;
+            } else if (c < 0x20 || c > 0x7e) {
+                bytes[length++] = '\\';
+                bytes[length++] = 'u';
+                for (int shift = 12; shift >= 0; shift -= 4) {
+                    bytes[length++] = (byte) Character.forDigit((c >> shift) & 0xf, 16);
+                }
+            } else {
+                bytes[length++] = (byte) c;
+            }
+        }
+        bytes[length++] = '"';
+    }
+
+    private void flush() {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+        try {
+            while (buffer.hasRemaining() && !failed) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            // keep draining so callers never block on a broken disk
+            failed = true;
+            logger.error("Audit log write failed, further events are discarded: {}", e.getMessage());
+        }
+        length = 0;
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
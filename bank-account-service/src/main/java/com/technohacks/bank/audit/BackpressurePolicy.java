@@ -0,0 +1,12 @@
+package com.technohacks.bank.audit;
+
+/**
+ * What {@link AuditLog#record} does when the writer has fallen behind and
+ * the event queue is full.
+ */
+public enum BackpressurePolicy {
+    /** Discard the event and count it; the request never waits. */
+    DROP,
+    /** Wait for the writer to free a slot; no event is lost. */
+    BLOCK
+}
@@ -0,0 +1,176 @@
+package com.technohacks.bank.bulk;
+
+import com.technohacks.bank.model.BankAccount;
+import com.technohacks.bank.model.Money;
+import com.technohacks.bank.service.AccountStore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Spliterators;
+
+/**
+ * Streams every account of an {@link AccountStore} to a CSV or binary file,
+ * see {@link AccountFileFormat}, through one reused buffer. Accounts may be
+ * exported while traffic keeps flowing: each balance is read with an
+ * optimistic stamp on its stripe, falling back to the stripe lock only if an
+ * update gets in the way, so no account is written half updated. The file
+ * as a whole is not a point-in-time image; use a snapshot for that.
+ */
+public final class AccountExporter {
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final byte[] HEADER_LINE = (AccountFileFormat.CSV_HEADER + "\n").getBytes(StandardCharsets.US_ASCII);
+
+    private AccountExporter() {
+    }
+
+    /** Writes the accounts to {@code file}, replacing it, and returns how many were written. */
+    public static long write(AccountStore accounts, Path file, AccountFileFormat format) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            if (format == AccountFileFormat.CSV) {
+                buf.put(HEADER_LINE);
+            } else {
+                buf.putInt(AccountFileFormat.MAGIC).putInt(AccountFileFormat.VERSION).putLong(0);
+            }
+            long count = 0;
+            Iterator<BankAccount> it = Spliterators.iterator(accounts.spliterator());
+            while (it.hasNext()) {
+                BankAccount acc = it.next();
+                long balance = balanceOf(accounts, acc);
+                if (format == AccountFileFormat.CSV) {
+                    putCsv(channel, buf, acc, balance);
+                } else {
+                    putBinary(channel, buf, acc, balance);
+                }
+                count++;
+            }
+            flush(channel, buf);
+            if (format == AccountFileFormat.BINARY) {
+                buf.putLong(count).flip();
+                channel.write(buf, 8);
+            }
+            channel.force(true);
+            return count;
+        }
+    }
+
+    private static long balanceOf(AccountStore accounts, BankAccount acc) {
+        String number = acc.getAccountNumber();
+        long stamp = accounts.tryOptimisticRead(number);
+        long balance = acc.getBalance();
+        if (accounts.validate(number, stamp)) {
+            return balance;
+        }
+        accounts.lock(number);
+        try {
+            return acc.getBalance();
+        } finally {
+            accounts.unlock(number);
+        }
+    }
+
+    private static void putCsv(FileChannel channel, ByteBuffer buf, BankAccount acc, long balance) throws IOException {
+        String number = acc.getAccountNumber();
+        byte[] holder = acc.getAccountHolder().getBytes(StandardCharsets.UTF_8);
+        String pinHash = acc.getPinHash();
+        // quoting can double every byte of the holder; a balance takes at most 21
+        ensure(channel, buf, number.length() + 2 * holder.length + pinHash.length() + 32);
+        putAscii(buf, number);
+        buf.put((byte) ',');
+        putCsvField(buf, holder, acc);
+        buf.put((byte) ',');
+        putAscii(buf, pinHash);
+        buf.put((byte) ',');
+        putUnits(buf, balance);
+        buf.put((byte) '\n');
+    }
+
+    private static void putCsvField(ByteBuffer buf, byte[] value, BankAccount acc) throws IOException {
+        boolean quote = false;
+        for (byte b : value) {
+            if (b == '\n' || b == '\r') {
+                throw new IOException("Holder of account " + acc.getAccountNumber() + " contains a line break");
+            }
+            quote |= b == ',' || b == '"';
+        }
+        if (!quote) {
+            buf.put(value);
+            return;
+        }
+        buf.put((byte) '"');
+        for (byte b : value) {
+            if (b == '"') {
+                buf.put((byte) '"');
+            }
+            buf.put(b);
+        }
+        buf.put((byte) '"');
+    }
+
+    private static void putBinary(FileChannel channel, ByteBuffer buf, BankAccount acc, long balance) throws IOException {
+        String number = acc.getAccountNumber();
+        byte[] holder = acc.getAccountHolder().getBytes(StandardCharsets.UTF_8);
+        String pinHash = acc.getPinHash();
+        if (number.length() > 0xFF || holder.length > 0xFFFF || pinHash.length() > 0xFF) {
+            throw new IOException("Account " + number + " has a field too long for the binary format");
+        }
+        ensure(channel, buf, 1 + number.length() + 2 + holder.length + 1 + pinHash.length() + 8);
+        buf.put((byte) number.length());
+        putAscii(buf, number);
+        buf.putShort((short) holder.length).put(holder);
+        buf.put((byte) pinHash.length());
+        putAscii(buf, pinHash);
+        buf.putLong(balance);
+    }
+
+    // Account numbers and PIN hashes are ASCII.
+    private static void putAscii(ByteBuffer buf, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            buf.put((byte) s.charAt(i));
+        }
+    }
+
+    // Writes cents as units with two decimals, e.g. 1500.25, like Money.format.
+    private static void putUnits(ByteBuffer buf, long cents) {
+        if (cents < 0) {
+            buf.put(Money.format(cents).getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+        long units = cents / 100;
+        int fraction = (int) (cents % 100);
+        if (units == 0) {
+            buf.put((byte) '0');
+        } else {
+            int digits = 0;
+            for (long u = units; u > 0; u /= 10) {
+                digits++;
+            }
+            int at = buf.position() + digits;
+            for (long u = units; u > 0; u /= 10) {
+                buf.put(--at, (byte) ('0' + u % 10));
+            }
+            buf.position(buf.position() + digits);
+        }
+        buf.put((byte) '.').put((byte) ('0' + fraction / 10)).put((byte) ('0' + fraction % 10));
+    }
+
+    private static void ensure(FileChannel channel, ByteBuffer buf, int bytes) throws IOException {
+        if (buf.remaining() < bytes) {
+            flush(channel, buf);
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+        buf.clear();
+    }
+}
@@ -0,0 +1,33 @@
+package com.technohacks.bank.bulk;
+
+import java.nio.file.Path;
+
+/**
+ * File layouts for bulk account import and export.
+ *
+ * CSV: an optional header line {@link #CSV_HEADER}, then one account per
+ * line as {@code number,holder,pinHash,balance}, with the balance in units
+ * such as {@code 1500.25}. A holder containing a comma or quote is quoted,
+ * with quotes doubled; fields never contain line breaks.
+ *
+ * Binary: a header of {@code int magic, int version, long count}, then one
+ * record per account: {@code u8 length, number (ASCII), u16 length, holder
+ * (UTF-8), u8 length, PIN hash (ASCII), long balance in cents}.
+ *
+ * Both carry the PIN hash rather than the PIN, so migrated accounts keep
+ * their PINs without rehashing millions of them.
+ */
+public enum AccountFileFormat {
+    CSV,
+    BINARY;
+
+    public static final String CSV_HEADER = "account_number,account_holder,pin_hash,balance";
+    static final int MAGIC = 0x42414343;
+    static final int VERSION = 1;
+    static final int BINARY_HEADER = 4 + 4 + 8;
+
+    /** CSV for names ending in .csv, binary otherwise. */
+    public static AccountFileFormat of(Path file) {
+        return file.getFileName().toString().toLowerCase().endsWith(".csv") ? CSV : BINARY;
+    }
+}
@@ -0,0 +1,518 @@
+package com.technohacks.bank.bulk;
+
+import com.technohacks.bank.model.BankAccount;
+import com.technohacks.bank.service.AccountStore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Predicate;
+
+/**
+ * Streams accounts from a CSV or binary file, see {@link AccountFileFormat},
+ * into an {@link AccountStore}.
+ *
+ * The calling thread reads the file through a FileChannel in blocks of
+ * {@link #CHUNK_SIZE} bytes, each cut after its last complete record, and
+ * hands every block to the pool, where it is parsed, validated and inserted
+ * straight from the bytes: no regular expressions and no String per line.
+ * Only a few blocks are in flight at a time, so the memory used besides the
+ * accounts themselves does not grow with the file. A new store is sized up
+ * front, from the binary header's count or, for CSV, from the file size and
+ * the first block's average line length.
+ *
+ * Invalid records are counted and skipped, as is any account whose number is
+ * already in the store; they do not stop the import.
+ */
+public final class AccountImporter {
+    public static final int MAX_ERRORS = 100;
+    static final int CHUNK_SIZE = 4 << 20;
+    static final int MAX_NUMBER_BYTES = 12;
+    static final int MAX_HOLDER_BYTES = 255;
+    static final int MAX_PIN_HASH_BYTES = 255;
+    private static final int FIELDS = 4;
+    private static final int ESTIMATE_SAMPLE = 1 << 20;
+    private static final long MAX_UNITS = (Long.MAX_VALUE - 99) / 100;
+    private static final byte[] HEADER = AccountFileFormat.CSV_HEADER.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PIN_HASH_PREFIX = "pbkdf2-sha256$".getBytes(StandardCharsets.US_ASCII);
+
+    private AccountImporter() {
+    }
+
+    /** Loads {@code file} into a new store, picking the format from its name. */
+    public static ImportResult load(Path file) throws IOException {
+        return load(file, AccountFileFormat.of(file), null, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param into store to add the accounts to, e.g. a running service's;
+     *             null for a new store sized for the file
+     */
+    public static ImportResult load(Path file, AccountFileFormat format, AccountStore into, ForkJoinPool pool)
+            throws IOException {
+        return load(file, format, into, null, pool);
+    }
+
+    /**
+     * @param adder adds one account to {@code into} unless its number is
+     *              taken and returns whether it did, e.g. to journal it;
+     *              null for {@link AccountStore#putIfAbsent}
+     */
+    public static ImportResult load(Path file, AccountFileFormat format, AccountStore into,
+                                    Predicate<BankAccount> adder, ForkJoinPool pool) throws IOException {
+        long started = System.nanoTime();
+        ArrayBlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(pool.getParallelism() + 2);
+        while (free.remainingCapacity() > 0) {
+            free.add(ByteBuffer.allocate(CHUNK_SIZE));
+        }
+        List<ForkJoinTask<ChunkParser>> tasks = new ArrayList<>();
+        AccountStore accounts = into;
+        long bytes;
+        long expected = -1;
+        int linesBefore = 0;
+        try (FileChannel channel = FileChannel.open(file)) {
+            bytes = channel.size();
+            ByteBuffer buf = take(free);
+            boolean eof = fill(channel, buf);
+            int start = 0;
+            if (format == AccountFileFormat.BINARY) {
+                if (buf.position() < AccountFileFormat.BINARY_HEADER
+                        || buf.getInt(0) != AccountFileFormat.MAGIC || buf.getInt(4) != AccountFileFormat.VERSION) {
+                    throw new IOException("Not a supported account file: " + file);
+                }
+                expected = buf.getLong(8);
+                start = AccountFileFormat.BINARY_HEADER;
+            } else if (startsWithHeader(buf.array(), buf.position())) {
+                start = HEADER.length;
+                while (start < buf.position() && buf.get(start - 1) != '\n') {
+                    start++;
+                }
+                linesBefore = 1;
+            }
+            if (accounts == null) {
+                long estimate = expected >= 0 ? expected : estimateLines(buf.array(), start, buf.position(), bytes);
+                accounts = new AccountStore((int) Math.min(estimate, Integer.MAX_VALUE >> 1), AccountStore.DEFAULT_STRIPES);
+            }
+            if (adder == null) {
+                adder = accounts::putIfAbsent;
+            }
+
+            try {
+                while (true) {
+                    buf.flip();
+                    int end = eof ? buf.limit() : boundary(format, buf.array(), start, buf.limit());
+                    if (end < 0) {
+                        throw new IOException("Record longer than " + CHUNK_SIZE + " bytes in " + file);
+                    }
+                    ByteBuffer next = null;
+                    if (!eof) {
+                        next = take(free);
+                        next.put(buf.array(), end, buf.limit() - end);
+                    }
+                    tasks.add(pool.submit(new ChunkParser(format, buf, start, end, adder, free)));
+                    if (eof) {
+                        break;
+                    }
+                    buf = next;
+                    start = 0;
+                    eof = fill(channel, buf);
+                }
+            } catch (IOException | RuntimeException e) {
+                for (ForkJoinTask<ChunkParser> task : tasks) {
+                    task.quietlyJoin();
+                }
+                throw e;
+            }
+        }
+
+        long loaded = 0;
+        long rejected = 0;
+        long records = linesBefore;
+        List<String> errors = new ArrayList<>();
+        String unit = format == AccountFileFormat.CSV ? "line " : "record ";
+        for (ForkJoinTask<ChunkParser> task : tasks) {
+            ChunkParser chunk = task.join();
+            loaded += chunk.loaded;
+            rejected += chunk.rejected;
+            for (int i = 0; i < chunk.errorRecords.size() && errors.size() < MAX_ERRORS; i++) {
+                errors.add(unit + (records + chunk.errorRecords.get(i)) + ": " + chunk.errorMessages.get(i));
+            }
+            records += chunk.records;
+        }
+        if (expected >= 0 && expected != records && errors.size() < MAX_ERRORS) {
+            errors.add("header counts " + expected + " records but the file holds " + records);
+        }
+        return new ImportResult(accounts, loaded, rejected, errors, bytes, System.nanoTime() - started);
+    }
+
+    private static ByteBuffer take(ArrayBlockingQueue<ByteBuffer> free) throws IOException {
+        try {
+            return free.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while importing accounts", e);
+        }
+    }
+
+    /** Reads until the buffer is full; returns true at end of file. */
+    private static boolean fill(FileChannel channel, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf) < 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean startsWithHeader(byte[] data, int length) {
+        if (length < HEADER.length + 1) {
+            return false;
+        }
+        for (int i = 0; i < HEADER.length; i++) {
+            if (data[i] != HEADER[i]) {
+                return false;
+            }
+        }
+        return data[HEADER.length] == '\n' || data[HEADER.length] == '\r';
+    }
+
+    private static long estimateLines(byte[] data, int start, int end, long fileSize) {
+        int sampleEnd = Math.min(end, start + ESTIMATE_SAMPLE);
+        int lines = 0;
+        for (int i = start; i < sampleEnd; i++) {
+            if (data[i] == '\n') {
+                lines++;
+            }
+        }
+        if (lines == 0) {
+            return 16;
+        }
+        long estimate = fileSize * lines / (sampleEnd - start);
+        return estimate + estimate / 20 + 16;
+    }
+
+    /**
+     * End of the last complete record in [start, limit), or -1 if not even
+     * one fits.
+     */
+    private static int boundary(AccountFileFormat format, byte[] data, int start, int limit) {
+        if (format == AccountFileFormat.CSV) {
+            for (int i = limit - 1; i >= start; i--) {
+                if (data[i] == '\n') {
+                    return i + 1;
+                }
+            }
+            return -1;
+        }
+        int p = start;
+        while (true) {
+            int q = binaryRecordEnd(data, p, limit);
+            if (q < 0) {
+                return p > start ? p : -1;
+            }
+            p = q;
+        }
+    }
+
+    // End of the binary record at p, or -1 if it runs past limit.
+    static int binaryRecordEnd(byte[] data, int p, int limit) {
+        if (p >= limit) {
+            return -1;
+        }
+        int q = p + 1 + (data[p] & 0xFF);
+        if (q + 2 > limit) {
+            return -1;
+        }
+        q += 2 + (((data[q] & 0xFF) << 8) | (data[q + 1] & 0xFF));
+        if (q + 1 > limit) {
+            return -1;
+        }
+        q += 1 + (data[q] & 0xFF) + 8;
+        return q > limit ? -1 : q;
+    }
+
+    /**
+     * Cents for a non-negative amount in units such as {@code 12},
+     * {@code 12.5} or {@code 12.50}, or -1 if the bytes are not one.
+     */
+    static long parseCents(byte[] data, int start, int end) {
+        long units = 0;
+        int i = start;
+        for (; i < end && data[i] != '.'; i++) {
+            int digit = data[i] - '0';
+            if (digit < 0 || digit > 9 || units > MAX_UNITS) {
+                return -1;
+            }
+            units = units * 10 + digit;
+        }
+        int digits = i - start;
+        long cents = 0;
+        if (i < end) {
+            int fraction = 0;
+            for (i++; i < end; i++) {
+                int digit = data[i] - '0';
+                if (digit < 0 || digit > 9 || ++fraction > 2) {
+                    return -1;
+                }
+                cents = cents * 10 + digit;
+            }
+            if (fraction == 1) {
+                cents *= 10;
+            }
+            digits += fraction;
+        }
+        if (digits == 0 || units > MAX_UNITS) {
+            return -1;
+        }
+        return units * 100 + cents;
+    }
+
+    /** Parses, validates and inserts one block, then returns its buffer to the pool. */
+    private static final class ChunkParser implements Callable<ChunkParser> {
+        private final AccountFileFormat format;
+        private final ByteBuffer buf;
+        private final byte[] data;
+        private final int start;
+        private final int end;
+        private final Predicate<BankAccount> adder;
+        private final ArrayBlockingQueue<ByteBuffer> free;
+        // field bounds of the CSV line being parsed; escaped fields hold doubled quotes
+        private final int[] bounds = new int[FIELDS * 2];
+        private final boolean[] escaped = new boolean[FIELDS];
+        private byte[] lastPinHash = new byte[0];
+        private String lastPinHashString;
+
+        long loaded;
+        long rejected;
+        // lines or records in the block, and the first errors by position within it
+        int records;
+        final List<Integer> errorRecords = new ArrayList<>();
+        final List<String> errorMessages = new ArrayList<>();
+
+        ChunkParser(AccountFileFormat format, ByteBuffer buf, int start, int end, Predicate<BankAccount> adder,
+                    ArrayBlockingQueue<ByteBuffer> free) {
+            this.format = format;
+            this.buf = buf;
+            this.data = buf.array();
+            this.start = start;
+            this.end = end;
+            this.adder = adder;
+            this.free = free;
+        }
+
+        @Override
+        public ChunkParser call() {
+            try {
+                if (format == AccountFileFormat.CSV) {
+                    parseCsv();
+                } else {
+                    parseBinary();
+                }
+            } finally {
+                buf.clear();
+                free.add(buf);
+            }
+            return this;
+        }
+
+        private void parseCsv() {
+            int p = start;
+            while (p < end) {
+                int eol = p;
+                while (eol < end && data[eol] != '\n') {
+                    eol++;
+                }
+                int lineEnd = eol > p && data[eol - 1] == '\r' ? eol - 1 : eol;
+                records++;
+                if (lineEnd > p) {
+                    String error = split(p, lineEnd);
+                    if (error != null) {
+                        reject(error);
+                    } else {
+                        long balance = parseCents(data, bounds[6], bounds[7]);
+                        add(bounds[0], bounds[1], holder(), bounds[4], bounds[5], balance);
+                    }
+                }
+                p = eol + 1;
+            }
+        }
+
+        private void parseBinary() {
+            int p = start;
+            while (p < end) {
+                records++;
+                int q = binaryRecordEnd(data, p, end);
+                if (q < 0) {
+                    reject("truncated record at the end of the file");
+                    return;
+                }
+                int numberStart = p + 1;
+                int numberEnd = numberStart + (data[p] & 0xFF);
+                int holderStart = numberEnd + 2;
+                int holderEnd = holderStart + (((data[numberEnd] & 0xFF) << 8) | (data[numberEnd + 1] & 0xFF));
+                int hashStart = holderEnd + 1;
+                int hashEnd = hashStart + (data[holderEnd] & 0xFF);
+                String holder = holderEnd - holderStart > MAX_HOLDER_BYTES || isBlank(holderStart, holderEnd)
+                    ? null : new String(data, holderStart, holderEnd - holderStart, StandardCharsets.UTF_8);
+                add(numberStart, numberEnd, holder, hashStart, hashEnd, buf.getLong(hashEnd));
+                p = q;
+            }
+        }
+
+        // Records the bounds of the line's four fields; returns why the
+        // line cannot be split, or null.
+        private String split(int p, int lineEnd) {
+            for (int f = 0; f < FIELDS; f++) {
+                escaped[f] = false;
+                if (p < lineEnd && data[p] == '"') {
+                    int q = ++p;
+                    while (true) {
+                        while (q < lineEnd && data[q] != '"') {
+                            q++;
+                        }
+                        if (q >= lineEnd) {
+                            return "unterminated quote";
+                        }
+                        if (q + 1 < lineEnd && data[q + 1] == '"') {
+                            escaped[f] = true;
+                            q += 2;
+                        } else {
+                            break;
+                        }
+                    }
+                    bounds[2 * f] = p;
+                    bounds[2 * f + 1] = q;
+                    p = q + 1;
+                } else {
+                    bounds[2 * f] = p;
+                    while (p < lineEnd && data[p] != ',') {
+                        p++;
+                    }
+                    bounds[2 * f + 1] = p;
+                }
+                if (f < FIELDS - 1) {
+                    if (p >= lineEnd || data[p] != ',') {
+                        return "expected " + FIELDS + " fields";
+                    }
+                    p++;
+                }
+            }
+            return p == lineEnd ? null : "expected " + FIELDS + " fields";
+        }
+
+        private String holder() {
+            int s = bounds[2];
+            int e = bounds[3];
+            if (e - s > MAX_HOLDER_BYTES || isBlank(s, e)) {
+                return null;
+            }
+            if (!escaped[1]) {
+                return new String(data, s, e - s, StandardCharsets.UTF_8);
+            }
+            byte[] unquoted = new byte[e - s];
+            int n = 0;
+            for (int i = s; i < e; i++) {
+                unquoted[n++] = data[i];
+                if (data[i] == '"') {
+                    i++;
+                }
+            }
+            return new String(unquoted, 0, n, StandardCharsets.UTF_8);
+        }
+
+        private void add(int numberStart, int numberEnd, String holder, int hashStart, int hashEnd, long balance) {
+            if (!isAccountNumber(numberStart, numberEnd)) {
+                reject("account number must be 1-" + MAX_NUMBER_BYTES + " digits or capital letters");
+            } else if (holder == null) {
+                reject("holder must be 1-" + MAX_HOLDER_BYTES + " bytes and not blank");
+            } else if (!isPinHash(hashStart, hashEnd)) {
+                reject("not a supported PIN hash");
+            } else if (balance < 0) {
+                reject("balance must be a non-negative amount with at most 2 decimals");
+            } else {
+                String number = new String(data, numberStart, numberEnd - numberStart, StandardCharsets.ISO_8859_1);
+                if (adder.test(BankAccount.withPinHash(number, holder, pinHash(hashStart, hashEnd), balance))) {
+                    loaded++;
+                } else {
+                    reject("duplicate account number " + number);
+                }
+            }
+        }
+
+        // Consecutive accounts sharing a hash, e.g. a default PIN, share one String.
+        private String pinHash(int s, int e) {
+            int length = e - s;
+            boolean same = length == lastPinHash.length;
+            for (int i = 0; same && i < length; i++) {
+                same = data[s + i] == lastPinHash[i];
+            }
+            if (!same) {
+                lastPinHash = new byte[length];
+                System.arraycopy(data, s, lastPinHash, 0, length);
+                lastPinHashString = new String(lastPinHash, StandardCharsets.ISO_8859_1);
+            }
+            return lastPinHashString;
+        }
+
+        private boolean isAccountNumber(int s, int e) {
+            if (e <= s || e - s > MAX_NUMBER_BYTES) {
+                return false;
+            }
+            for (int i = s; i < e; i++) {
+                byte b = data[i];
+                if (!(b >= '0' && b <= '9' || b >= 'A' && b <= 'Z')) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // pbkdf2-sha256$iterations$salt$hash, printable ASCII
+        private boolean isPinHash(int s, int e) {
+            if (e - s <= PIN_HASH_PREFIX.length || e - s > MAX_PIN_HASH_BYTES) {
+                return false;
+            }
+            for (int i = 0; i < PIN_HASH_PREFIX.length; i++) {
+                if (data[s + i] != PIN_HASH_PREFIX[i]) {
+                    return false;
+                }
+            }
+            int separators = 1;
+            for (int i = s + PIN_HASH_PREFIX.length; i < e; i++) {
+                byte b = data[i];
+                if (b <= ' ' || b > '~') {
+                    return false;
+                }
+                if (b == '$') {
+                    separators++;
+                }
+            }
+            return separators == 3;
+        }
+
+        private boolean isBlank(int s, int e) {
+            for (int i = s; i < e; i++) {
+                if (data[i] != ' ' && data[i] != '\t') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void reject(String message) {
+            rejected++;
+            if (errorRecords.size() < MAX_ERRORS) {
+                errorRecords.add(records);
+                errorMessages.add(message);
+            }
+        }
+    }
+}
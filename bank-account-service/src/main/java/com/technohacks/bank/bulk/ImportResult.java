@@ -0,0 +1,70 @@
+package com.technohacks.bank.bulk;
+
+import com.technohacks.bank.service.AccountStore;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of one bulk import: the store the accounts went into, counts of
+ * records loaded and rejected, and why the first rejections failed.
+ */
+public class ImportResult {
+    private final AccountStore accounts;
+    private final long loaded;
+    private final long rejected;
+    private final List<String> errors;
+    private final long bytes;
+    private final long elapsedNanos;
+
+    ImportResult(AccountStore accounts, long loaded, long rejected, List<String> errors, long bytes,
+                 long elapsedNanos) {
+        this.accounts = accounts;
+        this.loaded = loaded;
+        this.rejected = rejected;
+        this.errors = Collections.unmodifiableList(errors);
+        this.bytes = bytes;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public AccountStore getAccounts() {
+        return accounts;
+    }
+
+    public long getLoaded() {
+        return loaded;
+    }
+
+    /** Records that failed validation or repeated an account number already in the store. */
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * Up to {@link AccountImporter#MAX_ERRORS} messages such as
+     * {@code "line 12: balance is not a valid amount"}, in file order. CSV
+     * messages give the line, binary ones the record number.
+     */
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /** Records read per second. */
+    public double getThroughput() {
+        return elapsedNanos == 0 ? 0 : (loaded + rejected) * 1_000_000_000.0 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Imported %d accounts, rejected %d, %.1f MB in %.3f s (%.0f records/s)",
+            loaded, rejected, bytes / 1e6, elapsedNanos / 1e9, getThroughput());
+    }
+}
@@ -0,0 +1,116 @@
+package com.technohacks.bank.cluster;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Consistent-hash assignment of account numbers to nodes. Each node owns
+ * many points on a 64-bit ring and an account belongs to the owner of the
+ * first point at or after the account's hash, so adding or removing a node
+ * only moves the accounts next to its points. Immutable; {@link #withNode}
+ * and {@link #withoutNode} return new rings.
+ */
+public final class HashRing {
+    public static final int DEFAULT_POINTS_PER_NODE = 160;
+
+    private final List<String> nodes;
+    private final int pointsPerNode;
+    // sorted ring positions and the index into nodes of each one's owner
+    private final long[] points;
+    private final int[] owners;
+
+    private HashRing(List<String> nodes, int pointsPerNode) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("A ring needs at least one node");
+        }
+        if (pointsPerNode < 1) {
+            throw new IllegalArgumentException("Points per node must be positive");
+        }
+        this.nodes = Collections.unmodifiableList(new ArrayList<>(nodes));
+        this.pointsPerNode = pointsPerNode;
+
+        int count = nodes.size() * pointsPerNode;
+        long[] unsorted = new long[count];
+        Integer[] order = new Integer[count];
+        for (int n = 0; n < nodes.size(); n++) {
+            for (int p = 0; p < pointsPerNode; p++) {
+                int i = n * pointsPerNode + p;
+                unsorted[i] = hash(nodes.get(n) + '#' + p);
+                order[i] = i;
+            }
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(unsorted[a], unsorted[b]));
+        this.points = new long[count];
+        this.owners = new int[count];
+        for (int i = 0; i < count; i++) {
+            points[i] = unsorted[order[i]];
+            owners[i] = order[i] / pointsPerNode;
+        }
+    }
+
+    public static HashRing of(Collection<String> nodes) {
+        return of(nodes, DEFAULT_POINTS_PER_NODE);
+    }
+
+    public static HashRing of(Collection<String> nodes, int pointsPerNode) {
+        List<String> distinct = new ArrayList<>(nodes.size());
+        for (String node : nodes) {
+            if (distinct.contains(node)) {
+                throw new IllegalArgumentException("Node " + node + " is listed twice");
+            }
+            distinct.add(node);
+        }
+        return new HashRing(distinct, pointsPerNode);
+    }
+
+    public HashRing withNode(String node) {
+        if (nodes.contains(node)) {
+            throw new IllegalArgumentException("Node " + node + " is already on the ring");
+        }
+        List<String> grown = new ArrayList<>(nodes);
+        grown.add(node);
+        return new HashRing(grown, pointsPerNode);
+    }
+
+    public HashRing withoutNode(String node) {
+        List<String> shrunk = new ArrayList<>(nodes);
+        if (!shrunk.remove(node)) {
+            throw new IllegalArgumentException("Node " + node + " is not on the ring");
+        }
+        return new HashRing(shrunk, pointsPerNode);
+    }
+
+    public List<String> getNodes() {
+        return nodes;
+    }
+
+    public String nodeFor(String accountNumber) {
+        return nodes.get(indexFor(accountNumber));
+    }
+
+    /** Position in {@link #getNodes()} of the node owning the account. */
+    public int indexFor(String accountNumber) {
+        int i = Arrays.binarySearch(points, hash(accountNumber));
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return owners[i == points.length ? 0 : i];
+    }
+
+    // FNV-1a over the characters, then the MurmurHash3 finalizer so that
+    // account numbers differing only in their last digit spread evenly.
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h = (h ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+}
@@ -0,0 +1,245 @@
+package com.technohacks.bank.cluster;
+
+import com.technohacks.bank.exception.AccountNotFoundException;
+import com.technohacks.bank.metrics.LatencyHistogram;
+import com.technohacks.bank.model.BankAccount;
+import com.technohacks.bank.model.Money;
+import com.technohacks.bank.security.PinHasher;
+import com.technohacks.bank.service.AccountStore;
+import com.technohacks.bank.service.BankAccountService;
+import com.technohacks.bank.service.OperationResult;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A partitioned bank on one machine, for tests and load measurement. Node
+ * {@code i} is named {@code node-i} and holds the synthetic accounts
+ * {@code ACC0..ACCn-1} that the ring assigns it, all opening with the same
+ * balance and PIN. The nodes run in this JVM and are either called directly
+ * or reached through {@link PartitionServer}s on loopback ports; a cluster
+ * whose nodes run as separate PartitionServer processes can be reached with
+ * {@link #connect}.
+ *
+ * Usage: LocalCluster nodes accounts seconds threads [--loopback | --connect port,port,...]
+ * drives random transfers through the router and prints the throughput.
+ */
+public class LocalCluster implements Closeable {
+    public static final String PIN = "1234";
+    public static final long OPENING_BALANCE = Money.ofUnits(1000);
+
+    // One cheap hash for every synthetic account: the production work factor
+    // would make each request cost milliseconds of PIN hashing.
+    private static final String PIN_HASH = PinHasher.hash(PIN, 1);
+
+    private final PartitionRouter router;
+    private final int accounts;
+    private final List<BankAccountService> services;
+    private final List<Closeable> resources;
+
+    private LocalCluster(PartitionRouter router, int accounts, List<BankAccountService> services,
+                         List<Closeable> resources) {
+        this.router = router;
+        this.accounts = accounts;
+        this.services = services;
+        this.resources = resources;
+    }
+
+    public static String accountNumber(int i) {
+        return "ACC" + i;
+    }
+
+    static HashRing ring(int nodes) {
+        List<String> names = new ArrayList<>(nodes);
+        for (int i = 0; i < nodes; i++) {
+            names.add("node-" + i);
+        }
+        return HashRing.of(names);
+    }
+
+    /** Builds the service for node {@code node}, holding only the accounts the ring assigns it. */
+    static BankAccountService service(HashRing ring, int node, int accounts) {
+        AccountStore store = new AccountStore(accounts / ring.getNodes().size(), AccountStore.DEFAULT_STRIPES);
+        for (int i = 0; i < accounts; i++) {
+            String number = accountNumber(i);
+            if (ring.indexFor(number) == node) {
+                store.put(BankAccount.withPinHash(number, "Holder " + i, PIN_HASH, OPENING_BALANCE));
+            }
+        }
+        return new BankAccountService(store, null);
+    }
+
+    /** Nodes in this JVM, called directly. */
+    public static LocalCluster inProcess(int nodes, int accounts) {
+        HashRing ring = ring(nodes);
+        List<BankAccountService> services = new ArrayList<>(nodes);
+        Partition[] partitions = new Partition[nodes];
+        for (int i = 0; i < nodes; i++) {
+            services.add(service(ring, i, accounts));
+            partitions[i] = new LocalPartition(services.get(i));
+        }
+        return new LocalCluster(PartitionRouter.of(ring, partitions), accounts, services, new ArrayList<>(services));
+    }
+
+    /** Nodes in this JVM behind PartitionServers on ephemeral loopback ports. */
+    public static LocalCluster overLoopback(int nodes, int accounts) throws IOException {
+        HashRing ring = ring(nodes);
+        List<BankAccountService> services = new ArrayList<>(nodes);
+        List<Closeable> resources = new ArrayList<>();
+        Partition[] partitions = new Partition[nodes];
+        try {
+            for (int i = 0; i < nodes; i++) {
+                services.add(service(ring, i, accounts));
+                resources.add(services.get(i));
+                PartitionServer server = new PartitionServer(new LocalPartition(services.get(i)), 0).start();
+                resources.add(server);
+                RemotePartition client = new RemotePartition(server.getPort());
+                resources.add(client);
+                partitions[i] = client;
+            }
+        } catch (IOException e) {
+            closeAll(resources);
+            throw e;
+        }
+        return new LocalCluster(PartitionRouter.of(ring, partitions), accounts, services, resources);
+    }
+
+    /**
+     * Nodes started elsewhere as {@code PartitionServer port i ports.length accounts},
+     * one per port, in node order.
+     */
+    public static LocalCluster connect(int accounts, int... ports) {
+        HashRing ring = ring(ports.length);
+        List<Closeable> resources = new ArrayList<>();
+        Partition[] partitions = new Partition[ports.length];
+        for (int i = 0; i < ports.length; i++) {
+            RemotePartition client = new RemotePartition(ports[i]);
+            resources.add(client);
+            partitions[i] = client;
+        }
+        return new LocalCluster(PartitionRouter.of(ring, partitions), accounts, new ArrayList<>(), resources);
+    }
+
+    public PartitionRouter getRouter() {
+        return router;
+    }
+
+    public int getAccounts() {
+        return accounts;
+    }
+
+    /**
+     * Sum of every balance on the nodes running in this JVM. Transfers
+     * conserve it, so once they have all finished it is back to the total
+     * the accounts opened with.
+     */
+    public long totalBalance() throws AccountNotFoundException {
+        if (services.isEmpty()) {
+            throw new IllegalStateException("The nodes run in other processes");
+        }
+        List<List<String>> owned = new ArrayList<>();
+        for (int n = 0; n < services.size(); n++) {
+            owned.add(new ArrayList<>());
+        }
+        for (int i = 0; i < accounts; i++) {
+            String number = accountNumber(i);
+            owned.get(router.getRing().indexFor(number)).add(number);
+        }
+        long total = 0;
+        for (int n = 0; n < services.size(); n++) {
+            for (long balance : services.get(n).getBalances(owned.get(n))) {
+                total = Money.add(total, balance);
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public void close() {
+        closeAll(resources);
+    }
+
+    private static void closeAll(List<Closeable> resources) {
+        for (int i = resources.size() - 1; i >= 0; i--) {
+            try {
+                resources.get(i).close();
+            } catch (IOException e) {
+                // shutting down anyway
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int accounts = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        String transport = args.length > 4 ? args[4] : "";
+
+        LocalCluster cluster;
+        if (transport.equals("--connect")) {
+            String[] list = args[5].split(",");
+            int[] ports = new int[list.length];
+            for (int i = 0; i < list.length; i++) {
+                ports[i] = Integer.parseInt(list[i]);
+            }
+            cluster = connect(accounts, ports);
+        } else if (transport.equals("--loopback")) {
+            cluster = overLoopback(nodes, accounts);
+        } else {
+            cluster = inProcess(nodes, accounts);
+        }
+
+        try (LocalCluster c = cluster) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            AtomicLong failures = new AtomicLong();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+            long started = System.nanoTime();
+            Thread[] clients = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                long seed = t;
+                clients[t] = new Thread(() -> drive(c, deadline, seed, histogram, failures), "cluster-client-" + t);
+                clients[t].start();
+            }
+            for (Thread client : clients) {
+                client.join();
+            }
+            double elapsed = (System.nanoTime() - started) / 1e9;
+
+            long transfers = histogram.count();
+            System.out.printf("Nodes       : %d (%s), %d accounts, %d client threads%n",
+                c.getRouter().getRing().getNodes().size(),
+                transport.isEmpty() ? "in process" : transport.substring(2), accounts, threads);
+            System.out.printf("Transfers   : %d in %.1f s (%.0f/s), %.0f%% across nodes, %d failed%n",
+                transfers, elapsed, transfers / elapsed,
+                transfers == 0 ? 0.0 : 100.0 * c.getRouter().getCrossPartitionTransfers() / transfers, failures.get());
+            System.out.printf("Latency us  : p50 %d  p90 %d  p99 %d  max %d%n",
+                histogram.percentile(50), histogram.percentile(90), histogram.percentile(99), histogram.max());
+            if (!c.services.isEmpty()) {
+                System.out.printf("Total       : %s (opened with %s)%n", Money.format(c.totalBalance()),
+                    Money.format(OPENING_BALANCE * accounts));
+            }
+        }
+    }
+
+    private static void drive(LocalCluster cluster, long deadline, long seed, LatencyHistogram histogram,
+                              AtomicLong failures) {
+        SplittableRandom random = new SplittableRandom(seed);
+        OperationResult result = new OperationResult();
+        while (System.nanoTime() < deadline) {
+            String from = accountNumber(random.nextInt(cluster.accounts));
+            String to = accountNumber(random.nextInt(cluster.accounts));
+            long sent = System.nanoTime();
+            cluster.router.tryTransfer(from, PIN, to, 1 + random.nextInt(100), result);
+            histogram.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - sent));
+            if (!result.isSuccess()) {
+                failures.incrementAndGet();
+            }
+        }
+    }
+}
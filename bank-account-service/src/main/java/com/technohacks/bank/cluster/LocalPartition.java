@@ -0,0 +1,63 @@
+package com.technohacks.bank.cluster;
+
+import com.technohacks.bank.service.BankAccountService;
+import com.technohacks.bank.service.OperationResult;
+import com.technohacks.bank.service.OperationStatus;
+
+/**
+ * A partition living in the router's own JVM, called directly.
+ */
+public class LocalPartition implements Partition {
+    private final BankAccountService service;
+
+    public LocalPartition(BankAccountService service) {
+        this.service = service;
+    }
+
+    public BankAccountService getService() {
+        return service;
+    }
+
+    @Override
+    public OperationStatus checkBalance(String accountNumber, String pin, OperationResult result) {
+        return service.tryCheckBalance(accountNumber, pin, result);
+    }
+
+    @Override
+    public OperationStatus withdraw(String accountNumber, String pin, long amount, OperationResult result) {
+        return service.tryWithdraw(accountNumber, pin, amount, result);
+    }
+
+    @Override
+    public OperationStatus deposit(String accountNumber, String pin, long amount, OperationResult result) {
+        return service.tryDeposit(accountNumber, pin, amount, result);
+    }
+
+    @Override
+    public OperationStatus transfer(String fromAccount, String pin, String toAccount, long amount,
+                                    OperationResult result) {
+        return service.tryTransfer(fromAccount, pin, toAccount, amount, result);
+    }
+
+    @Override
+    public OperationStatus prepareOut(String transferId, String fromAccount, String pin, String toAccount,
+                                      long amount, OperationResult result) {
+        return service.tryPrepareTransferOut(transferId, fromAccount, pin, toAccount, amount, result);
+    }
+
+    @Override
+    public OperationStatus prepareIn(String transferId, String toAccount, String fromAccount, long amount,
+                                     OperationResult result) {
+        return service.tryPrepareTransferIn(transferId, toAccount, fromAccount, amount, result);
+    }
+
+    @Override
+    public void commit(String transferId) {
+        service.commitTransfer(transferId);
+    }
+
+    @Override
+    public void abort(String transferId) {
+        service.abortTransfer(transferId);
+    }
+}
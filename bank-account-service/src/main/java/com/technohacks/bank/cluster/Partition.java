@@ -0,0 +1,37 @@
+package com.technohacks.bank.cluster;
+
+import com.technohacks.bank.service.OperationResult;
+import com.technohacks.bank.service.OperationStatus;
+
+/**
+ * One node of a partitioned bank as seen by {@link PartitionRouter}: the
+ * result-code operations of {@link com.technohacks.bank.service.BankAccountService}
+ * for the accounts the node holds, plus the participant side of a
+ * two-phase transfer. Remote implementations report transport failures as
+ * {@link java.io.UncheckedIOException}.
+ */
+public interface Partition {
+
+    OperationStatus checkBalance(String accountNumber, String pin, OperationResult result);
+
+    OperationStatus withdraw(String accountNumber, String pin, long amount, OperationResult result);
+
+    OperationStatus deposit(String accountNumber, String pin, long amount, OperationResult result);
+
+    /** Transfer between two accounts both held by this node. */
+    OperationStatus transfer(String fromAccount, String pin, String toAccount, long amount, OperationResult result);
+
+    /** Authenticates and debits the source of a transfer, holding the amount until commit or abort. */
+    OperationStatus prepareOut(String transferId, String fromAccount, String pin, String toAccount, long amount,
+                               OperationResult result);
+
+    /** Checks the destination of a transfer, which is credited on commit. */
+    OperationStatus prepareIn(String transferId, String toAccount, String fromAccount, long amount,
+                              OperationResult result);
+
+    /** Credits a prepared destination; repeating a commit is harmless, committing an unknown id fails. */
+    void commit(String transferId);
+
+    /** Refunds a prepared source; repeating an abort is harmless, and an unknown id can no longer be prepared. */
+    void abort(String transferId);
+}
@@ -0,0 +1,156 @@
+package com.technohacks.bank.cluster;
+
+import com.technohacks.bank.service.OperationResult;
+import com.technohacks.bank.service.OperationStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Front end of a partitioned bank. Each operation goes to the node that
+ * holds its account on the {@link HashRing}; a transfer between accounts on
+ * two nodes runs as a two-phase transfer coordinated here:
+ * <ol>
+ *   <li>the source node authenticates and debits the source, holding the amount;</li>
+ *   <li>the destination node checks the destination exists;</li>
+ *   <li>both commit, crediting the destination, or the source is refunded.</li>
+ * </ol>
+ * Money is never visible on both sides at once: between the phases it is
+ * only held by the source node. The nodes journal every step, so a node
+ * that restarts still holds its prepared transfers. A commit or abort is
+ * resent until the node acknowledges it, and a prepare whose reply is lost
+ * is aborted, since the node may have acted on it. The router itself keeps
+ * no log: one that dies between prepare and commit leaves the amount held
+ * on the source node for an operator to settle.
+ */
+public class PartitionRouter {
+    private static final Logger logger = LoggerFactory.getLogger(PartitionRouter.class);
+    private static final long MIN_RETRY_MILLIS = 10;
+    private static final long MAX_RETRY_MILLIS = 5000;
+
+    private final HashRing ring;
+    private final Partition[] partitions;
+    private final String transferPrefix = UUID.randomUUID().toString().substring(0, 8) + '-';
+    private final AtomicLong nextTransfer = new AtomicLong();
+    private final AtomicLong crossPartition = new AtomicLong();
+
+    /** {@code partitions} must hold one partition for every node on the ring. */
+    public PartitionRouter(HashRing ring, Map<String, ? extends Partition> partitions) {
+        this.ring = ring;
+        this.partitions = new Partition[ring.getNodes().size()];
+        for (int i = 0; i < this.partitions.length; i++) {
+            String node = ring.getNodes().get(i);
+            this.partitions[i] = partitions.get(node);
+            if (this.partitions[i] == null) {
+                throw new IllegalArgumentException("No partition for node " + node);
+            }
+        }
+    }
+
+    public HashRing getRing() {
+        return ring;
+    }
+
+    public Partition partitionFor(String accountNumber) {
+        return partitions[ring.indexFor(accountNumber)];
+    }
+
+    /** Transfers that needed the two-phase protocol so far. */
+    public long getCrossPartitionTransfers() {
+        return crossPartition.get();
+    }
+
+    public OperationStatus tryCheckBalance(String accountNumber, String pin, OperationResult result) {
+        return partitionFor(accountNumber).checkBalance(accountNumber, pin, result);
+    }
+
+    public OperationStatus tryWithdraw(String accountNumber, String pin, long amount, OperationResult result) {
+        return partitionFor(accountNumber).withdraw(accountNumber, pin, amount, result);
+    }
+
+    public OperationStatus tryDeposit(String accountNumber, String pin, long amount, OperationResult result) {
+        return partitionFor(accountNumber).deposit(accountNumber, pin, amount, result);
+    }
+
+    /** On success the result holds the source balance, as for a local transfer. */
+    public OperationStatus tryTransfer(String fromAccount, String pin, String toAccount, long amount,
+                                      OperationResult result) {
+        int source = ring.indexFor(fromAccount);
+        int target = ring.indexFor(toAccount);
+        if (source == target) {
+            return partitions[source].transfer(fromAccount, pin, toAccount, amount, result);
+        }
+        crossPartition.incrementAndGet();
+        String transferId = transferPrefix + nextTransfer.incrementAndGet();
+        try {
+            if (partitions[source].prepareOut(transferId, fromAccount, pin, toAccount, amount, result)
+                    != OperationStatus.OK) {
+                return result.getStatus();
+            }
+        } catch (RuntimeException e) {
+            settle(source, transferId, false);
+            throw e;
+        }
+
+        OperationResult destination = new OperationResult();
+        try {
+            partitions[target].prepareIn(transferId, toAccount, fromAccount, amount, destination);
+        } catch (RuntimeException e) {
+            settle(target, transferId, false);
+            settle(source, transferId, false);
+            throw e;
+        }
+        if (!destination.isSuccess()) {
+            settle(source, transferId, false);
+            return result.fill(destination.getStatus(), destination.getSubject(), destination.isCounterparty(),
+                0, 0, destination.getReason());
+        }
+
+        // The decision is made: from here on the transfer only moves forward.
+        settle(target, transferId, true);
+        settle(source, transferId, true);
+        return result.getStatus();
+    }
+
+    // Sends a decision until the node acknowledges it. Only transport
+    // failures are retried; a node that refuses the decision has lost track
+    // of the transfer, which is thrown to the caller.
+    private void settle(int node, String transferId, boolean commit) {
+        long backoff = MIN_RETRY_MILLIS;
+        while (true) {
+            try {
+                if (commit) {
+                    partitions[node].commit(transferId);
+                } else {
+                    partitions[node].abort(transferId);
+                }
+                return;
+            } catch (UncheckedIOException e) {
+                logger.warn("{} of transfer {} on {} failed, retrying in {} ms: {}", commit ? "Commit" : "Abort",
+                    transferId, ring.getNodes().get(node), backoff, e.getMessage());
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted before transfer " + transferId + " was "
+                    + (commit ? "committed" : "aborted") + " on " + ring.getNodes().get(node));
+            }
+            backoff = Math.min(backoff * 2, MAX_RETRY_MILLIS);
+        }
+    }
+
+    /** Builds a router over one partition per node, in ring order. */
+    static PartitionRouter of(HashRing ring, Partition... partitions) {
+        Map<String, Partition> byNode = new HashMap<>();
+        for (int i = 0; i < partitions.length; i++) {
+            byNode.put(ring.getNodes().get(i), partitions[i]);
+        }
+        return new PartitionRouter(ring, byNode);
+    }
+}
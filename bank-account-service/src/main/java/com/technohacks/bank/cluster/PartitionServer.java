@@ -0,0 +1,207 @@
+package com.technohacks.bank.cluster;
+
+import com.technohacks.bank.server.ConnectionExecutors;
+import com.technohacks.bank.service.BankAccountService;
+import com.technohacks.bank.service.OperationResult;
+import com.technohacks.bank.service.OperationStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Serves one {@link Partition} to routers in other processes over a
+ * loopback socket. This is the node-to-node protocol, not a client one: it
+ * carries the two-phase transfer calls, so it must never be exposed beyond
+ * the cluster.
+ *
+ * Requests are single lines of space-separated words, amounts in cents:
+ * <pre>
+ *   BALANCE     account pin
+ *   WITHDRAW    account pin amount
+ *   DEPOSIT     account pin amount
+ *   TRANSFER    from pin to amount
+ *   PREPARE_OUT id from pin to amount
+ *   PREPARE_IN  id to from amount
+ *   COMMIT      id
+ *   ABORT       id
+ * </pre>
+ * Operation replies carry the whole result, tab-separated:
+ * {@code status subject counterparty(0|1) balance shortfall reason}.
+ * COMMIT and ABORT reply {@code OK}; a malformed or refused request gets
+ * {@code FAIL<TAB>message}.
+ *
+ * Usage: PartitionServer port node nodes accounts, which serves node
+ * {@code node} of a {@link LocalCluster} of {@code nodes} nodes.
+ */
+public class PartitionServer implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(PartitionServer.class);
+    private static final int BACKLOG = 1024;
+
+    private final Partition partition;
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections;
+    private final Thread acceptor;
+    private volatile boolean running = true;
+
+    public PartitionServer(Partition partition, int port) throws IOException {
+        this.partition = partition;
+        this.serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), BACKLOG);
+        this.connections = ConnectionExecutors.perConnection("partition-connection");
+        this.acceptor = new Thread(this::acceptLoop, "partition-acceptor-" + getPort());
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 4) {
+            System.err.println("Usage: PartitionServer port node nodes accounts");
+            System.exit(2);
+        }
+        int port = Integer.parseInt(args[0]);
+        int node = Integer.parseInt(args[1]);
+        HashRing ring = LocalCluster.ring(Integer.parseInt(args[2]));
+        BankAccountService service = LocalCluster.service(ring, node, Integer.parseInt(args[3]));
+        PartitionServer server = new PartitionServer(new LocalPartition(service), port).start();
+        logger.info("Serving {} of {} on port {}", ring.getNodes().get(node), ring.getNodes(), server.getPort());
+        server.acceptor.join();
+    }
+
+    public PartitionServer start() {
+        acceptor.start();
+        return this;
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                connections.execute(() -> serve(socket));
+            } catch (IOException e) {
+                if (running) {
+                    logger.error("Accept failed: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        OperationResult result = new OperationResult();
+        StringBuilder reply = new StringBuilder(128);
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.US_ASCII));
+             Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.US_ASCII))) {
+            s.setTcpNoDelay(true);
+            String line;
+            while ((line = in.readLine()) != null) {
+                reply.setLength(0);
+                handle(line.split(" "), result, reply);
+                out.append(reply).append('\n');
+                out.flush();
+            }
+        } catch (SocketException e) {
+            // router went away
+        } catch (IOException e) {
+            logger.error("Connection error: {}", e.getMessage());
+        }
+    }
+
+    private void handle(String[] words, OperationResult result, StringBuilder reply) {
+        try {
+            switch (words[0]) {
+                case "BALANCE":
+                    expect(words, 3);
+                    partition.checkBalance(words[1], words[2], result);
+                    break;
+                case "WITHDRAW":
+                    expect(words, 4);
+                    partition.withdraw(words[1], words[2], Long.parseLong(words[3]), result);
+                    break;
+                case "DEPOSIT":
+                    expect(words, 4);
+                    partition.deposit(words[1], words[2], Long.parseLong(words[3]), result);
+                    break;
+                case "TRANSFER":
+                    expect(words, 5);
+                    partition.transfer(words[1], words[2], words[3], Long.parseLong(words[4]), result);
+                    break;
+                case "PREPARE_OUT":
+                    expect(words, 6);
+                    partition.prepareOut(words[1], words[2], words[3], words[4], Long.parseLong(words[5]), result);
+                    break;
+                case "PREPARE_IN":
+                    expect(words, 5);
+                    partition.prepareIn(words[1], words[2], words[3], Long.parseLong(words[4]), result);
+                    break;
+                case "COMMIT":
+                    expect(words, 2);
+                    partition.commit(words[1]);
+                    reply.append("OK");
+                    return;
+                case "ABORT":
+                    expect(words, 2);
+                    partition.abort(words[1]);
+                    reply.append("OK");
+                    return;
+                default:
+                    throw new IllegalArgumentException("Unknown command " + words[0]);
+            }
+            encode(result, reply);
+        } catch (RuntimeException e) {
+            reply.setLength(0);
+            reply.append("FAIL\t").append(e.getMessage());
+        }
+    }
+
+    private static void expect(String[] words, int count) {
+        if (words.length != count) {
+            throw new IllegalArgumentException(words[0] + " expects " + (count - 1) + " arguments");
+        }
+    }
+
+    static void encode(OperationResult result, StringBuilder reply) {
+        reply.append(result.getStatus().name()).append('\t')
+             .append(result.getSubject() != null ? result.getSubject() : "").append('\t')
+             .append(result.isCounterparty() ? '1' : '0').append('\t')
+             .append(result.getBalance()).append('\t')
+             .append(result.getShortfall()).append('\t')
+             .append(result.getReason() != null ? result.getReason() : "");
+    }
+
+    static OperationStatus decode(String reply, OperationResult result) {
+        String[] fields = reply.split("\t", -1);
+        if (fields[0].equals("FAIL")) {
+            throw new IllegalStateException(fields.length > 1 ? fields[1] : "Request refused");
+        }
+        if (fields.length != 6) {
+            throw new IllegalStateException("Malformed partition reply: " + reply);
+        }
+        return result.fill(OperationStatus.valueOf(fields[0]), fields[1].isEmpty() ? null : fields[1],
+            fields[2].equals("1"), Long.parseLong(fields[3]), Long.parseLong(fields[4]),
+            fields[5].isEmpty() ? null : fields[5]);
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        serverSocket.close();
+        connections.shutdownNow();
+    }
+}
@@ -0,0 +1,153 @@
+package com.technohacks.bank.cluster;
+
+import com.technohacks.bank.service.OperationResult;
+import com.technohacks.bank.service.OperationStatus;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Client for a {@link PartitionServer}. Each call borrows an idle
+ * connection, or opens one, so concurrent callers never wait for each
+ * other; a connection that fails is dropped rather than returned.
+ */
+public class RemotePartition implements Partition, Closeable {
+    private final InetSocketAddress address;
+    private final ConcurrentLinkedQueue<Connection> idle = new ConcurrentLinkedQueue<>();
+    private volatile boolean closed;
+
+    private static final class Connection {
+        final Socket socket;
+        final BufferedReader in;
+        final Writer out;
+
+        Connection(InetSocketAddress address) throws IOException {
+            socket = new Socket();
+            socket.connect(address);
+            socket.setTcpNoDelay(true);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII));
+        }
+
+        String call(String request) throws IOException {
+            out.write(request);
+            out.write('\n');
+            out.flush();
+            String reply = in.readLine();
+            if (reply == null) {
+                throw new EOFException("Partition closed the connection");
+            }
+            return reply;
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // already broken
+            }
+        }
+    }
+
+    public RemotePartition(int port) {
+        this(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    public RemotePartition(InetSocketAddress address) {
+        this.address = address;
+    }
+
+    @Override
+    public OperationStatus checkBalance(String accountNumber, String pin, OperationResult result) {
+        return PartitionServer.decode(call("BALANCE " + accountNumber + ' ' + pin), result);
+    }
+
+    @Override
+    public OperationStatus withdraw(String accountNumber, String pin, long amount, OperationResult result) {
+        return PartitionServer.decode(call("WITHDRAW " + accountNumber + ' ' + pin + ' ' + amount), result);
+    }
+
+    @Override
+    public OperationStatus deposit(String accountNumber, String pin, long amount, OperationResult result) {
+        return PartitionServer.decode(call("DEPOSIT " + accountNumber + ' ' + pin + ' ' + amount), result);
+    }
+
+    @Override
+    public OperationStatus transfer(String fromAccount, String pin, String toAccount, long amount,
+                                    OperationResult result) {
+        return PartitionServer.decode(
+            call("TRANSFER " + fromAccount + ' ' + pin + ' ' + toAccount + ' ' + amount), result);
+    }
+
+    @Override
+    public OperationStatus prepareOut(String transferId, String fromAccount, String pin, String toAccount,
+                                      long amount, OperationResult result) {
+        return PartitionServer.decode(
+            call("PREPARE_OUT " + transferId + ' ' + fromAccount + ' ' + pin + ' ' + toAccount + ' ' + amount),
+            result);
+    }
+
+    @Override
+    public OperationStatus prepareIn(String transferId, String toAccount, String fromAccount, long amount,
+                                     OperationResult result) {
+        return PartitionServer.decode(
+            call("PREPARE_IN " + transferId + ' ' + toAccount + ' ' + fromAccount + ' ' + amount), result);
+    }
+
+    @Override
+    public void commit(String transferId) {
+        acknowledge(call("COMMIT " + transferId));
+    }
+
+    @Override
+    public void abort(String transferId) {
+        acknowledge(call("ABORT " + transferId));
+    }
+
+    private static void acknowledge(String reply) {
+        if (!reply.equals("OK")) {
+            PartitionServer.decode(reply, new OperationResult());
+        }
+    }
+
+    private String call(String request) {
+        if (closed) {
+            throw new IllegalStateException("Partition client is closed");
+        }
+        Connection connection = idle.poll();
+        try {
+            if (connection == null) {
+                connection = new Connection(address);
+            }
+            String reply = connection.call(request);
+            idle.offer(connection);
+            return reply;
+        } catch (IOException e) {
+            if (connection != null) {
+                connection.close();
+            }
+            throw new UncheckedIOException("Partition at " + address + " failed", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Connection connection;
+        while ((connection = idle.poll()) != null) {
+            connection.close();
+        }
+    }
+}
@@ -1,14 +1,15 @@
 package com.technohacks.bank.exception;
 
 public class InsufficientBalanceException extends Exception {
-    private double shortfall;
+    private final long shortfall;
 
-    public InsufficientBalanceException(String message, double shortfall) {
+    public InsufficientBalanceException(String message, long shortfall) {
         super(message);
         this.shortfall = shortfall;
     }
 
-    public double getShortfall() {
+    /** Missing amount in cents. */
+    public long getShortfall() {
         return shortfall;
     }
 }
@@ -0,0 +1,33 @@
+package com.technohacks.bank.history;
+
+/**
+ * Direction of a balance change as it appears on an account's statement.
+ * A transfer is recorded twice: once for each side. An adjustment brings
+ * the statement back to the balance a repository holds after a change was
+ * dropped there.
+ */
+public enum EntryType {
+    WITHDRAWAL,
+    DEPOSIT,
+    TRANSFER_OUT,
+    TRANSFER_IN,
+    INTEREST,
+    FEE,
+    ADJUSTMENT_IN,
+    ADJUSTMENT_OUT;
+
+    private static final EntryType[] VALUES = values();
+
+    static EntryType of(byte code) {
+        return VALUES[code];
+    }
+
+    byte code() {
+        return (byte) ordinal();
+    }
+
+    /** True if the entry reduced the balance. */
+    public boolean isDebit() {
+        return this == WITHDRAWAL || this == TRANSFER_OUT || this == FEE || this == ADJUSTMENT_OUT;
+    }
+}
@@ -0,0 +1,65 @@
+package com.technohacks.bank.history;
+
+import com.technohacks.bank.model.Money;
+
+/**
+ * One line of an account statement, copied out of {@link TransactionHistory}.
+ * Amounts and balances are in cents.
+ */
+public class HistoryEntry {
+    private final long timeMillis;
+    private final long sequence;
+    private final String accountNumber;
+    private final EntryType type;
+    private final long amount;
+    private final long balance;
+    private final String counterparty;
+
+    HistoryEntry(long timeMillis, long sequence, String accountNumber, EntryType type,
+                 long amount, long balance, String counterparty) {
+        this.timeMillis = timeMillis;
+        this.sequence = sequence;
+        this.accountNumber = accountNumber;
+        this.type = type;
+        this.amount = amount;
+        this.balance = balance;
+        this.counterparty = counterparty;
+    }
+
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    /** Journal sequence of the change, or 0 when the service runs without a journal. */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public String getAccountNumber() {
+        return accountNumber;
+    }
+
+    public EntryType getType() {
+        return type;
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+
+    /** Balance of the account right after this entry. */
+    public long getBalance() {
+        return balance;
+    }
+
+    /** Other account of a transfer, otherwise null. */
+    public String getCounterparty() {
+        return counterparty;
+    }
+
+    @Override
+    public String toString() {
+        return timeMillis + " " + type + " " + (type.isDebit() ? "-" : "+") + Money.format(amount)
+            + (counterparty != null ? " " + counterparty : "") + " balance " + Money.format(balance);
+    }
+}
@@ -0,0 +1,34 @@
+package com.technohacks.bank.history;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of a statement, newest entry first. Pass {@link #getNextCursor()}
+ * back to {@link TransactionHistory#statement} to get the following page.
+ */
+public class StatementPage {
+    /** Cursor that asks for the newest page. */
+    public static final long FIRST = 0;
+
+    private final List<HistoryEntry> entries;
+    private final long nextCursor;
+
+    StatementPage(List<HistoryEntry> entries, long nextCursor) {
+        this.entries = Collections.unmodifiableList(entries);
+        this.nextCursor = nextCursor;
+    }
+
+    public List<HistoryEntry> getEntries() {
+        return entries;
+    }
+
+    public boolean hasMore() {
+        return nextCursor != FIRST;
+    }
+
+    /** Cursor of the next, older page; {@link #FIRST} when this is the last one. */
+    public long getNextCursor() {
+        return nextCursor;
+    }
+}
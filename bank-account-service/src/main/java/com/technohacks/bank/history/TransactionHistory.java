@@ -0,0 +1,548 @@
+package com.technohacks.bank.history;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Append-only transaction history, the source of account statements.
+ *
+ * Entries are stored column by column in fixed-size segments: memory-mapped
+ * files when the history has a directory, direct memory otherwise, so none of
+ * it lives on the Java heap. Each entry links to the previous entry of the
+ * same account, and each account keeps a small on-heap checkpoint list with
+ * every 256th of its entries. A statement binary-searches the checkpoints by
+ * time and follows at most 256 links to its first entry, so queries cost the
+ * same however long the account's history is.
+ *
+ * Appends for one account must be serialised by the caller (the service
+ * records under the account's lock or on its owning shard); other accounts
+ * append concurrently. Readers never block and see a prefix of each
+ * account's history. Segments are forced to disk on close only, so after a
+ * crash the newest entries may be missing; the history is a statement
+ * index, not a record of the balances.
+ */
+public class TransactionHistory implements Closeable {
+    public static final int DEFAULT_SEGMENT_ENTRIES = 1 << 18;
+
+    private static final String SEGMENT_PREFIX = "history-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String ACCOUNTS_FILE = "accounts.dat";
+    private static final int MAX_SEGMENT_ENTRIES = 1 << 24;
+    private static final int MAX_KEY_LENGTH = 255;
+    private static final int CHECKPOINT_SHIFT = 8;
+    private static final int CHECKPOINT_MASK = (1 << CHECKPOINT_SHIFT) - 1;
+    private static final int NO_ACCOUNT = -1;
+    // time, sequence, amount, balance, previous, account, counterparty, ordinal, type
+    private static final int ENTRY_SIZE = 8 + 8 + 8 + 8 + 8 + 4 + 4 + 4 + 1;
+
+    /** Per-account index. */
+    private static final class Account {
+        final int id;
+        final String number;
+        // newest entry; written last, so every entry it links to is visible
+        volatile long last = -1;
+        // entry index of the account's entries 0, 256, 512, ...
+        volatile long[] checkpoints = new long[4];
+        // only touched by the account's writer
+        int count;
+        long lastTime;
+
+        Account(int id, String number) {
+            this.id = id;
+            this.number = number;
+        }
+    }
+
+    private final Path directory;
+    private final int segmentShift;
+    private final long segmentMask;
+    // column offsets within a segment
+    private final int timeColumn;
+    private final int sequenceColumn;
+    private final int amountColumn;
+    private final int balanceColumn;
+    private final int previousColumn;
+    private final int accountColumn;
+    private final int counterpartyColumn;
+    private final int ordinalColumn;
+    private final int typeColumn;
+
+    private final AtomicLong next = new AtomicLong();
+    private final ConcurrentHashMap<String, Account> accounts = new ConcurrentHashMap<>();
+    private volatile Account[] byId = new Account[64];
+    private volatile ByteBuffer[] segments = new ByteBuffer[0];
+    private int accountCount;
+    private FileChannel dictionary;
+
+    private TransactionHistory(Path directory, int segmentEntries) {
+        if (Integer.bitCount(segmentEntries) != 1 || segmentEntries > MAX_SEGMENT_ENTRIES) {
+            throw new IllegalArgumentException("Segment entries must be a power of two up to " + MAX_SEGMENT_ENTRIES);
+        }
+        this.directory = directory;
+        this.segmentShift = Integer.numberOfTrailingZeros(segmentEntries);
+        this.segmentMask = segmentEntries - 1;
+        this.timeColumn = 0;
+        this.sequenceColumn = timeColumn + 8 * segmentEntries;
+        this.amountColumn = sequenceColumn + 8 * segmentEntries;
+        this.balanceColumn = amountColumn + 8 * segmentEntries;
+        this.previousColumn = balanceColumn + 8 * segmentEntries;
+        this.accountColumn = previousColumn + 8 * segmentEntries;
+        this.counterpartyColumn = accountColumn + 4 * segmentEntries;
+        this.ordinalColumn = counterpartyColumn + 4 * segmentEntries;
+        this.typeColumn = ordinalColumn + 4 * segmentEntries;
+    }
+
+    /** A history kept in direct memory only, e.g. for benchmarks. */
+    public static TransactionHistory inMemory() {
+        return inMemory(DEFAULT_SEGMENT_ENTRIES);
+    }
+
+    public static TransactionHistory inMemory(int segmentEntries) {
+        return new TransactionHistory(null, segmentEntries);
+    }
+
+    public static TransactionHistory open(Path directory) throws IOException {
+        return open(directory, DEFAULT_SEGMENT_ENTRIES);
+    }
+
+    /** Opens the history in {@code directory} and rebuilds its account index. */
+    public static TransactionHistory open(Path directory, int segmentEntries) throws IOException {
+        Files.createDirectories(directory);
+        TransactionHistory history = new TransactionHistory(directory, segmentEntries);
+        history.recover();
+        return history;
+    }
+
+    /** Number of entries recorded for all accounts. */
+    public long size() {
+        return next.get();
+    }
+
+    /**
+     * Appends one entry and returns its index. Appends for the same account
+     * must not run concurrently.
+     *
+     * @param balance    balance of the account after the change
+     * @param sequence   journal sequence of the change, or 0 without a journal
+     */
+    public long record(String accountNumber, EntryType type, long amount, long balance,
+                       String counterparty, long sequence) {
+        Account acc = account(accountNumber);
+        int counterpartyId = counterparty != null ? account(counterparty).id : NO_ACCOUNT;
+        long index = next.getAndIncrement();
+        ByteBuffer seg = segmentForWrite(index);
+        int slot = (int) (index & segmentMask);
+        // statements are searched by time, so keep each account's times ordered
+        long time = Math.max(System.currentTimeMillis(), acc.lastTime);
+        int ordinal = acc.count;
+        seg.putLong(sequenceColumn + 8 * slot, sequence);
+        seg.putLong(amountColumn + 8 * slot, amount);
+        seg.putLong(balanceColumn + 8 * slot, balance);
+        seg.putLong(previousColumn + 8 * slot, acc.last);
+        seg.putInt(accountColumn + 4 * slot, acc.id);
+        seg.putInt(counterpartyColumn + 4 * slot, counterpartyId);
+        seg.putInt(ordinalColumn + 4 * slot, ordinal);
+        seg.put(typeColumn + slot, type.code());
+        if ((ordinal & CHECKPOINT_MASK) == 0) {
+            addCheckpoint(acc, ordinal >>> CHECKPOINT_SHIFT, index);
+        }
+        // a zero time marks the end of the written entries on recovery
+        seg.putLong(timeColumn + 8 * slot, time);
+        acc.lastTime = time;
+        acc.count = ordinal + 1;
+        acc.last = index;
+        return index;
+    }
+
+    /** Number of entries recorded for the account. */
+    public long count(String accountNumber) {
+        Account acc = accounts.get(accountNumber);
+        long last = acc != null ? acc.last : -1;
+        return last < 0 ? 0 : ordinalAt(last) + 1L;
+    }
+
+    /** The newest {@code limit} entries of the account, newest first. */
+    public List<HistoryEntry> latest(String accountNumber, int limit) {
+        return statement(accountNumber, Long.MIN_VALUE, Long.MAX_VALUE, StatementPage.FIRST, limit).getEntries();
+    }
+
+    /**
+     * Returns up to {@code limit} entries of the account with a time between
+     * {@code fromMillis} and {@code toMillis} inclusive, newest first.
+     *
+     * @param cursor {@link StatementPage#FIRST}, or the next cursor of the
+     *               previous page of the same statement
+     */
+    public StatementPage statement(String accountNumber, long fromMillis, long toMillis, long cursor, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Page size must be positive");
+        }
+        Account acc = accounts.get(accountNumber);
+        if (acc == null) {
+            return new StatementPage(Collections.emptyList(), StatementPage.FIRST);
+        }
+        long index = cursor == StatementPage.FIRST ? newestAtOrBefore(acc, toMillis) : resume(acc, cursor);
+        List<HistoryEntry> entries = new ArrayList<>(Math.min(limit, 256));
+        while (index >= 0 && entries.size() < limit && timeAt(index) >= fromMillis) {
+            entries.add(read(index));
+            index = previousAt(index);
+        }
+        boolean more = index >= 0 && timeAt(index) >= fromMillis;
+        return new StatementPage(entries, more ? index + 1 : StatementPage.FIRST);
+    }
+
+    /**
+     * Iterates the account's entries with a time between {@code fromMillis}
+     * and {@code toMillis} inclusive, oldest first. Entries are read one
+     * checkpoint interval at a time, so memory use does not depend on how
+     * many match. Entries recorded after the call are not included.
+     */
+    public Iterator<HistoryEntry> entries(String accountNumber, long fromMillis, long toMillis) {
+        return new ForwardIterator(accounts.get(accountNumber), fromMillis, toMillis);
+    }
+
+    /** {@link #entries} as a sequential stream. */
+    public Stream<HistoryEntry> stream(String accountNumber, long fromMillis, long toMillis) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+            entries(accountNumber, fromMillis, toMillis), Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    @Override
+    public synchronized void close() {
+        for (ByteBuffer segment : segments) {
+            if (segment instanceof MappedByteBuffer) {
+                ((MappedByteBuffer) segment).force();
+            }
+        }
+        if (dictionary != null) {
+            try {
+                dictionary.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot close history account file", e);
+            }
+        }
+    }
+
+    private long newestAtOrBefore(Account acc, long toMillis) {
+        long last = acc.last;
+        if (last < 0 || timeAt(last) <= toMillis) {
+            return last;
+        }
+        long[] checkpoints = acc.checkpoints;
+        int n = (ordinalAt(last) >>> CHECKPOINT_SHIFT) + 1;
+        // first checkpoint newer than toMillis; the answer is at most 256 links before it
+        int lo = 0;
+        int hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (timeAt(checkpoints[mid]) > toMillis) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        long index = lo < n ? checkpoints[lo] : last;
+        while (index >= 0 && timeAt(index) > toMillis) {
+            index = previousAt(index);
+        }
+        return index;
+    }
+
+    private long resume(Account acc, long cursor) {
+        long index = cursor - 1;
+        long last = acc.last;
+        if (index < 0 || last < 0 || index > last || accountAt(index) != acc.id
+                || ordinalAt(index) > ordinalAt(last)) {
+            throw new IllegalArgumentException("Cursor " + cursor + " does not belong to a statement of " + acc.number);
+        }
+        return index;
+    }
+
+    private final class ForwardIterator implements Iterator<HistoryEntry> {
+        private final long[] chunk = new long[1 << CHECKPOINT_SHIFT];
+        private final long[] checkpoints;
+        private final int chunks;
+        private final long last;
+        private final long fromMillis;
+        private final long toMillis;
+        private int nextChunk;
+        private int position;
+        private int size;
+        private boolean done;
+        private HistoryEntry next;
+
+        ForwardIterator(Account acc, long fromMillis, long toMillis) {
+            this.fromMillis = fromMillis;
+            this.toMillis = toMillis;
+            this.last = acc != null ? acc.last : -1;
+            if (last < 0) {
+                checkpoints = null;
+                chunks = 0;
+                done = true;
+                return;
+            }
+            checkpoints = acc.checkpoints;
+            chunks = (ordinalAt(last) >>> CHECKPOINT_SHIFT) + 1;
+            // start in the chunk before the first checkpoint at or after fromMillis
+            int lo = 0;
+            int hi = chunks;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (timeAt(checkpoints[mid]) >= fromMillis) {
+                    hi = mid;
+                } else {
+                    lo = mid + 1;
+                }
+            }
+            nextChunk = Math.max(0, lo - 1);
+        }
+
+        // Collects one chunk's entry indexes by walking its links backwards.
+        private void load(int c) {
+            long index = c + 1 < chunks ? previousAt(checkpoints[c + 1]) : last;
+            size = ordinalAt(index) - (c << CHECKPOINT_SHIFT) + 1;
+            for (int i = size - 1; i >= 0; i--) {
+                chunk[i] = index;
+                index = previousAt(index);
+            }
+            position = 0;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && !done) {
+                if (position == size) {
+                    if (nextChunk == chunks) {
+                        done = true;
+                    } else {
+                        load(nextChunk++);
+                    }
+                    continue;
+                }
+                long index = chunk[position++];
+                long time = timeAt(index);
+                if (time > toMillis) {
+                    done = true;
+                } else if (time >= fromMillis) {
+                    next = read(index);
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public HistoryEntry next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            HistoryEntry entry = next;
+            next = null;
+            return entry;
+        }
+    }
+
+    private HistoryEntry read(long index) {
+        ByteBuffer seg = segment(index);
+        int slot = (int) (index & segmentMask);
+        Account[] ids = byId;
+        int counterparty = seg.getInt(counterpartyColumn + 4 * slot);
+        return new HistoryEntry(
+            seg.getLong(timeColumn + 8 * slot),
+            seg.getLong(sequenceColumn + 8 * slot),
+            ids[seg.getInt(accountColumn + 4 * slot)].number,
+            EntryType.of(seg.get(typeColumn + slot)),
+            seg.getLong(amountColumn + 8 * slot),
+            seg.getLong(balanceColumn + 8 * slot),
+            counterparty == NO_ACCOUNT ? null : ids[counterparty].number);
+    }
+
+    private ByteBuffer segment(long index) {
+        return segments[(int) (index >>> segmentShift)];
+    }
+
+    private long timeAt(long index) {
+        return segment(index).getLong(timeColumn + 8 * (int) (index & segmentMask));
+    }
+
+    private long previousAt(long index) {
+        return segment(index).getLong(previousColumn + 8 * (int) (index & segmentMask));
+    }
+
+    private int accountAt(long index) {
+        return segment(index).getInt(accountColumn + 4 * (int) (index & segmentMask));
+    }
+
+    private int ordinalAt(long index) {
+        return segment(index).getInt(ordinalColumn + 4 * (int) (index & segmentMask));
+    }
+
+    private static void addCheckpoint(Account acc, int n, long index) {
+        long[] checkpoints = acc.checkpoints;
+        if (n == checkpoints.length) {
+            checkpoints = Arrays.copyOf(checkpoints, n * 2);
+        }
+        checkpoints[n] = index;
+        acc.checkpoints = checkpoints;
+    }
+
+    private Account account(String accountNumber) {
+        Account acc = accounts.get(accountNumber);
+        return acc != null ? acc : accounts.computeIfAbsent(accountNumber, this::register);
+    }
+
+    private synchronized Account register(String accountNumber) {
+        byte[] bytes = accountNumber.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException("Account number too long for history: " + accountNumber);
+        }
+        if (dictionary != null) {
+            ByteBuffer record = ByteBuffer.allocate(1 + bytes.length);
+            record.put((byte) bytes.length).put(bytes).flip();
+            try {
+                while (record.hasRemaining()) {
+                    dictionary.write(record);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot write history account file", e);
+            }
+        }
+        return addAccount(accountNumber);
+    }
+
+    private Account addAccount(String accountNumber) {
+        Account acc = new Account(accountCount, accountNumber);
+        Account[] ids = byId;
+        if (accountCount == ids.length) {
+            ids = Arrays.copyOf(ids, ids.length * 2);
+        }
+        ids[accountCount++] = acc;
+        byId = ids;
+        return acc;
+    }
+
+    private ByteBuffer segmentForWrite(long index) {
+        int s = (int) (index >>> segmentShift);
+        ByteBuffer[] segs = segments;
+        return s < segs.length ? segs[s] : addSegments(s);
+    }
+
+    private synchronized ByteBuffer addSegments(int s) {
+        ByteBuffer[] segs = segments;
+        if (s >= segs.length) {
+            ByteBuffer[] grown = Arrays.copyOf(segs, s + 1);
+            for (int i = segs.length; i <= s; i++) {
+                try {
+                    grown[i] = directory != null
+                        ? map(segmentFile(i))
+                        : ByteBuffer.allocateDirect(segmentBytes());
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Cannot create history segment", e);
+                }
+            }
+            segments = grown;
+        }
+        return segments[s];
+    }
+
+    private int segmentBytes() {
+        return (int) ((segmentMask + 1) * ENTRY_SIZE);
+    }
+
+    private Path segmentFile(int number) {
+        return directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    private MappedByteBuffer map(Path file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            if (raf.length() != 0 && raf.length() != segmentBytes()) {
+                throw new IOException(file + " was written with a different segment size");
+            }
+            raf.setLength(segmentBytes());
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes());
+        }
+    }
+
+    private void recover() throws IOException {
+        Path accountsFile = directory.resolve(ACCOUNTS_FILE);
+        if (Files.exists(accountsFile)) {
+            byte[] bytes = Files.readAllBytes(accountsFile);
+            int p = 0;
+            // a record torn by a crash is dropped along with everything after it
+            while (p < bytes.length && p + 1 + (bytes[p] & 0xFF) <= bytes.length) {
+                int len = bytes[p] & 0xFF;
+                Account acc = addAccount(new String(bytes, p + 1, len, StandardCharsets.UTF_8));
+                accounts.put(acc.number, acc);
+                p += 1 + len;
+            }
+            if (p < bytes.length) {
+                try (FileChannel channel = FileChannel.open(accountsFile, StandardOpenOption.WRITE)) {
+                    channel.truncate(p);
+                }
+            }
+        }
+        dictionary = FileChannel.open(accountsFile,
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        Collections.sort(files);
+        ByteBuffer[] segs = new ByteBuffer[files.size()];
+        for (int i = 0; i < segs.length; i++) {
+            if (!files.get(i).equals(segmentFile(i))) {
+                throw new IOException("History segment missing before " + files.get(i));
+            }
+            segs[i] = map(files.get(i));
+        }
+        segments = segs;
+
+        long end = (long) segs.length << segmentShift;
+        long index = 0;
+        while (index < end && timeAt(index) != 0) {
+            int id = accountAt(index);
+            if (id < 0 || id >= accountCount) {
+                throw new IOException("History entry " + index + " refers to unknown account " + id);
+            }
+            Account acc = byId[id];
+            int ordinal = ordinalAt(index);
+            if ((ordinal & CHECKPOINT_MASK) == 0) {
+                addCheckpoint(acc, ordinal >>> CHECKPOINT_SHIFT, index);
+            }
+            acc.count = ordinal + 1;
+            acc.lastTime = timeAt(index);
+            acc.last = index;
+            index++;
+        }
+        // Entries after a gap left by a crash are dropped; clear them so they
+        // do not reappear once new appends have filled the gap.
+        for (long i = index; i < end; i++) {
+            segment(i).putLong(timeColumn + 8 * (int) (i & segmentMask), 0);
+        }
+        next.set(index);
+    }
+}
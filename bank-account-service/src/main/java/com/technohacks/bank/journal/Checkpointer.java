@@ -0,0 +1,51 @@
+package com.technohacks.bank.journal;
+
+import com.technohacks.bank.service.BankAccountService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Takes periodic snapshots of a service on a background thread.
+ */
+public class Checkpointer implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(Checkpointer.class);
+
+    private final BankAccountService service;
+    private final SnapshotStore snapshots;
+    private final ScheduledExecutorService scheduler;
+
+    public Checkpointer(BankAccountService service, SnapshotStore snapshots) {
+        this.service = service;
+        this.snapshots = snapshots;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "bank-checkpointer");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public void start(long period, TimeUnit unit) {
+        scheduler.scheduleWithFixedDelay(this::checkpoint, period, period, unit);
+    }
+
+    public void checkpoint() {
+        try {
+            long started = System.nanoTime();
+            long sequence = service.checkpoint(snapshots);
+            logger.info("Checkpoint at sequence {} written in {} ms", sequence,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        } catch (Exception e) {
+            logger.error("Checkpoint failed: {}", e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdown();
+    }
+}
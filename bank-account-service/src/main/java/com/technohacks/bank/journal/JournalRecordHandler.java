@@ -0,0 +1,16 @@
+package com.technohacks.bank.journal;
+
+/**
+ * Callback used while replaying the transaction journal.
+ */
+@FunctionalInterface
+public interface JournalRecordHandler {
+    /**
+     * @param idempotencyKey key of the request that caused the change, or
+     *                       null if it had none
+     * @param detail         type-specific extra field, such as the day of an
+     *                       {@link TransactionJournal#ACCRUAL}, or null
+     */
+    void onRecord(long sequence, byte type, String account, String counterparty, long amount,
+                  String idempotencyKey, String detail);
+}
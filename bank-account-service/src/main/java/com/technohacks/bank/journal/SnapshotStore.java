@@ -0,0 +1,283 @@
+package com.technohacks.bank.journal;
+
+import com.technohacks.bank.model.BankAccount;
+import com.technohacks.bank.service.AccountStore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Columnar binary snapshots of the whole account map.
+ *
+ * A snapshot file holds a fixed header followed by one column per field:
+ * account numbers, holders, PIN hashes, balances, last applied journal
+ * sequences and last accrual days, followed by an opaque block of service
+ * state that does not belong to any one account. The header records where
+ * each column starts so a reader can map the columns directly. Files are
+ * written under a temporary name and renamed into place once fully synced.
+ * Version 2 and 3 files, which lack the accrual column and the state block,
+ * can still be loaded.
+ */
+public class SnapshotStore {
+    private static final int MAGIC = 0x42414E4B;
+    private static final int VERSION = 4;
+    private static final int COLUMNS = 7;
+    private static final int V2_COLUMNS = 5;
+    private static final byte[] NO_STATE = new byte[0];
+    private static final int HEADER_SIZE = headerSize(COLUMNS);
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".snap";
+    private static final int RETAINED = 2;
+
+    private final Path directory;
+
+    public SnapshotStore(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+    }
+
+    public static class Snapshot {
+        private final long startSequence;
+        private final AccountStore accounts;
+        private final byte[] serviceState;
+
+        Snapshot(long startSequence, AccountStore accounts, byte[] serviceState) {
+            this.startSequence = startSequence;
+            this.accounts = accounts;
+            this.serviceState = serviceState;
+        }
+
+        /** First journal sequence that is not guaranteed to be in the snapshot. */
+        public long getStartSequence() {
+            return startSequence;
+        }
+
+        public AccountStore getAccounts() {
+            return accounts;
+        }
+
+        /** The block passed to {@link #write(AccountStore, long, byte[])}; empty for older files. */
+        public byte[] getServiceState() {
+            return serviceState;
+        }
+    }
+
+    /**
+     * Writes a snapshot of {@code accounts}. Each account's balance, sequence
+     * and accrual day are read together with an optimistic stamp on its
+     * stripe, falling back to the stripe lock only if an update gets in the
+     * way.
+     */
+    public Path write(AccountStore accounts, long startSequence) throws IOException {
+        return write(accounts, startSequence, NO_STATE);
+    }
+
+    /** Writes a snapshot of {@code accounts} followed by {@code serviceState}. */
+    public Path write(AccountStore accounts, long startSequence, byte[] serviceState) throws IOException {
+        List<BankAccount> refs = new ArrayList<>(accounts.size() + 1024);
+        accounts.forEach(refs::add);
+        int count = refs.size();
+        long[] balances = new long[count];
+        long[] sequences = new long[count];
+        long[] accrualDays = new long[count];
+        for (int i = 0; i < count; i++) {
+            BankAccount acc = refs.get(i);
+            String number = acc.getAccountNumber();
+            long stamp = accounts.tryOptimisticRead(number);
+            balances[i] = acc.getBalance();
+            sequences[i] = acc.getLastSequence();
+            accrualDays[i] = acc.getLastAccrualDay();
+            if (!accounts.validate(number, stamp)) {
+                accounts.lock(number);
+                try {
+                    balances[i] = acc.getBalance();
+                    sequences[i] = acc.getLastSequence();
+                    accrualDays[i] = acc.getLastAccrualDay();
+                } finally {
+                    accounts.unlock(number);
+                }
+            }
+        }
+
+        Path target = directory.resolve(String.format("%s%020d%s", PREFIX, startSequence, SUFFIX));
+        Path temp = directory.resolve(target.getFileName() + ".tmp");
+        long[] offsets = new long[COLUMNS];
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            channel.position(HEADER_SIZE);
+
+            offsets[0] = channel.position();
+            for (BankAccount acc : refs) {
+                putShortString(channel, buf, acc.getAccountNumber().getBytes(StandardCharsets.US_ASCII));
+            }
+            offsets[1] = flush(channel, buf);
+            for (BankAccount acc : refs) {
+                putShortString(channel, buf, acc.getAccountHolder().getBytes(StandardCharsets.UTF_8));
+            }
+            offsets[2] = flush(channel, buf);
+            for (BankAccount acc : refs) {
+                putShortString(channel, buf, acc.getPinHash().getBytes(StandardCharsets.US_ASCII));
+            }
+            offsets[3] = flush(channel, buf);
+            for (long balance : balances) {
+                ensure(channel, buf, 8);
+                buf.putLong(balance);
+            }
+            offsets[4] = flush(channel, buf);
+            for (long sequence : sequences) {
+                ensure(channel, buf, 8);
+                buf.putLong(sequence);
+            }
+            offsets[5] = flush(channel, buf);
+            for (long day : accrualDays) {
+                ensure(channel, buf, 8);
+                buf.putLong(day);
+            }
+            offsets[6] = flush(channel, buf);
+            ByteBuffer state = ByteBuffer.wrap(serviceState);
+            while (state.hasRemaining()) {
+                channel.write(state);
+            }
+
+            buf.clear();
+            buf.putInt(MAGIC).putInt(VERSION).putLong(startSequence).putInt(count);
+            for (long offset : offsets) {
+                buf.putLong(offset);
+            }
+            buf.flip();
+            channel.write(buf, 0);
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        deleteOlderThan(target);
+        return target;
+    }
+
+    /** Loads the newest snapshot, or returns null if none has been written. */
+    public Snapshot loadLatest() throws IOException {
+        List<Path> files = snapshotFiles();
+        if (files.isEmpty()) {
+            return null;
+        }
+        return load(files.get(files.size() - 1));
+    }
+
+    public Snapshot load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file)) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, headerSize(V2_COLUMNS));
+            int version = header.getInt() == MAGIC ? header.getInt() : -1;
+            if (version < 2 || version > VERSION) {
+                throw new IOException("Not a supported account snapshot: " + file);
+            }
+            int columns = V2_COLUMNS + version - 2;
+            header = channel.map(FileChannel.MapMode.READ_ONLY, 0, headerSize(columns));
+            header.position(8);
+            long startSequence = header.getLong();
+            int count = header.getInt();
+            long[] offsets = new long[columns + 1];
+            for (int c = 0; c < columns; c++) {
+                offsets[c] = header.getLong();
+            }
+            offsets[columns] = channel.size();
+
+            String[] numbers = readStrings(column(channel, offsets, 0), count, StandardCharsets.US_ASCII);
+            String[] holders = readStrings(column(channel, offsets, 1), count, StandardCharsets.UTF_8);
+            String[] pinHashes = readStrings(column(channel, offsets, 2), count, StandardCharsets.US_ASCII);
+            ByteBuffer balances = column(channel, offsets, 3);
+            ByteBuffer sequences = column(channel, offsets, 4);
+            ByteBuffer accrualDays = columns > 5 ? column(channel, offsets, 5) : null;
+
+            AccountStore accounts = new AccountStore(count, AccountStore.DEFAULT_STRIPES);
+            for (int i = 0; i < count; i++) {
+                BankAccount acc = BankAccount.withPinHash(numbers[i], holders[i], pinHashes[i], balances.getLong());
+                acc.setLastSequence(sequences.getLong());
+                if (accrualDays != null) {
+                    acc.setLastAccrualDay(accrualDays.getLong());
+                }
+                accounts.put(acc);
+            }
+            byte[] serviceState = NO_STATE;
+            if (columns > 6) {
+                ByteBuffer state = column(channel, offsets, 6);
+                serviceState = new byte[state.remaining()];
+                state.get(serviceState);
+            }
+            return new Snapshot(startSequence, accounts, serviceState);
+        }
+    }
+
+    private static int headerSize(int columns) {
+        return 4 + 4 + 8 + 4 + columns * 8;
+    }
+
+    private static ByteBuffer column(FileChannel channel, long[] offsets, int c) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, offsets[c], offsets[c + 1] - offsets[c]);
+    }
+
+    private static String[] readStrings(ByteBuffer buf, int count, Charset charset) {
+        String[] values = new String[count];
+        byte[] scratch = new byte[Short.MAX_VALUE];
+        for (int i = 0; i < count; i++) {
+            int len = buf.getShort() & 0xFFFF;
+            buf.get(scratch, 0, len);
+            values[i] = new String(scratch, 0, len, charset);
+        }
+        return values;
+    }
+
+    private static void putShortString(FileChannel channel, ByteBuffer buf, byte[] bytes) throws IOException {
+        if (bytes.length > Short.MAX_VALUE) {
+            throw new IOException("Field too long for snapshot: " + bytes.length + " bytes");
+        }
+        ensure(channel, buf, 2 + bytes.length);
+        buf.putShort((short) bytes.length).put(bytes);
+    }
+
+    private static void ensure(FileChannel channel, ByteBuffer buf, int bytes) throws IOException {
+        if (buf.remaining() < bytes) {
+            flush(channel, buf);
+        }
+    }
+
+    /** Drains the buffer and returns the resulting channel position. */
+    private static long flush(FileChannel channel, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+        buf.clear();
+        return channel.position();
+    }
+
+    private void deleteOlderThan(Path newest) throws IOException {
+        List<Path> files = snapshotFiles();
+        for (int i = 0; i < files.size() - RETAINED; i++) {
+            if (!files.get(i).equals(newest)) {
+                Files.deleteIfExists(files.get(i));
+            }
+        }
+    }
+
+    private List<Path> snapshotFiles() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        Collections.sort(files);
+        return files;
+    }
+}
@@ -0,0 +1,560 @@
+package com.technohacks.bank.journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead journal of balance changes.
+ *
+ * Records are written into pre-allocated, memory-mapped segment files. Writers
+ * append under a short lock and then call {@link #commit(long)}; concurrent
+ * committers are folded into a single force (group commit).
+ *
+ * Record layout: int length, int crc, long sequence, byte type, long amount,
+ * then the account and counterparty numbers as length-prefixed ASCII,
+ * optionally followed by the request's idempotency key in the same form and
+ * then by a length-prefixed UTF-8 detail whose meaning depends on the type.
+ * A record with a detail but no key has an empty key. A zero length marks
+ * the end of the written part of a segment.
+ */
+public class TransactionJournal implements Closeable {
+    public static final byte WITHDRAW = 1;
+    public static final byte DEPOSIT = 2;
+    public static final byte TRANSFER = 3;
+    /** End-of-day interest less fees; the amount is signed and the detail is the epoch day. */
+    public static final byte ACCRUAL = 4;
+    /**
+     * A keyed withdrawal, deposit or transfer that was refused; changes no
+     * balance. The detail describes the outcome a retry must get again.
+     */
+    public static final byte REFUSED = 5;
+    /**
+     * Steps of a two-phase transfer on one node; the detail is the transfer
+     * id. PREPARE_OUT debits the amount from the source. PREPARE_IN debits
+     * nothing and carries the amount to credit on commit. COMMIT and ABORT
+     * credit their amount, which is zero unless the step credits the
+     * destination or refunds the source; an ABORT with an empty account
+     * marks an id that was never prepared.
+     */
+    public static final byte PREPARE_OUT = 6;
+    public static final byte PREPARE_IN = 7;
+    public static final byte COMMIT = 8;
+    public static final byte ABORT = 9;
+    /**
+     * A new account; the counterparty is its PIN hash, the amount its
+     * opening balance and the detail its holder.
+     */
+    public static final byte OPEN = 10;
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final int HEADER_SIZE = 4 + 4;
+    private static final int BODY_FIXED_SIZE = 8 + 1 + 8 + 1 + 1;
+    private static final int MAX_KEY_LENGTH = 255;
+    private static final int MAX_RECORD_SIZE = HEADER_SIZE + BODY_FIXED_SIZE + 4 * MAX_KEY_LENGTH + 2;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final Object appendLock = new Object();
+    private final Object syncLock = new Object();
+    private final CRC32 crc = new CRC32();
+
+    private MappedByteBuffer segment;
+    private ByteBuffer crcView;
+    private int position;
+    private long nextSequence;
+    private volatile long durableSequence;
+    private boolean closed;
+
+    private TransactionJournal(Path directory, int segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    public static TransactionJournal open(Path directory) throws IOException {
+        return open(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public static TransactionJournal open(Path directory, int segmentSize) throws IOException {
+        return open(directory, segmentSize, 1);
+    }
+
+    /**
+     * Opens the journal in {@code directory}; if it is empty, the first
+     * record will get {@code firstSequence}. A standby uses this to keep the
+     * primary's sequence numbers when it starts from a snapshot.
+     */
+    public static TransactionJournal open(Path directory, int segmentSize, long firstSequence) throws IOException {
+        if (firstSequence < 1) {
+            throw new IllegalArgumentException("Journal sequences start at 1");
+        }
+        Files.createDirectories(directory);
+        TransactionJournal journal = new TransactionJournal(directory, segmentSize);
+        journal.recoverTail(firstSequence);
+        return journal;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /** Sequence number that the next appended record will receive. */
+    public long nextSequence() {
+        synchronized (appendLock) {
+            return nextSequence;
+        }
+    }
+
+    public long durableSequence() {
+        return durableSequence;
+    }
+
+    public long appendWithdraw(String account, long amount) {
+        return append(WITHDRAW, account, "", amount);
+    }
+
+    public long appendWithdraw(String account, long amount, String idempotencyKey) {
+        return append(WITHDRAW, account, "", amount, idempotencyKey);
+    }
+
+    public long appendDeposit(String account, long amount) {
+        return append(DEPOSIT, account, "", amount);
+    }
+
+    public long appendDeposit(String account, long amount, String idempotencyKey) {
+        return append(DEPOSIT, account, "", amount, idempotencyKey);
+    }
+
+    public long appendTransfer(String fromAccount, String toAccount, long amount) {
+        return append(TRANSFER, fromAccount, toAccount, amount);
+    }
+
+    public long appendTransfer(String fromAccount, String toAccount, long amount, String idempotencyKey) {
+        return append(TRANSFER, fromAccount, toAccount, amount, idempotencyKey);
+    }
+
+    public long appendAccrual(String account, long net, long epochDay) {
+        return append(ACCRUAL, account, "", net, null, Long.toString(epochDay));
+    }
+
+    public long appendOpen(String account, String holder, String pinHash, long balance) {
+        return append(OPEN, account, pinHash, balance, null, holder);
+    }
+
+    public long append(byte type, String account, String counterparty, long amount) {
+        return append(type, account, counterparty, amount, null);
+    }
+
+    public long append(byte type, String account, String counterparty, long amount, String idempotencyKey) {
+        return append(type, account, counterparty, amount, idempotencyKey, null);
+    }
+
+    /**
+     * Appends one record and returns its sequence number. The record is not
+     * durable until {@link #commit(long)} has returned for that sequence.
+     *
+     * @param idempotencyKey key of the request that caused the change, or null
+     * @param detail         type-specific extra field, or null
+     */
+    public long append(byte type, String account, String counterparty, long amount, String idempotencyKey,
+                       String detail) {
+        int accLen = account.length();
+        int cpLen = counterparty.length();
+        int keyLen = idempotencyKey != null ? 1 + idempotencyKey.length() : detail != null ? 1 : 0;
+        byte[] detailBytes = detail != null ? detail.getBytes(StandardCharsets.UTF_8) : null;
+        int detailLen = detailBytes != null ? 1 + detailBytes.length : 0;
+        if (accLen > MAX_KEY_LENGTH || cpLen > MAX_KEY_LENGTH || keyLen > MAX_KEY_LENGTH + 1
+            || detailLen > MAX_KEY_LENGTH + 1) {
+            throw new IllegalArgumentException("Account number, idempotency key or detail too long for journal record");
+        }
+        int length = HEADER_SIZE + BODY_FIXED_SIZE + accLen + cpLen + keyLen + detailLen;
+        synchronized (appendLock) {
+            if (closed) {
+                throw new IllegalStateException("Journal is closed");
+            }
+            if (position + length + 4 > segmentSize) {
+                roll();
+            }
+            long sequence = nextSequence++;
+            MappedByteBuffer buf = segment;
+            int body = position + HEADER_SIZE;
+            int p = body;
+            buf.putLong(p, sequence);
+            p += 8;
+            buf.put(p++, type);
+            buf.putLong(p, amount);
+            p += 8;
+            p = putAscii(buf, p, account);
+            p = putAscii(buf, p, counterparty);
+            if (idempotencyKey != null) {
+                p = putAscii(buf, p, idempotencyKey);
+            } else if (detailBytes != null) {
+                buf.put(p++, (byte) 0);
+            }
+            if (detailBytes != null) {
+                buf.put(p++, (byte) detailBytes.length);
+                for (byte b : detailBytes) {
+                    buf.put(p++, b);
+                }
+            }
+            crc.reset();
+            crcView.limit(p).position(body);
+            crc.update(crcView);
+            buf.putInt(position + 4, (int) crc.getValue());
+            // length goes last so a torn record never looks complete
+            buf.putInt(position, length);
+            position = p;
+            return sequence;
+        }
+    }
+
+    /**
+     * Makes every record up to and including {@code sequence} durable. One
+     * caller forces the segment on behalf of everybody queued behind it.
+     */
+    public void commit(long sequence) {
+        if (durableSequence >= sequence) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (durableSequence >= sequence) {
+                return;
+            }
+            long target;
+            MappedByteBuffer buf;
+            synchronized (appendLock) {
+                target = nextSequence - 1;
+                buf = segment;
+            }
+            buf.force();
+            durableSequence = target;
+            syncLock.notifyAll();
+        }
+    }
+
+    /**
+     * Waits until {@code sequence} is durable or the timeout passes. Returns
+     * true if it is durable.
+     */
+    public boolean awaitDurable(long sequence, long timeoutMillis) throws InterruptedException {
+        if (durableSequence >= sequence) {
+            return true;
+        }
+        long deadline = System.nanoTime() + timeoutMillis * 1_000_000;
+        synchronized (syncLock) {
+            while (durableSequence < sequence) {
+                long remaining = (deadline - System.nanoTime()) / 1_000_000;
+                if (remaining <= 0) {
+                    return false;
+                }
+                syncLock.wait(remaining);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replays every intact record with a sequence of at least {@code fromSequence}
+     * and returns the number of records delivered.
+     */
+    public long replay(long fromSequence, JournalRecordHandler handler) throws IOException {
+        long count = 0;
+        for (Path file : segmentFiles()) {
+            try (FileChannel channel = FileChannel.open(file)) {
+                ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                ByteBuffer view = buf.duplicate();
+                CRC32 check = new CRC32();
+                int p = 0;
+                while (true) {
+                    int length = recordLength(buf, view, check, p);
+                    if (length == 0) {
+                        break;
+                    }
+                    if (buf.getLong(p + HEADER_SIZE) >= fromSequence) {
+                        deliver(buf, p, length, handler);
+                        count++;
+                    }
+                    p += length;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Checks and delivers one record copied out of a journal, e.g. by a
+     * {@link Tail} on another machine. Returns the record's length, or 0 if
+     * the bytes at {@code p} are not a complete, intact record.
+     */
+    public static int readRecord(ByteBuffer buf, int p, JournalRecordHandler handler) {
+        int length = recordLength(buf, buf.duplicate(), new CRC32(), p);
+        if (length > 0) {
+            deliver(buf, p, length, handler);
+        }
+        return length;
+    }
+
+    private static void deliver(ByteBuffer buf, int p, int length, JournalRecordHandler handler) {
+        long sequence = buf.getLong(p + HEADER_SIZE);
+        int q = p + HEADER_SIZE + 8;
+        byte type = buf.get(q++);
+        long amount = buf.getLong(q);
+        q += 8;
+        String account = getAscii(buf, q);
+        q += 1 + account.length();
+        String counterparty = getAscii(buf, q);
+        q += 1 + counterparty.length();
+        // records without a key or detail end here
+        String idempotencyKey = null;
+        String detail = null;
+        if (q < p + length) {
+            idempotencyKey = getAscii(buf, q);
+            q += 1 + idempotencyKey.length();
+            if (q < p + length) {
+                int len = buf.get(q) & 0xFF;
+                byte[] bytes = new byte[len];
+                for (int i = 0; i < len; i++) {
+                    bytes[i] = buf.get(q + 1 + i);
+                }
+                detail = new String(bytes, StandardCharsets.UTF_8);
+            }
+            if (idempotencyKey.isEmpty()) {
+                idempotencyKey = null;
+            }
+        }
+        handler.onRecord(sequence, type, account, counterparty, amount, idempotencyKey, detail);
+    }
+
+    /**
+     * Opens a cursor over the records from {@code fromSequence} on. It
+     * follows the journal as it grows but only ever returns durable records.
+     *
+     * @throws IllegalStateException if those records have been truncated, or
+     *         {@code fromSequence} is beyond the end of the journal
+     */
+    public Tail tail(long fromSequence) throws IOException {
+        long next = nextSequence();
+        if (fromSequence < 1 || fromSequence > next) {
+            throw new IllegalStateException("Journal ends before sequence " + fromSequence);
+        }
+        Path start = null;
+        for (Path file : segmentFiles()) {
+            if (baseSequence(file) <= fromSequence) {
+                start = file;
+            }
+        }
+        if (start == null) {
+            throw new IllegalStateException("Journal records from sequence " + fromSequence + " have been truncated");
+        }
+        Tail tail = new Tail(baseSequence(start));
+        tail.skipTo(fromSequence);
+        return tail;
+    }
+
+    /**
+     * Sequential reader of durable records as raw bytes, for shipping them
+     * to a standby. Not thread-safe.
+     */
+    public final class Tail {
+        private ByteBuffer buf;
+        private int position;
+        private long nextSequence;
+
+        private Tail(long baseSequence) throws IOException {
+            open(baseSequence);
+        }
+
+        /** Sequence of the next record {@link #read} will return. */
+        public long nextSequence() {
+            return nextSequence;
+        }
+
+        /**
+         * Copies as many whole durable records as fit into {@code dst} and
+         * returns how many were copied; 0 when none are durable yet.
+         */
+        public int read(ByteBuffer dst) throws IOException {
+            long durable = durableSequence;
+            int count = 0;
+            while (nextSequence <= durable) {
+                int length = position + 4 <= buf.limit() ? buf.getInt(position) : 0;
+                if (length == 0) {
+                    // the writer rolled over to a segment starting at nextSequence
+                    open(nextSequence);
+                    continue;
+                }
+                if (length > dst.remaining()) {
+                    break;
+                }
+                dst.put(buf.duplicate().limit(position + length).position(position));
+                position += length;
+                nextSequence++;
+                count++;
+            }
+            return count;
+        }
+
+        private void skipTo(long sequence) {
+            while (nextSequence < sequence) {
+                position += buf.getInt(position);
+                nextSequence++;
+            }
+        }
+
+        private void open(long baseSequence) throws IOException {
+            Path file = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, baseSequence, SEGMENT_SUFFIX));
+            try (FileChannel channel = FileChannel.open(file)) {
+                buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            position = 0;
+            nextSequence = baseSequence;
+        }
+    }
+
+    /**
+     * Deletes whole segments whose records all precede {@code sequence}. Used
+     * once a snapshot covers them.
+     */
+    public void truncateBefore(long sequence) throws IOException {
+        List<Path> files = segmentFiles();
+        for (int i = 0; i + 1 < files.size(); i++) {
+            if (baseSequence(files.get(i + 1)) <= sequence) {
+                Files.deleteIfExists(files.get(i));
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (syncLock) {
+            synchronized (appendLock) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                segment.force();
+                durableSequence = nextSequence - 1;
+            }
+        }
+    }
+
+    private void recoverTail(long firstSequence) throws IOException {
+        List<Path> files = segmentFiles();
+        if (files.isEmpty()) {
+            nextSequence = firstSequence;
+            durableSequence = firstSequence - 1;
+            mapSegment(firstSequence);
+            return;
+        }
+        Path last = files.get(files.size() - 1);
+        long base = baseSequence(last);
+        segment = map(last);
+        crcView = segment.duplicate();
+        int p = 0;
+        long sequence = base;
+        while (true) {
+            int length = recordLength(segment, crcView, crc, p);
+            if (length == 0) {
+                break;
+            }
+            sequence = segment.getLong(p + HEADER_SIZE) + 1;
+            p += length;
+        }
+        // wipe a torn record left behind by a crash
+        for (int i = p; i < Math.min(segmentSize, p + MAX_RECORD_SIZE); i++) {
+            segment.put(i, (byte) 0);
+        }
+        position = p;
+        nextSequence = sequence;
+        durableSequence = sequence - 1;
+    }
+
+    /** Returns the length of an intact record at {@code p}, or 0 at the end of data. */
+    private static int recordLength(ByteBuffer buf, ByteBuffer view, CRC32 check, int p) {
+        if (p + HEADER_SIZE > buf.limit()) {
+            return 0;
+        }
+        int length = buf.getInt(p);
+        if (length < HEADER_SIZE + BODY_FIXED_SIZE || p + length > buf.limit()) {
+            return 0;
+        }
+        check.reset();
+        view.limit(p + length).position(p + HEADER_SIZE);
+        check.update(view);
+        return (int) check.getValue() == buf.getInt(p + 4) ? length : 0;
+    }
+
+    private void roll() {
+        segment.force();
+        try {
+            mapSegment(nextSequence);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create journal segment", e);
+        }
+    }
+
+    private void mapSegment(long baseSequence) throws IOException {
+        Path file = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, baseSequence, SEGMENT_SUFFIX));
+        segment = map(file);
+        crcView = segment.duplicate();
+        position = 0;
+    }
+
+    private MappedByteBuffer map(Path file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            if (raf.length() < segmentSize) {
+                raf.setLength(segmentSize);
+            }
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    private static long baseSequence(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static int putAscii(ByteBuffer buf, int p, String s) {
+        int len = s.length();
+        buf.put(p++, (byte) len);
+        for (int i = 0; i < len; i++) {
+            buf.put(p++, (byte) s.charAt(i));
+        }
+        return p;
+    }
+
+    private static String getAscii(ByteBuffer buf, int p) {
+        int len = buf.get(p) & 0xFF;
+        byte[] bytes = new byte[len];
+        for (int i = 0; i < len; i++) {
+            bytes[i] = buf.get(p + 1 + i);
+        }
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+}
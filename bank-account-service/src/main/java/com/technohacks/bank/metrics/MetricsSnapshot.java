@@ -0,0 +1,127 @@
+package com.technohacks.bank.metrics;
+
+import com.technohacks.bank.service.OperationStatus;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Point-in-time copy of {@link ServiceMetrics}. Counters and histograms are
+ * read one after another while traffic continues, so totals may be off by
+ * the operations that finished during the copy.
+ */
+public class MetricsSnapshot {
+    private static final OperationStatus[] STATUSES = OperationStatus.values();
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final List<OperationStats> operations;
+    private final OperationStats authentication;
+
+    MetricsSnapshot(OperationStats[] operations, OperationStats authentication) {
+        this.operations = Collections.unmodifiableList(Arrays.asList(operations));
+        this.authentication = authentication;
+    }
+
+    public static final class OperationStats {
+        private final String name;
+        private final long[] counts;
+        private final long[] quantileNanos = new long[QUANTILES.length];
+        private final long maxNanos;
+
+        OperationStats(String name, long[] counts, LatencyHistogram latency) {
+            this.name = name;
+            this.counts = counts;
+            for (int q = 0; q < QUANTILES.length; q++) {
+                quantileNanos[q] = latency.percentile(QUANTILES[q] * 100);
+            }
+            this.maxNanos = latency.max();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCount(OperationStatus status) {
+            return counts[status.ordinal()];
+        }
+
+        public long getTotal() {
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            return total;
+        }
+
+        public long getFailures() {
+            return getTotal() - getCount(OperationStatus.OK);
+        }
+
+        public long getP50Nanos() {
+            return quantileNanos[0];
+        }
+
+        public long getP90Nanos() {
+            return quantileNanos[1];
+        }
+
+        public long getP99Nanos() {
+            return quantileNanos[2];
+        }
+
+        public long getP999Nanos() {
+            return quantileNanos[3];
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+    }
+
+    public List<OperationStats> getOperations() {
+        return operations;
+    }
+
+    /** PIN checks; failures are counted as UNAUTHORIZED_ACCESS. */
+    public OperationStats getAuthentication() {
+        return authentication;
+    }
+
+    /** Renders the snapshot in the Prometheus text exposition format. */
+    public String toPrometheusText() {
+        StringBuilder out = new StringBuilder(8192);
+        out.append("# HELP bank_operations_total Completed operations by outcome code.\n")
+           .append("# TYPE bank_operations_total counter\n");
+        for (OperationStats stats : operations) {
+            appendCounts(out, stats);
+        }
+        appendCounts(out, authentication);
+
+        out.append("# HELP bank_operation_latency_nanoseconds Service-side operation latency.\n")
+           .append("# TYPE bank_operation_latency_nanoseconds summary\n");
+        for (OperationStats stats : operations) {
+            appendLatency(out, stats);
+        }
+        appendLatency(out, authentication);
+        return out.toString();
+    }
+
+    private static void appendCounts(StringBuilder out, OperationStats stats) {
+        for (OperationStatus status : STATUSES) {
+            out.append("bank_operations_total{operation=\"").append(stats.name)
+               .append("\",code=\"").append(status.getErrorCode()).append("\"} ")
+               .append(stats.getCount(status)).append('\n');
+        }
+    }
+
+    private static void appendLatency(StringBuilder out, OperationStats stats) {
+        for (int q = 0; q < QUANTILES.length; q++) {
+            out.append("bank_operation_latency_nanoseconds{operation=\"").append(stats.name)
+               .append("\",quantile=\"").append(QUANTILES[q]).append("\"} ")
+               .append(stats.quantileNanos[q]).append('\n');
+        }
+        out.append("bank_operation_latency_nanoseconds_count{operation=\"").append(stats.name).append("\"} ")
+           .append(stats.getTotal()).append('\n');
+    }
+}
@@ -0,0 +1,74 @@
+package com.technohacks.bank.metrics;
+
+import com.technohacks.bank.service.Operation;
+import com.technohacks.bank.service.OperationStatus;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histograms per operation and outcome counters per operation and
+ * error code for {@link com.technohacks.bank.service.BankAccountService}.
+ *
+ * Recording is a striped histogram increment and a {@link LongAdder}
+ * increment, so concurrent callers do not contend on shared counters.
+ * Credential checks (PIN hashing) get their own histogram because they
+ * dominate any operation that performs one.
+ */
+public class ServiceMetrics {
+    private static final int STRIPES = 8;
+    private static final Operation[] OPERATIONS = Operation.values();
+    private static final OperationStatus[] STATUSES = OperationStatus.values();
+
+    private final LatencyHistogram[] latencies = new LatencyHistogram[OPERATIONS.length];
+    private final LongAdder[][] outcomes = new LongAdder[OPERATIONS.length][STATUSES.length];
+    private final LatencyHistogram authentication = new LatencyHistogram(STRIPES);
+    private final LongAdder failedAuthentications = new LongAdder();
+
+    public ServiceMetrics() {
+        for (int op = 0; op < OPERATIONS.length; op++) {
+            latencies[op] = new LatencyHistogram(STRIPES);
+            for (int status = 0; status < STATUSES.length; status++) {
+                outcomes[op][status] = new LongAdder();
+            }
+        }
+    }
+
+    public void record(Operation op, OperationStatus status, long nanos) {
+        latencies[op.ordinal()].record(nanos);
+        outcomes[op.ordinal()][status.ordinal()].increment();
+    }
+
+    /** Records one PIN check, including the hash, and whether it passed. */
+    public void recordAuthentication(long nanos, boolean passed) {
+        authentication.record(nanos);
+        if (!passed) {
+            failedAuthentications.increment();
+        }
+    }
+
+    public MetricsSnapshot snapshot() {
+        MetricsSnapshot.OperationStats[] stats = new MetricsSnapshot.OperationStats[OPERATIONS.length];
+        for (int op = 0; op < OPERATIONS.length; op++) {
+            long[] counts = new long[STATUSES.length];
+            for (int status = 0; status < STATUSES.length; status++) {
+                counts[status] = outcomes[op][status].sum();
+            }
+            stats[op] = new MetricsSnapshot.OperationStats(OPERATIONS[op].name(), counts, latencies[op]);
+        }
+        long[] authCounts = new long[STATUSES.length];
+        authCounts[OperationStatus.UNAUTHORIZED_ACCESS.ordinal()] = failedAuthentications.sum();
+        authCounts[OperationStatus.OK.ordinal()] = Math.max(0, authentication.count() - authCounts[OperationStatus.UNAUTHORIZED_ACCESS.ordinal()]);
+        return new MetricsSnapshot(stats, new MetricsSnapshot.OperationStats("AUTHENTICATE", authCounts, authentication));
+    }
+
+    public void reset() {
+        for (int op = 0; op < OPERATIONS.length; op++) {
+            latencies[op].reset();
+            for (LongAdder counter : outcomes[op]) {
+                counter.reset();
+            }
+        }
+        authentication.reset();
+        failedAuthentications.reset();
+    }
+}
@@ -1,19 +1,37 @@
 package com.technohacks.bank.model;
 
+import com.technohacks.bank.security.PinHasher;
+
 public class BankAccount {
 	
     private String accountNumber;
     private String accountHolder;
-    private String pin;
-    private double balance;
+    // salted slow hash, see PinHasher
+    private String pinHash;
+    private volatile long balance;
+    // journal sequence of the last change applied to this account
+    private long lastSequence;
+    // epoch day of the last end-of-day accrual applied to this account
+    private long lastAccrualDay = Long.MIN_VALUE;
+    // row version in an AccountRepository, bumped by every change written to it
+    private long version;
+
+    public BankAccount(String accountNumber, String accountHolder, String pin, long balance) {
+        this(accountNumber, accountHolder, balance, PinHasher.hash(pin));
+    }
 
-    public BankAccount(String accountNumber, String accountHolder, String pin, double balance) {
+    protected BankAccount(String accountNumber, String accountHolder, long balance, String pinHash) {
         this.accountNumber = accountNumber;
         this.accountHolder = accountHolder;
-        this.pin = pin;
+        this.pinHash = pinHash;
         this.balance = balance;
     }
 
+    /** Restores an account whose PIN has already been hashed, e.g. from a snapshot. */
+    public static BankAccount withPinHash(String accountNumber, String accountHolder, String pinHash, long balance) {
+        return new BankAccount(accountNumber, accountHolder, balance, pinHash);
+    }
+
     public String getAccountNumber() {
         return accountNumber;
     }
@@ -22,23 +40,52 @@ public class BankAccount {
         return accountHolder;
     }
 
-    public String getPin() {
-        return pin;
+    public String getPinHash() {
+        return pinHash;
     }
 
-    public double getBalance() {
+    /** Runs the slow hash check; callers should cache the outcome in a session. */
+    public boolean matchesPin(String candidate) {
+        return PinHasher.verify(candidate, pinHash);
+    }
+
+    public long getBalance() {
         return balance;
     }
 
-    public void setBalance(double balance) {
+    public void setBalance(long balance) {
         this.balance = balance;
     }
 
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    public void setLastSequence(long lastSequence) {
+        this.lastSequence = lastSequence;
+    }
+
+    public long getLastAccrualDay() {
+        return lastAccrualDay;
+    }
+
+    public void setLastAccrualDay(long lastAccrualDay) {
+        this.lastAccrualDay = lastAccrualDay;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     @Override
     public String toString() {
         return String.format(
-            "\nAccount Details:\n-----------------\nAccount Number : %s\nAccount Holder : %s\nBalance        : $%.2f",
-            accountNumber, accountHolder, balance
+            "\nAccount Details:\n-----------------\nAccount Number : %s\nAccount Holder : %s\nBalance        : $%s",
+            getAccountNumber(), getAccountHolder(), Money.format(getBalance())
         );
     }
 }
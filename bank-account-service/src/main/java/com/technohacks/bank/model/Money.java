@@ -0,0 +1,90 @@
+package com.technohacks.bank.model;
+
+/**
+ * Fixed-point money helpers.
+ * Amounts are carried as a primitive long of minor units (cents), so
+ * arithmetic is exact and never allocates.
+ */
+public final class Money {
+    public static final long CENTS_PER_UNIT = 100;
+
+    private Money() {
+    }
+
+    public static long ofUnits(long units) {
+        return Math.multiplyExact(units, CENTS_PER_UNIT);
+    }
+
+    public static long add(long a, long b) {
+        return Math.addExact(a, b);
+    }
+
+    public static long subtract(long a, long b) {
+        return Math.subtractExact(a, b);
+    }
+
+    /**
+     * Parses a decimal amount such as "1000", "12.5" or "-3.07" into cents.
+     * More than two fraction digits is rejected rather than rounded.
+     */
+    public static long parse(String text) {
+        String s = text.trim();
+        if (s.startsWith("$")) {
+            s = s.substring(1);
+        }
+        int len = s.length();
+        int i = 0;
+        boolean negative = false;
+        if (len > 0 && (s.charAt(0) == '-' || s.charAt(0) == '+')) {
+            negative = s.charAt(0) == '-';
+            i++;
+        }
+        if (i == len) {
+            throw new NumberFormatException("Invalid amount: " + text);
+        }
+        long units = 0;
+        long cents = 0;
+        int fractionDigits = -1;
+        for (; i < len; i++) {
+            char c = s.charAt(i);
+            if (c == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else if (c >= '0' && c <= '9') {
+                if (fractionDigits < 0) {
+                    units = Math.addExact(Math.multiplyExact(units, 10), c - '0');
+                } else if (++fractionDigits <= 2) {
+                    cents = cents * 10 + (c - '0');
+                } else {
+                    throw new NumberFormatException("Too many decimal places: " + text);
+                }
+            } else {
+                throw new NumberFormatException("Invalid amount: " + text);
+            }
+        }
+        if (fractionDigits == 1) {
+            cents *= 10;
+        }
+        long value = Math.addExact(ofUnits(units), cents);
+        return negative ? -value : value;
+    }
+
+    public static String format(long cents) {
+        return appendTo(new StringBuilder(24), cents).toString();
+    }
+
+    public static StringBuilder appendTo(StringBuilder sb, long cents) {
+        if (cents < 0) {
+            sb.append('-');
+            if (cents == Long.MIN_VALUE) {
+                return sb.append("92233720368547758.08");
+            }
+            cents = -cents;
+        }
+        long fraction = cents % CENTS_PER_UNIT;
+        sb.append(cents / CENTS_PER_UNIT).append('.');
+        if (fraction < 10) {
+            sb.append('0');
+        }
+        return sb.append(fraction);
+    }
+}
@@ -0,0 +1,167 @@
+package com.technohacks.bank.replication;
+
+import com.technohacks.bank.exception.AccountNotFoundException;
+import com.technohacks.bank.journal.SnapshotStore;
+import com.technohacks.bank.journal.TransactionJournal;
+import com.technohacks.bank.metrics.LatencyHistogram;
+import com.technohacks.bank.model.BankAccount;
+import com.technohacks.bank.model.Money;
+import com.technohacks.bank.security.PinHasher;
+import com.technohacks.bank.service.AccountStore;
+import com.technohacks.bank.service.BankAccountService;
+import com.technohacks.bank.service.OperationResult;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Measures log shipping on one machine: a journalled primary in this JVM
+ * takes random transfers and deposits while a {@link Standby} in a child
+ * process, started from the primary's snapshot, follows it. Prints the primary's throughput, the replication lag
+ * (frame shipped to frame applied and acknowledged), how long the standby
+ * takes to catch up once traffic stops, how long promotion takes, and
+ * whether the promoted standby holds the same total as the primary.
+ *
+ * Usage: ReplicationHarness [accounts] [seconds] [threads]
+ */
+public class ReplicationHarness {
+    static final String PIN = "1234";
+    static final long OPENING_BALANCE = Money.ofUnits(1000);
+
+    // One cheap hash for every synthetic account: the production work factor
+    // would make the load measure PIN hashing instead of replication.
+    private static final String PIN_HASH = PinHasher.hash(PIN, 1);
+
+    /** The synthetic accounts ACC0..ACCn-1 the primary starts from. */
+    static AccountStore accounts(int count) {
+        AccountStore accounts = new AccountStore(count, AccountStore.DEFAULT_STRIPES);
+        for (int i = 0; i < count; i++) {
+            accounts.put(BankAccount.withPinHash("ACC" + i, "Holder " + i, PIN_HASH, OPENING_BALANCE));
+        }
+        return accounts;
+    }
+
+    static long totalBalance(BankAccountService service, int count) throws AccountNotFoundException {
+        List<String> numbers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            numbers.add("ACC" + i);
+        }
+        long total = 0;
+        for (long balance : service.getBalances(numbers)) {
+            total = Money.add(total, balance);
+        }
+        return total;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        Path dir = Files.createTempDirectory("replication-harness");
+        TransactionJournal journal = TransactionJournal.open(dir.resolve("primary"));
+        SnapshotStore snapshots = new SnapshotStore(dir.resolve("primary"));
+        BankAccountService primary = new BankAccountService(accounts(accounts), journal);
+        primary.checkpoint(snapshots);
+        ReplicationPrimary shipping = new ReplicationPrimary(journal, 0).start();
+        primary.setReplicationPrimary(shipping);
+
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                Standby.class.getName(), String.valueOf(shipping.getPort()), dir.resolve("primary").toString(),
+                dir.resolve("standby").toString(), String.valueOf(accounts))
+            .redirectError(ProcessBuilder.Redirect.INHERIT)
+            .start();
+        BufferedReader standbyOut = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.US_ASCII));
+        Writer standbyIn = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.US_ASCII);
+        try {
+            expect(standbyOut, "READY");
+
+            AtomicLong operations = new AtomicLong();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+            long started = System.nanoTime();
+            Thread[] clients = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                long seed = t;
+                clients[t] = new Thread(() -> drive(primary, accounts, deadline, seed, operations), "harness-client-" + t);
+                clients[t].start();
+            }
+            for (Thread client : clients) {
+                client.join();
+            }
+            double elapsed = (System.nanoTime() - started) / 1e9;
+
+            long stopped = System.nanoTime();
+            long last = journal.durableSequence();
+            while (shipping.getAcknowledgedSequence() < last) {
+                Thread.sleep(1);
+            }
+            double catchUp = (System.nanoTime() - stopped) / 1e6;
+
+            standbyIn.write("PROMOTE\n");
+            standbyIn.flush();
+            String[] promoted = expect(standbyOut, "PROMOTED").split(" ");
+            long primaryTotal = totalBalance(primary, accounts);
+
+            LatencyHistogram lag = shipping.getLagHistogram();
+            System.out.printf("Primary     : %d operations in %.1f s (%.0f/s), %d threads, %d accounts%n",
+                operations.get(), elapsed, operations.get() / elapsed, threads, accounts);
+            System.out.printf("Lag us      : p50 %d  p90 %d  p99 %d  max %d over %d frames (%.1f records/frame)%n",
+                lag.percentile(50), lag.percentile(90), lag.percentile(99), lag.max(), lag.count(),
+                lag.count() == 0 ? 0.0 : (double) last / lag.count());
+            System.out.printf("Catch-up    : %.1f ms after traffic stopped%n", catchUp);
+            System.out.printf("Promotion   : %.3f ms at sequence %s of %d%n",
+                Long.parseLong(promoted[1]) / 1000.0, promoted[2], last);
+            System.out.printf("Totals      : primary %s, standby %s%n",
+                Money.format(primaryTotal), Money.format(Long.parseLong(promoted[3])));
+        } finally {
+            process.destroy();
+            shipping.close();
+            primary.close();
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    private static void drive(BankAccountService service, int accounts, long deadline, long seed,
+                              AtomicLong operations) {
+        SplittableRandom random = new SplittableRandom(seed);
+        OperationResult result = new OperationResult();
+        long count = 0;
+        while (System.nanoTime() < deadline) {
+            String from = "ACC" + random.nextInt(accounts);
+            if (random.nextInt(4) == 0) {
+                service.tryDeposit(from, PIN, 1 + random.nextInt(100), result);
+            } else {
+                service.tryTransfer(from, PIN, "ACC" + random.nextInt(accounts), 1 + random.nextInt(100), result);
+            }
+            count++;
+        }
+        operations.addAndGet(count);
+    }
+
+    private static String expect(BufferedReader in, String prefix) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.startsWith(prefix)) {
+                return line;
+            }
+        }
+        throw new IOException("Standby exited before reporting " + prefix);
+    }
+}
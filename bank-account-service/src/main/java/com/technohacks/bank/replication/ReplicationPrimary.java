@@ -0,0 +1,213 @@
+package com.technohacks.bank.replication;
+
+import com.technohacks.bank.journal.TransactionJournal;
+import com.technohacks.bank.metrics.LatencyHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ships a primary's journal to {@link Standby} processes over loopback.
+ * Only durable records are shipped, as the raw bytes the journal wrote, so
+ * a standby applies exactly what recovery would.
+ *
+ * A standby opens the connection by sending the sequence it needs next.
+ * From then on the primary streams frames of {@code int length, long
+ * durable sequence, records...}, each holding as many records as were
+ * durable up to {@link #DEFAULT_BATCH_BYTES}, without waiting for the
+ * standby: after applying a frame the standby answers with the last
+ * sequence it applied. Those acknowledgements feed the lag figures and,
+ * through {@link com.technohacks.bank.service.BankAccountService#setReplicationPrimary},
+ * keep checkpoints from truncating records a connected standby still
+ * needs. Replication is asynchronous, so a commit acknowledged to a client
+ * may not have reached a standby yet when the primary dies.
+ */
+public class ReplicationPrimary implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(ReplicationPrimary.class);
+    public static final int DEFAULT_BATCH_BYTES = 256 * 1024;
+    // frame header: record bytes, primary's durable sequence
+    static final int FRAME_HEADER = 4 + 8;
+    // length sent instead of a frame when the standby cannot be served
+    static final int REFUSED = -1;
+    private static final long IDLE_WAIT_MILLIS = 100;
+
+    private final TransactionJournal journal;
+    private final ServerSocket serverSocket;
+    private final Thread acceptor;
+    private final List<Shipper> shippers = new CopyOnWriteArrayList<>();
+    private final LatencyHistogram lag = new LatencyHistogram();
+    private volatile boolean running = true;
+
+    public ReplicationPrimary(TransactionJournal journal, int port) throws IOException {
+        this.journal = journal;
+        this.serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        this.acceptor = new Thread(this::acceptLoop, "replication-acceptor");
+        acceptor.setDaemon(true);
+    }
+
+    public ReplicationPrimary start() {
+        acceptor.start();
+        logger.info("Shipping journal {} to standbys on {}", journal.getDirectory(), serverSocket.getLocalSocketAddress());
+        return this;
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public int getStandbyCount() {
+        return shippers.size();
+    }
+
+    /**
+     * Microseconds from shipping a frame until the standby acknowledged
+     * applying it, across every standby.
+     */
+    public LatencyHistogram getLagHistogram() {
+        return lag;
+    }
+
+    /** Highest sequence every connected standby has applied; 0 without standbys. */
+    public long getAcknowledgedSequence() {
+        long lowest = Long.MAX_VALUE;
+        for (Shipper shipper : shippers) {
+            lowest = Math.min(lowest, shipper.acknowledged);
+        }
+        return lowest == Long.MAX_VALUE ? 0 : lowest;
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Shipper shipper = new Shipper(socket);
+                Thread thread = new Thread(shipper, "replication-shipper-" + socket.getPort());
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                if (running) {
+                    logger.error("Accept failed: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private final class Shipper implements Runnable {
+        private final Socket socket;
+        // {last sequence, nanoTime sent} of frames not yet acknowledged
+        private final ConcurrentLinkedQueue<long[]> inFlight = new ConcurrentLinkedQueue<>();
+        volatile long acknowledged;
+
+        Shipper(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void run() {
+            String standby = socket.getRemoteSocketAddress().toString();
+            try (Socket s = socket) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                OutputStream out = s.getOutputStream();
+                long from = in.readLong();
+                TransactionJournal.Tail tail;
+                try {
+                    tail = journal.tail(from);
+                } catch (IllegalStateException e) {
+                    DataOutputStream refusal = new DataOutputStream(out);
+                    refusal.writeInt(REFUSED);
+                    refusal.writeUTF(e.getMessage());
+                    refusal.flush();
+                    logger.warn("Refused standby {}: {}", standby, e.getMessage());
+                    return;
+                }
+                acknowledged = from - 1;
+                shippers.add(this);
+                logger.info("Standby {} connected, shipping from sequence {}", standby, from);
+                Thread acks = new Thread(() -> readAcks(in), "replication-acks-" + s.getPort());
+                acks.setDaemon(true);
+                acks.start();
+                ship(tail, out);
+            } catch (EOFException e) {
+                logger.info("Standby {} disconnected", standby);
+            } catch (IOException e) {
+                if (running) {
+                    logger.warn("Standby {} dropped: {}", standby, e.getMessage());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                shippers.remove(this);
+            }
+        }
+
+        private void ship(TransactionJournal.Tail tail, OutputStream out) throws IOException, InterruptedException {
+            ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER + DEFAULT_BATCH_BYTES);
+            while (running) {
+                frame.clear().position(FRAME_HEADER);
+                if (tail.read(frame) == 0) {
+                    journal.awaitDurable(tail.nextSequence(), IDLE_WAIT_MILLIS);
+                    continue;
+                }
+                frame.putInt(0, frame.position() - FRAME_HEADER);
+                frame.putLong(4, journal.durableSequence());
+                inFlight.add(new long[] {tail.nextSequence() - 1, System.nanoTime()});
+                out.write(frame.array(), 0, frame.position());
+                out.flush();
+            }
+        }
+
+        private void readAcks(DataInputStream in) {
+            try {
+                while (true) {
+                    long applied = in.readLong();
+                    long now = System.nanoTime();
+                    long[] sent;
+                    while ((sent = inFlight.peek()) != null && sent[0] <= applied) {
+                        inFlight.poll();
+                        lag.record(TimeUnit.NANOSECONDS.toMicros(now - sent[1]));
+                    }
+                    acknowledged = applied;
+                }
+            } catch (IOException e) {
+                // standby gone: closing the socket makes the shipper's next write fail
+                close();
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        serverSocket.close();
+        for (Shipper shipper : shippers) {
+            shipper.close();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.technohacks.bank.replication;
+
+import com.technohacks.bank.journal.SnapshotStore;
+import com.technohacks.bank.journal.TransactionJournal;
+import com.technohacks.bank.server.BankServer;
+import com.technohacks.bank.service.BankAccountService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+
+/**
+ * Hot standby fed by a {@link ReplicationPrimary}. Every frame is applied
+ * to the standby's own {@link BankAccountService} as soon as it arrives, so
+ * promotion only has to stop listening: everything received is already in
+ * place. The standby must start from the state the primary's journal
+ * builds on, normally the primary's newest snapshot, and ask for the
+ * sequence after it. A journalled standby copies every record into its own
+ * journal and makes each frame durable before acknowledging it, so a
+ * promoted standby keeps journalling under the primary's sequence numbers.
+ * A record the standby cannot apply, such as one for an account it does
+ * not hold, stops it.
+ *
+ * Transaction history and audit records are not shipped; a promoted
+ * standby starts them afresh.
+ *
+ * Usage: Standby primaryPort snapshotDir journalDir accounts [serverPort]
+ * follows a primary started by {@link ReplicationHarness}, starting from
+ * the newest snapshot in the primary's {@code snapshotDir} and journalling
+ * to {@code journalDir}, and reads commands from stdin: STATUS prints the
+ * applied sequence and lag, PROMOTE promotes it and, if a server port was
+ * given, starts serving clients there.
+ */
+public class Standby implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(Standby.class);
+
+    private final BankAccountService service;
+    private final long fromSequence;
+    private final Socket socket;
+    private final Thread receiver;
+    private volatile long appliedSequence;
+    private volatile long primarySequence;
+    private volatile boolean promoted;
+    private volatile IOException failure;
+
+    /**
+     * Connects to the primary; {@code fromSequence} is the first journal
+     * record the service has not seen, 1 when it starts from the same
+     * accounts as an empty journal.
+     */
+    public Standby(BankAccountService service, long fromSequence, int primaryPort) throws IOException {
+        this.service = service;
+        this.fromSequence = fromSequence;
+        this.appliedSequence = fromSequence - 1;
+        this.socket = new Socket();
+        socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), primaryPort));
+        socket.setTcpNoDelay(true);
+        this.receiver = new Thread(this::receive, "standby-receiver");
+    }
+
+    public Standby start() {
+        receiver.start();
+        return this;
+    }
+
+    public long getAppliedSequence() {
+        return appliedSequence;
+    }
+
+    /** Records the primary had made durable but this standby had not applied, as of the last frame. */
+    public long getLag() {
+        return Math.max(0, primarySequence - appliedSequence);
+    }
+
+    /** Why the standby stopped following the primary before promotion, or null. */
+    public IOException getFailure() {
+        return failure;
+    }
+
+    /**
+     * Stops following the primary and returns the service, which may now
+     * take writes. Frames already received have been applied; one that was
+     * still arriving is dropped.
+     */
+    public BankAccountService promote() throws InterruptedException {
+        promoted = true;
+        close();
+        receiver.join();
+        logger.info("Promoted at sequence {}", appliedSequence);
+        return service;
+    }
+
+    private void receive() {
+        try (Socket s = socket) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream(), 1 << 16));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+            out.writeLong(fromSequence);
+            out.flush();
+            byte[] frame = new byte[ReplicationPrimary.DEFAULT_BATCH_BYTES];
+            while (true) {
+                int length = in.readInt();
+                if (length == ReplicationPrimary.REFUSED) {
+                    throw new IOException("Primary refused: " + in.readUTF());
+                }
+                long durable = in.readLong();
+                if (length > frame.length) {
+                    frame = new byte[length];
+                }
+                in.readFully(frame, 0, length);
+                apply(ByteBuffer.wrap(frame, 0, length));
+                service.commitReplicated();
+                primarySequence = durable;
+                out.writeLong(appliedSequence);
+                out.flush();
+            }
+        } catch (IOException e) {
+            if (!promoted) {
+                failure = e;
+                logger.error("Lost the primary at sequence {}: {}", appliedSequence, e.getMessage());
+            }
+        }
+    }
+
+    private void apply(ByteBuffer records) throws IOException {
+        int p = 0;
+        while (p < records.limit()) {
+            int length;
+            try {
+                length = TransactionJournal.readRecord(records, p,
+                    (sequence, type, account, counterparty, amount, key, detail) -> {
+                        service.applyReplicated(sequence, type, account, counterparty, amount, key, detail);
+                        appliedSequence = sequence;
+                    });
+            } catch (IllegalStateException e) {
+                throw new IOException("Cannot apply the record after sequence " + appliedSequence, e);
+            }
+            if (length == 0) {
+                throw new IOException("Damaged record after sequence " + appliedSequence);
+            }
+            p += length;
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int primaryPort = Integer.parseInt(args[0]);
+        SnapshotStore.Snapshot snapshot = new SnapshotStore(Paths.get(args[1])).loadLatest();
+        if (snapshot == null) {
+            throw new IllegalStateException("No snapshot to start from in " + args[1]);
+        }
+        TransactionJournal journal = TransactionJournal.open(Paths.get(args[2]), TransactionJournal.DEFAULT_SEGMENT_SIZE,
+            snapshot.getStartSequence());
+        int accounts = Integer.parseInt(args[3]);
+        int serverPort = args.length > 4 ? Integer.parseInt(args[4]) : -1;
+
+        try (BankAccountService service = new BankAccountService(journal, snapshot)) {
+            Standby standby = new Standby(service, journal.nextSequence(), primaryPort).start();
+            System.out.println("READY");
+            BufferedReader commands = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.US_ASCII));
+            String command;
+            while ((command = commands.readLine()) != null) {
+                if (command.equals("STATUS")) {
+                    System.out.println("STATUS " + standby.getAppliedSequence() + " " + standby.getLag());
+                } else if (command.equals("PROMOTE")) {
+                    long started = System.nanoTime();
+                    standby.promote();
+                    long micros = (System.nanoTime() - started) / 1000;
+                    System.out.println("PROMOTED " + micros + " " + standby.getAppliedSequence() + " "
+                        + ReplicationHarness.totalBalance(service, accounts));
+                    if (serverPort >= 0) {
+                        new BankServer(service, serverPort).start().awaitTermination();
+                    }
+                    return;
+                }
+            }
+            standby.close();
+        }
+    }
+}
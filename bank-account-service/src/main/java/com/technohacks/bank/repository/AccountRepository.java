@@ -0,0 +1,57 @@
+package com.technohacks.bank.repository;
+
+import com.technohacks.bank.model.BankAccount;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Durable home of the accounts behind a BankAccountService. The service
+ * loads every account once and keeps serving from memory; each change it
+ * makes is handed over with {@link #update} while the account's stripe lock
+ * is held, and {@link #sync(long, long)} is called with the tickets of its
+ * updates before the operation returns.
+ */
+public interface AccountRepository extends Closeable {
+
+    int count();
+
+    /** Every stored account, with its balance and version as last written. */
+    void forEach(Consumer<BankAccount> action);
+
+    /** The account as stored, or null if there is no such row. */
+    BankAccount find(String accountNumber);
+
+    /** Stores new accounts at their current version. */
+    void insert(List<BankAccount> accounts);
+
+    /**
+     * Queues the current balance of each account, as of its version. The
+     * accounts of one call are stored together or not at all.
+     *
+     * @return the ticket of this update, greater than that of any update queued before it
+     */
+    long update(BankAccount... accounts);
+
+    /** The ticket of the newest update queued so far, 0 if none. */
+    long lastTicket();
+
+    /**
+     * Blocks until the updates with tickets {@code fromTicket} to
+     * {@code toTicket} have been written.
+     *
+     * @throws VersionConflictException if one of them was not stored because
+     *         another writer had changed a row in its batch
+     */
+    void sync(long fromTicket, long toTicket);
+
+    /**
+     * Blocks until every update queued before the call is written. Conflicts
+     * are reported only to {@link #sync(long, long)}.
+     */
+    void sync();
+
+    @Override
+    void close();
+}
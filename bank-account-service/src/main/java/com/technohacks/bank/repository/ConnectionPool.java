@@ -0,0 +1,77 @@
+package com.technohacks.bank.repository;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Fixed-size pool of JDBC connections. Connections are opened on demand up
+ * to the limit and kept open once returned, so callers past the limit wait
+ * for one to come back. A caller whose connection failed returns it as
+ * broken and it is closed; the next caller opens a fresh one.
+ */
+final class ConnectionPool implements AutoCloseable {
+    private final String url;
+    private final String user;
+    private final String password;
+    private final Semaphore permits;
+    private final ArrayBlockingQueue<Connection> idle;
+    private volatile boolean closed;
+
+    ConnectionPool(String url, String user, String password, int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Pool size must be positive: " + size);
+        }
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.permits = new Semaphore(size);
+        this.idle = new ArrayBlockingQueue<>(size);
+    }
+
+    /** An open connection with auto-commit off; hand it back with {@link #release}. */
+    Connection acquire() throws SQLException {
+        if (closed) {
+            throw new IllegalStateException("Connection pool is closed");
+        }
+        permits.acquireUninterruptibly();
+        Connection connection = idle.poll();
+        if (connection != null) {
+            return connection;
+        }
+        try {
+            connection = DriverManager.getConnection(url, user, password);
+            connection.setAutoCommit(false);
+            return connection;
+        } catch (SQLException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    void release(Connection connection, boolean broken) {
+        if (broken || closed || !idle.offer(connection)) {
+            closeQuietly(connection);
+        }
+        permits.release();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Connection connection;
+        while ((connection = idle.poll()) != null) {
+            closeQuietly(connection);
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            // discarding it anyway
+        }
+    }
+}
@@ -0,0 +1,419 @@
+package com.technohacks.bank.repository;
+
+import com.technohacks.bank.model.BankAccount;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the accounts in one table of a JDBC database, by default the H2
+ * datasource from application.properties.
+ *
+ * Updates are group-committed: they wait in a queue that keeps only the
+ * newest balance of each account, and the first caller of {@link #sync}
+ * writes everything queued so far as one prepared-statement batch in one
+ * transaction, while later callers queue up behind it for the next batch.
+ * Each row carries a version, and a batch only overwrites a row that still
+ * holds the version this repository last wrote. A row that moved on was
+ * changed by another writer: the whole batch is rolled back and dropped,
+ * and every caller whose update was in it gets a
+ * {@link VersionConflictException} from {@link #sync(long, long)}, so it can
+ * fail its operation and read the rows back with {@link #find}.
+ */
+public class JdbcAccountRepository implements AccountRepository {
+    private static final Logger logger = LoggerFactory.getLogger(JdbcAccountRepository.class);
+    public static final int DEFAULT_POOL_SIZE = 4;
+    private static final int INSERT_BATCH = 1000;
+    // dropped batches remembered for callers still to collect their outcome
+    private static final int DROPPED_KEPT = 256;
+
+    private static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS accounts ("
+        + "account_number VARCHAR(64) PRIMARY KEY, "
+        + "account_holder VARCHAR(255) NOT NULL, "
+        + "pin_hash VARCHAR(255) NOT NULL, "
+        + "balance BIGINT NOT NULL, "
+        + "last_accrual_day BIGINT NOT NULL, "
+        + "version BIGINT NOT NULL)";
+    private static final String INSERT = "INSERT INTO accounts "
+        + "(account_number, account_holder, pin_hash, balance, last_accrual_day, version) VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE = "UPDATE accounts SET balance = ?, last_accrual_day = ?, version = ? "
+        + "WHERE account_number = ? AND version = ?";
+    private static final String SELECT_ALL = "SELECT account_number, account_holder, pin_hash, balance, "
+        + "last_accrual_day, version FROM accounts";
+    private static final String SELECT_ONE = SELECT_ALL + " WHERE account_number = ?";
+    private static final String COUNT = "SELECT COUNT(*) FROM accounts";
+
+    // newest queued state of one account, replacing any older one not yet written
+    private static final class PendingRow {
+        final long storedVersion;
+        long balance;
+        long accrualDay;
+        long version;
+
+        PendingRow(long storedVersion) {
+            this.storedVersion = storedVersion;
+        }
+    }
+
+    // update tickets firstTicket..lastTicket went out in a batch that was rolled back
+    private static final class DroppedBatch {
+        final long firstTicket;
+        final long lastTicket;
+        final List<String> conflicting;
+        final Map<String, Long> versions;
+
+        DroppedBatch(long firstTicket, long lastTicket, List<String> conflicting, Map<String, Long> versions) {
+            this.firstTicket = firstTicket;
+            this.lastTicket = lastTicket;
+            this.conflicting = conflicting;
+            this.versions = versions;
+        }
+    }
+
+    private final ConnectionPool pool;
+    private final Object queueLock = new Object();
+    private final Object flushLock = new Object();
+    private Map<String, PendingRow> pending = new HashMap<>();
+    // update calls queued so far, and how many of them are written
+    private long queued;
+    private volatile long stored;
+    private final ConcurrentLinkedDeque<DroppedBatch> dropped = new ConcurrentLinkedDeque<>();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong rows = new AtomicLong();
+    private final AtomicLong conflicts = new AtomicLong();
+
+    private JdbcAccountRepository(ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    /** Connects to {@code url}, creating the accounts table if it is missing. */
+    public static JdbcAccountRepository open(String url, String user, String password, int poolSize) {
+        JdbcAccountRepository repository = new JdbcAccountRepository(new ConnectionPool(url, user, password, poolSize));
+        try {
+            repository.execute(CREATE_TABLE);
+        } catch (RepositoryException e) {
+            repository.close();
+            throw e;
+        }
+        return repository;
+    }
+
+    /** Opens the datasource described by the spring.datasource.* entries of {@code properties}. */
+    public static JdbcAccountRepository fromProperties(Properties properties) {
+        String url = properties.getProperty("spring.datasource.url");
+        if (url == null) {
+            throw new IllegalArgumentException("spring.datasource.url is not set");
+        }
+        return open(url, properties.getProperty("spring.datasource.username", ""),
+            properties.getProperty("spring.datasource.password", ""), DEFAULT_POOL_SIZE);
+    }
+
+    @Override
+    public int count() {
+        Connection connection = acquire();
+        boolean broken = true;
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery(COUNT)) {
+            rs.next();
+            int count = rs.getInt(1);
+            connection.commit();
+            broken = false;
+            return count;
+        } catch (SQLException e) {
+            throw new RepositoryException("Cannot count accounts", e);
+        } finally {
+            pool.release(connection, broken);
+        }
+    }
+
+    @Override
+    public void forEach(Consumer<BankAccount> action) {
+        Connection connection = acquire();
+        boolean broken = true;
+        try (Statement statement = connection.createStatement()) {
+            statement.setFetchSize(INSERT_BATCH);
+            try (ResultSet rs = statement.executeQuery(SELECT_ALL)) {
+                while (rs.next()) {
+                    BankAccount acc = BankAccount.withPinHash(rs.getString(1), rs.getString(2), rs.getString(3),
+                        rs.getLong(4));
+                    acc.setLastAccrualDay(rs.getLong(5));
+                    acc.setVersion(rs.getLong(6));
+                    action.accept(acc);
+                }
+            }
+            connection.commit();
+            broken = false;
+        } catch (SQLException e) {
+            throw new RepositoryException("Cannot read accounts", e);
+        } finally {
+            pool.release(connection, broken);
+        }
+    }
+
+    @Override
+    public BankAccount find(String accountNumber) {
+        Connection connection = acquire();
+        boolean broken = true;
+        try (PreparedStatement statement = connection.prepareStatement(SELECT_ONE)) {
+            statement.setString(1, accountNumber);
+            BankAccount acc = null;
+            try (ResultSet rs = statement.executeQuery()) {
+                if (rs.next()) {
+                    acc = BankAccount.withPinHash(rs.getString(1), rs.getString(2), rs.getString(3), rs.getLong(4));
+                    acc.setLastAccrualDay(rs.getLong(5));
+                    acc.setVersion(rs.getLong(6));
+                }
+            }
+            connection.commit();
+            broken = false;
+            return acc;
+        } catch (SQLException e) {
+            throw new RepositoryException("Cannot read account " + accountNumber, e);
+        } finally {
+            pool.release(connection, broken);
+        }
+    }
+
+    @Override
+    public void insert(List<BankAccount> accounts) {
+        Connection connection = acquire();
+        boolean broken = true;
+        try (PreparedStatement statement = connection.prepareStatement(INSERT)) {
+            for (int i = 0; i < accounts.size(); i++) {
+                BankAccount acc = accounts.get(i);
+                statement.setString(1, acc.getAccountNumber());
+                statement.setString(2, acc.getAccountHolder());
+                statement.setString(3, acc.getPinHash());
+                statement.setLong(4, acc.getBalance());
+                statement.setLong(5, acc.getLastAccrualDay());
+                statement.setLong(6, acc.getVersion());
+                statement.addBatch();
+                if ((i + 1) % INSERT_BATCH == 0) {
+                    statement.executeBatch();
+                }
+            }
+            statement.executeBatch();
+            connection.commit();
+            broken = false;
+        } catch (SQLException e) {
+            rollbackQuietly(connection);
+            throw new RepositoryException("Cannot insert " + accounts.size() + " accounts", e);
+        } finally {
+            pool.release(connection, broken);
+        }
+    }
+
+    @Override
+    public long update(BankAccount... accounts) {
+        synchronized (queueLock) {
+            for (BankAccount acc : accounts) {
+                PendingRow row = pending.get(acc.getAccountNumber());
+                if (row == null) {
+                    row = new PendingRow(acc.getVersion() - 1);
+                    pending.put(acc.getAccountNumber(), row);
+                }
+                row.balance = acc.getBalance();
+                row.accrualDay = acc.getLastAccrualDay();
+                row.version = acc.getVersion();
+            }
+            return ++queued;
+        }
+    }
+
+    @Override
+    public long lastTicket() {
+        synchronized (queueLock) {
+            return queued;
+        }
+    }
+
+    @Override
+    public void sync(long fromTicket, long toTicket) {
+        flush(toTicket);
+        for (DroppedBatch batch : dropped) {
+            if (batch.firstTicket <= toTicket && fromTicket <= batch.lastTicket) {
+                throw new VersionConflictException(batch.conflicting, batch.versions);
+            }
+        }
+    }
+
+    @Override
+    public void sync() {
+        flush(lastTicket());
+    }
+
+    private void flush(long ticket) {
+        if (stored >= ticket) {
+            return;
+        }
+        synchronized (flushLock) {
+            if (stored >= ticket) {
+                return;
+            }
+            Map<String, PendingRow> batch;
+            long upTo;
+            synchronized (queueLock) {
+                batch = pending;
+                pending = new HashMap<>();
+                upTo = queued;
+            }
+            try {
+                List<String> conflicting = write(batch);
+                if (!conflicting.isEmpty()) {
+                    drop(stored + 1, upTo, conflicting, batch);
+                }
+            } catch (RepositoryException e) {
+                requeue(batch);
+                throw e;
+            }
+            stored = upTo;
+        }
+    }
+
+    // Remembers a rolled back batch for the callers of sync(long, long). Rows
+    // queued since still expect the versions it would have written, so they
+    // fail in turn and their callers read the accounts back too.
+    private void drop(long firstTicket, long lastTicket, List<String> conflicting, Map<String, PendingRow> batch) {
+        Map<String, Long> versions = new HashMap<>();
+        for (Map.Entry<String, PendingRow> e : batch.entrySet()) {
+            versions.put(e.getKey(), e.getValue().version);
+        }
+        logger.warn("Accounts {} were changed by another writer; {} balances not stored", conflicting, batch.size());
+        dropped.addLast(new DroppedBatch(firstTicket, lastTicket, conflicting, versions));
+        while (dropped.size() > DROPPED_KEPT) {
+            dropped.pollFirst();
+        }
+    }
+
+    // Writes the batch in one transaction, or rolls it back and returns the
+    // accounts whose rows no longer held the expected version.
+    private List<String> write(Map<String, PendingRow> batch) {
+        List<String> conflicting = new ArrayList<>();
+        if (batch.isEmpty()) {
+            return conflicting;
+        }
+        Connection connection = acquire();
+        boolean broken = true;
+        try (PreparedStatement statement = connection.prepareStatement(UPDATE)) {
+            List<String> numbers = new ArrayList<>(batch.size());
+            for (Map.Entry<String, PendingRow> e : batch.entrySet()) {
+                PendingRow row = e.getValue();
+                statement.setLong(1, row.balance);
+                statement.setLong(2, row.accrualDay);
+                statement.setLong(3, row.version);
+                statement.setString(4, e.getKey());
+                statement.setLong(5, row.storedVersion);
+                statement.addBatch();
+                numbers.add(e.getKey());
+            }
+            int[] counts = statement.executeBatch();
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] == 0) {
+                    conflicting.add(numbers.get(i));
+                }
+            }
+            if (conflicting.isEmpty()) {
+                connection.commit();
+                batches.incrementAndGet();
+                rows.addAndGet(batch.size());
+            } else {
+                connection.rollback();
+                conflicts.addAndGet(conflicting.size());
+            }
+            broken = false;
+            return conflicting;
+        } catch (SQLException e) {
+            rollbackQuietly(connection);
+            throw new RepositoryException("Cannot store " + batch.size() + " balances", e);
+        } finally {
+            pool.release(connection, broken);
+        }
+    }
+
+    // Puts a failed batch back for the next sync; newer queued states win
+    // but must still expect the version the failed batch expected.
+    private void requeue(Map<String, PendingRow> batch) {
+        synchronized (queueLock) {
+            for (Map.Entry<String, PendingRow> e : batch.entrySet()) {
+                PendingRow newer = pending.get(e.getKey());
+                if (newer == null) {
+                    pending.put(e.getKey(), e.getValue());
+                } else {
+                    PendingRow merged = new PendingRow(e.getValue().storedVersion);
+                    merged.balance = newer.balance;
+                    merged.accrualDay = newer.accrualDay;
+                    merged.version = newer.version;
+                    pending.put(e.getKey(), merged);
+                }
+            }
+        }
+    }
+
+    /** Batches written by {@link #sync}. */
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    /** Rows written by {@link #sync}; fewer than the updates queued when they coalesce. */
+    public long getRowCount() {
+        return rows.get();
+    }
+
+    /** Rows found changed by another writer, each of which rolled back its batch. */
+    public long getConflictCount() {
+        return conflicts.get();
+    }
+
+    private void execute(String sql) {
+        Connection connection = acquire();
+        boolean broken = true;
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+            connection.commit();
+            broken = false;
+        } catch (SQLException e) {
+            throw new RepositoryException("Cannot execute " + sql, e);
+        } finally {
+            pool.release(connection, broken);
+        }
+    }
+
+    private Connection acquire() {
+        try {
+            return pool.acquire();
+        } catch (SQLException e) {
+            throw new RepositoryException("Cannot connect to the account database", e);
+        }
+    }
+
+    private static void rollbackQuietly(Connection connection) {
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            // the connection is discarded as broken anyway
+        }
+    }
+
+    /** Writes what is still queued and closes every pooled connection. */
+    @Override
+    public void close() {
+        try {
+            sync();
+        } finally {
+            pool.close();
+        }
+    }
+}
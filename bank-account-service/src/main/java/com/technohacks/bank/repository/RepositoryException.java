@@ -0,0 +1,15 @@
+package com.technohacks.bank.repository;
+
+import java.sql.SQLException;
+
+/** A repository call failed in the database; the cause says why. */
+public class RepositoryException extends RuntimeException {
+
+    public RepositoryException(String message, SQLException cause) {
+        super(message, cause);
+    }
+
+    protected RepositoryException(String message) {
+        super(message);
+    }
+}
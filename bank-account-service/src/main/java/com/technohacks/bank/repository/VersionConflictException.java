@@ -0,0 +1,33 @@
+package com.technohacks.bank.repository;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A batch of queued balances was not stored because another writer had
+ * changed some of its rows. The whole batch is rolled back, so every
+ * account in it is behind in the database; {@link #getDroppedVersions} has
+ * the version each one was queued at.
+ */
+public class VersionConflictException extends RepositoryException {
+    private final List<String> conflicting;
+    private final Map<String, Long> droppedVersions;
+
+    public VersionConflictException(List<String> conflicting, Map<String, Long> droppedVersions) {
+        super("Accounts " + conflicting + " were changed by another writer; "
+            + droppedVersions.size() + " balances were not stored");
+        this.conflicting = Collections.unmodifiableList(conflicting);
+        this.droppedVersions = Collections.unmodifiableMap(droppedVersions);
+    }
+
+    /** The accounts whose rows had moved on. */
+    public List<String> getConflicting() {
+        return conflicting;
+    }
+
+    /** Every account of the rolled back batch, with the version that was not stored. */
+    public Map<String, Long> getDroppedVersions() {
+        return droppedVersions;
+    }
+}
@@ -0,0 +1,178 @@
+package com.technohacks.bank.security;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Locks a key (an account number) out after repeated failed PIN attempts.
+ *
+ * Keys hash into a fixed table of slots, so memory stays the same however
+ * many keys are attacked. Each slot is one long updated by CAS: a 16-bit
+ * fingerprint of the key, the time of the last failure (or the end of the
+ * lockout once the limit is reached) and, in the low byte, the failure
+ * count. A key lives in one of the {@value #PROBES} slots from its home
+ * slot, so keys that hash alike keep their own counters; when all of them
+ * are taken, a new key evicts the stalest counter, and lockouts only go
+ * when every slot holds one. Checking an unlocked key reads those slots
+ * and writes nothing.
+ */
+public class LockoutTable {
+    public static final int DEFAULT_SLOTS = 1 << 18;
+    public static final int DEFAULT_MAX_FAILURES = 5;
+    public static final long DEFAULT_LOCKOUT_SECONDS = 300;
+    public static final int PROBES = 4;
+
+    private static final int COUNT_BITS = 8;
+    private static final int TIME_BITS = 40;
+    private static final int FINGERPRINT_SHIFT = COUNT_BITS + TIME_BITS;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+    private static final long TIME_MASK = (1L << TIME_BITS) - 1;
+
+    private final AtomicLongArray slots;
+    private final int mask;
+    private final int maxFailures;
+    private final long lockoutMillis;
+
+    public LockoutTable() {
+        this(DEFAULT_SLOTS, DEFAULT_MAX_FAILURES, DEFAULT_LOCKOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @param maxFailures failed attempts, each within {@code lockout} of the
+     *                    previous one, that lock the key for {@code lockout}
+     */
+    public LockoutTable(int slots, int maxFailures, long lockout, TimeUnit unit) {
+        if (maxFailures < 1 || maxFailures > COUNT_MASK) {
+            throw new IllegalArgumentException("Max failures must be between 1 and " + COUNT_MASK);
+        }
+        int size = Slots.tableSize(Math.max(slots, PROBES));
+        this.slots = new AtomicLongArray(size);
+        this.mask = size - 1;
+        this.maxFailures = maxFailures;
+        this.lockoutMillis = unit.toMillis(lockout);
+    }
+
+    public boolean isLocked(String key) {
+        int fingerprint = Slots.fingerprint(key);
+        int i = find(key, fingerprint);
+        if (i < 0) {
+            return false;
+        }
+        long state = slots.get(i);
+        return fingerprintOf(state) == fingerprint && isLocked(state, Slots.nowMillis());
+    }
+
+    /** Counts a failed attempt; returns true if the key is now locked. */
+    public boolean recordFailure(String key) {
+        int fingerprint = Slots.fingerprint(key);
+        while (true) {
+            long now = Slots.nowMillis();
+            int i = find(key, fingerprint);
+            long state;
+            long count = 0;
+            if (i < 0) {
+                i = victim(key, now);
+                state = slots.get(i);
+            } else if (fingerprintOf(state = slots.get(i)) != fingerprint) {
+                continue;
+            } else {
+                count = state & COUNT_MASK;
+                long time = timeOf(state);
+                if (count >= maxFailures) {
+                    if (now < time) {
+                        return true;
+                    }
+                    count = 0;
+                } else if (now - time > lockoutMillis) {
+                    count = 0;
+                }
+            }
+            count++;
+            boolean locked = count >= maxFailures;
+            long next = (long) fingerprint << FINGERPRINT_SHIFT | (locked ? now + lockoutMillis : now) << COUNT_BITS | count;
+            if (slots.compareAndSet(i, state, next)) {
+                return locked;
+            }
+        }
+    }
+
+    /** Clears the failure count after a successful attempt. */
+    public void recordSuccess(String key) {
+        int fingerprint = Slots.fingerprint(key);
+        int i = find(key, fingerprint);
+        if (i < 0) {
+            return;
+        }
+        long state = slots.get(i);
+        // only write when there is something to clear, to keep the slot's cache line shared
+        if (fingerprintOf(state) == fingerprint && (state & COUNT_MASK) < maxFailures) {
+            slots.compareAndSet(i, state, 0);
+        }
+    }
+
+    /** Milliseconds until the key unlocks, or 0 if it is not locked. */
+    public long remainingMillis(String key) {
+        int fingerprint = Slots.fingerprint(key);
+        int i = find(key, fingerprint);
+        if (i < 0) {
+            return 0;
+        }
+        long state = slots.get(i);
+        if (fingerprintOf(state) != fingerprint || (state & COUNT_MASK) < maxFailures) {
+            return 0;
+        }
+        return Math.max(0, timeOf(state) - Slots.nowMillis());
+    }
+
+    // The slot holding the key, or -1.
+    private int find(String key, int fingerprint) {
+        int home = Slots.index(key, mask);
+        for (int p = 0; p < PROBES; p++) {
+            int i = (home + p) & mask;
+            long state = slots.get(i);
+            if (state != 0 && fingerprintOf(state) == fingerprint) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Where a key that holds no slot goes: an empty slot, else one whose
+    // count has expired, else the oldest count, else the lockout that ends
+    // soonest.
+    private int victim(String key, long now) {
+        int home = Slots.index(key, mask);
+        int best = home;
+        long bestRank = Long.MAX_VALUE;
+        for (int p = 0; p < PROBES; p++) {
+            int i = (home + p) & mask;
+            long state = slots.get(i);
+            if (state == 0) {
+                return i;
+            }
+            long time = timeOf(state);
+            boolean locked = isLocked(state, now);
+            if (!locked && ((state & COUNT_MASK) >= maxFailures || now - time > lockoutMillis)) {
+                return i;
+            }
+            long rank = locked ? TIME_MASK + time : time;
+            if (rank < bestRank) {
+                best = i;
+                bestRank = rank;
+            }
+        }
+        return best;
+    }
+
+    private boolean isLocked(long state, long now) {
+        return (state & COUNT_MASK) >= maxFailures && now < timeOf(state);
+    }
+
+    private static long timeOf(long state) {
+        return (state >>> COUNT_BITS) & TIME_MASK;
+    }
+
+    private static int fingerprintOf(long state) {
+        return (int) (state >>> FINGERPRINT_SHIFT);
+    }
+}
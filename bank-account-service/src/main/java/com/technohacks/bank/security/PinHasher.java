@@ -0,0 +1,88 @@
+package com.technohacks.bank.security;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Salted, deliberately slow PIN hashing (PBKDF2 with HMAC-SHA256).
+ *
+ * Hashes are self-describing strings of the form
+ * {@code pbkdf2-sha256$iterations$salt$hash}, so the work factor can be
+ * raised later without invalidating stored PINs. Stores that keep the
+ * parts in fixed-width fields instead use {@link #decode}, {@link #encode}
+ * and {@link #derive}.
+ */
+public final class PinHasher {
+    public static final int DEFAULT_ITERATIONS = 20_000;
+    public static final int SALT_BYTES = 16;
+    public static final int HASH_BYTES = 32;
+
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final String PREFIX = "pbkdf2-sha256";
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private PinHasher() {
+    }
+
+    public static String hash(String pin) {
+        return hash(pin, DEFAULT_ITERATIONS);
+    }
+
+    public static String hash(String pin, int iterations) {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        return encode(iterations, salt, derive(pin, salt, iterations));
+    }
+
+    public static boolean verify(String pin, String encoded) {
+        if (pin == null || encoded == null) {
+            return false;
+        }
+        byte[] salt = new byte[SALT_BYTES];
+        byte[] expected = new byte[HASH_BYTES];
+        int iterations = decode(encoded, salt, expected);
+        return MessageDigest.isEqual(expected, derive(pin, salt, iterations));
+    }
+
+    /** Formats the parts of a hash as the string {@link #hash} returns. */
+    public static String encode(int iterations, byte[] salt, byte[] hash) {
+        Base64.Encoder b64 = Base64.getEncoder().withoutPadding();
+        return PREFIX + "$" + iterations + "$" + b64.encodeToString(salt) + "$" + b64.encodeToString(hash);
+    }
+
+    /**
+     * Splits an encoded hash into {@code salt} ({@link #SALT_BYTES} long) and
+     * {@code hash} ({@link #HASH_BYTES} long) and returns its iteration count.
+     */
+    public static int decode(String encoded, byte[] salt, byte[] hash) {
+        String[] parts = encoded.split("\\$");
+        if (parts.length != 4 || !PREFIX.equals(parts[0])) {
+            throw new IllegalArgumentException("Unsupported PIN hash format");
+        }
+        Base64.Decoder b64 = Base64.getDecoder();
+        byte[] saltPart = b64.decode(parts[2]);
+        byte[] hashPart = b64.decode(parts[3]);
+        if (saltPart.length != salt.length || hashPart.length != hash.length) {
+            throw new IllegalArgumentException("Unsupported PIN hash length");
+        }
+        System.arraycopy(saltPart, 0, salt, 0, salt.length);
+        System.arraycopy(hashPart, 0, hash, 0, hash.length);
+        return Integer.parseInt(parts[1]);
+    }
+
+    /** The {@link #HASH_BYTES}-byte digest of {@code pin}, for comparing against a stored one. */
+    public static byte[] derive(String pin, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(pin.toCharArray(), salt, iterations, HASH_BYTES * 8);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.technohacks.bank.security;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free token buckets for arbitrary keys (client addresses, say) in a
+ * fixed amount of memory.
+ *
+ * Keys hash into two tables with independent hashes, in the manner of a
+ * count-min sketch: a key is refused only when its buckets in both tables
+ * are empty, so a quiet key that shares one bucket with a noisy one is
+ * still served. Each bucket is one long updated by CAS, holding the tokens
+ * used in the low 20 bits and the time of the last refill above them. A
+ * refusal only reads; it never writes.
+ */
+public class RateLimiter {
+    public static final int DEFAULT_SLOTS = 1 << 16;
+
+    private static final int USED_BITS = 20;
+    private static final long USED_MASK = (1L << USED_BITS) - 1;
+
+    private final AtomicLongArray buckets;
+    private final int mask;
+    private final int capacity;
+    private final double permitsPerMilli;
+
+    /**
+     * @param capacity        largest burst a key may use at once
+     * @param permitsPerSecond rate at which an emptied bucket refills
+     */
+    public RateLimiter(int slots, int capacity, double permitsPerSecond) {
+        if (capacity < 1 || capacity > USED_MASK) {
+            throw new IllegalArgumentException("Capacity must be between 1 and " + USED_MASK);
+        }
+        if (!(permitsPerSecond > 0)) {
+            throw new IllegalArgumentException("Refill rate must be positive");
+        }
+        int size = Slots.tableSize(slots);
+        this.buckets = new AtomicLongArray(2 * size);
+        this.mask = size - 1;
+        this.capacity = capacity;
+        this.permitsPerMilli = permitsPerSecond / 1000;
+    }
+
+    public RateLimiter(int capacity, double permitsPerSecond) {
+        this(DEFAULT_SLOTS, capacity, permitsPerSecond);
+    }
+
+    /** True if the key has a permit left; does not take it. */
+    public boolean permits(String key) {
+        long now = Slots.nowMillis();
+        return used(buckets.get(first(key)), now) < capacity || used(buckets.get(second(key)), now) < capacity;
+    }
+
+    /** Takes a permit; returns false, without changing anything, if the key has none left. */
+    public boolean tryAcquire(String key) {
+        if (!permits(key)) {
+            return false;
+        }
+        take(first(key));
+        take(second(key));
+        return true;
+    }
+
+    private int first(String key) {
+        return Slots.index(key, mask);
+    }
+
+    private int second(String key) {
+        int h = key.hashCode();
+        h = (h ^ (h >>> 15)) * 0x85EBCA6B;
+        return mask + 1 + ((h ^ (h >>> 13)) & mask);
+    }
+
+    // Tokens used after refilling up to now; an untouched bucket is full.
+    private long used(long state, long now) {
+        if (state == 0) {
+            return 0;
+        }
+        long refilled = (long) ((now - (state >>> USED_BITS)) * permitsPerMilli);
+        return Math.max(0, (state & USED_MASK) - refilled);
+    }
+
+    private void take(int i) {
+        while (true) {
+            long state = buckets.get(i);
+            long now = Slots.nowMillis();
+            long used = used(state, now);
+            long next;
+            if (state == 0 || used < (state & USED_MASK)) {
+                // refilled: restart the clock from now
+                next = (now << USED_BITS) | Math.min(capacity, used + 1);
+            } else {
+                // nothing refilled yet: keep the old clock so partial refills are not lost
+                next = (state & ~USED_MASK) | Math.min(capacity, used + 1);
+            }
+            if (buckets.compareAndSet(i, state, next)) {
+                return;
+            }
+        }
+    }
+}
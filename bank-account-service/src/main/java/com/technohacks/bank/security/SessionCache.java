@@ -0,0 +1,121 @@
+package com.technohacks.bank.security;
+
+import com.technohacks.bank.model.BankAccount;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded cache of verified sessions.
+ *
+ * A session is opened once the slow PIN check has passed and expires a
+ * fixed time after it was opened. Because every session has the same
+ * lifetime, creation order is also expiry order: a FIFO queue beside the map
+ * is enough to drop expired sessions and, when the cache is full, the
+ * oldest ones.
+ */
+public class SessionCache {
+    public static final int DEFAULT_MAX_SESSIONS = 100_000;
+    public static final long DEFAULT_TTL_SECONDS = 300;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Session> byAge = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final int maxSessions;
+    private final long ttlNanos;
+
+    public SessionCache() {
+        this(DEFAULT_MAX_SESSIONS, DEFAULT_TTL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public SessionCache(int maxSessions, long ttl, TimeUnit unit) {
+        this.maxSessions = maxSessions;
+        this.ttlNanos = unit.toNanos(ttl);
+    }
+
+    public static final class Session {
+        private final String token;
+        private final BankAccount account;
+        private final long expiresAt;
+
+        Session(String token, BankAccount account, long expiresAt) {
+            this.token = token;
+            this.account = account;
+            this.expiresAt = expiresAt;
+        }
+
+        public String getToken() {
+            return token;
+        }
+
+        public BankAccount getAccount() {
+            return account;
+        }
+
+        boolean isExpired(long now) {
+            return now - expiresAt >= 0;
+        }
+    }
+
+    /** Opens a session for an account whose PIN has just been verified. */
+    public Session open(BankAccount account) {
+        long now = System.nanoTime();
+        Session session = new Session(newToken(), account, now + ttlNanos);
+        sessions.put(session.token, session);
+        byAge.add(session);
+        size.incrementAndGet();
+        evict(now);
+        return session;
+    }
+
+    /** Returns the live session for a token, or null if unknown or expired. */
+    public Session get(String token) {
+        if (token == null) {
+            return null;
+        }
+        Session session = sessions.get(token);
+        if (session == null) {
+            return null;
+        }
+        if (session.isExpired(System.nanoTime())) {
+            sessions.remove(token, session);
+            return null;
+        }
+        return session;
+    }
+
+    public void close(String token) {
+        if (token != null) {
+            sessions.remove(token);
+        }
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    private void evict(long now) {
+        Session oldest;
+        while ((oldest = byAge.peek()) != null
+                && (size.get() > maxSessions || oldest.isExpired(now) || !sessions.containsKey(oldest.token))) {
+            Session polled = byAge.poll();
+            if (polled == null) {
+                break;
+            }
+            size.decrementAndGet();
+            sessions.remove(polled.token, polled);
+        }
+    }
+
+    private static String newToken() {
+        byte[] bytes = new byte[16];
+        RANDOM.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
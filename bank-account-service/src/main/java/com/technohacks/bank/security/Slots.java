@@ -0,0 +1,42 @@
+package com.technohacks.bank.security;
+
+/** Fixed power-of-two slot tables keyed by string hashes, shared by the limiters. */
+final class Slots {
+    private static final long ORIGIN = System.nanoTime() / 1_000_000 - 1;
+
+    private Slots() {
+    }
+
+    /** Rounds a requested slot count up to a power of two. */
+    static int tableSize(int requested) {
+        if (requested < 1 || requested > 1 << 30) {
+            throw new IllegalArgumentException("Slot count must be between 1 and 2^30");
+        }
+        return requested == 1 ? 1 : Integer.highestOneBit(requested - 1) << 1;
+    }
+
+    static int index(String key, int mask) {
+        // String caches its hash code; mix it so similar keys spread out
+        int h = key.hashCode() * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * 16 further bits of the key, never 0, to tell keys that share a home
+     * slot apart. Computed apart from hashCode, so keys whose hash codes
+     * collide still differ here.
+     */
+    static int fingerprint(String key) {
+        int h = 0x811C9DC5;
+        for (int i = 0; i < key.length(); i++) {
+            h = (h ^ key.charAt(i)) * 0x01000193;
+        }
+        h ^= h >>> 16;
+        return (h & 0xFFFF) == 0 ? 1 : h & 0xFFFF;
+    }
+
+    /** Milliseconds on a monotonic clock; never 0, so a zero slot can mean "unused". */
+    static long nowMillis() {
+        return System.nanoTime() / 1_000_000 - ORIGIN;
+    }
+}
@@ -0,0 +1,323 @@
+package com.technohacks.bank.server;
+
+import com.technohacks.bank.ErrorResponse;
+import com.technohacks.bank.model.BankAccount;
+import com.technohacks.bank.model.Money;
+import com.technohacks.bank.security.RateLimiter;
+import com.technohacks.bank.service.BankAccountService;
+import com.technohacks.bank.service.OperationResult;
+import com.technohacks.bank.service.OperationStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Line-protocol front end for {@link BankAccountService} on a loopback
+ * socket, one (virtual, where available) thread per connection.
+ *
+ * Requests are single lines of space-separated words:
+ * <pre>
+ *   BALANCE  account pin
+ *   WITHDRAW account pin amount
+ *   DEPOSIT  account pin amount
+ *   TRANSFER from pin to amount
+ *   DETAILS  account pin
+ *   LOGIN    account pin
+ *   LOGOUT   token
+ *   QUIT
+ * </pre>
+ * After LOGIN, the account and PIN of any other command can be replaced by
+ * the returned token (e.g. {@code WITHDRAW token amount}), which skips the
+ * PIN hash check. Each client address may only fail a PIN check so often,
+ * however many connections it opens; beyond that, its commands carrying a
+ * PIN are refused with RATE_LIMITED before they reach the service. Guessing
+ * at one account from many addresses is stopped by the service's own
+ * lockout. WITHDRAW, DEPOSIT and TRANSFER may be prefixed
+ * with {@code KEY idempotencyKey}; a retry carrying the same key and
+ * arguments gets the first reply again without moving money twice.
+ * Replies are tab-separated: {@code OK<TAB>balance},
+ * {@code OK<TAB>token<TAB>balance} for LOGIN,
+ * {@code OK<TAB>account<TAB>holder<TAB>balance} for DETAILS, or
+ * {@code ERR<TAB>status<TAB>errorCode<TAB>message<TAB>details}.
+ */
+public class BankServer implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(BankServer.class);
+    private static final int BACKLOG = 4096;
+    private static final int PIN_FAILURE_BURST = 20;
+    private static final double PIN_FAILURES_PER_SECOND = 1;
+
+    private final BankAccountService service;
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections;
+    private final Thread acceptor;
+    private final RateLimiter pinFailures = new RateLimiter(PIN_FAILURE_BURST, PIN_FAILURES_PER_SECOND);
+    private volatile boolean running = true;
+
+    public BankServer(BankAccountService service, int port) throws IOException {
+        this.service = service;
+        this.serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), BACKLOG);
+        this.connections = ConnectionExecutors.perConnection("bank-connection");
+        this.acceptor = new Thread(this::acceptLoop, "bank-acceptor");
+    }
+
+    public BankServer start() {
+        acceptor.start();
+        logger.info("Bank server listening on {} ({} threads)", serverSocket.getLocalSocketAddress(),
+                ConnectionExecutors.usesVirtualThreads() ? "virtual" : "platform");
+        return this;
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /** Blocks until the server is closed. */
+    public void awaitTermination() throws InterruptedException {
+        acceptor.join();
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                connections.execute(() -> serve(socket));
+            } catch (IOException e) {
+                if (running) {
+                    logger.error("Accept failed: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        String client = socket.getInetAddress().getHostAddress();
+        OperationResult result = new OperationResult();
+        StringBuilder reply = new StringBuilder(128);
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.US_ASCII));
+             Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.US_ASCII))) {
+            s.setTcpNoDelay(true);
+            String line;
+            while ((line = in.readLine()) != null) {
+                reply.setLength(0);
+                if (!handle(client, line, result, reply)) {
+                    break;
+                }
+                out.append(reply).append('\n');
+                // pipelined requests are answered with a single flush
+                if (!in.ready()) {
+                    out.flush();
+                }
+            }
+            out.flush();
+        } catch (SocketException e) {
+            // client went away
+        } catch (IOException e) {
+            logger.error("Connection error: {}", e.getMessage());
+        }
+    }
+
+    /** Executes one request line; returns false when the client asked to quit. */
+    boolean handle(String client, String line, OperationResult result, StringBuilder reply) {
+        String[] words = split(line);
+        if (words.length == 0) {
+            invalid(reply, "Empty request");
+            return true;
+        }
+        String idempotencyKey = null;
+        if (words[0].equals("KEY")) {
+            if (words.length < 3 || !acceptsKey(words[2])) {
+                invalid(reply, "KEY expects a key followed by WITHDRAW, DEPOSIT or TRANSFER");
+                return true;
+            }
+            idempotencyKey = words[1];
+            words = Arrays.copyOfRange(words, 2, words.length);
+        }
+        boolean checksPin = carriesPin(words);
+        if (checksPin) {
+            if (!pinFailures.permits(client)) {
+                error(new ErrorResponse("RATE_LIMITED", "Too many incorrect PINs on this connection",
+                    "Please wait before trying again", 429), reply);
+                return true;
+            }
+            result.reset();
+        }
+        try {
+            switch (words[0]) {
+                case "LOGIN":
+                    if (expect(words, 3, reply)) {
+                        String token = service.tryOpenSession(words[1], words[2], result);
+                        if (token != null) {
+                            Money.appendTo(reply.append("OK\t").append(token).append('\t'), result.getBalance());
+                        } else {
+                            error(result.toErrorResponse(), reply);
+                        }
+                    }
+                    break;
+                case "LOGOUT":
+                    if (expect(words, 2, reply)) {
+                        service.closeSession(words[1]);
+                        reply.append("OK");
+                    }
+                    break;
+                case "BALANCE":
+                    if (words.length == 2) {
+                        service.tryCheckBalance(words[1], result);
+                        balanceReply(result, reply);
+                    } else if (expect(words, 3, reply)) {
+                        service.tryCheckBalance(words[1], words[2], result);
+                        balanceReply(result, reply);
+                    }
+                    break;
+                case "WITHDRAW":
+                    if (words.length == 3) {
+                        service.tryWithdraw(words[1], Money.parse(words[2]), idempotencyKey, result);
+                        balanceReply(result, reply);
+                    } else if (expect(words, 4, reply)) {
+                        service.tryWithdraw(words[1], words[2], Money.parse(words[3]), idempotencyKey, result);
+                        balanceReply(result, reply);
+                    }
+                    break;
+                case "DEPOSIT":
+                    if (words.length == 3) {
+                        service.tryDeposit(words[1], Money.parse(words[2]), idempotencyKey, result);
+                        balanceReply(result, reply);
+                    } else if (expect(words, 4, reply)) {
+                        service.tryDeposit(words[1], words[2], Money.parse(words[3]), idempotencyKey, result);
+                        balanceReply(result, reply);
+                    }
+                    break;
+                case "TRANSFER":
+                    if (words.length == 4) {
+                        service.tryTransfer(words[1], words[2], Money.parse(words[3]), idempotencyKey, result);
+                        balanceReply(result, reply);
+                    } else if (expect(words, 5, reply)) {
+                        service.tryTransfer(words[1], words[2], words[3], Money.parse(words[4]), idempotencyKey,
+                            result);
+                        balanceReply(result, reply);
+                    }
+                    break;
+                case "DETAILS":
+                    if (words.length == 2 || expect(words, 3, reply)) {
+                        OperationStatus status = words.length == 2
+                            ? service.tryGetAccountDetails(words[1], result)
+                            : service.tryGetAccountDetails(words[1], words[2], result);
+                        if (status.isSuccess()) {
+                            BankAccount acc = result.getAccount();
+                            reply.append("OK\t").append(acc.getAccountNumber()).append('\t')
+                                 .append(acc.getAccountHolder()).append('\t');
+                            Money.appendTo(reply, acc.getBalance());
+                        } else {
+                            error(result.toErrorResponse(), reply);
+                        }
+                    }
+                    break;
+                case "QUIT":
+                    return false;
+                default:
+                    invalid(reply, "Unknown command " + words[0]);
+            }
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            // also covers NumberFormatException and malformed idempotency keys
+            reply.setLength(0);
+            invalid(reply, e.getMessage());
+        }
+        if (checksPin && result.getStatus() == OperationStatus.UNAUTHORIZED_ACCESS) {
+            pinFailures.tryAcquire(client);
+        }
+        return true;
+    }
+
+    private static boolean acceptsKey(String command) {
+        return command.equals("WITHDRAW") || command.equals("DEPOSIT") || command.equals("TRANSFER");
+    }
+
+    // LOGIN and the account/PIN forms of the other commands; token forms are one word shorter.
+    private static boolean carriesPin(String[] words) {
+        switch (words[0]) {
+            case "LOGIN":
+            case "BALANCE":
+            case "DETAILS":
+                return words.length == 3;
+            case "WITHDRAW":
+            case "DEPOSIT":
+                return words.length == 4;
+            case "TRANSFER":
+                return words.length == 5;
+            default:
+                return false;
+        }
+    }
+
+    private static void balanceReply(OperationResult result, StringBuilder reply) {
+        if (result.isSuccess()) {
+            Money.appendTo(reply.append("OK\t"), result.getBalance());
+        } else {
+            error(result.toErrorResponse(), reply);
+        }
+    }
+
+    private static boolean expect(String[] words, int count, StringBuilder reply) {
+        if (words.length != count) {
+            invalid(reply, words[0] + " expects " + (count - 1) + " arguments");
+            return false;
+        }
+        return true;
+    }
+
+    private static void invalid(StringBuilder reply, String message) {
+        error(new ErrorResponse("INVALID_REQUEST", message, "See the protocol description in BankServer", 400), reply);
+    }
+
+    static void error(ErrorResponse error, StringBuilder reply) {
+        reply.append("ERR\t").append(error.getStatus()).append('\t').append(error.getErrorCode()).append('\t')
+             .append(error.getMessage()).append('\t').append(error.getDetails());
+    }
+
+    private static String[] split(String line) {
+        int count = 0;
+        int len = line.length();
+        for (int i = 0; i < len; i++) {
+            if (line.charAt(i) != ' ' && (i == 0 || line.charAt(i - 1) == ' ')) {
+                count++;
+            }
+        }
+        String[] words = new String[count];
+        int w = 0;
+        int start = -1;
+        for (int i = 0; i <= len; i++) {
+            boolean space = i == len || line.charAt(i) == ' ';
+            if (!space && start < 0) {
+                start = i;
+            } else if (space && start >= 0) {
+                words[w++] = line.substring(start, i);
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        serverSocket.close();
+        connections.shutdownNow();
+    }
+}
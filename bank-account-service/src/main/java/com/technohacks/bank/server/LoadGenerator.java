@@ -0,0 +1,104 @@
+package com.technohacks.bank.server;
+
+import com.technohacks.bank.metrics.LatencyHistogram;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local load generator for {@link BankServer}. Opens many concurrent
+ * connections, each logging in once and then issuing requests back to back
+ * with its session tokens (90% BALANCE, 10% DEPOSIT against the demo
+ * accounts), and prints latency percentiles.
+ *
+ * Usage: LoadGenerator [port] [connections] [seconds]
+ */
+public class LoadGenerator {
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 9090;
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        AtomicLong errors = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(connections);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        long started = System.nanoTime();
+
+        ExecutorService clients = ConnectionExecutors.perConnection("bank-client");
+        for (int c = 0; c < connections; c++) {
+            long seed = c;
+            clients.execute(() -> {
+                try {
+                    runClient(port, deadline, seed, histogram, errors);
+                } catch (IOException e) {
+                    errors.incrementAndGet();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        clients.shutdown();
+        double elapsed = (System.nanoTime() - started) / 1e9;
+
+        long requests = histogram.count();
+        System.out.printf("Connections : %d (%s threads)%n", connections,
+                ConnectionExecutors.usesVirtualThreads() ? "virtual" : "platform");
+        System.out.printf("Requests    : %d in %.1f s (%.0f req/s), errors %d%n",
+                requests, elapsed, requests / elapsed, errors.get());
+        System.out.printf("Latency us  : p50 %d  p90 %d  p99 %d  p99.9 %d  max %d%n",
+                histogram.percentile(50), histogram.percentile(90), histogram.percentile(99),
+                histogram.percentile(99.9), histogram.max());
+    }
+
+    private static void runClient(int port, long deadline, long seed, LatencyHistogram histogram,
+                                  AtomicLong errors) throws IOException {
+        SplittableRandom random = new SplittableRandom(seed);
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setTcpNoDelay(true);
+            OutputStream out = socket.getOutputStream();
+            BufferedReader in = new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            byte[] balance = ("BALANCE " + login(out, in, "ACC001 1234") + "\n").getBytes(StandardCharsets.US_ASCII);
+            byte[] deposit = ("DEPOSIT " + login(out, in, "ACC002 5678") + " 0.01\n").getBytes(StandardCharsets.US_ASCII);
+            while (System.nanoTime() < deadline) {
+                long sent = System.nanoTime();
+                out.write(random.nextInt(10) == 0 ? deposit : balance);
+                out.flush();
+                String reply = in.readLine();
+                if (reply == null) {
+                    errors.incrementAndGet();
+                    return;
+                }
+                histogram.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - sent));
+                if (!reply.startsWith("OK")) {
+                    errors.incrementAndGet();
+                }
+            }
+            out.write("QUIT\n".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+        }
+    }
+
+    /** Opens a session and returns its token. */
+    private static String login(OutputStream out, BufferedReader in, String credentials) throws IOException {
+        out.write(("LOGIN " + credentials + "\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        String reply = in.readLine();
+        if (reply == null || !reply.startsWith("OK\t")) {
+            throw new IOException("Login failed: " + reply);
+        }
+        return reply.substring(3, reply.indexOf('\t', 3));
+    }
+}
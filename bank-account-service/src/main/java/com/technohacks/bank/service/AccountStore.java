@@ -0,0 +1,216 @@
+package com.technohacks.bank.service;
+
+import com.technohacks.bank.model.BankAccount;
+import com.technohacks.bank.store.AccountTable;
+import com.technohacks.bank.store.HeapAccountTable;
+
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+/**
+ * Concurrent account store.
+ * Accounts live in an {@link AccountTable}, by default a ConcurrentHashMap;
+ * balance updates are guarded by a fixed array of lock stripes selected from
+ * the account number hash.
+ *
+ * The stripes are {@link StampedLock}s held in write mode by updates, so
+ * readers can validate an optimistic stamp instead of locking: a read that
+ * overlaps no update to its stripes never blocks or is blocked by a writer.
+ * Stripe locks are not reentrant.
+ */
+public class AccountStore {
+    public static final int DEFAULT_STRIPES = 1024;
+    // optimistic passes over a multi-account read before it takes read locks
+    private static final int OPTIMISTIC_ATTEMPTS = 4;
+
+    private final AccountTable accounts;
+    private final StampedLock[] stripes;
+    private final int mask;
+
+    public AccountStore() {
+        this(16, DEFAULT_STRIPES);
+    }
+
+    public AccountStore(int expectedAccounts, int stripeCount) {
+        this(new HeapAccountTable(expectedAccounts), stripeCount);
+    }
+
+    /**
+     * Keeps the accounts in {@code accounts}, e.g. an OffHeapAccountTable
+     * for more accounts than the heap should hold. Such a table may return a
+     * new object from every {@link #get}, so callers compare accounts by
+     * number.
+     */
+    public AccountStore(AccountTable accounts, int stripeCount) {
+        int size = Integer.highestOneBit(Math.max(1, stripeCount - 1)) << 1;
+        this.accounts = accounts;
+        this.stripes = new StampedLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new StampedLock();
+        }
+        this.mask = size - 1;
+    }
+
+    public BankAccount get(String accountNumber) {
+        return accounts.get(accountNumber);
+    }
+
+    public void put(BankAccount account) {
+        accounts.put(account);
+    }
+
+    /** Adds the account unless its number is taken; returns false if it was. */
+    public boolean putIfAbsent(BankAccount account) {
+        return accounts.putIfAbsent(account);
+    }
+
+    public int size() {
+        return (int) Math.min(accounts.size(), Integer.MAX_VALUE);
+    }
+
+    public void forEach(Consumer<BankAccount> action) {
+        accounts.forEach(action);
+    }
+
+    /**
+     * Splittable view of every account; each split covers a range of the
+     * underlying table, so fork-join tasks can walk it in parallel.
+     * Weakly consistent, like {@link #forEach}.
+     */
+    public Spliterator<BankAccount> spliterator() {
+        return accounts.spliterator();
+    }
+
+    public int stripeCount() {
+        return stripes.length;
+    }
+
+    public int stripeOf(String accountNumber) {
+        int h = accountNumber.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    public StampedLock lockFor(String accountNumber) {
+        return stripes[stripeOf(accountNumber)];
+    }
+
+    public void lock(String accountNumber) {
+        stripes[stripeOf(accountNumber)].writeLock();
+    }
+
+    /** @throws IllegalMonitorStateException if the account's stripe is not write-locked */
+    public void unlock(String accountNumber) {
+        stripes[stripeOf(accountNumber)].asWriteLock().unlock();
+    }
+
+    /**
+     * Returns a stamp to read the account's fields without locking, or 0 if
+     * an update holds its stripe. Check the stamp with {@link #validate}
+     * after reading.
+     */
+    public long tryOptimisticRead(String accountNumber) {
+        return stripes[stripeOf(accountNumber)].tryOptimisticRead();
+    }
+
+    /** True if no update to the account's stripe started since the stamp was taken. */
+    public boolean validate(String accountNumber, long stamp) {
+        return stamp != 0 && stripes[stripeOf(accountNumber)].validate(stamp);
+    }
+
+    /**
+     * Reads the balances of {@code accounts} into {@code balances} as of a
+     * single point in time: no transfer is seen half applied, even between
+     * two of the accounts. The read is optimistic while no update touches
+     * the accounts' stripes; if updates keep interfering it read-locks the
+     * stripes in ascending order, which only holds writers up for as long
+     * as the copy takes.
+     */
+    public void readBalances(BankAccount[] accounts, long[] balances) {
+        int[] locks = new int[accounts.length];
+        for (int i = 0; i < accounts.length; i++) {
+            locks[i] = stripeOf(accounts[i].getAccountNumber());
+        }
+        Arrays.sort(locks);
+        int count = 0;
+        for (int i = 0; i < locks.length; i++) {
+            if (i == 0 || locks[i] != locks[i - 1]) {
+                locks[count++] = locks[i];
+            }
+        }
+
+        long[] stamps = new long[count];
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            if (tryOptimisticRead(locks, count, stamps)) {
+                for (int i = 0; i < accounts.length; i++) {
+                    balances[i] = accounts[i].getBalance();
+                }
+                if (validate(locks, count, stamps)) {
+                    return;
+                }
+            }
+            Thread.onSpinWait();
+        }
+
+        for (int i = 0; i < count; i++) {
+            stamps[i] = stripes[locks[i]].readLock();
+        }
+        try {
+            for (int i = 0; i < accounts.length; i++) {
+                balances[i] = accounts[i].getBalance();
+            }
+        } finally {
+            for (int i = count - 1; i >= 0; i--) {
+                stripes[locks[i]].unlockRead(stamps[i]);
+            }
+        }
+    }
+
+    private boolean tryOptimisticRead(int[] locks, int count, long[] stamps) {
+        for (int i = 0; i < count; i++) {
+            stamps[i] = stripes[locks[i]].tryOptimisticRead();
+            if (stamps[i] == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean validate(int[] locks, int count, long[] stamps) {
+        for (int i = 0; i < count; i++) {
+            if (!stripes[locks[i]].validate(stamps[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Locks the stripes of both accounts, always in ascending stripe order so
+     * that two opposite transfers can never deadlock.
+     */
+    public void lockPair(String first, String second) {
+        int a = stripeOf(first);
+        int b = stripeOf(second);
+        if (a == b) {
+            stripes[a].writeLock();
+        } else if (a < b) {
+            stripes[a].writeLock();
+            stripes[b].writeLock();
+        } else {
+            stripes[b].writeLock();
+            stripes[a].writeLock();
+        }
+    }
+
+    /** @throws IllegalMonitorStateException if a stripe of the pair is not write-locked */
+    public void unlockPair(String first, String second) {
+        int a = stripeOf(first);
+        int b = stripeOf(second);
+        stripes[a].asWriteLock().unlock();
+        if (a != b) {
+            stripes[b].asWriteLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.technohacks.bank.service;
+
+import com.technohacks.bank.model.Money;
+
+import java.time.LocalDate;
+
+/**
+ * Totals of one end-of-day accrual run.
+ */
+public class AccrualResult {
+    // indexes into the totals array the accrual tasks fill in
+    static final int VISITED = 0;
+    static final int CHANGED = 1;
+    static final int SKIPPED = 2;
+    static final int FAILED = 3;
+    static final int INTEREST = 4;
+    static final int FEES = 5;
+    static final int TOTALS = 6;
+
+    private final LocalDate businessDate;
+    private final long visited;
+    private final long changed;
+    private final long skipped;
+    private final long failed;
+    private final long interest;
+    private final long fees;
+    private final long elapsedNanos;
+
+    AccrualResult(LocalDate businessDate, long[] totals, long elapsedNanos) {
+        this.businessDate = businessDate;
+        this.visited = totals[VISITED];
+        this.changed = totals[CHANGED];
+        this.skipped = totals[SKIPPED];
+        this.failed = totals[FAILED];
+        this.interest = totals[INTEREST];
+        this.fees = totals[FEES];
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public LocalDate getBusinessDate() {
+        return businessDate;
+    }
+
+    public long getVisited() {
+        return visited;
+    }
+
+    /** Accounts whose balance changed. */
+    public long getChanged() {
+        return changed;
+    }
+
+    /** Accounts already accrued for this date by an earlier run. */
+    public long getSkipped() {
+        return skipped;
+    }
+
+    /** Accounts left unchanged because the interest would overflow the balance. */
+    public long getFailed() {
+        return failed;
+    }
+
+    /** Interest credited, in cents. */
+    public long getInterest() {
+        return interest;
+    }
+
+    /** Fees charged, in cents. */
+    public long getFees() {
+        return fees;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /** Accounts visited per second. */
+    public double getThroughput() {
+        return elapsedNanos == 0 ? 0 : visited * 1_000_000_000.0 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Accrual for %s: %d accounts, %d changed, %d skipped, %d failed, interest %s, fees %s in %.3f ms (%.0f accounts/s)",
+            businessDate, visited, changed, skipped, failed, Money.format(interest), Money.format(fees),
+            elapsedNanos / 1_000_000.0, getThroughput());
+    }
+}
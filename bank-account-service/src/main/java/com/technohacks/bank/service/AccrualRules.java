@@ -0,0 +1,137 @@
+package com.technohacks.bank.service;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.Arrays;
+
+/**
+ * Daily interest and fee rules for {@link BankAccountService#accrue}.
+ *
+ * Interest is tiered on the whole balance: the rate of the highest tier
+ * whose minimum the balance reaches applies, divided by the day-count basis.
+ * Rates are held exactly as billionths and each day's interest is rounded
+ * half-even to the cent. The daily fee is waived at or above a balance and
+ * never takes an account below zero.
+ *
+ * Instances are immutable; the {@code with} methods return modified copies.
+ */
+public final class AccrualRules {
+    private static final int RATE_SCALE = 9;
+    private static final long RATE_ONE = 1_000_000_000L;
+
+    private final long[] tierMinimums;
+    private final long[] tierRates;
+    private final int dayCount;
+    private final long dailyFee;
+    private final long feeWaivedFrom;
+
+    private AccrualRules(long[] tierMinimums, long[] tierRates, int dayCount, long dailyFee, long feeWaivedFrom) {
+        this.tierMinimums = tierMinimums;
+        this.tierRates = tierRates;
+        this.dayCount = dayCount;
+        this.dailyFee = dailyFee;
+        this.feeWaivedFrom = feeWaivedFrom;
+    }
+
+    /** No interest and no fees, on an actual/365 basis. */
+    public static AccrualRules none() {
+        return new AccrualRules(new long[0], new long[0], 365, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Adds or replaces the tier starting at {@code minimumBalance} cents.
+     *
+     * @param annualRate e.g. 0.0425 for 4.25% a year; at most 9 decimal places
+     */
+    public AccrualRules withTier(long minimumBalance, BigDecimal annualRate) {
+        long rate;
+        try {
+            rate = annualRate.setScale(RATE_SCALE).unscaledValue().longValueExact();
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Rate needs more than " + RATE_SCALE + " decimal places or is too large: " + annualRate);
+        }
+        if (rate < 0 || minimumBalance < 0) {
+            throw new IllegalArgumentException("Tier minimum and rate must not be negative");
+        }
+        int at = Arrays.binarySearch(tierMinimums, minimumBalance);
+        long[] minimums;
+        long[] rates;
+        if (at >= 0) {
+            minimums = tierMinimums;
+            rates = tierRates.clone();
+        } else {
+            at = -at - 1;
+            minimums = insert(tierMinimums, at, minimumBalance);
+            rates = insert(tierRates, at, 0);
+        }
+        rates[at] = rate;
+        return new AccrualRules(minimums, rates, dayCount, dailyFee, feeWaivedFrom);
+    }
+
+    /** Days per year the annual rate is divided by, e.g. 365 or 360. */
+    public AccrualRules withDayCount(int days) {
+        if (days <= 0) {
+            throw new IllegalArgumentException("Day count must be positive");
+        }
+        return new AccrualRules(tierMinimums, tierRates, days, dailyFee, feeWaivedFrom);
+    }
+
+    /** Charges {@code fee} cents a day to accounts below {@code waivedFromBalance} cents. */
+    public AccrualRules withDailyFee(long fee, long waivedFromBalance) {
+        if (fee < 0) {
+            throw new IllegalArgumentException("Fee must not be negative");
+        }
+        return new AccrualRules(tierMinimums, tierRates, dayCount, fee, waivedFromBalance);
+    }
+
+    /** One day's interest in cents on {@code balance}. */
+    public long interest(long balance) {
+        if (balance <= 0) {
+            return 0;
+        }
+        int tier = tierFor(balance);
+        if (tier < 0 || tierRates[tier] == 0) {
+            return 0;
+        }
+        long rate = tierRates[tier];
+        long divisor = RATE_ONE * dayCount;
+        long high = Math.multiplyHigh(balance, rate);
+        long product = balance * rate;
+        if (high != 0 || product < 0) {
+            return exactInterest(balance, rate, divisor);
+        }
+        long quotient = product / divisor;
+        long twice = 2 * (product - quotient * divisor);
+        if (twice > divisor || (twice == divisor && (quotient & 1) != 0)) {
+            quotient++;
+        }
+        return quotient;
+    }
+
+    /** One day's fee in cents, before it is capped at the available balance. */
+    public long fee(long balance) {
+        return balance >= feeWaivedFrom ? 0 : dailyFee;
+    }
+
+    private int tierFor(long balance) {
+        int at = Arrays.binarySearch(tierMinimums, balance);
+        return at >= 0 ? at : -at - 2;
+    }
+
+    // Only for balances above about 92 million units, where balance * rate
+    // no longer fits in a long.
+    private static long exactInterest(long balance, long rate, long divisor) {
+        return new BigDecimal(BigInteger.valueOf(balance).multiply(BigInteger.valueOf(rate)))
+            .divide(BigDecimal.valueOf(divisor), 0, RoundingMode.HALF_EVEN)
+            .longValueExact();
+    }
+
+    private static long[] insert(long[] values, int at, long value) {
+        long[] copy = new long[values.length + 1];
+        System.arraycopy(values, 0, copy, 0, at);
+        copy[at] = value;
+        System.arraycopy(values, at, copy, at + 1, values.length - at);
+        return copy;
+    }
+}
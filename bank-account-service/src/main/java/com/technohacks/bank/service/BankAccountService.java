@@ -1,76 +1,1764 @@
 package com.technohacks.bank.service;
 
+import com.technohacks.bank.audit.AuditLog;
+import com.technohacks.bank.bulk.AccountExporter;
+import com.technohacks.bank.bulk.AccountFileFormat;
+import com.technohacks.bank.bulk.AccountImporter;
+import com.technohacks.bank.bulk.ImportResult;
 import com.technohacks.bank.exception.*;
+import com.technohacks.bank.history.EntryType;
+import com.technohacks.bank.history.StatementPage;
+import com.technohacks.bank.history.TransactionHistory;
+import com.technohacks.bank.journal.SnapshotStore;
+import com.technohacks.bank.journal.TransactionJournal;
+import com.technohacks.bank.metrics.ServiceMetrics;
 import com.technohacks.bank.model.BankAccount;
+import com.technohacks.bank.model.Money;
+import com.technohacks.bank.replication.ReplicationPrimary;
+import com.technohacks.bank.repository.AccountRepository;
+import com.technohacks.bank.repository.RepositoryException;
+import com.technohacks.bank.repository.VersionConflictException;
+import com.technohacks.bank.security.LockoutTable;
+import com.technohacks.bank.security.SessionCache;
 
-import java.util.HashMap;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
-public class BankAccountService {
-    private Map<String, BankAccount> accounts = new HashMap<>();
+public class BankAccountService implements Closeable {
+    private final AccountStore accounts;
+    private final TransactionJournal journal;
+    private final ShardedLedger ledger;
+    private final SessionCache sessions = new SessionCache();
+    private final LockoutTable lockouts = new LockoutTable();
+    private final ServiceMetrics metrics = new ServiceMetrics();
+    private final IdempotencyCache idempotency = new IdempotencyCache();
+    private final ConcurrentHashMap<String, PreparedTransfer> twoPhase = new ConcurrentHashMap<>();
+    private final AtomicReferenceArray<PreparedTransfer> decided = new AtomicReferenceArray<>(MAX_DECIDED);
+    private final AtomicLong decisions = new AtomicLong();
+    private volatile AuditLog audit;
+    private volatile TransactionHistory history;
+    private volatile AccountRepository repository;
+    private volatile ReplicationPrimary replication;
 
     public BankAccountService() {
-        accounts.put("ACC001", new BankAccount("ACC001", "Shaik", "1234", 5000.00));
-        accounts.put("ACC002", new BankAccount("ACC002", "Sameer", "5678", 3000.00));
-        accounts.put("ACC003", new BankAccount("ACC003", "technohacks", "9012", 1500.00));
+        this(demoAccounts(), null);
     }
 
-    private BankAccount validate(String accountNumber, String pin)
-            throws AccountNotFoundException, UnauthorizedAccessException {
+    /**
+     * Creates a durable service: the demo accounts are seeded and then every
+     * change recorded in the journal is replayed on top of them.
+     */
+    public BankAccountService(TransactionJournal journal) throws IOException {
+        this(demoAccounts(), journal);
+        recover(1);
+    }
+
+    /**
+     * Starts from the newest snapshot, if any, and replays only the journal
+     * tail written after it was taken.
+     */
+    public BankAccountService(TransactionJournal journal, SnapshotStore snapshots) throws IOException {
+        this(journal, snapshots.loadLatest());
+    }
+
+    /**
+     * Starts from {@code snapshot}, or the demo accounts if it is null, and
+     * replays the records of {@code journal} it does not cover.
+     */
+    public BankAccountService(TransactionJournal journal, SnapshotStore.Snapshot snapshot) throws IOException {
+        this(snapshot != null ? snapshot.getAccounts() : demoAccounts(), journal);
+        if (snapshot != null) {
+            restoreState(snapshot.getServiceState());
+        }
+        recover(snapshot != null ? snapshot.getStartSequence() : 1);
+    }
+
+    /**
+     * Serves the accounts stored in {@code repository}, seeding it with the
+     * demo accounts when it is empty, and writes every change back to it.
+     * The caller keeps ownership of the repository.
+     */
+    public BankAccountService(AccountRepository repository) {
+        this(load(repository), null);
+        setAccountRepository(repository);
+    }
+
+    public BankAccountService(AccountStore accounts, TransactionJournal journal) {
+        this(accounts, journal, ExecutionMode.LOCKING);
+    }
+
+    public BankAccountService(AccountStore accounts, TransactionJournal journal, ExecutionMode mode) {
+        this(accounts, journal, mode, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param shards number of single-writer shards; only used in SHARDED mode
+     */
+    public BankAccountService(AccountStore accounts, TransactionJournal journal, ExecutionMode mode, int shards) {
+        this.accounts = accounts;
+        this.journal = journal;
+        this.ledger = mode == ExecutionMode.SHARDED ? new ShardedLedger(accounts, journal, shards) : null;
+    }
+
+    /**
+     * Records every operation and its outcome in {@code audit} from now on;
+     * null turns auditing off. The caller keeps ownership of the log.
+     */
+    public void setAuditLog(AuditLog audit) {
+        this.audit = audit;
+    }
+
+    /**
+     * Records every balance change in {@code history} from now on, for
+     * statements; null turns it off. The caller keeps ownership of the store.
+     */
+    public void setTransactionHistory(TransactionHistory history) {
+        this.history = history;
+        if (ledger != null) {
+            ledger.setHistory(history);
+        }
+    }
+
+    /**
+     * Writes every later balance change through to {@code repository}; null
+     * turns it off. Changes are queued under the account's stripe lock and
+     * each operation returns once its change is stored, so concurrent
+     * operations share the repository's batched writes. An operation whose
+     * change could not be stored because another writer had changed the row
+     * fails with VERSION_CONFLICT after reading the accounts of its batch
+     * back from the repository, and can be retried, under the same
+     * idempotency key too. One whose batch could not be written at all fails
+     * with STORE_UNAVAILABLE; its change stays queued for the next batch.
+     * The throwing forms of the operations throw IllegalStateException for
+     * either. The caller keeps ownership of the repository.
+     *
+     * @throws IllegalStateException if the service has a journal, which
+     *         would keep changes the repository dropped
+     */
+    public void setAccountRepository(AccountRepository repository) {
+        requireLocking();
+        if (repository != null && journal != null) {
+            throw new IllegalStateException("A journalled service cannot also write through to a repository");
+        }
+        this.repository = repository;
+    }
+
+    /** Latency and outcome counters for every operation, always on. */
+    public ServiceMetrics getMetrics() {
+        return metrics;
+    }
+
+    public ExecutionMode getExecutionMode() {
+        return ledger != null ? ExecutionMode.SHARDED : ExecutionMode.LOCKING;
+    }
+
+    private static AccountStore demoAccounts() {
+        AccountStore accounts = new AccountStore();
+        accounts.put(new BankAccount("ACC001", "Shaik", "1234", Money.ofUnits(5000)));
+        accounts.put(new BankAccount("ACC002", "Sameer", "5678", Money.ofUnits(3000)));
+        accounts.put(new BankAccount("ACC003", "technohacks", "9012", Money.ofUnits(1500)));
+        return accounts;
+    }
+
+    private static AccountStore load(AccountRepository repository) {
+        int count = repository.count();
+        if (count == 0) {
+            AccountStore demo = demoAccounts();
+            List<BankAccount> seeded = new ArrayList<>(demo.size());
+            demo.forEach(seeded::add);
+            repository.insert(seeded);
+            return demo;
+        }
+        AccountStore accounts = new AccountStore(count, AccountStore.DEFAULT_STRIPES);
+        repository.forEach(accounts::put);
+        return accounts;
+    }
+
+    /**
+     * Rebuilds balances by replaying the journal from {@code fromSequence}.
+     * Idempotency keys are restored from every record still on disk; keys
+     * whose records a checkpoint has already deleted come from the snapshot
+     * instead. Returns the number of records read.
+     */
+    public long recover(long fromSequence) throws IOException {
+        if (journal == null) {
+            return 0;
+        }
+        return journal.replay(1, (sequence, type, account, counterparty, amount, idempotencyKey, detail) -> {
+            if (sequence >= fromSequence) {
+                applyRecord(sequence, type, account, counterparty, amount, detail);
+            }
+            if (idempotencyKey != null) {
+                restoreKey(idempotencyKey, type, account, counterparty, amount, detail);
+            }
+        });
+    }
+
+    /**
+     * Applies a journal record shipped from a primary, see
+     * replication.Standby. Records must arrive in sequence order; any an
+     * account has already seen are skipped, so a batch may be delivered
+     * twice. A journalled standby also appends each record to its own
+     * journal under the primary's sequence number, so that once promoted it
+     * carries on where the primary stopped; there a record the journal
+     * already holds is skipped and a gap is an error. Idempotency keys come
+     * along, so retries keep working after a failover.
+     *
+     * @throws IllegalStateException if the record names an account this
+     *         service does not hold, or skips records
+     */
+    public void applyReplicated(long sequence, byte type, String account, String counterparty, long amount,
+                                String idempotencyKey, String detail) {
+        requireLocking();
+        if (journal != null) {
+            long expected = journal.nextSequence();
+            if (sequence < expected) {
+                return;
+            }
+            if (sequence > expected) {
+                throw new IllegalStateException("Replicated record " + sequence + " skips ahead of the journal, which is at "
+                    + expected);
+            }
+        }
+        requireKnown(sequence, type, account, counterparty);
+        boolean pair = type == TransactionJournal.TRANSFER;
+        if (pair) {
+            accounts.lockPair(account, counterparty);
+        } else {
+            accounts.lock(account);
+        }
+        try {
+            if (journal != null) {
+                journal.append(type, account, counterparty, amount, idempotencyKey, detail);
+            }
+            applyRecord(sequence, type, account, counterparty, amount, detail);
+        } finally {
+            if (pair) {
+                accounts.unlockPair(account, counterparty);
+            } else {
+                accounts.unlock(account);
+            }
+        }
+        if (idempotencyKey != null) {
+            restoreKey(idempotencyKey, type, account, counterparty, amount, detail);
+        }
+    }
+
+    /** Makes the replicated records applied so far durable in this service's journal, if it has one. */
+    public void commitReplicated() {
+        if (journal != null) {
+            journal.commit(journal.nextSequence() - 1);
+        }
+    }
+
+    // A standby that lacks an account the primary changed has diverged from
+    // it; carrying on would silently drop the change.
+    private void requireKnown(long sequence, byte type, String account, String counterparty) {
+        if (type == TransactionJournal.REFUSED || type == TransactionJournal.OPEN || account.isEmpty()) {
+            return;
+        }
+        if (accounts.get(account) == null) {
+            throw new IllegalStateException("Replicated record " + sequence + " refers to unknown account " + account);
+        }
+        if (type == TransactionJournal.TRANSFER && accounts.get(counterparty) == null) {
+            throw new IllegalStateException("Replicated record " + sequence + " refers to unknown account "
+                + counterparty);
+        }
+    }
+
+    /**
+     * Keeps the journal records that the standbys fed by {@code primary}
+     * have not acknowledged when a checkpoint truncates the journal, so a
+     * standby that reconnects can resume; null stops holding records back.
+     */
+    public void setReplicationPrimary(ReplicationPrimary primary) {
+        this.replication = primary;
+    }
+
+    /**
+     * Writes a snapshot of every account while traffic keeps flowing, then
+     * drops journal segments that the snapshot fully covers and every
+     * connected standby has acknowledged. The live idempotency keys and
+     * two-phase transfers go into the snapshot too, since the records that
+     * carried them may be among those dropped. Returns the sequence the
+     * snapshot starts replay from.
+     */
+    public long checkpoint(SnapshotStore snapshots) throws IOException {
+        if (ledger != null) {
+            throw new IllegalStateException("Snapshots validate reads against the stripe locks, which SHARDED mode does not take");
+        }
+        long startSequence = journal != null ? journal.nextSequence() : 1;
+        if (journal != null) {
+            journal.commit(startSequence - 1);
+        }
+        snapshots.write(accounts, startSequence, captureState(startSequence));
+        if (journal != null) {
+            long truncateBefore = startSequence;
+            ReplicationPrimary primary = replication;
+            if (primary != null && primary.getStandbyCount() > 0) {
+                truncateBefore = Math.min(truncateBefore, primary.getAcknowledgedSequence() + 1);
+            }
+            journal.truncateBefore(truncateBefore);
+        }
+        return startSequence;
+    }
+
+    /**
+     * Adds the accounts in {@code file}, CSV if its name ends in .csv and
+     * binary otherwise, while the service keeps running; numbers already
+     * taken are rejected. See {@link AccountImporter}. Each imported
+     * account is journalled as an OPEN record, committed before this
+     * returns, so it survives a restart and reaches the standbys.
+     */
+    public ImportResult importAccounts(Path file) throws IOException {
+        if (repository != null) {
+            throw new IllegalStateException("Imported accounts would bypass the account repository; insert them there");
+        }
+        if (journal == null) {
+            return AccountImporter.load(file, AccountFileFormat.of(file), accounts, ForkJoinPool.commonPool());
+        }
+        try {
+            return AccountImporter.load(file, AccountFileFormat.of(file), accounts, this::open,
+                ForkJoinPool.commonPool());
+        } finally {
+            journal.commit(journal.nextSequence() - 1);
+        }
+    }
+
+    // The account is journalled before it becomes visible, so its OPEN
+    // record precedes the records of every operation on it. The stripe
+    // keeps two imports of one number from both journalling it.
+    private boolean open(BankAccount acc) {
+        String accountNumber = acc.getAccountNumber();
+        accounts.lock(accountNumber);
+        try {
+            if (accounts.get(accountNumber) != null) {
+                return false;
+            }
+            acc.setLastSequence(journal.appendOpen(accountNumber, acc.getAccountHolder(), acc.getPinHash(),
+                acc.getBalance()));
+            accounts.put(acc);
+            return true;
+        } finally {
+            accounts.unlock(accountNumber);
+        }
+    }
+
+    /**
+     * Writes every account to {@code file} in the format its name implies,
+     * without stopping traffic, and returns how many were written. See
+     * {@link AccountExporter}.
+     */
+    public long exportAccounts(Path file) throws IOException {
+        if (ledger != null) {
+            throw new IllegalStateException("Exports validate reads against the stripe locks, which SHARDED mode does not take");
+        }
+        return AccountExporter.write(accounts, file, AccountFileFormat.of(file));
+    }
+
+    // Captured after the snapshot's start sequence is fixed: a key whose
+    // record precedes it was claimed before the capture began, and is
+    // waited for if its request is still running.
+    private byte[] captureState(long startSequence) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            idempotency.save(out);
+            saveTransfers(out, startSequence);
+        }
+        return bytes.toByteArray();
+    }
+
+    private void restoreState(byte[] state) throws IOException {
+        if (state.length > 0) {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(state));
+            idempotency.load(in);
+            if (in.available() > 0) {
+                loadTransfers(in);
+            }
+        }
+    }
+
+    // A snapshot may already contain changes newer than its start sequence,
+    // so each account skips records it has already seen.
+    private void applyRecord(long sequence, byte type, String account, String counterparty, long amount,
+                             String detail) {
+        if (type == TransactionJournal.REFUSED
+            || type == TransactionJournal.TRANSFER && account.equals(counterparty)) {
+            return;
+        }
+        if (type >= TransactionJournal.PREPARE_OUT && type <= TransactionJournal.ABORT) {
+            replayStep(sequence, type, account, counterparty, amount, detail);
+            return;
+        }
+        if (type == TransactionJournal.OPEN) {
+            if (accounts.get(account) == null) {
+                BankAccount opened = BankAccount.withPinHash(account, detail, counterparty, amount);
+                opened.setLastSequence(sequence);
+                accounts.put(opened);
+            }
+            return;
+        }
+        BankAccount acc = accounts.get(account);
+        if (acc != null && sequence > acc.getLastSequence()) {
+            long signed = type == TransactionJournal.DEPOSIT || type == TransactionJournal.ACCRUAL ? amount : -amount;
+            acc.setBalance(Money.add(acc.getBalance(), signed));
+            acc.setLastSequence(sequence);
+            if (type == TransactionJournal.ACCRUAL) {
+                acc.setLastAccrualDay(Math.max(acc.getLastAccrualDay(), Long.parseLong(detail)));
+            }
+        }
+        if (type == TransactionJournal.TRANSFER) {
+            BankAccount other = accounts.get(counterparty);
+            if (other != null && sequence > other.getLastSequence()) {
+                other.setBalance(Money.add(other.getBalance(), amount));
+                other.setLastSequence(sequence);
+            }
+        } else if (type != TransactionJournal.WITHDRAW && type != TransactionJournal.DEPOSIT
+                   && type != TransactionJournal.ACCRUAL) {
+            throw new IllegalStateException("Unknown journal record type " + type + " at sequence " + sequence);
+        }
+    }
+
+    // A retry of a recovered request reports the balance the replay had
+    // reached at its record, not the one it originally returned.
+    private void restoreKey(String key, byte type, String account, String counterparty, long amount,
+                            String detail) {
+        OperationResult outcome = new OperationResult();
+        Operation op;
+        if (type == TransactionJournal.REFUSED) {
+            op = decodeRefusal(detail, account, counterparty, outcome);
+        } else {
+            BankAccount acc = accounts.get(account);
+            outcome.ok(account, acc != null ? acc.getBalance() : 0);
+            op = type == TransactionJournal.TRANSFER ? Operation.TRANSFER
+                : type == TransactionJournal.DEPOSIT ? Operation.DEPOSIT : Operation.WITHDRAW;
+        }
+        idempotency.restore(key, op, account, op == Operation.TRANSFER ? counterparty : null, amount, outcome);
+    }
+
+    // A refusal is journalled and made durable before it is reported, so a
+    // retry after a restart is refused again rather than run. The detail is
+    // "operation status onCounterparty shortfall [reason]".
+    private void journalRefusal(Operation op, String account, String counterparty, long amount, String key,
+                                OperationResult result) {
+        String detail = op.name() + ' ' + result.getStatus().name() + ' ' + (result.isCounterparty() ? 1 : 0)
+            + ' ' + result.getShortfall() + (result.getReason() != null ? ' ' + result.getReason() : "");
+        journal.commit(journal.append(TransactionJournal.REFUSED, account, counterparty != null ? counterparty : "",
+            amount, key, detail));
+    }
+
+    private static Operation decodeRefusal(String detail, String account, String counterparty,
+                                           OperationResult outcome) {
+        String[] fields = detail.split(" ", 5);
+        boolean onCounterparty = fields[2].equals("1");
+        outcome.fill(OperationStatus.valueOf(fields[1]), onCounterparty ? counterparty : account, onCounterparty, 0,
+            Long.parseLong(fields[3]), fields.length > 4 ? fields[4] : null);
+        return Operation.valueOf(fields[0]);
+    }
+
+    /**
+     * Looks up and checks the PIN of an account. On failure the result is
+     * filled in and null is returned. PINs are stored as slow hashes, so
+     * callers doing more than one operation should open a session instead.
+     * A locked-out account is refused before any lookup or hashing.
+     */
+    private BankAccount authenticate(String accountNumber, String pin, OperationResult result) {
+        if (lockouts.isLocked(accountNumber)) {
+            result.locked(accountNumber);
+            return null;
+        }
         BankAccount acc = accounts.get(accountNumber);
         if (acc == null) {
-            throw new AccountNotFoundException("Account " + accountNumber + " not found.");
+            result.notFound(accountNumber, false);
+            return null;
         }
-        if (!acc.getPin().equals(pin)) {
-            throw new UnauthorizedAccessException("PIN is incorrect for account " + accountNumber);
+        long started = System.nanoTime();
+        boolean matches = acc.matchesPin(pin);
+        metrics.recordAuthentication(System.nanoTime() - started, matches);
+        if (!matches) {
+            lockouts.recordFailure(accountNumber);
+            result.unauthorized(accountNumber);
+            return null;
         }
+        lockouts.recordSuccess(accountNumber);
         return acc;
     }
 
-    public double checkBalance(String accountNumber, String pin)
+    /** Resolves a session token. On failure the result is filled in and null is returned. */
+    private BankAccount resolve(String token, OperationResult result) {
+        SessionCache.Session session = sessions.get(token);
+        if (session == null) {
+            result.sessionExpired();
+            return null;
+        }
+        return session.getAccount();
+    }
+
+    private static void throwIfDenied(OperationResult result)
             throws AccountNotFoundException, UnauthorizedAccessException {
-        BankAccount acc = validate(accountNumber, pin);
-        return acc.getBalance();
+        if (result.getStatus() == OperationStatus.ACCOUNT_NOT_FOUND) {
+            throw new AccountNotFoundException(result.getMessage());
+        }
+        if (result.getStatus() == OperationStatus.UNAUTHORIZED_ACCESS
+                || result.getStatus() == OperationStatus.ACCOUNT_LOCKED
+                || result.getStatus() == OperationStatus.SESSION_EXPIRED) {
+            throw new UnauthorizedAccessException(result.getMessage());
+        }
     }
 
-    public void withdraw(String accountNumber, String pin, double amount)
+    private static void throwIfFailed(OperationResult result)
             throws AccountNotFoundException, UnauthorizedAccessException, InsufficientBalanceException {
-        BankAccount acc = validate(accountNumber, pin);
-        if (amount > acc.getBalance()) {
-            throw new InsufficientBalanceException("Insufficient funds", amount - acc.getBalance());
+        throwIfDenied(result);
+        if (result.getStatus() == OperationStatus.INSUFFICIENT_BALANCE) {
+            throw new InsufficientBalanceException(result.getMessage(), result.getShortfall());
+        }
+        if (result.getStatus() == OperationStatus.INVALID_AMOUNT
+                || result.getStatus() == OperationStatus.IDEMPOTENCY_CONFLICT) {
+            throw new IllegalArgumentException(result.getMessage());
+        }
+        if (result.getStatus() == OperationStatus.VERSION_CONFLICT
+                || result.getStatus() == OperationStatus.STORE_UNAVAILABLE) {
+            throw new IllegalStateException(result.getMessage());
+        }
+    }
+
+    // Makes the changes made so far durable: the journal up to sequence and
+    // everything queued for the repository.
+    private void commit(long sequence) {
+        commit(sequence, 0, 0);
+    }
+
+    // As above, and fails if the repository dropped one of the updates with
+    // tickets fromTicket to toTicket, after reading back the accounts their
+    // batch held.
+    private void commit(long sequence, long fromTicket, long toTicket) {
+        if (journal != null && sequence > 0) {
+            journal.commit(sequence);
+        }
+        AccountRepository repo = repository;
+        if (repo == null) {
+            return;
+        }
+        if (fromTicket <= 0 || toTicket < fromTicket) {
+            repo.sync();
+            return;
+        }
+        try {
+            repo.sync(fromTicket, toTicket);
+        } catch (VersionConflictException e) {
+            reload(repo, e);
+            throw e;
         }
-        acc.setBalance(acc.getBalance() - amount);
     }
 
-    public void deposit(String accountNumber, String pin, double amount)
+    // An account still at the version that was dropped has no later change
+    // queued, so the stored row is what it should hold. Accounts that moved
+    // on are left to the operations that moved them, whose updates expect
+    // the dropped version and fail in turn. The history is append-only, so
+    // the entries of dropped changes stay and an adjustment entry brings the
+    // statement to the stored balance.
+    private void reload(AccountRepository repo, VersionConflictException e) {
+        for (Map.Entry<String, Long> dropped : e.getDroppedVersions().entrySet()) {
+            String accountNumber = dropped.getKey();
+            BankAccount acc = accounts.get(accountNumber);
+            if (acc == null) {
+                continue;
+            }
+            accounts.lock(accountNumber);
+            try {
+                if (acc.getVersion() == dropped.getValue()) {
+                    BankAccount stored = repo.find(accountNumber);
+                    if (stored != null) {
+                        long change = stored.getBalance() - acc.getBalance();
+                        acc.setBalance(stored.getBalance());
+                        acc.setLastAccrualDay(stored.getLastAccrualDay());
+                        acc.setVersion(stored.getVersion());
+                        if (change != 0) {
+                            record(acc, change > 0 ? EntryType.ADJUSTMENT_IN : EntryType.ADJUSTMENT_OUT,
+                                Math.abs(change), null, 0);
+                        }
+                    }
+                }
+            } finally {
+                accounts.unlock(accountNumber);
+            }
+        }
+    }
+
+    // Caller holds the accounts' stripes, which keeps their versions in order.
+    // Returns the repository's ticket for the change, 0 without a repository.
+    private long persist(BankAccount... changed) {
+        AccountRepository repo = repository;
+        if (repo == null) {
+            return 0;
+        }
+        for (BankAccount acc : changed) {
+            acc.setVersion(acc.getVersion() + 1);
+        }
+        return repo.update(changed);
+    }
+
+    private long lastTicket() {
+        AccountRepository repo = repository;
+        return repo != null ? repo.lastTicket() : 0;
+    }
+
+    public long checkBalance(String accountNumber, String pin)
             throws AccountNotFoundException, UnauthorizedAccessException {
-        if (amount < 0) {
-            throw new IllegalArgumentException("Deposit amount cannot be negative");
+        OperationResult result = new OperationResult();
+        tryCheckBalance(accountNumber, pin, result);
+        throwIfDenied(result);
+        return result.getBalance();
+    }
+
+    public void withdraw(String accountNumber, String pin, long amount)
+            throws AccountNotFoundException, UnauthorizedAccessException, InsufficientBalanceException {
+        OperationResult result = new OperationResult();
+        tryWithdraw(accountNumber, pin, amount, result);
+        throwIfFailed(result);
+    }
+
+    public void deposit(String accountNumber, String pin, long amount)
+            throws AccountNotFoundException, UnauthorizedAccessException {
+        OperationResult result = new OperationResult();
+        tryDeposit(accountNumber, pin, amount, result);
+        if (result.getStatus() == OperationStatus.INVALID_AMOUNT) {
+            throw new IllegalArgumentException(result.getMessage());
         }
-        BankAccount acc = validate(accountNumber, pin);
-        acc.setBalance(acc.getBalance() + amount);
+        throwIfDenied(result);
     }
 
-    public void transfer(String fromAccount, String pin, String toAccount, double amount)
+    public void transfer(String fromAccount, String pin, String toAccount, long amount)
             throws AccountNotFoundException, UnauthorizedAccessException, InsufficientBalanceException {
-        BankAccount from = validate(fromAccount, pin);
-        BankAccount to = accounts.get(toAccount);
+        OperationResult result = new OperationResult();
+        tryTransfer(fromAccount, pin, toAccount, amount, result);
+        throwIfFailed(result);
+    }
+
+    public BankAccount getAccountDetails(String accountNumber, String pin)
+            throws AccountNotFoundException, UnauthorizedAccessException {
+        OperationResult result = new OperationResult();
+        tryGetAccountDetails(accountNumber, pin, result);
+        throwIfDenied(result);
+        return result.getAccount();
+    }
+
+    // Session variants: the PIN is checked once by openSession, and the
+    // returned token authorises operations on that account until it expires.
+
+    public String openSession(String accountNumber, String pin)
+            throws AccountNotFoundException, UnauthorizedAccessException {
+        OperationResult result = new OperationResult();
+        String token = tryOpenSession(accountNumber, pin, result);
+        throwIfDenied(result);
+        return token;
+    }
+
+    public void closeSession(String token) {
+        sessions.close(token);
+    }
+
+    public long checkBalance(String token) throws UnauthorizedAccessException {
+        OperationResult result = new OperationResult();
+        tryCheckBalance(token, result);
+        if (result.getStatus() == OperationStatus.SESSION_EXPIRED) {
+            throw new UnauthorizedAccessException(result.getMessage());
+        }
+        return result.getBalance();
+    }
+
+    /** Returns the balance after the withdrawal. */
+    public long withdraw(String token, long amount)
+            throws AccountNotFoundException, UnauthorizedAccessException, InsufficientBalanceException {
+        return withdraw(token, amount, null);
+    }
+
+    /**
+     * Withdraws at most once per {@code idempotencyKey}: a retry with the same
+     * key and arguments gets the original outcome back instead of withdrawing
+     * again. A null key disables the check.
+     */
+    public long withdraw(String token, long amount, String idempotencyKey)
+            throws AccountNotFoundException, UnauthorizedAccessException, InsufficientBalanceException {
+        OperationResult result = new OperationResult();
+        tryWithdraw(token, amount, idempotencyKey, result);
+        throwIfFailed(result);
+        return result.getBalance();
+    }
+
+    /** Returns the balance after the deposit. */
+    public long deposit(String token, long amount)
+            throws AccountNotFoundException, UnauthorizedAccessException {
+        return deposit(token, amount, null);
+    }
+
+    /** Deposits at most once per {@code idempotencyKey}, like {@link #withdraw(String, long, String)}. */
+    public long deposit(String token, long amount, String idempotencyKey)
+            throws AccountNotFoundException, UnauthorizedAccessException {
+        OperationResult result = new OperationResult();
+        tryDeposit(token, amount, idempotencyKey, result);
+        if (result.getStatus() == OperationStatus.INVALID_AMOUNT
+                || result.getStatus() == OperationStatus.IDEMPOTENCY_CONFLICT) {
+            throw new IllegalArgumentException(result.getMessage());
+        }
+        throwIfDenied(result);
+        return result.getBalance();
+    }
+
+    /** Returns the source balance after the transfer. */
+    public long transfer(String token, String toAccount, long amount)
+            throws AccountNotFoundException, UnauthorizedAccessException, InsufficientBalanceException {
+        return transfer(token, toAccount, amount, null);
+    }
+
+    /** Transfers at most once per {@code idempotencyKey}, like {@link #withdraw(String, long, String)}. */
+    public long transfer(String token, String toAccount, long amount, String idempotencyKey)
+            throws AccountNotFoundException, UnauthorizedAccessException, InsufficientBalanceException {
+        OperationResult result = new OperationResult();
+        tryTransfer(token, toAccount, amount, idempotencyKey, result);
+        throwIfFailed(result);
+        return result.getBalance();
+    }
+
+    public BankAccount getAccountDetails(String token) throws UnauthorizedAccessException {
+        OperationResult result = new OperationResult();
+        tryGetAccountDetails(token, result);
+        if (result.getStatus() == OperationStatus.SESSION_EXPIRED) {
+            throw new UnauthorizedAccessException(result.getMessage());
+        }
+        return result.getAccount();
+    }
+
+    /**
+     * Returns a page of the session account's statement, newest entry first,
+     * limited to entries between {@code fromMillis} and {@code toMillis}.
+     * Start with {@link StatementPage#FIRST} and pass each page's next cursor
+     * to get the following one.
+     */
+    public StatementPage getStatement(String token, long fromMillis, long toMillis, long cursor, int limit)
+            throws UnauthorizedAccessException {
+        TransactionHistory log = history;
+        if (log == null) {
+            throw new IllegalStateException("Transaction history is not enabled");
+        }
+        long started = System.nanoTime();
+        OperationResult result = new OperationResult();
+        StatementPage page = null;
+        BankAccount acc = resolve(token, result);
+        if (acc != null) {
+            page = log.statement(acc.getAccountNumber(), fromMillis, toMillis, cursor, limit);
+            result.ok(acc.getAccountNumber(), acc.getBalance());
+        }
+        finish(Operation.STATEMENT, accountOf(acc), null, 0, result, started);
+        if (page == null) {
+            throw new UnauthorizedAccessException(result.getMessage());
+        }
+        return page;
+    }
+
+    /**
+     * Returns the balances of {@code accountNumbers}, in the same order, as
+     * of one point in time: a transfer between two of them is seen either
+     * completely or not at all. Meant for reporting; the read is optimistic
+     * and does not hold up writers unless they keep interfering with it.
+     */
+    public long[] getBalances(List<String> accountNumbers) throws AccountNotFoundException {
+        if (ledger != null) {
+            throw new IllegalStateException("Consistent reads validate against the stripe locks, which SHARDED mode does not take");
+        }
+        long started = System.nanoTime();
+        OperationResult result = new OperationResult();
+        BankAccount[] refs = new BankAccount[accountNumbers.size()];
+        for (int i = 0; i < refs.length; i++) {
+            String accountNumber = accountNumbers.get(i);
+            refs[i] = accounts.get(accountNumber);
+            if (refs[i] == null) {
+                result.notFound(accountNumber, false);
+                finish(Operation.BALANCE_REPORT, null, null, 0, result, started);
+                throw new AccountNotFoundException(result.getMessage());
+            }
+        }
+        long[] balances = new long[refs.length];
+        accounts.readBalances(refs, balances);
+        result.ok(null, 0);
+        finish(Operation.BALANCE_REPORT, null, null, 0, result, started);
+        return balances;
+    }
+
+    // Result-code variants: business failures are reported through the
+    // returned status and the caller-supplied result instead of exceptions.
+    // Each one ends in finish(), which records its latency and outcome.
+    // The money-moving ones take an optional idempotency key, checked after
+    // authentication; a malformed key is an IllegalArgumentException.
+
+    /** Returns the new session token, or null with the failure in {@code result}. */
+    public String tryOpenSession(String accountNumber, String pin, OperationResult result) {
+        long started = System.nanoTime();
+        String token = null;
+        BankAccount acc = authenticate(accountNumber, pin, result);
+        if (acc != null) {
+            result.ok(accountNumber, acc.getBalance());
+            token = sessions.open(acc).getToken();
+        }
+        finish(Operation.OPEN_SESSION, accountNumber, null, 0, result, started);
+        return token;
+    }
+
+    public OperationStatus tryCheckBalance(String accountNumber, String pin, OperationResult result) {
+        long started = System.nanoTime();
+        BankAccount acc = authenticate(accountNumber, pin, result);
+        if (acc != null) {
+            result.ok(accountNumber, acc.getBalance());
+        }
+        return finish(Operation.BALANCE, accountNumber, null, 0, result, started);
+    }
+
+    public OperationStatus tryCheckBalance(String token, OperationResult result) {
+        long started = System.nanoTime();
+        BankAccount acc = resolve(token, result);
+        if (acc != null) {
+            result.ok(acc.getAccountNumber(), acc.getBalance());
+        }
+        return finish(Operation.BALANCE, accountOf(acc), null, 0, result, started);
+    }
+
+    public OperationStatus tryWithdraw(String accountNumber, String pin, long amount, OperationResult result) {
+        return tryWithdraw(accountNumber, pin, amount, null, result);
+    }
+
+    public OperationStatus tryWithdraw(String accountNumber, String pin, long amount, String idempotencyKey,
+                                   OperationResult result) {
+        long started = System.nanoTime();
+        checkKey(idempotencyKey);
+        if (amount < 0) {
+            result.invalidAmount(accountNumber, "Withdrawal amount cannot be negative");
+        } else {
+            BankAccount acc = authenticate(accountNumber, pin, result);
+            if (acc != null) {
+                runOnce(Operation.WITHDRAW, acc, null, amount, idempotencyKey, result);
+            }
+        }
+        return finish(Operation.WITHDRAW, accountNumber, null, amount, result, started);
+    }
+
+    public OperationStatus tryWithdraw(String token, long amount, OperationResult result) {
+        return tryWithdraw(token, amount, null, result);
+    }
+
+    public OperationStatus tryWithdraw(String token, long amount, String idempotencyKey, OperationResult result) {
+        long started = System.nanoTime();
+        checkKey(idempotencyKey);
+        BankAccount acc = resolve(token, result);
+        if (acc != null) {
+            if (amount < 0) {
+                result.invalidAmount(acc.getAccountNumber(), "Withdrawal amount cannot be negative");
+            } else {
+                runOnce(Operation.WITHDRAW, acc, null, amount, idempotencyKey, result);
+            }
+        }
+        return finish(Operation.WITHDRAW, accountOf(acc), null, amount, result, started);
+    }
+
+    public OperationStatus tryDeposit(String accountNumber, String pin, long amount, OperationResult result) {
+        return tryDeposit(accountNumber, pin, amount, null, result);
+    }
+
+    public OperationStatus tryDeposit(String accountNumber, String pin, long amount, String idempotencyKey,
+                                   OperationResult result) {
+        long started = System.nanoTime();
+        checkKey(idempotencyKey);
+        if (amount < 0) {
+            result.invalidAmount(accountNumber, "Deposit amount cannot be negative");
+        } else {
+            BankAccount acc = authenticate(accountNumber, pin, result);
+            if (acc != null) {
+                runOnce(Operation.DEPOSIT, acc, null, amount, idempotencyKey, result);
+            }
+        }
+        return finish(Operation.DEPOSIT, accountNumber, null, amount, result, started);
+    }
+
+    public OperationStatus tryDeposit(String token, long amount, OperationResult result) {
+        return tryDeposit(token, amount, null, result);
+    }
+
+    public OperationStatus tryDeposit(String token, long amount, String idempotencyKey, OperationResult result) {
+        long started = System.nanoTime();
+        checkKey(idempotencyKey);
+        BankAccount acc = resolve(token, result);
+        if (acc != null) {
+            if (amount < 0) {
+                result.invalidAmount(acc.getAccountNumber(), "Deposit amount cannot be negative");
+            } else {
+                runOnce(Operation.DEPOSIT, acc, null, amount, idempotencyKey, result);
+            }
+        }
+        return finish(Operation.DEPOSIT, accountOf(acc), null, amount, result, started);
+    }
+
+    public OperationStatus tryTransfer(String fromAccount, String pin, String toAccount, long amount,
+                                       OperationResult result) {
+        return tryTransfer(fromAccount, pin, toAccount, amount, null, result);
+    }
+
+    public OperationStatus tryTransfer(String fromAccount, String pin, String toAccount, long amount,
+                                       String idempotencyKey, OperationResult result) {
+        long started = System.nanoTime();
+        checkKey(idempotencyKey);
+        if (amount < 0) {
+            result.invalidAmount(fromAccount, "Transfer amount cannot be negative");
+        } else {
+            BankAccount from = authenticate(fromAccount, pin, result);
+            if (from != null) {
+                runOnce(Operation.TRANSFER, from, toAccount, amount, idempotencyKey, result);
+            }
+        }
+        return finish(Operation.TRANSFER, fromAccount, toAccount, amount, result, started);
+    }
+
+    public OperationStatus tryTransfer(String token, String toAccount, long amount, OperationResult result) {
+        return tryTransfer(token, toAccount, amount, null, result);
+    }
+
+    public OperationStatus tryTransfer(String token, String toAccount, long amount, String idempotencyKey,
+                                       OperationResult result) {
+        long started = System.nanoTime();
+        checkKey(idempotencyKey);
+        BankAccount from = resolve(token, result);
+        if (from != null) {
+            if (amount < 0) {
+                result.invalidAmount(from.getAccountNumber(), "Transfer amount cannot be negative");
+            } else {
+                runOnce(Operation.TRANSFER, from, toAccount, amount, idempotencyKey, result);
+            }
+        }
+        return finish(Operation.TRANSFER, accountOf(from), toAccount, amount, result, started);
+    }
+
+    public OperationStatus tryGetAccountDetails(String accountNumber, String pin, OperationResult result) {
+        long started = System.nanoTime();
+        BankAccount acc = authenticate(accountNumber, pin, result);
+        if (acc != null) {
+            result.ok(acc);
+        }
+        return finish(Operation.DETAILS, accountNumber, null, 0, result, started);
+    }
+
+    public OperationStatus tryGetAccountDetails(String token, OperationResult result) {
+        long started = System.nanoTime();
+        BankAccount acc = resolve(token, result);
+        if (acc != null) {
+            result.ok(acc);
+        }
+        return finish(Operation.DETAILS, accountOf(acc), null, 0, result, started);
+    }
 
+    private static String accountOf(BankAccount acc) {
+        return acc != null ? acc.getAccountNumber() : null;
+    }
+
+    // Metrics first, then the audit record (when auditing is on).
+    private OperationStatus finish(Operation op, String account, String counterparty, long amount,
+                                   OperationResult result, long started) {
+        metrics.record(op, result.getStatus(), System.nanoTime() - started);
+        AuditLog log = audit;
+        if (log != null) {
+            log.record(op, account, counterparty, amount, result.getStatus(), result.getBalance());
+        }
+        return result.getStatus();
+    }
+
+    private static void checkKey(String idempotencyKey) {
+        if (idempotencyKey != null) {
+            IdempotencyCache.validate(idempotencyKey);
+        }
+    }
+
+    // The helpers below run for an already authenticated account.
+
+    /**
+     * Runs a withdrawal, deposit or transfer unless its idempotency key has
+     * been seen, in which case the first outcome is copied into the result.
+     * Every outcome is kept, failures included, and refusals are journalled
+     * like changes, so a retry never turns an earlier refusal into a
+     * success, before or after a restart.
+     */
+    private void runOnce(Operation op, BankAccount acc, String counterparty, long amount, String key,
+                         OperationResult result) {
+        if (key == null) {
+            run(op, acc, counterparty, amount, null, result);
+            return;
+        }
+        String accountNumber = acc.getAccountNumber();
+        while (true) {
+            IdempotencyCache.Entry entry = idempotency.get(key);
+            if (entry == null) {
+                entry = idempotency.claim(key, op, accountNumber, counterparty, amount);
+                if (entry == null) {
+                    continue;
+                }
+                boolean ran = false;
+                try {
+                    run(op, acc, counterparty, amount, key, result);
+                    if (journal != null && !result.isSuccess()) {
+                        journalRefusal(op, accountNumber, counterparty, amount, key, result);
+                    }
+                    ran = true;
+                } finally {
+                    // a conflict changed nothing, so a retry under the key runs again
+                    if (ran && result.getStatus() != OperationStatus.VERSION_CONFLICT) {
+                        idempotency.complete(entry, result);
+                    } else {
+                        idempotency.abandon(entry);
+                    }
+                }
+                return;
+            }
+            if (!entry.matches(op, accountNumber, counterparty, amount)) {
+                result.idempotencyConflict(key);
+                return;
+            }
+            if (entry.await(result)) {
+                return;
+            }
+        }
+    }
+
+    // Repository failures become statuses here, so that they are counted
+    // and audited like any other outcome.
+    private void run(Operation op, BankAccount acc, String counterparty, long amount, String key,
+                     OperationResult result) {
+        try {
+            if (op == Operation.WITHDRAW) {
+                withdrawFrom(acc, amount, key, result);
+            } else if (op == Operation.DEPOSIT) {
+                depositTo(acc, amount, key, result);
+            } else {
+                transferFrom(acc, counterparty, amount, key, result);
+            }
+        } catch (VersionConflictException e) {
+            result.versionConflict(acc.getAccountNumber(), e.getMessage());
+        } catch (RepositoryException e) {
+            result.storeUnavailable(acc.getAccountNumber(), e.getMessage());
+        }
+    }
+
+    private OperationStatus withdrawFrom(BankAccount acc, long amount, String key, OperationResult result) {
+        String accountNumber = acc.getAccountNumber();
+        if (ledger != null) {
+            return ledger.execute(ShardedLedger.WITHDRAW, accountNumber, null, amount, key, result);
+        }
+        long sequence = 0;
+        long ticket;
+        long updated;
+        accounts.lock(accountNumber);
+        try {
+            if (amount > acc.getBalance()) {
+                return result.insufficient(accountNumber, Money.subtract(amount, acc.getBalance()), "Insufficient funds");
+            }
+            updated = Money.subtract(acc.getBalance(), amount);
+            if (journal != null) {
+                sequence = journal.appendWithdraw(accountNumber, amount, key);
+                acc.setLastSequence(sequence);
+            }
+            acc.setBalance(updated);
+            ticket = persist(acc);
+            record(acc, EntryType.WITHDRAWAL, amount, null, sequence);
+        } finally {
+            accounts.unlock(accountNumber);
+        }
+        commit(sequence, ticket, ticket);
+        return result.ok(accountNumber, updated);
+    }
+
+    private OperationStatus depositTo(BankAccount acc, long amount, String key, OperationResult result) {
+        String accountNumber = acc.getAccountNumber();
+        if (ledger != null) {
+            return ledger.execute(ShardedLedger.DEPOSIT, accountNumber, null, amount, key, result);
+        }
+        long sequence = 0;
+        long ticket;
+        long updated;
+        accounts.lock(accountNumber);
+        try {
+            updated = Money.add(acc.getBalance(), amount);
+            if (journal != null) {
+                sequence = journal.appendDeposit(accountNumber, amount, key);
+                acc.setLastSequence(sequence);
+            }
+            acc.setBalance(updated);
+            ticket = persist(acc);
+            record(acc, EntryType.DEPOSIT, amount, null, sequence);
+        } finally {
+            accounts.unlock(accountNumber);
+        }
+        commit(sequence, ticket, ticket);
+        return result.ok(accountNumber, updated);
+    }
+
+    private OperationStatus transferFrom(BankAccount from, String toAccount, long amount, String key,
+                                         OperationResult result) {
+        String fromAccount = from.getAccountNumber();
+        if (ledger != null) {
+            return ledger.execute(ShardedLedger.TRANSFER, fromAccount, toAccount, amount, key, result);
+        }
+        BankAccount to = accounts.get(toAccount);
         if (to == null) {
-            throw new AccountNotFoundException("Destination account " + toAccount + " not found.");
+            return result.notFound(toAccount, true);
         }
 
+        long sequence;
+        long ticket;
+        long updated;
+        accounts.lockPair(fromAccount, toAccount);
+        try {
+            ticket = transferLocked(from, to, amount, key);
+            if (ticket < 0) {
+                return result.insufficient(fromAccount, Money.subtract(amount, from.getBalance()),
+                    "Insufficient funds for transfer");
+            }
+            sequence = from.getLastSequence();
+            updated = from.getBalance();
+        } finally {
+            accounts.unlockPair(fromAccount, toAccount);
+        }
+        commit(sequence, ticket, ticket);
+        return result.ok(fromAccount, updated);
+    }
+
+    // Caller holds the stripes of both accounts. Returns the repository's
+    // ticket for the change, 0 without a repository, or -1 if the source
+    // cannot cover the amount.
+    private long transferLocked(BankAccount from, BankAccount to, long amount, String key) {
         if (amount > from.getBalance()) {
-            throw new InsufficientBalanceException("Insufficient funds for transfer", amount - from.getBalance());
+            return -1;
+        }
+        // a table may hand out a new object per lookup, so compare numbers
+        boolean self = from.getAccountNumber().equals(to.getAccountNumber());
+        long debited = Money.subtract(from.getBalance(), amount);
+        long credited = Money.add(self ? debited : to.getBalance(), amount);
+        long sequence = 0;
+        if (journal != null) {
+            sequence = journal.appendTransfer(from.getAccountNumber(), to.getAccountNumber(), amount, key);
+            from.setLastSequence(sequence);
+            to.setLastSequence(sequence);
         }
+        from.setBalance(debited);
+        record(from, EntryType.TRANSFER_OUT, amount, to.getAccountNumber(), sequence);
+        to.setBalance(credited);
+        long ticket = self ? persist(from) : persist(from, to);
+        record(to, EntryType.TRANSFER_IN, amount, from.getAccountNumber(), sequence);
+        return ticket;
+    }
 
-        from.setBalance(from.getBalance() - amount);
-        to.setBalance(to.getBalance() + amount);
+    // Caller holds the account's stripe, which keeps its entries in order.
+    private void record(BankAccount acc, EntryType type, long amount, String counterparty, long sequence) {
+        TransactionHistory log = history;
+        if (log != null) {
+            log.record(acc.getAccountNumber(), type, amount, acc.getBalance(), counterparty, sequence);
+        }
     }
-    
 
-    public BankAccount getAccountDetails(String accountNumber, String pin)
-            throws AccountNotFoundException, UnauthorizedAccessException {
-        return validate(accountNumber, pin);
+    // Participant side of a two-phase transfer between accounts held by
+    // different services, driven by cluster.PartitionRouter. The source is
+    // debited when it prepares, so the funds cannot be spent twice; the
+    // destination is credited only on commit. Every step is journalled
+    // before it is acknowledged, and transfers still prepared when a
+    // checkpoint runs go into the snapshot, so a restarted node still holds
+    // them. The newest decisions are remembered, up to MAX_DECIDED, which
+    // lets the coordinator retry a commit or abort whose reply it lost.
+
+    private static final int PREPARED = 0;
+    private static final int COMMITTED = 1;
+    private static final int ABORTED = 2;
+    private static final int MAX_DECIDED = 1 << 20;
+
+    // The state fields are guarded by the instance's monitor, which a step
+    // holds from its journal record until its effect is applied.
+    private static final class PreparedTransfer {
+        final String id;
+        final String account;
+        final String counterparty;
+        final long amount;
+        final boolean outgoing;
+        int state = PREPARED;
+        long preparedSequence;
+        long decidedSequence;
+        // repository ticket of the latest step that changed the account
+        long ticket;
+
+        PreparedTransfer(String id, String account, String counterparty, long amount, boolean outgoing) {
+            this.id = id;
+            this.account = account;
+            this.counterparty = counterparty;
+            this.amount = amount;
+            this.outgoing = outgoing;
+        }
+    }
+
+    /**
+     * Authenticates the source of transfer {@code transferId} and debits it,
+     * holding the amount until {@link #commitTransfer} or
+     * {@link #abortTransfer}. Fails with the same statuses as a transfer.
+     *
+     * @throws IllegalStateException if the id has been prepared or aborted before
+     */
+    public OperationStatus tryPrepareTransferOut(String transferId, String fromAccount, String pin, String toAccount,
+                                                 long amount, OperationResult result) {
+        requireLocking();
+        long started = System.nanoTime();
+        if (amount < 0) {
+            result.invalidAmount(fromAccount, "Transfer amount cannot be negative");
+        } else if (authenticate(fromAccount, pin, result) != null) {
+            PreparedTransfer transfer = new PreparedTransfer(transferId, fromAccount, toAccount, amount, true);
+            synchronized (transfer) {
+                prepare(transferId, transfer, -amount, result);
+            }
+        }
+        return finish(Operation.TRANSFER, fromAccount, toAccount, amount, result, started);
+    }
+
+    /**
+     * Checks that the destination of transfer {@code transferId} exists and
+     * remembers the credit to apply on {@link #commitTransfer}.
+     *
+     * @throws IllegalStateException if the id has been prepared or aborted before
+     */
+    public OperationStatus tryPrepareTransferIn(String transferId, String toAccount, String fromAccount, long amount,
+                                                OperationResult result) {
+        requireLocking();
+        long started = System.nanoTime();
+        BankAccount to = accounts.get(toAccount);
+        if (to == null) {
+            result.notFound(toAccount, true);
+        } else {
+            result.ok(toAccount, to.getBalance());
+            PreparedTransfer transfer = new PreparedTransfer(transferId, toAccount, fromAccount, amount, false);
+            synchronized (transfer) {
+                prepare(transferId, transfer, 0, result);
+            }
+        }
+        return finish(Operation.PREPARE_TRANSFER_IN, toAccount, fromAccount, amount, result, started);
+    }
+
+    /**
+     * Completes a prepared transfer leg, crediting a destination. Committing
+     * a transfer again is acknowledged without effect, so a commit may be
+     * retried.
+     *
+     * @throws IllegalStateException if the transfer was aborted or is not known here
+     */
+    public void commitTransfer(String transferId) {
+        requireLocking();
+        PreparedTransfer transfer = twoPhase.get(transferId);
+        if (transfer == null) {
+            throw new IllegalStateException("Transfer " + transferId + " is not prepared here");
+        }
+        synchronized (transfer) {
+            if (transfer.state == ABORTED) {
+                throw new IllegalStateException("Transfer " + transferId + " was aborted");
+            }
+            if (transfer.state == PREPARED) {
+                decide(transferId, transfer, COMMITTED, transfer.outgoing ? 0 : transfer.amount);
+            } else {
+                commit(transfer.decidedSequence, transfer.ticket, transfer.ticket);
+            }
+        }
+    }
+
+    /**
+     * Undoes a prepared transfer leg. A debited source is credited back,
+     * which shows on its statement as an incoming transfer. An id that was
+     * never prepared is remembered as aborted, so a prepare that arrives
+     * late is refused; aborting again is acknowledged without effect.
+     *
+     * @throws IllegalStateException if the transfer was committed
+     */
+    public void abortTransfer(String transferId) {
+        requireLocking();
+        PreparedTransfer transfer = twoPhase.get(transferId);
+        if (transfer == null) {
+            PreparedTransfer unknown = new PreparedTransfer(transferId, "", "", 0, false);
+            synchronized (unknown) {
+                transfer = twoPhase.putIfAbsent(transferId, unknown);
+                if (transfer == null) {
+                    decide(transferId, unknown, ABORTED, 0);
+                    return;
+                }
+            }
+        }
+        synchronized (transfer) {
+            if (transfer.state == COMMITTED) {
+                throw new IllegalStateException("Transfer " + transferId + " was committed");
+            }
+            if (transfer.state == PREPARED) {
+                decide(transferId, transfer, ABORTED, transfer.outgoing ? transfer.amount : 0);
+            } else {
+                commit(transfer.decidedSequence, transfer.ticket, transfer.ticket);
+            }
+        }
+    }
+
+    // Caller holds the transfer's monitor, so a decision that arrives while
+    // the prepare is still running waits for it. A prepare that is refused
+    // or fails, or whose debit the repository dropped, leaves nothing
+    // behind. One whose debit is applied but not yet stored stays prepared
+    // for the coordinator to abort.
+    private void prepare(String transferId, PreparedTransfer transfer, long change, OperationResult result) {
+        if (twoPhase.putIfAbsent(transferId, transfer) != null) {
+            throw new IllegalStateException("Transfer " + transferId + " is already known here");
+        }
+        long sequence = -1;
+        try {
+            sequence = applyStep(transfer.outgoing ? TransactionJournal.PREPARE_OUT : TransactionJournal.PREPARE_IN,
+                transferId, transfer, change, result);
+        } finally {
+            if (sequence < 0) {
+                transfer.state = ABORTED;
+                twoPhase.remove(transferId, transfer);
+            }
+        }
+        if (sequence >= 0) {
+            transfer.preparedSequence = sequence;
+            try {
+                commit(sequence, transfer.ticket, transfer.ticket);
+            } catch (VersionConflictException e) {
+                transfer.state = ABORTED;
+                twoPhase.remove(transferId, transfer);
+                result.versionConflict(transfer.account, e.getMessage());
+            } catch (RepositoryException e) {
+                result.storeUnavailable(transfer.account, e.getMessage());
+            }
+        }
+    }
+
+    // Caller holds the transfer's monitor. The state changes before the
+    // record is made durable, so a failed commit cannot apply the credit
+    // twice when the decision is retried.
+    private void decide(String transferId, PreparedTransfer transfer, int state, long credit) {
+        byte type = state == COMMITTED ? TransactionJournal.COMMIT : TransactionJournal.ABORT;
+        long sequence = applyStep(type, transferId, transfer, credit, new OperationResult());
+        transfer.state = state;
+        transfer.decidedSequence = sequence;
+        remember(transfer);
+        commit(sequence, transfer.ticket, transfer.ticket);
+    }
+
+    // Decided transfers are forgotten oldest first once MAX_DECIDED newer
+    // ones have been decided.
+    private void remember(PreparedTransfer transfer) {
+        PreparedTransfer evicted = decided.getAndSet((int) (decisions.getAndIncrement() & (MAX_DECIDED - 1)), transfer);
+        if (evicted != null) {
+            twoPhase.remove(evicted.id, evicted);
+        }
+    }
+
+    // Journals one step of a two-phase transfer and applies its signed
+    // change to the transfer's account. Returns the record's sequence, 0
+    // without a journal, or -1 with the refusal in result if a debit does
+    // not fit. The caller makes the record durable.
+    private long applyStep(byte type, String transferId, PreparedTransfer transfer, long change,
+                           OperationResult result) {
+        long recorded = type == TransactionJournal.PREPARE_IN ? transfer.amount : Math.abs(change);
+        if (change == 0) {
+            return journal != null
+                ? journal.append(type, transfer.account, transfer.counterparty, recorded, null, transferId) : 0;
+        }
+        String accountNumber = transfer.account;
+        BankAccount acc = accounts.get(accountNumber);
+        long sequence = 0;
+        accounts.lock(accountNumber);
+        try {
+            if (change < 0 && recorded > acc.getBalance()) {
+                result.insufficient(accountNumber, Money.subtract(recorded, acc.getBalance()),
+                    "Insufficient funds for transfer");
+                return -1;
+            }
+            long updated = Money.add(acc.getBalance(), change);
+            if (journal != null) {
+                sequence = journal.append(type, accountNumber, transfer.counterparty, recorded, null, transferId);
+                acc.setLastSequence(sequence);
+            }
+            acc.setBalance(updated);
+            transfer.ticket = persist(acc);
+            record(acc, change < 0 ? EntryType.TRANSFER_OUT : EntryType.TRANSFER_IN, recorded, transfer.counterparty,
+                sequence);
+            result.ok(accountNumber, updated);
+        } finally {
+            accounts.unlock(accountNumber);
+        }
+        return sequence;
+    }
+
+    // Replays one step of a two-phase transfer. The balance change is
+    // skipped if the account has seen the record; the transfer's state is
+    // always brought up to date.
+    private void replayStep(long sequence, byte type, String account, String counterparty, long amount,
+                            String transferId) {
+        long change = type == TransactionJournal.PREPARE_OUT ? -amount : type == TransactionJournal.PREPARE_IN ? 0 : amount;
+        if (change != 0) {
+            BankAccount acc = accounts.get(account);
+            if (acc != null && sequence > acc.getLastSequence()) {
+                acc.setBalance(Money.add(acc.getBalance(), change));
+                acc.setLastSequence(sequence);
+            }
+        }
+        if (type == TransactionJournal.PREPARE_OUT || type == TransactionJournal.PREPARE_IN) {
+            PreparedTransfer transfer = new PreparedTransfer(transferId, account, counterparty, amount,
+                type == TransactionJournal.PREPARE_OUT);
+            transfer.preparedSequence = sequence;
+            twoPhase.put(transferId, transfer);
+            return;
+        }
+        PreparedTransfer transfer = twoPhase.computeIfAbsent(transferId,
+            id -> new PreparedTransfer(id, account, counterparty, 0, false));
+        synchronized (transfer) {
+            transfer.state = type == TransactionJournal.COMMIT ? COMMITTED : ABORTED;
+            transfer.decidedSequence = sequence;
+        }
+        remember(transfer);
+    }
+
+    // Transfers as they stood at startSequence: steps journalled after it
+    // are replayed from the journal on top of the snapshot.
+    private void saveTransfers(DataOutput out, long startSequence) throws IOException {
+        List<PreparedTransfer> transfers = new ArrayList<>();
+        List<Integer> states = new ArrayList<>();
+        for (PreparedTransfer transfer : twoPhase.values()) {
+            synchronized (transfer) {
+                if (transfer.preparedSequence >= startSequence) {
+                    continue;
+                }
+                transfers.add(transfer);
+                states.add(transfer.state != PREPARED && transfer.decidedSequence < startSequence
+                    ? transfer.state : PREPARED);
+            }
+        }
+        out.writeInt(transfers.size());
+        for (int i = 0; i < transfers.size(); i++) {
+            PreparedTransfer transfer = transfers.get(i);
+            out.writeUTF(transfer.id);
+            out.writeUTF(transfer.account);
+            out.writeUTF(transfer.counterparty);
+            out.writeLong(transfer.amount);
+            out.writeBoolean(transfer.outgoing);
+            out.writeByte(states.get(i));
+        }
+    }
+
+    private void loadTransfers(DataInput in) throws IOException {
+        for (int i = in.readInt(); i > 0; i--) {
+            PreparedTransfer transfer = new PreparedTransfer(in.readUTF(), in.readUTF(), in.readUTF(), in.readLong(),
+                in.readBoolean());
+            transfer.state = in.readByte();
+            twoPhase.put(transfer.id, transfer);
+            if (transfer.state != PREPARED) {
+                remember(transfer);
+            }
+        }
+    }
+
+    private void requireLocking() {
+        if (ledger != null) {
+            throw new IllegalStateException("This update takes the accounts' stripe locks, which SHARDED mode does not use");
+        }
+    }
+
+    public BatchResult transferBatch(Stream<TransferInstruction> instructions) {
+        return transferBatch(instructions.collect(Collectors.toList()));
+    }
+
+    public BatchResult transferBatch(List<TransferInstruction> instructions) {
+        return transferBatch(instructions, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Executes many transfers and reports a status per instruction instead of
+     * throwing. Instructions are grouped by the lock stripe of their source
+     * account; groups run in parallel on {@code pool}, and instructions within
+     * a group keep their submitted order. The journal is committed once for
+     * the whole batch.
+     *
+     * @throws VersionConflictException if the repository could not store a
+     *         batch holding some of these transfers; the accounts concerned
+     *         are read back from it
+     */
+    public BatchResult transferBatch(List<TransferInstruction> instructions, ForkJoinPool pool) {
+        long started = System.nanoTime();
+        long firstTicket = lastTicket() + 1;
+        int n = instructions.size();
+        OperationStatus[] statuses = new OperationStatus[n];
+
+        if (ledger != null) {
+            // shards already serialise per account; just feed them in order
+            OperationResult result = new OperationResult();
+            for (int i = 0; i < n; i++) {
+                TransferInstruction t = instructions.get(i);
+                statuses[i] = tryTransfer(t.getFromAccount(), t.getPin(), t.getToAccount(), t.getAmount(), result);
+            }
+            return new BatchResult(statuses, System.nanoTime() - started);
+        }
+        if (pool.getParallelism() <= 1 || n <= TransferGroupTask.SEQUENTIAL_THRESHOLD) {
+            // grouping only pays off when groups actually run in parallel
+            int[] order = new int[n];
+            for (int i = 0; i < n; i++) {
+                order[i] = i;
+            }
+            transferGroup(instructions, order, 0, n, statuses);
+        } else {
+            transferGrouped(instructions, pool, statuses);
+        }
+        commit(journal != null ? journal.nextSequence() - 1 : 0, firstTicket, lastTicket());
+        return new BatchResult(statuses, System.nanoTime() - started);
+    }
+
+    private void transferGrouped(List<TransferInstruction> instructions, ForkJoinPool pool,
+                                 OperationStatus[] statuses) {
+        int n = instructions.size();
+        // counting sort of instruction indexes by source stripe
+        int[] stripeOf = new int[n];
+        int[] starts = new int[accounts.stripeCount() + 1];
+        for (int i = 0; i < n; i++) {
+            stripeOf[i] = accounts.stripeOf(instructions.get(i).getFromAccount());
+            starts[stripeOf[i] + 1]++;
+        }
+        int groups = 0;
+        for (int s = 1; s < starts.length; s++) {
+            if (starts[s] > 0) {
+                groups++;
+            }
+            starts[s] += starts[s - 1];
+        }
+        int[] order = new int[n];
+        int[] fill = starts.clone();
+        for (int i = 0; i < n; i++) {
+            order[fill[stripeOf[i]]++] = i;
+        }
+        int[] bounds = new int[groups + 1];
+        int g = 0;
+        for (int s = 1; s < starts.length; s++) {
+            if (starts[s] > starts[s - 1]) {
+                bounds[++g] = starts[s];
+            }
+        }
+        pool.invoke(new TransferGroupTask(instructions, order, bounds, 0, groups, statuses));
+    }
+
+    private void transferGroup(List<TransferInstruction> instructions, int[] order, int start, int end,
+                               OperationStatus[] statuses) {
+        String cachedAccount = null;
+        String cachedPin = null;
+        BankAccount source = null;
+        OperationStatus sourceStatus = null;
+        OperationResult check = new OperationResult();
+        AuditLog log = audit;
+        for (int k = start; k < end; k++) {
+            int i = order[k];
+            TransferInstruction t = instructions.get(i);
+            if (!t.getFromAccount().equals(cachedAccount) || !t.getPin().equals(cachedPin)) {
+                cachedAccount = t.getFromAccount();
+                cachedPin = t.getPin();
+                source = authenticate(cachedAccount, cachedPin, check);
+                sourceStatus = source != null ? OperationStatus.OK : check.getStatus();
+            }
+            long started = System.nanoTime();
+            long balance = 0;
+            if (sourceStatus != OperationStatus.OK) {
+                statuses[i] = sourceStatus;
+            } else if (t.getAmount() < 0) {
+                statuses[i] = OperationStatus.INVALID_AMOUNT;
+            } else {
+                BankAccount destination = accounts.get(t.getToAccount());
+                if (destination == null) {
+                    statuses[i] = OperationStatus.ACCOUNT_NOT_FOUND;
+                } else {
+                    accounts.lockPair(cachedAccount, t.getToAccount());
+                    try {
+                        statuses[i] = transferLocked(source, destination, t.getAmount(), null) < 0
+                            ? OperationStatus.INSUFFICIENT_BALANCE : OperationStatus.OK;
+                        balance = source.getBalance();
+                    } finally {
+                        accounts.unlockPair(cachedAccount, t.getToAccount());
+                    }
+                }
+            }
+            metrics.record(Operation.TRANSFER, statuses[i], System.nanoTime() - started);
+            if (log != null) {
+                log.record(Operation.TRANSFER, cachedAccount, t.getToAccount(), t.getAmount(), statuses[i], balance);
+            }
+        }
+    }
+
+    private class TransferGroupTask extends RecursiveAction {
+        private static final int SEQUENTIAL_THRESHOLD = 512;
+
+        private final List<TransferInstruction> instructions;
+        private final int[] order;
+        private final int[] bounds;
+        private final int fromGroup;
+        private final int toGroup;
+        private final OperationStatus[] statuses;
+
+        TransferGroupTask(List<TransferInstruction> instructions, int[] order, int[] bounds,
+                          int fromGroup, int toGroup, OperationStatus[] statuses) {
+            this.instructions = instructions;
+            this.order = order;
+            this.bounds = bounds;
+            this.fromGroup = fromGroup;
+            this.toGroup = toGroup;
+            this.statuses = statuses;
+        }
+
+        @Override
+        protected void compute() {
+            int items = bounds[toGroup] - bounds[fromGroup];
+            if (toGroup - fromGroup > 1 && items > SEQUENTIAL_THRESHOLD) {
+                int mid = (fromGroup + toGroup) >>> 1;
+                invokeAll(new TransferGroupTask(instructions, order, bounds, fromGroup, mid, statuses),
+                          new TransferGroupTask(instructions, order, bounds, mid, toGroup, statuses));
+            } else {
+                transferGroup(instructions, order, bounds[fromGroup], bounds[toGroup], statuses);
+            }
+        }
+    }
+
+    public AccrualResult accrue(AccrualRules rules, LocalDate businessDate) {
+        return accrue(rules, businessDate, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * End-of-day run: applies one day of {@code rules} to every account,
+     * walking partitions of the account table in parallel on {@code pool}.
+     * Each account is updated under its own stripe lock, so live operations
+     * carry on and see its balance either before or after accrual. Accounts
+     * already accrued for {@code businessDate} are skipped, so a run that
+     * failed part way, or is repeated after a restart, applies each day once.
+     * Each account's net change is journalled as one ACCRUAL record carrying
+     * the day, committed once at the end. A run that fails with
+     * {@link VersionConflictException} has read the accounts concerned back
+     * from the repository and can be repeated.
+     */
+    public AccrualResult accrue(AccrualRules rules, LocalDate businessDate, ForkJoinPool pool) {
+        if (ledger != null) {
+            throw new IllegalStateException("Accrual updates accounts under their stripe locks, which SHARDED mode does not take");
+        }
+        long started = System.nanoTime();
+        long firstTicket = lastTicket() + 1;
+        long[] totals = pool.invoke(new AccrualTask(accounts.spliterator(), rules, businessDate.toEpochDay()));
+        commit(journal != null ? journal.nextSequence() - 1 : 0, firstTicket, lastTicket());
+        return new AccrualResult(businessDate, totals, System.nanoTime() - started);
+    }
+
+    private void accrue(BankAccount acc, AccrualRules rules, long day, long[] totals) {
+        String accountNumber = acc.getAccountNumber();
+        totals[AccrualResult.VISITED]++;
+        accounts.lock(accountNumber);
+        try {
+            if (acc.getLastAccrualDay() >= day) {
+                totals[AccrualResult.SKIPPED]++;
+                return;
+            }
+            long balance = acc.getBalance();
+            long interest = rules.interest(balance);
+            long withInterest;
+            try {
+                withInterest = Money.add(balance, interest);
+            } catch (ArithmeticException e) {
+                totals[AccrualResult.FAILED]++;
+                return;
+            }
+            long fee = Math.min(rules.fee(balance), Math.max(0, withInterest));
+            long sequence = 0;
+            if (journal != null) {
+                // journalled even when nothing changes, so replay restores the day
+                sequence = journal.appendAccrual(accountNumber, interest - fee, day);
+                acc.setLastSequence(sequence);
+            }
+            acc.setBalance(withInterest - fee);
+            acc.setLastAccrualDay(day);
+            persist(acc);
+            if (interest == 0 && fee == 0) {
+                return;
+            }
+            TransactionHistory log = history;
+            if (log != null) {
+                if (interest > 0) {
+                    log.record(accountNumber, EntryType.INTEREST, interest, withInterest, null, sequence);
+                }
+                if (fee > 0) {
+                    log.record(accountNumber, EntryType.FEE, fee, withInterest - fee, null, sequence);
+                }
+            }
+            totals[AccrualResult.CHANGED]++;
+            totals[AccrualResult.INTEREST] += interest;
+            totals[AccrualResult.FEES] += fee;
+        } finally {
+            accounts.unlock(accountNumber);
+        }
+    }
+
+    private class AccrualTask extends RecursiveTask<long[]> {
+        private static final long SEQUENTIAL_THRESHOLD = 4096;
+
+        private final Spliterator<BankAccount> partition;
+        private final AccrualRules rules;
+        private final long day;
+
+        AccrualTask(Spliterator<BankAccount> partition, AccrualRules rules, long day) {
+            this.partition = partition;
+            this.rules = rules;
+            this.day = day;
+        }
+
+        @Override
+        protected long[] compute() {
+            // fork off halves of the table range until the rest is small enough to walk here
+            List<AccrualTask> forked = new ArrayList<>();
+            Spliterator<BankAccount> split;
+            while (partition.estimateSize() > SEQUENTIAL_THRESHOLD && (split = partition.trySplit()) != null) {
+                AccrualTask task = new AccrualTask(split, rules, day);
+                task.fork();
+                forked.add(task);
+            }
+            long[] totals = new long[AccrualResult.TOTALS];
+            partition.forEachRemaining(acc -> accrue(acc, rules, day, totals));
+            for (int i = forked.size() - 1; i >= 0; i--) {
+                long[] other = forked.get(i).join();
+                for (int t = 0; t < totals.length; t++) {
+                    totals[t] += other[t];
+                }
+            }
+            return totals;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (ledger != null) {
+            ledger.close();
+        }
+        if (journal != null) {
+            journal.close();
+        }
     }
 }
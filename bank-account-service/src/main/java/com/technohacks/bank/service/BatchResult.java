@@ -0,0 +1,54 @@
+package com.technohacks.bank.service;
+
+/**
+ * Per-item statuses of a batch plus its timing.
+ */
+public class BatchResult {
+    private final OperationStatus[] statuses;
+    private final long elapsedNanos;
+    private final int succeeded;
+
+    BatchResult(OperationStatus[] statuses, long elapsedNanos) {
+        this.statuses = statuses;
+        this.elapsedNanos = elapsedNanos;
+        int ok = 0;
+        for (OperationStatus status : statuses) {
+            if (status == OperationStatus.OK) {
+                ok++;
+            }
+        }
+        this.succeeded = ok;
+    }
+
+    public int size() {
+        return statuses.length;
+    }
+
+    /** Status of the instruction at {@code index} in the submitted order. */
+    public OperationStatus getStatus(int index) {
+        return statuses[index];
+    }
+
+    public int getSucceeded() {
+        return succeeded;
+    }
+
+    public int getFailed() {
+        return statuses.length - succeeded;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /** Instructions processed per second. */
+    public double getThroughput() {
+        return elapsedNanos == 0 ? 0 : statuses.length * 1_000_000_000.0 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Batch of %d: %d succeeded, %d failed in %.3f ms (%.0f ops/s)",
+            statuses.length, succeeded, getFailed(), elapsedNanos / 1_000_000.0, getThroughput());
+    }
+}
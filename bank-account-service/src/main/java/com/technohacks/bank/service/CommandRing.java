@@ -0,0 +1,62 @@
+package com.technohacks.bank.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Pre-allocated multi-producer, single-consumer ring of {@link ShardedLedger}
+ * commands. Producers claim a sequence with an atomic increment, fill the
+ * slot in place and publish it; the owning shard thread consumes slots in
+ * sequence order and releases them. Nothing is allocated per command.
+ */
+final class CommandRing {
+    private final ShardedLedger.Command[] slots;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLongArray published;
+    private final AtomicLong consumed = new AtomicLong();
+
+    CommandRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new ShardedLedger.Command[size];
+        this.published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            slots[i] = new ShardedLedger.Command();
+            published.set(i, -1);
+        }
+        this.mask = size - 1;
+    }
+
+    /** Claims the next sequence, or returns -1 if the ring is full. */
+    long tryClaim() {
+        while (true) {
+            long sequence = claimed.get();
+            if (sequence - consumed.get() >= slots.length) {
+                return -1;
+            }
+            if (claimed.compareAndSet(sequence, sequence + 1)) {
+                return sequence;
+            }
+        }
+    }
+
+    ShardedLedger.Command slot(long sequence) {
+        return slots[(int) sequence & mask];
+    }
+
+    void publish(long sequence) {
+        published.set((int) sequence & mask, sequence);
+    }
+
+    /** Returns the next published command, or null if there is none yet. */
+    ShardedLedger.Command peek() {
+        long next = consumed.get();
+        int index = (int) next & mask;
+        return published.get(index) == next ? slots[index] : null;
+    }
+
+    /** Frees the slot returned by the last {@link #peek()}. */
+    void release() {
+        consumed.lazySet(consumed.get() + 1);
+    }
+}
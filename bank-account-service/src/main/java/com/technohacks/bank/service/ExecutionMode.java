@@ -0,0 +1,11 @@
+package com.technohacks.bank.service;
+
+/**
+ * How {@link BankAccountService} executes balance changes.
+ */
+public enum ExecutionMode {
+    /** Caller threads update accounts under striped locks. */
+    LOCKING,
+    /** Accounts are partitioned into shards, each owned by one writer thread. */
+    SHARDED
+}
@@ -0,0 +1,263 @@
+package com.technohacks.bank.service;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Outcomes of money-moving requests by client-supplied idempotency key, so
+ * that a retried request gets the original result instead of running again.
+ *
+ * A request with a new key costs one lock-free map lookup and an insert.
+ * Keys expire a fixed time after they were first seen; memory is bounded by
+ * a ring holding the newest keys in arrival order, and inserting into a full
+ * ring evicts the oldest key. A duplicate that arrives while the original is
+ * still running waits for its outcome. Live keys are carried in snapshots
+ * with the time they have left, so they outlive the journal segments that
+ * recorded them.
+ */
+final class IdempotencyCache {
+    static final int DEFAULT_MAX_KEYS = 1 << 20;
+    static final long DEFAULT_TTL_SECONDS = 3600;
+    static final int MAX_KEY_LENGTH = 64;
+
+    private static final int PENDING = 0;
+    private static final int DONE = 1;
+    private static final int ABANDONED = 2;
+
+    static final class Entry {
+        private final String key;
+        private final Operation op;
+        private final String account;
+        private final String counterparty;
+        private final long amount;
+        private final long expiresAt;
+        private final OperationResult outcome = new OperationResult();
+        private volatile int state = PENDING;
+
+        private Entry(String key, Operation op, String account, String counterparty, long amount, long expiresAt) {
+            this.key = key;
+            this.op = op;
+            this.account = account;
+            this.counterparty = counterparty;
+            this.amount = amount;
+            this.expiresAt = expiresAt;
+        }
+
+        /** True if a retry carries the same request as the one that used the key first. */
+        boolean matches(Operation op, String account, String counterparty, long amount) {
+            return this.op == op && this.amount == amount && this.account.equals(account)
+                && Objects.equals(this.counterparty, counterparty);
+        }
+
+        /**
+         * Waits for the original request and copies its outcome into
+         * {@code result}. Returns false if the original failed without an
+         * outcome and the caller should run the request itself.
+         */
+        boolean await(OperationResult result) {
+            if (state == PENDING) {
+                boolean interrupted = false;
+                synchronized (this) {
+                    while (state == PENDING) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            interrupted = true;
+                        }
+                    }
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (state == ABANDONED) {
+                return false;
+            }
+            result.copyFrom(outcome);
+            return true;
+        }
+
+        private synchronized void settle(int newState) {
+            state = newState;
+            notifyAll();
+        }
+
+        private boolean isExpired(long now) {
+            return now - expiresAt >= 0;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry> entries;
+    private final AtomicReferenceArray<Entry> ring;
+    private final int mask;
+    private final AtomicLong inserted = new AtomicLong();
+    private final long ttlNanos;
+
+    IdempotencyCache() {
+        this(DEFAULT_MAX_KEYS, DEFAULT_TTL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    IdempotencyCache(int maxKeys, long ttl, TimeUnit unit) {
+        int capacity = Integer.highestOneBit(Math.max(2, maxKeys) - 1) << 1;
+        this.entries = new ConcurrentHashMap<>(Math.min(capacity, 1 << 16));
+        this.ring = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+        this.ttlNanos = unit.toNanos(ttl);
+    }
+
+    static void validate(String key) {
+        int len = key.length();
+        if (len == 0 || len > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException("Idempotency key must be 1-" + MAX_KEY_LENGTH + " characters");
+        }
+        for (int i = 0; i < len; i++) {
+            char c = key.charAt(i);
+            if (c <= ' ' || c > '~') {
+                throw new IllegalArgumentException("Idempotency key must be printable ASCII without spaces");
+            }
+        }
+    }
+
+    /** Returns the live entry for {@code key}, or null. */
+    Entry get(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.isExpired(System.nanoTime())) {
+            entries.remove(key, entry);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Registers a pending entry for a request about to run. Returns it, or
+     * null if another request has claimed the key in the meantime.
+     */
+    Entry claim(String key, Operation op, String account, String counterparty, long amount) {
+        Entry entry = new Entry(key, op, account, counterparty, amount, System.nanoTime() + ttlNanos);
+        return insert(entry) ? entry : null;
+    }
+
+    /** Records the outcome of a claimed request and wakes any duplicates. */
+    void complete(Entry entry, OperationResult result) {
+        entry.outcome.copyFrom(result);
+        entry.settle(DONE);
+    }
+
+    /** Releases a claimed key whose request failed without an outcome. */
+    void abandon(Entry entry) {
+        entries.remove(entry.key, entry);
+        entry.settle(ABANDONED);
+    }
+
+    /**
+     * Re-registers a key found in the journal on recovery, with the outcome
+     * the request had; it is treated as new for expiry.
+     */
+    void restore(String key, Operation op, String account, String counterparty, long amount,
+                 OperationResult outcome) {
+        restore(key, op, account, counterparty, amount, outcome, ttlNanos);
+    }
+
+    /**
+     * Writes every live key and its outcome, for a snapshot. Requests still
+     * running are waited for; keys whose request failed without an outcome
+     * are left out.
+     */
+    void save(DataOutput out) throws IOException {
+        long now = System.nanoTime();
+        List<Entry> live = new ArrayList<>(entries.size());
+        OperationResult scratch = new OperationResult();
+        for (Entry entry : entries.values()) {
+            if (!entry.isExpired(now) && entry.await(scratch)) {
+                live.add(entry);
+            }
+        }
+        live.sort(Comparator.comparingLong(entry -> entry.expiresAt - now));
+        out.writeInt(live.size());
+        for (Entry entry : live) {
+            OperationResult outcome = entry.outcome;
+            out.writeUTF(entry.key);
+            out.writeByte(entry.op.ordinal());
+            out.writeUTF(entry.account);
+            writeNullable(out, entry.counterparty);
+            out.writeLong(entry.amount);
+            out.writeLong(Math.max(0, entry.expiresAt - now));
+            out.writeByte(outcome.getStatus().ordinal());
+            writeNullable(out, outcome.getSubject());
+            out.writeBoolean(outcome.isCounterparty());
+            out.writeLong(outcome.getBalance());
+            out.writeLong(outcome.getShortfall());
+            writeNullable(out, outcome.getReason());
+        }
+    }
+
+    /** Restores keys written by {@link #save}, keeping the time they had left. */
+    void load(DataInput in) throws IOException {
+        Operation[] ops = Operation.values();
+        OperationStatus[] statuses = OperationStatus.values();
+        OperationResult outcome = new OperationResult();
+        for (int i = in.readInt(); i > 0; i--) {
+            String key = in.readUTF();
+            Operation op = ops[in.readUnsignedByte()];
+            String account = in.readUTF();
+            String counterparty = readNullable(in);
+            long amount = in.readLong();
+            long remaining = in.readLong();
+            OperationStatus status = statuses[in.readUnsignedByte()];
+            String subject = readNullable(in);
+            boolean onCounterparty = in.readBoolean();
+            long balance = in.readLong();
+            long shortfall = in.readLong();
+            outcome.fill(status, subject, onCounterparty, balance, shortfall, readNullable(in));
+            restore(key, op, account, counterparty, amount, outcome, remaining);
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private void restore(String key, Operation op, String account, String counterparty, long amount,
+                         OperationResult outcome, long remainingNanos) {
+        Entry entry = new Entry(key, op, account, counterparty, amount, System.nanoTime() + remainingNanos);
+        entry.outcome.copyFrom(outcome);
+        entry.state = DONE;
+        entries.put(key, entry);
+        track(entry);
+    }
+
+    private static void writeNullable(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private boolean insert(Entry entry) {
+        if (entries.putIfAbsent(entry.key, entry) != null) {
+            return false;
+        }
+        track(entry);
+        return true;
+    }
+
+    private void track(Entry entry) {
+        Entry evicted = ring.getAndSet((int) (inserted.getAndIncrement() & mask), entry);
+        if (evicted != null) {
+            entries.remove(evicted.key, evicted);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.technohacks.bank.service;
+
+/**
+ * Kinds of request handled by {@link BankAccountService}, as seen by the
+ * audit log and the metrics.
+ */
+public enum Operation {
+    OPEN_SESSION,
+    BALANCE,
+    DETAILS,
+    WITHDRAW,
+    DEPOSIT,
+    TRANSFER,
+    STATEMENT,
+    BALANCE_REPORT,
+    /** The destination side of a two-phase transfer; the source side is a TRANSFER. */
+    PREPARE_TRANSFER_IN;
+
+    /** True for operations that move money and so carry an amount. */
+    public boolean movesMoney() {
+        return this == WITHDRAW || this == DEPOSIT || this == TRANSFER || this == PREPARE_TRANSFER_IN;
+    }
+}
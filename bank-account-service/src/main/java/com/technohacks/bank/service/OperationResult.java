@@ -0,0 +1,201 @@
+package com.technohacks.bank.service;
+
+import com.technohacks.bank.ErrorResponse;
+import com.technohacks.bank.model.BankAccount;
+import com.technohacks.bank.model.Money;
+
+/**
+ * Reusable, mutable outcome of a result-code operation on
+ * {@link BankAccountService}. A caller can keep one instance per thread and
+ * pass it to every call; nothing is formatted until {@link #getMessage()} or
+ * {@link #toErrorResponse()} is asked for.
+ */
+public class OperationResult {
+    private OperationStatus status = OperationStatus.OK;
+    private String subject;
+    private boolean counterparty;
+    private String reason;
+    private long balance;
+    private long shortfall;
+    private BankAccount account;
+
+    public OperationStatus getStatus() {
+        return status;
+    }
+
+    public boolean isSuccess() {
+        return status == OperationStatus.OK;
+    }
+
+    /** Account number the outcome refers to. */
+    public String getSubject() {
+        return subject;
+    }
+
+    /** True when a failure refers to the destination of a transfer. */
+    public boolean isCounterparty() {
+        return counterparty;
+    }
+
+    /** Balance in cents after a successful operation. */
+    public long getBalance() {
+        return balance;
+    }
+
+    /** Missing amount in cents when the status is INSUFFICIENT_BALANCE. */
+    public long getShortfall() {
+        return shortfall;
+    }
+
+    /** Account returned by a successful details lookup. */
+    public BankAccount getAccount() {
+        return account;
+    }
+
+    public String getMessage() {
+        switch (status) {
+            case ACCOUNT_NOT_FOUND:
+                return (counterparty ? "Destination account " : "Account ") + subject + " not found.";
+            case UNAUTHORIZED_ACCESS:
+                return "PIN is incorrect for account " + subject;
+            case ACCOUNT_LOCKED:
+                return "Account " + subject + " is temporarily locked after repeated incorrect PINs";
+            case SESSION_EXPIRED:
+                return "Session has expired or is not valid.";
+            case IDEMPOTENCY_CONFLICT:
+                return "Idempotency key " + subject + " was already used for a different request";
+            case OK:
+                return "OK";
+            default:
+                return reason;
+        }
+    }
+
+    /** Builds the client-facing error for a failed operation, or null on success. */
+    public ErrorResponse toErrorResponse() {
+        switch (status) {
+            case ACCOUNT_NOT_FOUND:
+                return new ErrorResponse(status.getErrorCode(), getMessage(),
+                    "Please verify the account number and try again", status.getHttpStatus());
+            case UNAUTHORIZED_ACCESS:
+                return new ErrorResponse(status.getErrorCode(), getMessage(),
+                    "Invalid credentials. Please check your PIN and try again", status.getHttpStatus());
+            case INSUFFICIENT_BALANCE:
+                return new ErrorResponse(status.getErrorCode(), getMessage(),
+                    "You need $" + Money.format(shortfall) + " more to complete this transaction",
+                    status.getHttpStatus());
+            case INVALID_AMOUNT:
+                return new ErrorResponse(status.getErrorCode(), getMessage(),
+                    "Please enter an amount of zero or more", status.getHttpStatus());
+            case ACCOUNT_LOCKED:
+                return new ErrorResponse(status.getErrorCode(), getMessage(),
+                    "Please wait a few minutes before trying again", status.getHttpStatus());
+            case SESSION_EXPIRED:
+                return new ErrorResponse(status.getErrorCode(), getMessage(),
+                    "Please sign in again with your account number and PIN", status.getHttpStatus());
+            case IDEMPOTENCY_CONFLICT:
+                return new ErrorResponse(status.getErrorCode(), getMessage(),
+                    "Use a new idempotency key for a new request", status.getHttpStatus());
+            case VERSION_CONFLICT:
+                return new ErrorResponse(status.getErrorCode(), getMessage(),
+                    "Nothing was changed; please try again", status.getHttpStatus());
+            case STORE_UNAVAILABLE:
+                return new ErrorResponse(status.getErrorCode(), getMessage(),
+                    "The change is applied and will be stored once the database is back; do not repeat it",
+                    status.getHttpStatus());
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Takes over an outcome reported by another node, which sends the
+     * fields instead of the formatted message.
+     */
+    public OperationStatus fill(OperationStatus status, String subject, boolean counterparty, long balance,
+                                long shortfall, String reason) {
+        set(status, subject, counterparty, reason);
+        this.balance = balance;
+        this.shortfall = shortfall;
+        return status;
+    }
+
+    /** Reason given with an INSUFFICIENT_BALANCE, INVALID_AMOUNT or repository outcome, or null. */
+    public String getReason() {
+        return reason;
+    }
+
+    /** Forgets the previous outcome before the instance is reused. */
+    public void reset() {
+        set(OperationStatus.OK, null, false, null);
+    }
+
+    OperationStatus ok(String subject, long balance) {
+        set(OperationStatus.OK, subject, false, null);
+        this.balance = balance;
+        return status;
+    }
+
+    OperationStatus ok(BankAccount account) {
+        ok(account.getAccountNumber(), account.getBalance());
+        this.account = account;
+        return status;
+    }
+
+    OperationStatus notFound(String subject, boolean counterparty) {
+        return set(OperationStatus.ACCOUNT_NOT_FOUND, subject, counterparty, null);
+    }
+
+    OperationStatus unauthorized(String subject) {
+        return set(OperationStatus.UNAUTHORIZED_ACCESS, subject, false, null);
+    }
+
+    OperationStatus locked(String subject) {
+        return set(OperationStatus.ACCOUNT_LOCKED, subject, false, null);
+    }
+
+    OperationStatus sessionExpired() {
+        return set(OperationStatus.SESSION_EXPIRED, null, false, null);
+    }
+
+    OperationStatus idempotencyConflict(String key) {
+        return set(OperationStatus.IDEMPOTENCY_CONFLICT, key, false, null);
+    }
+
+    /** Takes over another outcome, e.g. the remembered result of a retried request. */
+    void copyFrom(OperationResult other) {
+        set(other.status, other.subject, other.counterparty, other.reason);
+        this.balance = other.balance;
+        this.shortfall = other.shortfall;
+        this.account = other.account;
+    }
+
+    OperationStatus insufficient(String subject, long shortfall, String reason) {
+        set(OperationStatus.INSUFFICIENT_BALANCE, subject, false, reason);
+        this.shortfall = shortfall;
+        return status;
+    }
+
+    OperationStatus invalidAmount(String subject, String reason) {
+        return set(OperationStatus.INVALID_AMOUNT, subject, false, reason);
+    }
+
+    OperationStatus versionConflict(String subject, String reason) {
+        return set(OperationStatus.VERSION_CONFLICT, subject, false, reason);
+    }
+
+    OperationStatus storeUnavailable(String subject, String reason) {
+        return set(OperationStatus.STORE_UNAVAILABLE, subject, false, reason);
+    }
+
+    private OperationStatus set(OperationStatus status, String subject, boolean counterparty, String reason) {
+        this.status = status;
+        this.subject = subject;
+        this.counterparty = counterparty;
+        this.reason = reason;
+        this.balance = 0;
+        this.shortfall = 0;
+        this.account = null;
+        return status;
+    }
+}
@@ -0,0 +1,39 @@
+package com.technohacks.bank.service;
+
+/**
+ * Outcome of an account operation, used where failures are reported as
+ * values instead of exceptions. The constants are shared, so reporting a
+ * status never allocates.
+ */
+public enum OperationStatus {
+    OK("OK", 200),
+    ACCOUNT_NOT_FOUND("ACCOUNT_NOT_FOUND", 404),
+    UNAUTHORIZED_ACCESS("UNAUTHORIZED_ACCESS", 401),
+    INSUFFICIENT_BALANCE("INSUFFICIENT_BALANCE", 400),
+    INVALID_AMOUNT("INVALID_AMOUNT", 400),
+    ACCOUNT_LOCKED("ACCOUNT_LOCKED", 423),
+    SESSION_EXPIRED("SESSION_EXPIRED", 401),
+    IDEMPOTENCY_CONFLICT("IDEMPOTENCY_CONFLICT", 409),
+    VERSION_CONFLICT("VERSION_CONFLICT", 409),
+    STORE_UNAVAILABLE("STORE_UNAVAILABLE", 503);
+
+    private final String errorCode;
+    private final int httpStatus;
+
+    OperationStatus(String errorCode, int httpStatus) {
+        this.errorCode = errorCode;
+        this.httpStatus = httpStatus;
+    }
+
+    public String getErrorCode() {
+        return errorCode;
+    }
+
+    public int getHttpStatus() {
+        return httpStatus;
+    }
+
+    public boolean isSuccess() {
+        return this == OK;
+    }
+}
@@ -0,0 +1,510 @@
+package com.technohacks.bank.service;
+
+import com.technohacks.bank.history.EntryType;
+import com.technohacks.bank.history.TransactionHistory;
+import com.technohacks.bank.journal.TransactionJournal;
+import com.technohacks.bank.model.BankAccount;
+import com.technohacks.bank.model.Money;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single-writer execution engine behind {@link ExecutionMode#SHARDED}.
+ *
+ * Accounts are partitioned into shards by account number. Each shard is
+ * owned by one thread that drains commands from pre-allocated rings and is
+ * the only writer of its accounts' balances, so no locks are taken. A
+ * transfer between shards runs in three steps: the source shard validates
+ * and debits, then posts a credit message to the destination shard, which
+ * journals the transfer only once it knows the credit fits and applies it,
+ * then settles with the source shard, which records its side and completes
+ * the caller. A credit that would overflow is settled as a refund instead,
+ * leaving nothing in the journal. An entry recorded in the source account's
+ * history while a transfer is in flight already shows its amount debited.
+ *
+ * A command that throws fails its caller with the exception, as the same
+ * call would in LOCKING mode. A shard thread that dies stops the whole
+ * ledger, since transfers need every shard: commands still waiting and any
+ * submitted afterwards fail with IllegalStateException.
+ */
+final class ShardedLedger implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(ShardedLedger.class);
+    private static final int RING_CAPACITY = 4096;
+    private static final int BATCH = 256;
+    private static final int SPINS = 200;
+    // how often a parked caller checks that the ledger is still running
+    private static final long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    static final byte WITHDRAW = 1;
+    static final byte DEPOSIT = 2;
+    static final byte TRANSFER = 3;
+    static final byte CREDIT = 4;
+    static final byte SETTLE = 5;
+
+    /** Ring slot; filled in place by producers. */
+    static final class Command {
+        byte op;
+        String account;
+        String counterparty;
+        long amount;
+        long sequence;
+        String idempotencyKey;
+        OperationResult result;
+        Completion completion;
+        RuntimeException failure;
+        boolean refund;
+
+        void set(byte op, String account, String counterparty, long amount, long sequence,
+                 String idempotencyKey, OperationResult result, Completion completion) {
+            this.op = op;
+            this.account = account;
+            this.counterparty = counterparty;
+            this.amount = amount;
+            this.sequence = sequence;
+            this.idempotencyKey = idempotencyKey;
+            this.result = result;
+            this.completion = completion;
+        }
+
+        void clear() {
+            account = null;
+            counterparty = null;
+            idempotencyKey = null;
+            result = null;
+            completion = null;
+            failure = null;
+            refund = false;
+        }
+    }
+
+    /** Per-caller-thread handle the owning shard signals when a command is done. */
+    static final class Completion {
+        private final Thread waiter = Thread.currentThread();
+        private volatile boolean done;
+        private RuntimeException failure;
+
+        void reset() {
+            done = false;
+            failure = null;
+        }
+
+        void signal() {
+            done = true;
+            LockSupport.unpark(waiter);
+        }
+
+        // written before signal(), so visible once done is seen
+        void fail(RuntimeException e) {
+            failure = e;
+            signal();
+        }
+
+        /** Waits for the command; returns false if the ledger stopped without completing it. */
+        boolean await(ShardedLedger ledger) {
+            for (int i = 0; i < SPINS && !done; i++) {
+                Thread.onSpinWait();
+            }
+            while (!done) {
+                if (ledger.stopped()) {
+                    return done;
+                }
+                LockSupport.parkNanos(this, POLL_NANOS);
+            }
+            return true;
+        }
+    }
+
+    private final AccountStore accounts;
+    private final TransactionJournal journal;
+    private final Shard[] shards;
+    private final ThreadLocal<Completion> completions = ThreadLocal.withInitial(Completion::new);
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile TransactionHistory history;
+    private volatile boolean accepting = true;
+    private volatile boolean running = true;
+
+    ShardedLedger(AccountStore accounts, TransactionJournal journal, int shardCount) {
+        this.accounts = accounts;
+        this.journal = journal;
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(i);
+        }
+        for (Shard shard : shards) {
+            shard.thread.start();
+        }
+    }
+
+    /** Each shard records the entries of the accounts it owns. */
+    void setHistory(TransactionHistory history) {
+        this.history = history;
+    }
+
+    int shardOf(String accountNumber) {
+        int h = accountNumber.hashCode();
+        return Math.floorMod(h ^ (h >>> 16), shards.length);
+    }
+
+    /**
+     * Runs one command on the shard owning {@code account} and waits for it.
+     * The caller has already authenticated the account, so shard threads
+     * never spend time on PIN hashing.
+     *
+     * @param idempotencyKey written to the journal with the change, may be null
+     */
+    OperationStatus execute(byte op, String account, String counterparty, long amount, String idempotencyKey,
+                            OperationResult result) {
+        inFlight.incrementAndGet();
+        try {
+            if (!accepting) {
+                throw new IllegalStateException("Ledger is " + (running ? "closing" : "stopped"));
+            }
+            Completion completion = completions.get();
+            completion.reset();
+            Shard shard = shards[shardOf(account)];
+            long sequence;
+            while ((sequence = shard.commands.tryClaim()) < 0) {
+                if (!running) {
+                    throw new IllegalStateException("Ledger is stopped");
+                }
+                Thread.yield();
+            }
+            shard.commands.slot(sequence).set(op, account, counterparty, amount, 0, idempotencyKey, result, completion);
+            shard.commands.publish(sequence);
+            shard.wake();
+            if (!completion.await(this)) {
+                throw new IllegalStateException("Ledger stopped before completing the command");
+            }
+            if (completion.failure != null) {
+                throw completion.failure;
+            }
+            return result.getStatus();
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    // True once every shard thread has exited, after which nothing completes.
+    private boolean stopped() {
+        if (running) {
+            return false;
+        }
+        for (Shard shard : shards) {
+            if (shard.thread.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Refuses new commands, lets those already submitted finish, then stops the shards. */
+    @Override
+    public void close() {
+        accepting = false;
+        while (inFlight.get() > 0 && running) {
+            LockSupport.parkNanos(POLL_NANOS);
+        }
+        running = false;
+        for (Shard shard : shards) {
+            LockSupport.unpark(shard.thread);
+        }
+        for (Shard shard : shards) {
+            try {
+                shard.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void stop(Shard shard, Throwable cause) {
+        logger.error("Ledger shard {} failed; stopping the ledger", shard.thread.getName(), cause);
+        accepting = false;
+        running = false;
+        for (Shard other : shards) {
+            LockSupport.unpark(other.thread);
+        }
+    }
+
+    private final class Shard implements Runnable {
+        private final CommandRing commands = new CommandRing(RING_CAPACITY);
+        private final CommandRing credits = new CommandRing(RING_CAPACITY);
+        private final CommandRing settlements = new CommandRing(RING_CAPACITY);
+        private final Thread thread;
+        private Completion[] finished = new Completion[2 * BATCH];
+        private volatile boolean sleeping;
+        private int finishedCount;
+        private long highestSequence;
+
+        Shard(int index) {
+            this.thread = new Thread(this, "ledger-shard-" + index);
+            thread.setDaemon(true);
+        }
+
+        void wake() {
+            if (sleeping) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                int idle = 0;
+                while (running) {
+                    int work = drain(settlements) + drain(credits) + drain(commands);
+                    if (work > 0) {
+                        completeBatch();
+                        idle = 0;
+                    } else if (++idle < SPINS) {
+                        Thread.onSpinWait();
+                    } else {
+                        sleeping = true;
+                        if (settlements.peek() == null && credits.peek() == null && commands.peek() == null
+                            && running) {
+                            LockSupport.park(this);
+                        }
+                        sleeping = false;
+                        idle = 0;
+                    }
+                }
+            } catch (Throwable t) {
+                stop(this, t);
+            }
+        }
+
+        private int drain(CommandRing ring) {
+            int n = 0;
+            Command command;
+            while (n < BATCH && (command = ring.peek()) != null) {
+                process(command);
+                command.clear();
+                ring.release();
+                n++;
+            }
+            return n;
+        }
+
+        // Makes this batch's journal records durable before any caller is told.
+        private void completeBatch() {
+            if (journal != null && highestSequence > 0) {
+                journal.commit(highestSequence);
+            }
+            for (int i = 0; i < finishedCount; i++) {
+                finished[i].signal();
+                finished[i] = null;
+            }
+            finishedCount = 0;
+            highestSequence = 0;
+        }
+
+        private void finish(Completion completion) {
+            if (finishedCount == finished.length) {
+                finished = Arrays.copyOf(finished, finishedCount * 2);
+            }
+            finished[finishedCount++] = completion;
+        }
+
+        private void process(Command c) {
+            try {
+                if (c.op == CREDIT) {
+                    credit(c);
+                } else if (c.op == SETTLE) {
+                    settle(c);
+                } else {
+                    handle(c);
+                }
+            } catch (ArithmeticException e) {
+                c.result.invalidAmount(c.account, "Amount would overflow the account balance");
+                finish(c.completion);
+            } catch (RuntimeException e) {
+                c.completion.fail(e);
+            }
+        }
+
+        // Runs on the destination shard; the source has already debited.
+        private void credit(Command c) {
+            BankAccount to = accounts.get(c.account);
+            long credited;
+            try {
+                credited = Money.add(to.getBalance(), c.amount);
+            } catch (ArithmeticException e) {
+                c.result.invalidAmount(c.account, "Amount would overflow the account balance");
+                reply(c, 0, true, null);
+                return;
+            }
+            long sequence;
+            try {
+                sequence = journal != null ? journal.appendTransfer(c.counterparty, c.account, c.amount, c.idempotencyKey) : 0;
+            } catch (RuntimeException e) {
+                reply(c, 0, true, e);
+                return;
+            }
+            stamp(to, sequence);
+            to.setBalance(credited);
+            record(to, EntryType.TRANSFER_IN, c.amount, c.counterparty, sequence);
+            reply(c, sequence, false, null);
+        }
+
+        // Hands a credit's outcome back to the source shard: the transfer's
+        // sequence, or a refund with the reason in the result or the failure.
+        private void reply(Command c, long sequence, boolean refund, RuntimeException failure) {
+            Shard source = shards[shardOf(c.counterparty)];
+            long slot = source.claim(source.settlements, this);
+            Command settle = source.settlements.slot(slot);
+            settle.set(SETTLE, c.counterparty, c.account, c.amount, sequence, null, c.result, c.completion);
+            settle.failure = failure;
+            settle.refund = refund;
+            source.settlements.publish(slot);
+            source.wake();
+        }
+
+        // Runs on the source shard once the destination has journalled the
+        // transfer, or refused it.
+        private void settle(Command c) {
+            BankAccount from = accounts.get(c.account);
+            if (c.refund) {
+                from.setBalance(Money.add(from.getBalance(), c.amount));
+                if (c.failure != null) {
+                    c.completion.fail(c.failure);
+                    return;
+                }
+            } else {
+                stamp(from, c.sequence);
+                record(from, EntryType.TRANSFER_OUT, c.amount, c.counterparty, c.sequence);
+            }
+            finish(c.completion);
+        }
+
+        private void handle(Command c) {
+            OperationResult result = c.result;
+            BankAccount acc = accounts.get(c.account);
+            if (acc == null) {
+                result.notFound(c.account, false);
+            } else {
+                switch (c.op) {
+                    case WITHDRAW:
+                        withdraw(acc, c.amount, c.idempotencyKey, result);
+                        break;
+                    case DEPOSIT:
+                        deposit(acc, c.amount, c.idempotencyKey, result);
+                        break;
+                    case TRANSFER:
+                        if (transfer(acc, c, result)) {
+                            return; // completed here once the destination shard settles
+                        }
+                        break;
+                    default:
+                        throw new IllegalStateException("Unknown command " + c.op);
+                }
+            }
+            finish(c.completion);
+        }
+
+        private void withdraw(BankAccount acc, long amount, String key, OperationResult result) {
+            if (amount > acc.getBalance()) {
+                result.insufficient(acc.getAccountNumber(), Money.subtract(amount, acc.getBalance()),
+                    "Insufficient funds");
+                return;
+            }
+            long updated = Money.subtract(acc.getBalance(), amount);
+            long sequence = journal != null ? journal.appendWithdraw(acc.getAccountNumber(), amount, key) : 0;
+            stamp(acc, sequence);
+            acc.setBalance(updated);
+            record(acc, EntryType.WITHDRAWAL, amount, null, sequence);
+            result.ok(acc.getAccountNumber(), updated);
+        }
+
+        private void deposit(BankAccount acc, long amount, String key, OperationResult result) {
+            long updated = Money.add(acc.getBalance(), amount);
+            long sequence = journal != null ? journal.appendDeposit(acc.getAccountNumber(), amount, key) : 0;
+            stamp(acc, sequence);
+            acc.setBalance(updated);
+            record(acc, EntryType.DEPOSIT, amount, null, sequence);
+            result.ok(acc.getAccountNumber(), updated);
+        }
+
+        /** Debits the source; returns true if the credit was handed to another shard. */
+        private boolean transfer(BankAccount from, Command c, OperationResult result) {
+            BankAccount to = accounts.get(c.counterparty);
+            if (to == null) {
+                result.notFound(c.counterparty, true);
+                return false;
+            }
+            if (c.amount > from.getBalance()) {
+                result.insufficient(from.getAccountNumber(), Money.subtract(c.amount, from.getBalance()),
+                    "Insufficient funds for transfer");
+                return false;
+            }
+            Shard target = shards[shardOf(c.counterparty)];
+            long debited = Money.subtract(from.getBalance(), c.amount);
+            if (target == this) {
+                long credited = Money.add(from.getAccountNumber().equals(c.counterparty) ? debited : to.getBalance(), c.amount);
+                long sequence = journal != null ? journal.appendTransfer(from.getAccountNumber(), to.getAccountNumber(), c.amount, c.idempotencyKey) : 0;
+                stamp(from, sequence);
+                stamp(to, sequence);
+                from.setBalance(debited);
+                record(from, EntryType.TRANSFER_OUT, c.amount, to.getAccountNumber(), sequence);
+                to.setBalance(credited);
+                record(to, EntryType.TRANSFER_IN, c.amount, from.getAccountNumber(), sequence);
+                result.ok(from.getAccountNumber(), debited);
+                return false;
+            }
+            Money.add(to.getBalance(), c.amount); // fail early on overflow, before the debit
+            from.setBalance(debited);
+            result.ok(from.getAccountNumber(), debited);
+            target.postCredit(this, c.counterparty, from.getAccountNumber(), c.amount, c.idempotencyKey, result,
+                c.completion);
+            return true;
+        }
+
+        // Only called for accounts this shard owns, which serialises their entries.
+        private void record(BankAccount acc, EntryType type, long amount, String counterparty, long sequence) {
+            TransactionHistory log = history;
+            if (log != null) {
+                log.record(acc.getAccountNumber(), type, amount, acc.getBalance(), counterparty, sequence);
+            }
+        }
+
+        private void stamp(BankAccount acc, long sequence) {
+            if (sequence > 0) {
+                acc.setLastSequence(sequence);
+                highestSequence = Math.max(highestSequence, sequence);
+            }
+        }
+
+        // Called from the source shard's thread.
+        void postCredit(Shard source, String account, String from, long amount, String idempotencyKey,
+                        OperationResult result, Completion completion) {
+            long slot = claim(credits, source);
+            credits.slot(slot).set(CREDIT, account, from, amount, 0, idempotencyKey, result, completion);
+            credits.publish(slot);
+            wake();
+        }
+
+        // While the ring is full the sender keeps draining its own rings:
+        // credits are only posted while handling commands and settlements
+        // post nothing, so shards messaging each other cannot deadlock.
+        long claim(CommandRing ring, Shard sender) {
+            long slot;
+            while ((slot = ring.tryClaim()) < 0) {
+                if (!running) {
+                    throw new IllegalStateException("Ledger is stopped");
+                }
+                if (ring == credits) {
+                    sender.drain(sender.credits);
+                }
+                sender.drain(sender.settlements);
+                Thread.onSpinWait();
+            }
+            return slot;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.technohacks.bank.service;
+
+/**
+ * One transfer in a batch submitted to {@link BankAccountService#transferBatch}.
+ */
+public class TransferInstruction {
+    private final String fromAccount;
+    private final String pin;
+    private final String toAccount;
+    private final long amount;
+
+    public TransferInstruction(String fromAccount, String pin, String toAccount, long amount) {
+        this.fromAccount = fromAccount;
+        this.pin = pin;
+        this.toAccount = toAccount;
+        this.amount = amount;
+    }
+
+    public String getFromAccount() {
+        return fromAccount;
+    }
+
+    public String getPin() {
+        return pin;
+    }
+
+    public String getToAccount() {
+        return toAccount;
+    }
+
+    /** Amount in cents. */
+    public long getAmount() {
+        return amount;
+    }
+}
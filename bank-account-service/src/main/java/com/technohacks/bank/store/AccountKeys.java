@@ -0,0 +1,75 @@
+package com.technohacks.bank.store;
+
+/**
+ * Packs account numbers such as {@code ACC001} into a positive long.
+ *
+ * Each character maps to a base-37 digit (1-10 for '0'-'9', 11-36 for 'A'-'Z'),
+ * so up to 12 characters fit and 0 is never a valid key. Lowercase letters
+ * are not accepted: account numbers are case-sensitive, as in AccountStore,
+ * and folding them would make "acc001" find ACC001.
+ */
+public final class AccountKeys {
+    public static final int MAX_LENGTH = 12;
+    private static final int RADIX = 37;
+
+    private AccountKeys() {
+    }
+
+    public static long encode(CharSequence accountNumber) {
+        int len = accountNumber.length();
+        if (len == 0 || len > MAX_LENGTH) {
+            throw new IllegalArgumentException("Account number must be 1-" + MAX_LENGTH + " characters: " + accountNumber);
+        }
+        long key = 0;
+        for (int i = 0; i < len; i++) {
+            key = key * RADIX + digit(accountNumber.charAt(i), accountNumber);
+        }
+        return key;
+    }
+
+    /** Returns -1 instead of throwing for numbers that cannot be encoded. */
+    public static long tryEncode(CharSequence accountNumber) {
+        int len = accountNumber.length();
+        if (len == 0 || len > MAX_LENGTH) {
+            return -1;
+        }
+        long key = 0;
+        for (int i = 0; i < len; i++) {
+            int d = digitOrZero(accountNumber.charAt(i));
+            if (d == 0) {
+                return -1;
+            }
+            key = key * RADIX + d;
+        }
+        return key;
+    }
+
+    public static String decode(long key) {
+        char[] chars = new char[MAX_LENGTH];
+        int pos = MAX_LENGTH;
+        while (key > 0) {
+            int d = (int) (key % RADIX);
+            chars[--pos] = d <= 10 ? (char) ('0' + d - 1) : (char) ('A' + d - 11);
+            key /= RADIX;
+        }
+        return new String(chars, pos, MAX_LENGTH - pos);
+    }
+
+    private static int digit(char c, CharSequence accountNumber) {
+        int d = digitOrZero(c);
+        if (d == 0) {
+            throw new IllegalArgumentException("Unsupported character '" + c + "' in account number " + accountNumber);
+        }
+        return d;
+    }
+
+    private static int digitOrZero(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0' + 1;
+        }
+        if (c >= 'A' && c <= 'Z') {
+            return c - 'A' + 11;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,34 @@
+package com.technohacks.bank.store;
+
+import com.technohacks.bank.model.BankAccount;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Where an AccountStore keeps its accounts, keyed by account number.
+ *
+ * {@link HeapAccountTable} holds BankAccount objects; {@link OffHeapAccountTable}
+ * holds the same fields in direct memory and hands out views over them, so
+ * two lookups of one account need not return the same object. Compare
+ * accounts by number, not by reference.
+ */
+public interface AccountTable {
+
+    /** The account, or null if the number is unknown. */
+    BankAccount get(String accountNumber);
+
+    /** Adds the account, replacing any account with the same number. */
+    void put(BankAccount account);
+
+    /** Adds the account unless its number is taken; returns false if it was. */
+    boolean putIfAbsent(BankAccount account);
+
+    long size();
+
+    /** Visits every account; weakly consistent with concurrent inserts. */
+    void forEach(Consumer<BankAccount> action);
+
+    /** Splittable view of every account, weakly consistent like {@link #forEach}. */
+    Spliterator<BankAccount> spliterator();
+}
@@ -0,0 +1,47 @@
+package com.technohacks.bank.store;
+
+import com.technohacks.bank.model.BankAccount;
+
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/** Accounts as BankAccount objects in a ConcurrentHashMap. */
+public class HeapAccountTable implements AccountTable {
+    private final ConcurrentHashMap<String, BankAccount> accounts;
+
+    public HeapAccountTable(int expectedAccounts) {
+        this.accounts = new ConcurrentHashMap<>(Math.max(16, expectedAccounts));
+    }
+
+    @Override
+    public BankAccount get(String accountNumber) {
+        return accounts.get(accountNumber);
+    }
+
+    @Override
+    public void put(BankAccount account) {
+        accounts.put(account.getAccountNumber(), account);
+    }
+
+    @Override
+    public boolean putIfAbsent(BankAccount account) {
+        return accounts.putIfAbsent(account.getAccountNumber(), account) == null;
+    }
+
+    @Override
+    public long size() {
+        return accounts.mappingCount();
+    }
+
+    @Override
+    public void forEach(Consumer<BankAccount> action) {
+        accounts.values().forEach(action);
+    }
+
+    /** Each split covers a range of the underlying hash table. */
+    @Override
+    public Spliterator<BankAccount> spliterator() {
+        return accounts.values().spliterator();
+    }
+}
@@ -0,0 +1,512 @@
+package com.technohacks.bank.store;
+
+import com.technohacks.bank.model.BankAccount;
+import com.technohacks.bank.security.PinHasher;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Off-heap account table for very large account counts.
+ *
+ * Each account is a 104-byte record in direct memory: encoded account key
+ * ({@link AccountKeys}), balance in cents, journal sequence, row version,
+ * accrual day, a reference to the holder name in an append-only off-heap
+ * arena, and the PIN hash as its {@link PinHasher} iteration count, salt
+ * and digest in fixed-width fields. Records are appended densely; an
+ * open-addressing index of 4-byte record numbers finds them by key.
+ * Nothing per account lives on the Java heap, so 50M accounts take about
+ * 6 GB of direct memory and add no GC work.
+ *
+ * As an {@link AccountTable} the table hands out {@link AccountView}s,
+ * BankAccounts that read and write their record in place, so an
+ * AccountStore over it serves the same operations as one over a
+ * {@link HeapAccountTable}. The record-number methods below skip the view
+ * for callers that want no allocation at all.
+ *
+ * The table is sized up front and does not grow past it. Inserts are
+ * serialised; lookups and balance updates are lock-free, with balances
+ * changed by CAS. Accounts are never removed.
+ */
+public class OffHeapAccountTable implements AccountTable {
+    private static final int RECORD_SIZE = 104;
+    private static final int KEY = 0;
+    private static final int BALANCE = 8;
+    private static final int SEQUENCE = 16;
+    private static final int VERSION = 24;
+    private static final int ACCRUAL_DAY = 32;
+    private static final int HOLDER = 40;
+    private static final int ITERATIONS = 48;
+    private static final int SALT = 52;
+    private static final int HASH = SALT + PinHasher.SALT_BYTES;
+    private static final int CHUNK_SHIFT = 20; // 1M records, 104 MB per chunk
+    private static final int INDEX_SHIFT = 28; // 256M slots, 1 GB per segment
+    private static final int ARENA_CHUNK = 64 * 1024 * 1024;
+    private static final double MAX_LOAD = 0.75;
+
+    private static final VarHandle LONGS =
+        MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final VarHandle INTS =
+        MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    // slot -> record number + 1, 0 when empty
+    private final ByteBuffer[] index;
+    private final long capacity;
+    private final long mask;
+    private final long indexMask;
+    private final long maxSize;
+    private volatile ByteBuffer[] records = new ByteBuffer[0];
+    private volatile ByteBuffer[] arena = new ByteBuffer[0];
+    private long arenaTop;
+    private volatile long size;
+
+    public OffHeapAccountTable(long expectedAccounts) {
+        long slots = Long.highestOneBit(Math.max(16, (long) (expectedAccounts / MAX_LOAD)) - 1) << 1;
+        if (slots > 1L << 32) {
+            throw new IllegalArgumentException("Too many accounts for one table: " + expectedAccounts);
+        }
+        long perSegment = Math.min(slots, 1L << INDEX_SHIFT);
+        int count = (int) (slots / perSegment);
+        this.index = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            index[i] = ByteBuffer.allocateDirect((int) (perSegment * Integer.BYTES)).order(ByteOrder.nativeOrder());
+        }
+        this.capacity = slots;
+        this.mask = slots - 1;
+        this.indexMask = perSegment - 1;
+        this.maxSize = Math.min((long) (slots * MAX_LOAD), Integer.MAX_VALUE - 1);
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    public long capacity() {
+        return capacity;
+    }
+
+    /**
+     * Adds an account; returns false if the account number is already present.
+     *
+     * @param pinHash the PIN as hashed by {@link PinHasher}
+     */
+    public synchronized boolean insert(String accountNumber, String holder, String pinHash, long balance) {
+        long key = AccountKeys.encode(accountNumber);
+        long slot = slotFor(key);
+        if (slotRecord(slot) >= 0) {
+            return false;
+        }
+        long record = append(key);
+        writePinHash(record, pinHash);
+        writeHolder(record, holder);
+        LONGS.set(chunk(record), offset(record) + ACCRUAL_DAY, Long.MIN_VALUE);
+        LONGS.set(chunk(record), offset(record) + BALANCE, balance);
+        publish(slot, record);
+        return true;
+    }
+
+    /** Returns the record holding {@code accountNumber}, or -1. */
+    public long find(String accountNumber) {
+        long key = AccountKeys.tryEncode(accountNumber);
+        return key < 0 ? -1 : find(key);
+    }
+
+    public long find(long key) {
+        return slotRecord(slotFor(key));
+    }
+
+    /** Key stored in {@code record}. */
+    public long keyAt(long record) {
+        return (long) LONGS.get(chunk(record), offset(record) + KEY);
+    }
+
+    /**
+     * Runs the slow hash check, as {@code BankAccount.matchesPin} does,
+     * against the stored salt and digest without decoding an encoded hash.
+     */
+    public boolean matchesPin(long record, String pin) {
+        if (pin == null) {
+            return false;
+        }
+        ByteBuffer chunk = chunk(record);
+        int base = offset(record);
+        byte[] salt = new byte[PinHasher.SALT_BYTES];
+        for (int i = 0; i < salt.length; i++) {
+            salt[i] = chunk.get(base + SALT + i);
+        }
+        byte[] derived = PinHasher.derive(pin, salt, chunk.getInt(base + ITERATIONS));
+        int diff = 0;
+        for (int i = 0; i < PinHasher.HASH_BYTES; i++) {
+            diff |= derived[i] ^ chunk.get(base + HASH + i);
+        }
+        return diff == 0;
+    }
+
+    /** The PIN hash in {@link PinHasher}'s encoded form, e.g. for a snapshot. */
+    public String pinHashAt(long record) {
+        ByteBuffer chunk = chunk(record);
+        int base = offset(record);
+        byte[] salt = new byte[PinHasher.SALT_BYTES];
+        byte[] hash = new byte[PinHasher.HASH_BYTES];
+        for (int i = 0; i < salt.length; i++) {
+            salt[i] = chunk.get(base + SALT + i);
+        }
+        for (int i = 0; i < hash.length; i++) {
+            hash[i] = chunk.get(base + HASH + i);
+        }
+        return PinHasher.encode(chunk.getInt(base + ITERATIONS), salt, hash);
+    }
+
+    public long balance(long record) {
+        return (long) LONGS.getVolatile(chunk(record), offset(record) + BALANCE);
+    }
+
+    public void setBalance(long record, long balance) {
+        LONGS.setVolatile(chunk(record), offset(record) + BALANCE, balance);
+    }
+
+    /** Adds {@code delta} cents atomically and returns the new balance. */
+    public long addBalance(long record, long delta) {
+        ByteBuffer chunk = chunk(record);
+        int at = offset(record) + BALANCE;
+        while (true) {
+            long current = (long) LONGS.getVolatile(chunk, at);
+            long updated = Math.addExact(current, delta);
+            if (LONGS.compareAndSet(chunk, at, current, updated)) {
+                return updated;
+            }
+        }
+    }
+
+    /**
+     * Atomically subtracts {@code amount} cents if the balance covers it.
+     * Returns false, leaving the balance untouched, otherwise.
+     */
+    public boolean tryDebit(long record, long amount) {
+        ByteBuffer chunk = chunk(record);
+        int at = offset(record) + BALANCE;
+        while (true) {
+            long current = (long) LONGS.getVolatile(chunk, at);
+            if (amount > current) {
+                return false;
+            }
+            if (LONGS.compareAndSet(chunk, at, current, current - amount)) {
+                return true;
+            }
+        }
+    }
+
+    public String holderAt(long record) {
+        return load((long) LONGS.get(chunk(record), offset(record) + HOLDER));
+    }
+
+    /** A BankAccount over {@code record}; see {@link AccountView}. */
+    public AccountView view(long record) {
+        return new AccountView(this, record, AccountKeys.decode(keyAt(record)));
+    }
+
+    @Override
+    public BankAccount get(String accountNumber) {
+        long record = find(accountNumber);
+        return record < 0 ? null : new AccountView(this, record, accountNumber);
+    }
+
+    @Override
+    public synchronized void put(BankAccount account) {
+        long key = AccountKeys.encode(account.getAccountNumber());
+        long slot = slotFor(key);
+        long record = slotRecord(slot);
+        if (record >= 0 && account instanceof AccountView && ((AccountView) account).isRecord(this, record)) {
+            return;
+        }
+        boolean added = record < 0;
+        if (added) {
+            record = append(key);
+        }
+        writePinHash(record, account.getPinHash());
+        writeHolder(record, account.getAccountHolder());
+        copyFields(record, account);
+        if (added) {
+            publish(slot, record);
+        }
+    }
+
+    @Override
+    public synchronized boolean putIfAbsent(BankAccount account) {
+        long key = AccountKeys.encode(account.getAccountNumber());
+        long slot = slotFor(key);
+        if (slotRecord(slot) >= 0) {
+            return false;
+        }
+        long record = append(key);
+        writePinHash(record, account.getPinHash());
+        writeHolder(record, account.getAccountHolder());
+        copyFields(record, account);
+        publish(slot, record);
+        return true;
+    }
+
+    @Override
+    public void forEach(Consumer<BankAccount> action) {
+        long end = size;
+        for (long record = 0; record < end; record++) {
+            action.accept(view(record));
+        }
+    }
+
+    /** Splits by record number; accounts added after the call are not visited. */
+    @Override
+    public Spliterator<BankAccount> spliterator() {
+        return new RecordSpliterator(0, size);
+    }
+
+    /**
+     * A BankAccount that reads and writes one record of the table, so the
+     * service can work on off-heap accounts through its usual code. A view
+     * holds no account state of its own: it is created per lookup and
+     * dropped straight after, and two views of one record are equal.
+     */
+    public static final class AccountView extends BankAccount {
+        private final OffHeapAccountTable table;
+        private final long record;
+
+        AccountView(OffHeapAccountTable table, long record, String accountNumber) {
+            super(accountNumber, null, 0, null);
+            this.table = table;
+            this.record = record;
+        }
+
+        boolean isRecord(OffHeapAccountTable table, long record) {
+            return this.table == table && this.record == record;
+        }
+
+        @Override
+        public String getAccountHolder() {
+            return table.holderAt(record);
+        }
+
+        @Override
+        public String getPinHash() {
+            return table.pinHashAt(record);
+        }
+
+        @Override
+        public boolean matchesPin(String candidate) {
+            return table.matchesPin(record, candidate);
+        }
+
+        @Override
+        public long getBalance() {
+            return table.balance(record);
+        }
+
+        @Override
+        public void setBalance(long balance) {
+            table.setBalance(record, balance);
+        }
+
+        @Override
+        public long getLastSequence() {
+            return (long) LONGS.get(table.chunk(record), offset(record) + SEQUENCE);
+        }
+
+        @Override
+        public void setLastSequence(long lastSequence) {
+            LONGS.set(table.chunk(record), offset(record) + SEQUENCE, lastSequence);
+        }
+
+        @Override
+        public long getLastAccrualDay() {
+            return (long) LONGS.get(table.chunk(record), offset(record) + ACCRUAL_DAY);
+        }
+
+        @Override
+        public void setLastAccrualDay(long lastAccrualDay) {
+            LONGS.set(table.chunk(record), offset(record) + ACCRUAL_DAY, lastAccrualDay);
+        }
+
+        @Override
+        public long getVersion() {
+            return (long) LONGS.get(table.chunk(record), offset(record) + VERSION);
+        }
+
+        @Override
+        public void setVersion(long version) {
+            LONGS.set(table.chunk(record), offset(record) + VERSION, version);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof AccountView && ((AccountView) o).isRecord(table, record);
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(record);
+        }
+    }
+
+    private final class RecordSpliterator implements Spliterator<BankAccount> {
+        private long next;
+        private final long end;
+
+        RecordSpliterator(long next, long end) {
+            this.next = next;
+            this.end = end;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super BankAccount> action) {
+            if (next >= end) {
+                return false;
+            }
+            action.accept(view(next++));
+            return true;
+        }
+
+        @Override
+        public Spliterator<BankAccount> trySplit() {
+            long mid = (next + end) >>> 1;
+            if (mid <= next) {
+                return null;
+            }
+            Spliterator<BankAccount> prefix = new RecordSpliterator(next, mid);
+            next = mid;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return end - next;
+        }
+
+        @Override
+        public int characteristics() {
+            return NONNULL | DISTINCT | SIZED | SUBSIZED;
+        }
+    }
+
+    // Caller holds the table's monitor. The record stays invisible to
+    // readers until publish.
+    private long append(long key) {
+        if (size >= maxSize) {
+            throw new IllegalStateException("Account table is full (" + size + " accounts)");
+        }
+        long record = size;
+        ByteBuffer[] chunks = records;
+        if (record >>> CHUNK_SHIFT >= chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunks.length + 1);
+            chunks[chunks.length - 1] = ByteBuffer.allocateDirect(RECORD_SIZE << CHUNK_SHIFT).order(ByteOrder.nativeOrder());
+            records = chunks;
+        }
+        LONGS.set(chunk(record), offset(record) + KEY, key);
+        return record;
+    }
+
+    // publishing the index slot makes the record visible to lock-free readers
+    private void publish(long slot, long record) {
+        INTS.setRelease(index[(int) (slot >>> INDEX_SHIFT)], (int) (slot & indexMask) * Integer.BYTES, (int) record + 1);
+        size = record + 1;
+    }
+
+    private void copyFields(long record, BankAccount account) {
+        ByteBuffer chunk = chunk(record);
+        int base = offset(record);
+        LONGS.set(chunk, base + SEQUENCE, account.getLastSequence());
+        LONGS.set(chunk, base + VERSION, account.getVersion());
+        LONGS.set(chunk, base + ACCRUAL_DAY, account.getLastAccrualDay());
+        LONGS.setVolatile(chunk, base + BALANCE, account.getBalance());
+    }
+
+    private void writePinHash(long record, String pinHash) {
+        byte[] salt = new byte[PinHasher.SALT_BYTES];
+        byte[] hash = new byte[PinHasher.HASH_BYTES];
+        int iterations = PinHasher.decode(pinHash, salt, hash);
+        ByteBuffer chunk = chunk(record);
+        int base = offset(record);
+        chunk.putInt(base + ITERATIONS, iterations);
+        for (int i = 0; i < salt.length; i++) {
+            chunk.put(base + SALT + i, salt[i]);
+        }
+        for (int i = 0; i < hash.length; i++) {
+            chunk.put(base + HASH + i, hash[i]);
+        }
+    }
+
+    private void writeHolder(long record, String holder) {
+        LONGS.set(chunk(record), offset(record) + HOLDER, store(holder));
+    }
+
+    // Linear probing from the key's home slot: the slot holding the key, or
+    // the empty slot where it would go.
+    private long slotFor(long key) {
+        long slot = mix(key) & mask;
+        while (true) {
+            int entry = (int) INTS.getAcquire(index[(int) (slot >>> INDEX_SHIFT)], (int) (slot & indexMask) * Integer.BYTES);
+            if (entry == 0 || keyAt(entry - 1) == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private long slotRecord(long slot) {
+        return (int) INTS.getAcquire(index[(int) (slot >>> INDEX_SHIFT)], (int) (slot & indexMask) * Integer.BYTES) - 1L;
+    }
+
+    // Strings live in the arena as UTF-8, referenced by position << 16 | length.
+    private String load(long ref) {
+        int len = (int) (ref & 0xFFFF);
+        long position = ref >>> 16;
+        ByteBuffer chunk = arena[(int) (position / ARENA_CHUNK)];
+        byte[] bytes = new byte[len];
+        int start = (int) (position % ARENA_CHUNK);
+        for (int i = 0; i < len; i++) {
+            bytes[i] = chunk.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private long store(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("Holder name too long");
+        }
+        ByteBuffer[] chunks = arena;
+        if (chunks.length == 0 || arenaTop % ARENA_CHUNK + bytes.length > ARENA_CHUNK) {
+            arenaTop = (long) chunks.length * ARENA_CHUNK;
+            chunks = Arrays.copyOf(chunks, chunks.length + 1);
+            chunks[chunks.length - 1] = ByteBuffer.allocateDirect(ARENA_CHUNK);
+            arena = chunks;
+        }
+        ByteBuffer chunk = chunks[chunks.length - 1];
+        int start = (int) (arenaTop % ARENA_CHUNK);
+        for (int i = 0; i < bytes.length; i++) {
+            chunk.put(start + i, bytes[i]);
+        }
+        long ref = (arenaTop << 16) | bytes.length;
+        arenaTop += bytes.length;
+        return ref;
+    }
+
+    private ByteBuffer chunk(long record) {
+        return records[(int) (record >>> CHUNK_SHIFT)];
+    }
+
+    private static int offset(long record) {
+        return (int) (record & ((1 << CHUNK_SHIFT) - 1)) * RECORD_SIZE;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
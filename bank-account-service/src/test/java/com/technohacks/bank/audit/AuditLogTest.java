@@ -0,0 +1,33 @@
+package com.technohacks.bank.audit;
+
+import com.technohacks.bank.service.Operation;
+import com.technohacks.bank.service.OperationStatus;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AuditLogTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void eventsAfterCloseAreCountedAsDropped() throws Exception {
+        Path file = dir.resolve("audit.log");
+        AuditLog log = AuditLog.open(file, 16, BackpressurePolicy.BLOCK);
+        assertTrue(log.record(Operation.DEPOSIT, "ACC001", null, 100, OperationStatus.OK, 1100));
+        log.close();
+
+        assertFalse(log.record(Operation.DEPOSIT, "ACC001", null, 100, OperationStatus.OK, 1200));
+        assertFalse(log.record(Operation.WITHDRAW, "ACC001", null, 100, OperationStatus.OK, 1100));
+        assertEquals(1, log.writtenCount());
+        assertEquals(2, log.droppedCount());
+        assertEquals(1, Files.readAllLines(file).size());
+    }
+}
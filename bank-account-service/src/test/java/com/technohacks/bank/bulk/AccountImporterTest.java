@@ -0,0 +1,123 @@
+package com.technohacks.bank.bulk;
+
+import com.technohacks.bank.journal.TransactionJournal;
+import com.technohacks.bank.model.BankAccount;
+import com.technohacks.bank.security.PinHasher;
+import com.technohacks.bank.service.AccountStore;
+import com.technohacks.bank.service.BankAccountService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+class AccountImporterTest {
+    private static final String HASH = PinHasher.hash("4321", 1);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void invalidAndDuplicateRecordsAreRejected() throws Exception {
+        Path file = csv(
+            AccountFileFormat.CSV_HEADER,
+            "A1,Ada,HASH,10.50",
+            "a-2,Bad Number,HASH,1",
+            "A3,  ,HASH,1",
+            "A4,Bad Hash,1234,1",
+            "A5,Negative,HASH,-1.00",
+            "A6,Three Fields,HASH",
+            "A1,Again,HASH,1",
+            "A7,\"Doe, \"\"J\"\"\",HASH,0.07",
+            "",
+            "A8,Last,HASH,3");
+        ImportResult result = AccountImporter.load(file);
+
+        assertEquals(3, result.getLoaded());
+        assertEquals(6, result.getRejected());
+        assertEquals(6, result.getErrors().size());
+        assertEquals("line 3: account number must be 1-12 digits or capital letters", result.getErrors().get(0));
+        assertEquals("line 8: duplicate account number A1", result.getErrors().get(5));
+        AccountStore accounts = result.getAccounts();
+        assertEquals(1050, accounts.get("A1").getBalance());
+        assertEquals("Ada", accounts.get("A1").getAccountHolder());
+        assertEquals("Doe, \"J\"", accounts.get("A7").getAccountHolder());
+        assertEquals(7, accounts.get("A7").getBalance());
+    }
+
+    @Test
+    void exportsLoadBackInBothFormats() throws Exception {
+        BankAccountService service = new BankAccountService();
+        for (AccountFileFormat format : AccountFileFormat.values()) {
+            Path file = dir.resolve(format == AccountFileFormat.CSV ? "accounts.csv" : "accounts.bin");
+            assertEquals(3, service.exportAccounts(file));
+            AccountStore loaded = AccountImporter.load(file).getAccounts();
+            for (String number : List.of("ACC001", "ACC002", "ACC003")) {
+                BankAccount acc = loaded.get(number);
+                assertNotNull(acc, number);
+                assertEquals(service.getBalances(List.of(number))[0], acc.getBalance());
+            }
+        }
+    }
+
+    @Test
+    void importIntoARunningServiceKeepsExistingAccounts() throws Exception {
+        BankAccountService service = new BankAccountService();
+        long before = service.getBalances(List.of("ACC001"))[0];
+        Path file = csv("ACC001,Taken,HASH,1", "NEW1,New Holder,HASH,25");
+        ImportResult result = service.importAccounts(file);
+
+        assertEquals(1, result.getLoaded());
+        assertEquals(1, result.getRejected());
+        assertEquals(before, service.getBalances(List.of("ACC001"))[0]);
+        // the PIN hash came along, so the imported PIN works
+        assertEquals(2500, service.checkBalance("NEW1", "4321"));
+    }
+
+    @Test
+    void journalledImportSurvivesARestart() throws Exception {
+        Path file = csv("ACC002,Taken,HASH,1", "NEW1,New Holder,HASH,25", "NEW2,Other,HASH,0.50");
+        try (BankAccountService service = new BankAccountService(TransactionJournal.open(dir.resolve("journal")))) {
+            ImportResult result = service.importAccounts(file);
+            assertEquals(2, result.getLoaded());
+            service.deposit(service.openSession("NEW2", "4321"), 100);
+        }
+        try (BankAccountService restarted = new BankAccountService(TransactionJournal.open(dir.resolve("journal")))) {
+            assertEquals(2500, restarted.checkBalance("NEW1", "4321"));
+            assertEquals(150, restarted.checkBalance("NEW2", "4321"));
+            assertEquals("New Holder", restarted.getAccountDetails("NEW1", "4321").getAccountHolder());
+            assertEquals(300000, restarted.getBalances(List.of("ACC002"))[0]);
+        }
+    }
+
+    @Test
+    void loadingIntoAStoreFromSeveralWorkersLoadsEverything() throws Exception {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 20_000; i++) {
+            lines.append('N').append(i).append(",Holder ").append(i).append(",HASH,").append(i).append(".01\n");
+        }
+        Path file = dir.resolve("many.csv");
+        Files.write(file, lines.toString().replace("HASH", HASH).getBytes(StandardCharsets.UTF_8));
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            ImportResult result = AccountImporter.load(file, AccountFileFormat.CSV, null, pool);
+            assertEquals(20_000, result.getLoaded());
+            assertEquals(0, result.getRejected());
+            assertEquals(1234501, result.getAccounts().get("N12345").getBalance());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private Path csv(String... lines) throws Exception {
+        Path file = dir.resolve("import.csv");
+        Files.write(file, String.join("\n", lines).replace("HASH", HASH).getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
@@ -0,0 +1,59 @@
+package com.technohacks.bank.cluster;
+
+import com.technohacks.bank.service.OperationResult;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PartitionRouterTest {
+    private static final int ACCOUNTS = 60;
+
+    @Test
+    void addingANodeOnlyMovesAccountsToIt() {
+        List<String> nodes = new ArrayList<>(List.of("node-0", "node-1", "node-2", "node-3"));
+        HashRing before = HashRing.of(nodes);
+        HashRing after = before.withNode("node-4");
+        int moved = 0;
+        for (int i = 0; i < 10_000; i++) {
+            String account = LocalCluster.accountNumber(i);
+            if (!before.nodeFor(account).equals(after.nodeFor(account))) {
+                assertEquals("node-4", after.nodeFor(account));
+                moved++;
+            }
+        }
+        // about a fifth of the accounts belong to the new node
+        assertTrue(moved > 1_000 && moved < 3_000, "moved " + moved);
+        assertEquals(before.nodeFor("ACC7"), after.withoutNode("node-4").nodeFor("ACC7"));
+    }
+
+    @Test
+    void inProcessTransfersConserveTheTotal() throws Exception {
+        try (LocalCluster cluster = LocalCluster.inProcess(3, ACCOUNTS)) {
+            transferRandomly(cluster, 400);
+        }
+    }
+
+    @Test
+    void loopbackTransfersConserveTheTotal() throws Exception {
+        try (LocalCluster cluster = LocalCluster.overLoopback(3, ACCOUNTS)) {
+            transferRandomly(cluster, 100);
+        }
+    }
+
+    private static void transferRandomly(LocalCluster cluster, int transfers) throws Exception {
+        PartitionRouter router = cluster.getRouter();
+        Random random = new Random(1);
+        OperationResult result = new OperationResult();
+        for (int i = 0; i < transfers; i++) {
+            router.tryTransfer(LocalCluster.accountNumber(random.nextInt(ACCOUNTS)), LocalCluster.PIN,
+                LocalCluster.accountNumber(random.nextInt(ACCOUNTS)), random.nextInt(200_000), result);
+        }
+        assertTrue(router.getCrossPartitionTransfers() > 0);
+        assertEquals(LocalCluster.OPENING_BALANCE * ACCOUNTS, cluster.totalBalance());
+    }
+}
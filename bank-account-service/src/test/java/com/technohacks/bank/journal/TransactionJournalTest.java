@@ -0,0 +1,138 @@
+package com.technohacks.bank.journal;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TransactionJournalTest {
+    private static final int SEGMENT_SIZE = 64 * 1024;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replaysWhatWasAppended() throws IOException {
+        try (TransactionJournal journal = TransactionJournal.open(dir, SEGMENT_SIZE)) {
+            journal.appendDeposit("ACC001", 100, "key-1");
+            journal.appendTransfer("ACC001", "ACC002", 40);
+            journal.appendAccrual("ACC002", -3, 19000);
+            journal.commit(journal.nextSequence() - 1);
+        }
+        try (TransactionJournal journal = TransactionJournal.open(dir, SEGMENT_SIZE)) {
+            List<String> records = replay(journal);
+            assertEquals(List.of("1 2 ACC001  100 key-1 null", "2 3 ACC001 ACC002 40 null null",
+                "3 4 ACC002  -3 null 19000"), records);
+            assertEquals(4, journal.nextSequence());
+        }
+    }
+
+    @Test
+    void tornRecordIsDroppedAndOverwritten() throws IOException {
+        try (TransactionJournal journal = TransactionJournal.open(dir, SEGMENT_SIZE)) {
+            journal.appendDeposit("ACC001", 100);
+            journal.appendWithdraw("ACC001", 30);
+            journal.appendTransfer("ACC001", "ACC002", 2500, "a-long-idempotency-key");
+            journal.commit(journal.nextSequence() - 1);
+        }
+        // a crash in the middle of the third record: its length made it to
+        // disk but the last bytes of its body did not
+        Path segment = onlySegment();
+        int third = recordOffset(segment, 2);
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            file.seek(third);
+            int length = file.readInt();
+            file.seek(third + length - 4);
+            file.writeInt(0);
+        }
+
+        try (TransactionJournal journal = TransactionJournal.open(dir, SEGMENT_SIZE)) {
+            assertEquals(List.of("1 2 ACC001  100 null null", "2 1 ACC001  30 null null"), replay(journal));
+            assertEquals(3, journal.nextSequence());
+            // a shorter record in its place must not run into what is left of it
+            journal.appendDeposit("ACC002", 7);
+            journal.commit(journal.nextSequence() - 1);
+        }
+        try (TransactionJournal journal = TransactionJournal.open(dir, SEGMENT_SIZE)) {
+            assertEquals(List.of("1 2 ACC001  100 null null", "2 1 ACC001  30 null null",
+                "3 2 ACC002  7 null null"), replay(journal));
+            assertEquals(4, journal.nextSequence());
+        }
+    }
+
+    @Test
+    void unwrittenLengthEndsTheJournal() throws IOException {
+        try (TransactionJournal journal = TransactionJournal.open(dir, SEGMENT_SIZE)) {
+            journal.appendDeposit("ACC001", 100);
+            journal.appendDeposit("ACC001", 200);
+            journal.commit(journal.nextSequence() - 1);
+        }
+        Path segment = onlySegment();
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            file.seek(recordOffset(segment, 1));
+            file.writeInt(0);
+        }
+        try (TransactionJournal journal = TransactionJournal.open(dir, SEGMENT_SIZE)) {
+            assertEquals(List.of("1 2 ACC001  100 null null"), replay(journal));
+            assertEquals(2, journal.nextSequence());
+        }
+    }
+
+    @Test
+    void recordsRollOverSegments() throws IOException {
+        int count = 5000;
+        try (TransactionJournal journal = TransactionJournal.open(dir, 4096)) {
+            for (int i = 0; i < count; i++) {
+                journal.appendDeposit("ACC" + i, i);
+            }
+            journal.commit(journal.nextSequence() - 1);
+        }
+        try (TransactionJournal journal = TransactionJournal.open(dir, 4096)) {
+            long[] sum = new long[2];
+            assertEquals(count, journal.replay(1, (sequence, type, account, counterparty, amount, key, detail) -> {
+                assertEquals(sum[0] + 1, sequence);
+                sum[0] = sequence;
+                sum[1] += amount;
+            }));
+            assertEquals((long) count * (count - 1) / 2, sum[1]);
+            assertEquals(count + 1, journal.nextSequence());
+        }
+    }
+
+    private static List<String> replay(TransactionJournal journal) throws IOException {
+        List<String> records = new ArrayList<>();
+        journal.replay(1, (sequence, type, account, counterparty, amount, key, detail) ->
+            records.add(sequence + " " + type + " " + account + " " + counterparty + " " + amount + " " + key + " "
+                + detail));
+        return records;
+    }
+
+    private Path onlySegment() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            List<Path> segments = files.collect(Collectors.toList());
+            assertEquals(1, segments.size());
+            return segments.get(0);
+        }
+    }
+
+    // offset of the index-th record, following the length fields
+    private static int recordOffset(Path segment, int index) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "r")) {
+            int p = 0;
+            for (int i = 0; i < index; i++) {
+                file.seek(p);
+                p += file.readInt();
+            }
+            return p;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.technohacks.bank.replication;
+
+import com.technohacks.bank.journal.SnapshotStore;
+import com.technohacks.bank.journal.TransactionJournal;
+import com.technohacks.bank.service.BankAccountService;
+import com.technohacks.bank.service.OperationResult;
+import com.technohacks.bank.service.OperationStatus;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReplicationTest {
+    private static final int ACCOUNTS = 40;
+    private static final String PIN = ReplicationHarness.PIN;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void standbyCatchesUpAndTakesOverOnPromotion() throws Exception {
+        TransactionJournal journal = TransactionJournal.open(dir.resolve("primary"));
+        try (BankAccountService primary = new BankAccountService(ReplicationHarness.accounts(ACCOUNTS), journal);
+             ReplicationPrimary shipping = new ReplicationPrimary(journal, 0).start()) {
+            primary.setReplicationPrimary(shipping);
+            drive(primary, 0, 200);
+            primary.checkpoint(new SnapshotStore(dir.resolve("primary")));
+            // written after the snapshot but before the standby connects,
+            // so it has to catch up
+            drive(primary, 200, 400);
+
+            SnapshotStore.Snapshot snapshot = new SnapshotStore(dir.resolve("primary")).loadLatest();
+            long[] promotedBalances;
+            try (BankAccountService service = new BankAccountService(standbyJournal(snapshot), snapshot)) {
+                Standby standby = new Standby(service, snapshot.getStartSequence(), shipping.getPort()).start();
+                drive(primary, 400, 600);
+                awaitApplied(standby, journal.durableSequence());
+
+                BankAccountService promoted = standby.promote();
+                assertNull(standby.getFailure());
+                assertArrayEquals(balances(primary), balances(promoted));
+
+                // a retry reaching the promoted standby gets the primary's outcome
+                OperationResult result = new OperationResult();
+                promoted.tryWithdraw("ACC1", PIN, 1 + 499 % 50, "k-499", result);
+                assertEquals(OperationStatus.OK, result.getStatus());
+                assertArrayEquals(balances(primary), balances(promoted));
+
+                assertEquals(OperationStatus.OK, promoted.tryDeposit("ACC0", PIN, 5, result));
+                assertEquals(balances(primary)[0] + 5, balances(promoted)[0]);
+                promotedBalances = balances(promoted);
+            }
+            // the promoted standby journalled everything under the primary's sequences
+            SnapshotStore.Snapshot reloaded = new SnapshotStore(dir.resolve("primary")).loadLatest();
+            try (BankAccountService restarted = new BankAccountService(standbyJournal(reloaded), reloaded)) {
+                assertArrayEquals(promotedBalances, balances(restarted));
+            }
+        }
+    }
+
+    private TransactionJournal standbyJournal(SnapshotStore.Snapshot snapshot) throws Exception {
+        return TransactionJournal.open(dir.resolve("standby"), TransactionJournal.DEFAULT_SEGMENT_SIZE,
+            snapshot.getStartSequence());
+    }
+
+    // Transfers and deposits, with a keyed withdrawal every tenth step.
+    private static void drive(BankAccountService service, int from, int to) {
+        Random random = new Random(from);
+        OperationResult result = new OperationResult();
+        for (int step = from; step < to; step++) {
+            String account = "ACC" + random.nextInt(ACCOUNTS);
+            if (step % 10 == 9) {
+                service.tryWithdraw("ACC1", PIN, 1 + step % 50, "k-" + step, result);
+            } else if (step % 4 == 0) {
+                service.tryDeposit(account, PIN, 1 + random.nextInt(100), result);
+            } else {
+                service.tryTransfer(account, PIN, "ACC" + random.nextInt(ACCOUNTS), 1 + random.nextInt(100_000), result);
+            }
+        }
+    }
+
+    private static void awaitApplied(Standby standby, long sequence) throws InterruptedException {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (standby.getAppliedSequence() < sequence && System.nanoTime() < deadline) {
+            assertNull(standby.getFailure());
+            Thread.sleep(1);
+        }
+        assertTrue(standby.getAppliedSequence() >= sequence, "applied " + standby.getAppliedSequence());
+    }
+
+    private static long[] balances(BankAccountService service) throws Exception {
+        List<String> numbers = new ArrayList<>(ACCOUNTS);
+        for (int i = 0; i < ACCOUNTS; i++) {
+            numbers.add("ACC" + i);
+        }
+        return service.getBalances(numbers);
+    }
+}
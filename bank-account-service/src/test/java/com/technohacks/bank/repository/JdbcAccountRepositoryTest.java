@@ -0,0 +1,139 @@
+package com.technohacks.bank.repository;
+
+import com.technohacks.bank.history.EntryType;
+import com.technohacks.bank.history.HistoryEntry;
+import com.technohacks.bank.history.TransactionHistory;
+import com.technohacks.bank.journal.TransactionJournal;
+import com.technohacks.bank.model.BankAccount;
+import com.technohacks.bank.service.BankAccountService;
+import com.technohacks.bank.service.Operation;
+import com.technohacks.bank.service.OperationResult;
+import com.technohacks.bank.service.OperationStatus;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class JdbcAccountRepositoryTest {
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+    private static final List<String> ACCOUNTS = List.of("ACC001", "ACC002", "ACC003");
+
+    private final String url = "jdbc:h2:mem:accounts-" + DATABASES.incrementAndGet() + ";DB_CLOSE_DELAY=-1";
+
+    @Test
+    void emptyDatabaseIsSeededAndChangesAreStored() throws Exception {
+        long[] served;
+        try (JdbcAccountRepository repository = open()) {
+            BankAccountService service = new BankAccountService(repository);
+            String token = service.openSession("ACC001", "1234");
+            service.deposit(token, 100);
+            service.transfer(token, "ACC002", 250);
+            served = service.getBalances(ACCOUNTS);
+        }
+        try (JdbcAccountRepository repository = open()) {
+            assertEquals(3, repository.count());
+            Map<String, Long> stored = stored(repository);
+            for (int i = 0; i < ACCOUNTS.size(); i++) {
+                assertEquals(served[i], stored.get(ACCOUNTS.get(i)));
+            }
+            assertArrayEquals(served, new BankAccountService(repository).getBalances(ACCOUNTS));
+        }
+    }
+
+    @Test
+    void queuedUpdatesOfOneAccountCoalesce() {
+        try (JdbcAccountRepository repository = open()) {
+            BankAccount acc = BankAccount.withPinHash("ACC9", "Holder", "hash", 0);
+            repository.insert(List.of(acc));
+            for (int i = 1; i <= 5; i++) {
+                acc.setBalance(i);
+                acc.setVersion(i);
+                repository.update(acc);
+            }
+            repository.sync();
+            assertEquals(1, repository.getBatchCount());
+            assertEquals(1, repository.getRowCount());
+            assertEquals(5L, stored(repository).get("ACC9"));
+        }
+    }
+
+    @Test
+    void rowChangedByAnotherWriterFailsTheOperation() throws Exception {
+        try (JdbcAccountRepository repository = open()) {
+            BankAccountService service = new BankAccountService(repository);
+            execute("UPDATE accounts SET balance = 1, version = version + 1 WHERE account_number = 'ACC002'");
+
+            TransactionHistory history = TransactionHistory.inMemory();
+            service.setTransactionHistory(history);
+            OperationResult result = new OperationResult();
+            assertEquals(OperationStatus.VERSION_CONFLICT, service.tryDeposit("ACC002", "5678", 10, "d-1", result));
+            assertEquals(1, repository.getConflictCount());
+            assertEquals(1, service.getMetrics().snapshot().getOperations().get(Operation.DEPOSIT.ordinal())
+                .getCount(OperationStatus.VERSION_CONFLICT));
+            // the service took the stored row back, and the statement with it
+            assertEquals(1L, stored(repository).get("ACC002"));
+            assertEquals(1, service.getBalances(List.of("ACC002"))[0]);
+            HistoryEntry adjustment = history.latest("ACC002", 1).get(0);
+            assertEquals(EntryType.ADJUSTMENT_OUT, adjustment.getType());
+            assertEquals(1, adjustment.getBalance());
+
+            // a retry under the same key runs again
+            service.tryDeposit("ACC002", "5678", 10, "d-1", result);
+            assertEquals(OperationStatus.OK, result.getStatus());
+            assertEquals(11L, stored(repository).get("ACC002"));
+        }
+    }
+
+    @Test
+    void conflictDropsBothLegsOfATransfer() throws Exception {
+        try (JdbcAccountRepository repository = open()) {
+            BankAccountService service = new BankAccountService(repository);
+            Map<String, Long> before = stored(repository);
+            execute("UPDATE accounts SET version = version + 1 WHERE account_number = 'ACC002'");
+
+            assertEquals(OperationStatus.VERSION_CONFLICT,
+                service.tryTransfer("ACC001", "1234", "ACC002", 500, new OperationResult()));
+            assertEquals(before, stored(repository));
+            long[] served = service.getBalances(ACCOUNTS);
+            for (int i = 0; i < ACCOUNTS.size(); i++) {
+                assertEquals(before.get(ACCOUNTS.get(i)), served[i]);
+            }
+        }
+    }
+
+    @Test
+    void journalledServiceRefusesARepository(@TempDir Path dir) throws Exception {
+        try (JdbcAccountRepository repository = open();
+             BankAccountService service = new BankAccountService(TransactionJournal.open(dir.resolve("j"), 4096))) {
+            assertThrows(IllegalStateException.class, () -> service.setAccountRepository(repository));
+        }
+    }
+
+    private JdbcAccountRepository open() {
+        return JdbcAccountRepository.open(url, "sa", "", 2);
+    }
+
+    private void execute(String sql) throws Exception {
+        try (Connection connection = DriverManager.getConnection(url, "sa", "");
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate(sql);
+        }
+    }
+
+    private static Map<String, Long> stored(AccountRepository repository) {
+        Map<String, Long> balances = new HashMap<>();
+        repository.forEach(acc -> balances.put(acc.getAccountNumber(), acc.getBalance()));
+        return balances;
+    }
+}
@@ -0,0 +1,71 @@
+package com.technohacks.bank.security;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LockoutTableTest {
+
+    @Test
+    void locksAfterTheLastAllowedFailure() {
+        LockoutTable table = new LockoutTable(1024, 3, 10, TimeUnit.MINUTES);
+        assertFalse(table.recordFailure("ACC001"));
+        assertFalse(table.recordFailure("ACC001"));
+        assertFalse(table.isLocked("ACC001"));
+        assertTrue(table.recordFailure("ACC001"));
+        assertTrue(table.isLocked("ACC001"));
+        assertTrue(table.remainingMillis("ACC001") > TimeUnit.MINUTES.toMillis(9));
+        assertFalse(table.isLocked("ACC002"));
+        assertEquals(0, table.remainingMillis("ACC002"));
+    }
+
+    @Test
+    void successClearsTheCountButNotALockout() {
+        LockoutTable table = new LockoutTable(1024, 3, 10, TimeUnit.MINUTES);
+        table.recordFailure("ACC001");
+        table.recordFailure("ACC001");
+        table.recordSuccess("ACC001");
+        assertFalse(table.recordFailure("ACC001"));
+        assertFalse(table.recordFailure("ACC001"));
+        assertTrue(table.recordFailure("ACC001"));
+        table.recordSuccess("ACC001");
+        assertTrue(table.isLocked("ACC001"));
+    }
+
+    @Test
+    void keysSharingSlotsKeepTheirOwnCounts() {
+        // every key's probes cover the whole table
+        LockoutTable table = new LockoutTable(LockoutTable.PROBES, 3, 10, TimeUnit.MINUTES);
+        table.recordFailure("ACC001");
+        table.recordFailure("ACC001");
+        table.recordFailure("ACC002");
+        table.recordFailure("ACC002");
+        assertTrue(table.recordFailure("ACC002"));
+        table.recordFailure("ACC003");
+        table.recordSuccess("ACC003");
+        assertFalse(table.isLocked("ACC001"));
+        assertFalse(table.isLocked("ACC003"));
+        assertTrue(table.recordFailure("ACC001"));
+
+        // new keys evict counts before lockouts
+        for (int i = 10; i < 20; i++) {
+            table.recordFailure("ACC0" + i);
+        }
+        assertTrue(table.isLocked("ACC001"));
+        assertTrue(table.isLocked("ACC002"));
+    }
+
+    @Test
+    void lockoutEnds() throws InterruptedException {
+        LockoutTable table = new LockoutTable(1024, 2, 50, TimeUnit.MILLISECONDS);
+        table.recordFailure("ACC001");
+        assertTrue(table.recordFailure("ACC001"));
+        Thread.sleep(120);
+        assertFalse(table.isLocked("ACC001"));
+        assertFalse(table.recordFailure("ACC001"));
+    }
+}
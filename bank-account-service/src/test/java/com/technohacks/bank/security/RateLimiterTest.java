@@ -0,0 +1,37 @@
+package com.technohacks.bank.security;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RateLimiterTest {
+
+    @Test
+    void burstIsRefusedOnceUsedUp() {
+        RateLimiter limiter = new RateLimiter(1024, 5, 0.001);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.tryAcquire("10.0.0.1"));
+        }
+        assertFalse(limiter.permits("10.0.0.1"));
+        assertFalse(limiter.tryAcquire("10.0.0.1"));
+        assertTrue(limiter.permits("10.0.0.2"));
+    }
+
+    @Test
+    void emptiedBucketRefills() throws InterruptedException {
+        RateLimiter limiter = new RateLimiter(1024, 2, 100);
+        limiter.tryAcquire("client");
+        limiter.tryAcquire("client");
+        assertFalse(limiter.permits("client"));
+        Thread.sleep(50);
+        assertTrue(limiter.tryAcquire("client"));
+    }
+
+    @Test
+    void rejectsUnusableSettings() {
+        assertThrows(IllegalArgumentException.class, () -> new RateLimiter(0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new RateLimiter(1, 0));
+    }
+}
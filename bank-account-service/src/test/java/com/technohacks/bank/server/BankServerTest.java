@@ -0,0 +1,63 @@
+package com.technohacks.bank.server;
+
+import com.technohacks.bank.model.BankAccount;
+import com.technohacks.bank.security.PinHasher;
+import com.technohacks.bank.service.AccountStore;
+import com.technohacks.bank.service.BankAccountService;
+import com.technohacks.bank.service.OperationResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BankServerTest {
+    private static final int ACCOUNTS = 40;
+
+    private final BankServer server;
+
+    BankServerTest() throws IOException {
+        AccountStore accounts = new AccountStore();
+        String hash = PinHasher.hash("1234", 1);
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accounts.put(BankAccount.withPinHash("ACC" + i, "Holder " + i, hash, 100_00));
+        }
+        server = new BankServer(new BankAccountService(accounts, null), 0);
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        server.close();
+    }
+
+    @Test
+    void clientIsRefusedAfterTooManyIncorrectPins() {
+        // a different account each time, so no account lockout gets in the way
+        int i = 0;
+        String reply;
+        do {
+            reply = send("10.0.0.1", "BALANCE ACC" + i++ + " 0000");
+        } while (reply.startsWith("ERR\t401") && i < ACCOUNTS);
+        assertTrue(reply.startsWith("ERR\t429\tRATE_LIMITED"), reply);
+        assertTrue(send("10.0.0.1", "BALANCE ACC39 1234").startsWith("ERR\t429"));
+        // other clients are still served
+        assertEquals("OK\t100.00", send("10.0.0.2", "BALANCE ACC39 1234"));
+    }
+
+    @Test
+    void accountIsLockedAfterRepeatedIncorrectPins() {
+        for (int i = 0; i < 5; i++) {
+            assertTrue(send("10.0.0." + i, "BALANCE ACC1 0000").startsWith("ERR\t401"));
+        }
+        assertTrue(send("10.0.0.9", "BALANCE ACC1 1234").startsWith("ERR\t423\tACCOUNT_LOCKED"));
+        assertEquals("OK\t100.00", send("10.0.0.9", "BALANCE ACC2 1234"));
+    }
+
+    private String send(String client, String line) {
+        StringBuilder reply = new StringBuilder();
+        server.handle(client, line, new OperationResult(), reply);
+        return reply.toString();
+    }
+}
@@ -0,0 +1,46 @@
+package com.technohacks.bank.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AccountStoreTest {
+    private final AccountStore store = new AccountStore(16, 64);
+
+    @Test
+    void unbalancedUnlockThrows() {
+        assertThrows(IllegalMonitorStateException.class, () -> store.unlock("ACC001"));
+
+        store.lock("ACC001");
+        store.unlock("ACC001");
+        assertThrows(IllegalMonitorStateException.class, () -> store.unlock("ACC001"));
+    }
+
+    @Test
+    void unlockPairReleasesBothStripes() {
+        String first = "ACC001";
+        String second = "ACC002";
+        if (store.stripeOf(first) == store.stripeOf(second)) {
+            second = "ACC003";
+        }
+        store.lockPair(first, second);
+        assertTrue(store.lockFor(first).isWriteLocked());
+        assertTrue(store.lockFor(second).isWriteLocked());
+        store.unlockPair(first, second);
+        assertFalse(store.lockFor(first).isWriteLocked());
+        assertFalse(store.lockFor(second).isWriteLocked());
+
+        String a = first;
+        String b = second;
+        assertThrows(IllegalMonitorStateException.class, () -> store.unlockPair(a, b));
+    }
+
+    @Test
+    void pairOnOneStripeIsUnlockedOnce() {
+        store.lockPair("ACC001", "ACC001");
+        store.unlockPair("ACC001", "ACC001");
+        assertFalse(store.lockFor("ACC001").isWriteLocked());
+    }
+}
@@ -0,0 +1,83 @@
+package com.technohacks.bank.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class IdempotencyTest {
+    private final BankAccountService service = new BankAccountService();
+
+    @Test
+    void retryGetsTheFirstOutcomeBack() throws Exception {
+        String token = service.openSession("ACC001", "1234");
+        long before = service.checkBalance(token);
+        OperationResult first = new OperationResult();
+        OperationResult retry = new OperationResult();
+        service.tryWithdraw(token, 100, "w-1", first);
+        service.tryDeposit(token, 7, null, new OperationResult());
+        service.tryWithdraw(token, 100, "w-1", retry);
+
+        assertEquals(OperationStatus.OK, retry.getStatus());
+        assertEquals(first.getBalance(), retry.getBalance());
+        assertEquals(before - 100 + 7, service.checkBalance(token));
+    }
+
+    @Test
+    void refusalIsNotTurnedIntoASuccess() throws Exception {
+        String token = service.openSession("ACC003", "9012");
+        long balance = service.checkBalance(token);
+        OperationResult result = new OperationResult();
+        service.tryTransfer(token, "ACC001", balance + 1, "t-1", result);
+        assertEquals(OperationStatus.INSUFFICIENT_BALANCE, result.getStatus());
+
+        service.deposit(token, 10);
+        service.tryTransfer(token, "ACC001", balance + 1, "t-1", result);
+        assertEquals(OperationStatus.INSUFFICIENT_BALANCE, result.getStatus());
+        assertEquals(balance + 10, service.checkBalance(token));
+    }
+
+    @Test
+    void reusedKeyWithOtherArgumentsConflicts() throws Exception {
+        String token = service.openSession("ACC002", "5678");
+        OperationResult result = new OperationResult();
+        service.tryDeposit(token, 50, "d-1", result);
+        long balance = service.checkBalance(token);
+
+        service.tryDeposit(token, 51, "d-1", result);
+        assertEquals(OperationStatus.IDEMPOTENCY_CONFLICT, result.getStatus());
+        service.tryWithdraw(token, 50, "d-1", result);
+        assertEquals(OperationStatus.IDEMPOTENCY_CONFLICT, result.getStatus());
+        assertThrows(IllegalArgumentException.class, () -> service.deposit(token, 51, "d-1"));
+        assertEquals(balance, service.checkBalance(token));
+    }
+
+    @Test
+    void concurrentDuplicatesMoveMoneyOnce() throws Exception {
+        String token = service.openSession("ACC001", "1234");
+        String other = service.openSession("ACC002", "5678");
+        long before = service.checkBalance(token);
+        long otherBefore = service.checkBalance(other);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Long>> done = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                done.add(pool.submit(() -> service.transfer(token, "ACC002", 250, "same-key")));
+            }
+            for (Future<Long> f : done) {
+                assertEquals(before - 250, f.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(before - 250, service.checkBalance(token));
+        assertEquals(otherBefore + 250, service.checkBalance(other));
+    }
+}
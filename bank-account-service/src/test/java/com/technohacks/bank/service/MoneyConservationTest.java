@@ -0,0 +1,134 @@
+package com.technohacks.bank.service;
+
+import com.technohacks.bank.journal.TransactionJournal;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Transfers move money between accounts but never create or destroy it. */
+class MoneyConservationTest {
+    private static final String[] ACCOUNTS = {"ACC001", "ACC002", "ACC003"};
+    private static final String[] PINS = {"1234", "5678", "9012"};
+    private static final int THREADS = 8;
+    private static final int TRANSFERS = 5000;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void concurrentTransfersKeepTheTotal() throws Exception {
+        long before;
+        long after;
+        try (BankAccountService service = new BankAccountService(TransactionJournal.open(dir.resolve("j")))) {
+            before = total(service);
+            ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+            try {
+                List<Future<?>> done = new ArrayList<>();
+                for (int t = 0; t < THREADS; t++) {
+                    long seed = t;
+                    done.add(pool.submit(() -> {
+                        transferRandomly(service, new Random(seed));
+                        return null;
+                    }));
+                }
+                for (Future<?> f : done) {
+                    f.get(60, TimeUnit.SECONDS);
+                }
+            } finally {
+                pool.shutdown();
+            }
+            List<TransferInstruction> batch = new ArrayList<>();
+            Random random = new Random(THREADS);
+            // each instruction checks its PIN, which is deliberately slow
+            for (int i = 0; i < 500; i++) {
+                int from = random.nextInt(ACCOUNTS.length);
+                batch.add(new TransferInstruction(ACCOUNTS[from], PINS[from], ACCOUNTS[random.nextInt(ACCOUNTS.length)],
+                    random.nextInt(100_000)));
+            }
+            assertTrue(service.transferBatch(batch).getSucceeded() > 0);
+            after = total(service);
+        }
+        assertEquals(before, after);
+        try (BankAccountService restarted = new BankAccountService(TransactionJournal.open(dir.resolve("j")))) {
+            assertEquals(before, total(restarted));
+        }
+    }
+
+    @Test
+    void twoPhaseTransfersBetweenServicesKeepTheTotal() throws Exception {
+        long before;
+        try (BankAccountService a = new BankAccountService(TransactionJournal.open(dir.resolve("a")));
+             BankAccountService b = new BankAccountService(TransactionJournal.open(dir.resolve("b")))) {
+            before = total(a) + total(b);
+            Random random = new Random(1);
+            OperationResult out = new OperationResult();
+            OperationResult in = new OperationResult();
+            for (int i = 0; i < 300; i++) {
+                int from = random.nextInt(ACCOUNTS.length);
+                String to = ACCOUNTS[random.nextInt(ACCOUNTS.length)];
+                long amount = random.nextInt(200_000);
+                String id = "x-" + i;
+                a.tryPrepareTransferOut(id, ACCOUNTS[from], PINS[from], to, amount, out);
+                if (!out.isSuccess()) {
+                    continue;
+                }
+                b.tryPrepareTransferIn(id, to, ACCOUNTS[from], amount, in);
+                if (i % 3 == 0) {
+                    a.abortTransfer(id);
+                    b.abortTransfer(id);
+                } else {
+                    a.commitTransfer(id);
+                    b.commitTransfer(id);
+                    // a retried decision changes nothing
+                    b.commitTransfer(id);
+                }
+            }
+            assertEquals(before, total(a) + total(b));
+            a.tryDeposit("ACC001", "1234", 500, out);
+            a.tryPrepareTransferOut("pending", "ACC001", "1234", "ACC002", 500, out);
+            b.tryPrepareTransferIn("pending", "ACC002", "ACC001", 500, in);
+            assertTrue(out.isSuccess() && in.isSuccess());
+            before += 500;
+        }
+        try (BankAccountService a = new BankAccountService(TransactionJournal.open(dir.resolve("a")));
+             BankAccountService b = new BankAccountService(TransactionJournal.open(dir.resolve("b")))) {
+            // the pending amount is held by neither side until the decision
+            assertEquals(before - 500, total(a) + total(b));
+            a.commitTransfer("pending");
+            b.commitTransfer("pending");
+            assertEquals(before, total(a) + total(b));
+        }
+    }
+
+    private static void transferRandomly(BankAccountService service, Random random) throws Exception {
+        String[] tokens = new String[ACCOUNTS.length];
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = service.openSession(ACCOUNTS[i], PINS[i]);
+        }
+        OperationResult result = new OperationResult();
+        for (int i = 0; i < TRANSFERS; i++) {
+            int from = random.nextInt(ACCOUNTS.length);
+            String to = ACCOUNTS[random.nextInt(ACCOUNTS.length)];
+            service.tryTransfer(tokens[from], to, random.nextInt(100_000), random.nextBoolean() ? null : "k" + i, result);
+        }
+    }
+
+    private static long total(BankAccountService service) throws Exception {
+        long total = 0;
+        for (int i = 0; i < ACCOUNTS.length; i++) {
+            total += service.checkBalance(ACCOUNTS[i], PINS[i]);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,142 @@
+package com.technohacks.bank.service;
+
+import com.technohacks.bank.journal.SnapshotStore;
+import com.technohacks.bank.journal.TransactionJournal;
+import com.technohacks.bank.model.BankAccount;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+/**
+ * A service restarted from a snapshot and the journal tail after it must
+ * hold exactly what one restarted from the whole journal holds, and what
+ * both held before they stopped.
+ */
+class RecoveryTest {
+    private static final String[] ACCOUNTS = {"ACC001", "ACC002", "ACC003"};
+    private static final String[] PINS = {"1234", "5678", "9012"};
+    private static final int STEPS = 1200;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void snapshotPlusTailEqualsFullReplay() throws Exception {
+        List<String> checkpointed;
+        List<String> replayedOnly;
+        try (BankAccountService service = new BankAccountService(journal("a"), new SnapshotStore(dir.resolve("s")))) {
+            String[] tokens = sessions(service);
+            run(service, tokens, 0, STEPS / 2);
+            service.checkpoint(new SnapshotStore(dir.resolve("s")));
+            run(service, tokens, STEPS / 2, STEPS);
+            checkpointed = state(service);
+        }
+        try (BankAccountService service = new BankAccountService(journal("b"))) {
+            run(service, sessions(service), 0, STEPS);
+            replayedOnly = state(service);
+        }
+        assertEquals(replayedOnly, checkpointed);
+
+        try (BankAccountService fromSnapshot = new BankAccountService(journal("a"), new SnapshotStore(dir.resolve("s")));
+             BankAccountService fromJournal = new BankAccountService(journal("b"))) {
+            assertEquals(checkpointed, state(fromSnapshot));
+            assertEquals(checkpointed, state(fromJournal));
+
+            // retried requests get the outcome they got the first time, refusals included
+            String[] a = sessions(fromSnapshot);
+            String[] b = sessions(fromJournal);
+            for (int step : new int[] {7, 601, STEPS - 5}) {
+                assertEquals(retry(fromJournal, b, step), retry(fromSnapshot, a, step));
+            }
+            assertEquals(checkpointed, state(fromSnapshot));
+
+            // transfers prepared before either stopped can still be decided
+            fromSnapshot.commitTransfer("open-" + (STEPS - 1));
+            fromJournal.commitTransfer("open-" + (STEPS - 1));
+            assertEquals(state(fromJournal), state(fromSnapshot));
+            assertNotEquals(checkpointed, state(fromSnapshot));
+        }
+    }
+
+    private TransactionJournal journal(String name) throws Exception {
+        return TransactionJournal.open(dir.resolve(name), 16 * 1024);
+    }
+
+    private static String[] sessions(BankAccountService service) throws Exception {
+        String[] tokens = new String[ACCOUNTS.length];
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = service.openSession(ACCOUNTS[i], PINS[i]);
+        }
+        return tokens;
+    }
+
+    // The same mix of operations for every step number, refusals and
+    // two-phase transfers included.
+    private static void run(BankAccountService service, String[] tokens, int from, int to) {
+        OperationResult result = new OperationResult();
+        AccrualRules rules = AccrualRules.none().withTier(0, new BigDecimal("0.05")).withDailyFee(3, 400_000);
+        for (int step = from; step < to; step++) {
+            int i = step % ACCOUNTS.length;
+            String other = ACCOUNTS[(step + 1) % ACCOUNTS.length];
+            long amount = 1 + step * 37L % 5000;
+            switch (step % 6) {
+                case 0:
+                    service.tryDeposit(tokens[i], amount, "d-" + step, result);
+                    break;
+                case 1:
+                    service.tryWithdraw(tokens[i], step % 50 == 1 ? Long.MAX_VALUE / 4 : amount, "w-" + step, result);
+                    break;
+                case 2:
+                    service.tryTransfer(tokens[i], other, amount, "t-" + step, result);
+                    break;
+                case 3:
+                    service.tryTransfer(tokens[i], other, amount, result);
+                    break;
+                case 4:
+                    service.tryPrepareTransferOut("2pc-" + step, ACCOUNTS[i], PINS[i], other, amount, result);
+                    if (step % 4 == 0) {
+                        service.commitTransfer("2pc-" + step);
+                    } else {
+                        service.abortTransfer("2pc-" + step);
+                    }
+                    break;
+                default:
+                    if (step % 100 == 5) {
+                        service.accrue(rules, LocalDate.of(2026, 1, 1).plusDays(step / 100));
+                    } else {
+                        service.tryWithdraw(tokens[i], amount, null, result);
+                    }
+                    break;
+            }
+        }
+        if (to == STEPS) {
+            service.tryPrepareTransferIn("open-" + (STEPS - 1), ACCOUNTS[0], "ELSEWHERE", 1234, result);
+        }
+    }
+
+    // the keyed withdrawal of a step with step % 6 == 1
+    private static String retry(BankAccountService service, String[] tokens, int step) {
+        OperationResult result = new OperationResult();
+        int i = step % ACCOUNTS.length;
+        long amount = 1 + step * 37L % 5000;
+        service.tryWithdraw(tokens[i], step % 50 == 1 ? Long.MAX_VALUE / 4 : amount, "w-" + step, result);
+        return result.getStatus() + " " + result.getBalance() + " " + result.getShortfall();
+    }
+
+    private static List<String> state(BankAccountService service) throws Exception {
+        List<String> state = new ArrayList<>();
+        for (int i = 0; i < ACCOUNTS.length; i++) {
+            BankAccount acc = service.getAccountDetails(ACCOUNTS[i], PINS[i]);
+            state.add(acc.getAccountNumber() + " " + acc.getBalance() + " " + acc.getLastAccrualDay());
+        }
+        return state;
+    }
+}
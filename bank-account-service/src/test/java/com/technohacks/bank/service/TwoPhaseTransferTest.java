@@ -0,0 +1,84 @@
+package com.technohacks.bank.service;
+
+import com.technohacks.bank.metrics.MetricsSnapshot;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/** The participant side of a two-phase transfer between two services. */
+class TwoPhaseTransferTest {
+    private static final List<String> BOTH = List.of("ACC001", "ACC002");
+
+    private final BankAccountService source = new BankAccountService();
+    private final BankAccountService destination = new BankAccountService();
+    private final OperationResult out = new OperationResult();
+    private final OperationResult in = new OperationResult();
+
+    @Test
+    void commitMovesTheHeldAmount() throws Exception {
+        long[] from = source.getBalances(BOTH);
+        long[] to = destination.getBalances(BOTH);
+
+        assertEquals(OperationStatus.OK, source.tryPrepareTransferOut("x", "ACC001", "1234", "ACC002", 300, out));
+        assertEquals(OperationStatus.OK, destination.tryPrepareTransferIn("x", "ACC002", "ACC001", 300, in));
+        // the source is debited at once, the destination only on commit
+        assertEquals(from[0] - 300, source.getBalances(BOTH)[0]);
+        assertArrayEquals(to, destination.getBalances(BOTH));
+
+        source.commitTransfer("x");
+        destination.commitTransfer("x");
+        destination.commitTransfer("x");
+        assertArrayEquals(new long[] {from[0] - 300, from[1]}, source.getBalances(BOTH));
+        assertArrayEquals(new long[] {to[0], to[1] + 300}, destination.getBalances(BOTH));
+    }
+
+    @Test
+    void abortRefundsTheSource() throws Exception {
+        long[] from = source.getBalances(BOTH);
+        long[] to = destination.getBalances(BOTH);
+
+        source.tryPrepareTransferOut("x", "ACC001", "1234", "ACC002", 300, out);
+        destination.tryPrepareTransferIn("x", "ACC002", "ACC001", 300, in);
+        source.abortTransfer("x");
+        destination.abortTransfer("x");
+        source.abortTransfer("x");
+        assertArrayEquals(from, source.getBalances(BOTH));
+        assertArrayEquals(to, destination.getBalances(BOTH));
+    }
+
+    @Test
+    void refusedPrepareHoldsNothing() throws Exception {
+        long[] from = source.getBalances(BOTH);
+
+        assertEquals(OperationStatus.INSUFFICIENT_BALANCE,
+            source.tryPrepareTransferOut("x", "ACC001", "1234", "ACC002", from[0] + 1, out));
+        assertEquals(OperationStatus.UNAUTHORIZED_ACCESS,
+            source.tryPrepareTransferOut("y", "ACC001", "0000", "ACC002", 1, out));
+        assertEquals(OperationStatus.ACCOUNT_NOT_FOUND,
+            destination.tryPrepareTransferIn("x", "ACC999", "ACC001", 1, in));
+        source.abortTransfer("x");
+        source.abortTransfer("y");
+        assertArrayEquals(from, source.getBalances(BOTH));
+    }
+
+    @Test
+    void destinationPreparesAreCounted() {
+        destination.tryPrepareTransferIn("x", "ACC002", "ACC001", 300, in);
+        destination.tryPrepareTransferIn("y", "ACC999", "ACC001", 300, in);
+        MetricsSnapshot.OperationStats stats = destination.getMetrics().snapshot().getOperations()
+            .get(Operation.PREPARE_TRANSFER_IN.ordinal());
+        assertEquals(1, stats.getCount(OperationStatus.OK));
+        assertEquals(1, stats.getCount(OperationStatus.ACCOUNT_NOT_FOUND));
+    }
+
+    @Test
+    void transferIdIsPreparedOnce() {
+        source.tryPrepareTransferOut("x", "ACC001", "1234", "ACC002", 1, out);
+        assertThrows(IllegalStateException.class,
+            () -> source.tryPrepareTransferOut("x", "ACC001", "1234", "ACC002", 1, out));
+    }
+}
@@ -0,0 +1,132 @@
+package com.technohacks.bank.store;
+
+import com.technohacks.bank.model.BankAccount;
+import com.technohacks.bank.security.PinHasher;
+import com.technohacks.bank.service.AccountStore;
+import com.technohacks.bank.service.BankAccountService;
+import com.technohacks.bank.service.OperationResult;
+import com.technohacks.bank.service.OperationStatus;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OffHeapAccountTableTest {
+    // one iteration keeps the PIN checks fast
+    private static final String PIN_HASH = PinHasher.hash("1234", 1);
+
+    @Test
+    void viewsReadAndWriteTheirRecord() {
+        OffHeapAccountTable table = new OffHeapAccountTable(100);
+        BankAccount acc = BankAccount.withPinHash("ACC1", "Ann Example", PIN_HASH, 500);
+        acc.setLastSequence(7);
+        acc.setVersion(3);
+        assertTrue(table.putIfAbsent(acc));
+        assertFalse(table.putIfAbsent(BankAccount.withPinHash("ACC1", "Someone Else", PIN_HASH, 1)));
+
+        BankAccount view = table.get("ACC1");
+        assertEquals("ACC1", view.getAccountNumber());
+        assertEquals("Ann Example", view.getAccountHolder());
+        assertEquals(PIN_HASH, view.getPinHash());
+        assertEquals(500, view.getBalance());
+        assertEquals(7, view.getLastSequence());
+        assertEquals(3, view.getVersion());
+        assertEquals(Long.MIN_VALUE, view.getLastAccrualDay());
+        assertTrue(view.matchesPin("1234"));
+        assertFalse(view.matchesPin("1235"));
+        assertFalse(view.matchesPin(null));
+
+        view.setBalance(650);
+        view.setLastAccrualDay(20_000);
+        BankAccount again = table.get("ACC1");
+        assertEquals(view, again);
+        assertEquals(650, again.getBalance());
+        assertEquals(20_000, again.getLastAccrualDay());
+
+        assertNull(table.get("ACC2"));
+        assertNull(table.get("acc1"));
+        assertNull(table.get("ACC-1"));
+    }
+
+    @Test
+    void putReplacesAnExistingAccount() {
+        OffHeapAccountTable table = new OffHeapAccountTable(16);
+        table.insert("A1", "Ann", PIN_HASH, 100);
+        String other = PinHasher.hash("9999", 1);
+        table.put(BankAccount.withPinHash("A1", "Ann Renamed", other, 40));
+
+        assertEquals(1, table.size());
+        BankAccount view = table.get("A1");
+        assertEquals("Ann Renamed", view.getAccountHolder());
+        assertEquals(40, view.getBalance());
+        assertTrue(view.matchesPin("9999"));
+        assertFalse(view.matchesPin("1234"));
+    }
+
+    @Test
+    void spliteratorVisitsEveryAccountOnce() {
+        OffHeapAccountTable table = new OffHeapAccountTable(5000);
+        for (int i = 0; i < 5000; i++) {
+            assertTrue(table.insert("N" + i, "Holder " + i, PIN_HASH, i));
+        }
+        Set<String> seen = StreamSupport.stream(table.spliterator(), true)
+            .map(BankAccount::getAccountNumber)
+            .collect(Collectors.toSet());
+        assertEquals(5000, seen.size());
+        long total = StreamSupport.stream(table.spliterator(), true).mapToLong(BankAccount::getBalance).sum();
+        assertEquals(4999L * 5000 / 2, total);
+    }
+
+    @Test
+    void serviceRunsOnTheTable() throws Exception {
+        AccountStore store = new AccountStore(new OffHeapAccountTable(1000), 64);
+        for (int i = 0; i < 20; i++) {
+            store.put(BankAccount.withPinHash("ACC" + i, "Holder " + i, PIN_HASH, 10_000));
+        }
+        try (BankAccountService service = new BankAccountService(store, null)) {
+            String self = service.openSession("ACC0", "1234");
+            OperationResult result = new OperationResult();
+            assertEquals(OperationStatus.OK, service.tryTransfer(self, "ACC0", 2_500, result));
+            assertEquals(10_000, service.checkBalance(self));
+
+            ExecutorService pool = Executors.newFixedThreadPool(4);
+            try {
+                List<Future<?>> done = new ArrayList<>();
+                for (int t = 0; t < 4; t++) {
+                    int seed = t;
+                    done.add(pool.submit(() -> {
+                        OperationResult r = new OperationResult();
+                        for (int i = 0; i < 2_000; i++) {
+                            int from = (seed * 7 + i) % 20;
+                            int to = (seed + i * 3) % 20;
+                            service.tryTransfer("ACC" + from, "1234", "ACC" + to, 1 + i % 300, r);
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> f : done) {
+                    f.get(60, TimeUnit.SECONDS);
+                }
+            } finally {
+                pool.shutdown();
+            }
+        }
+        long total = 0;
+        for (int i = 0; i < 20; i++) {
+            total += store.get("ACC" + i).getBalance();
+        }
+        assertEquals(20 * 10_000L, total);
+    }
+}